@@ -0,0 +1,108 @@
+package com.roylowrance.thesis;
+
+import com.roylowrance.util.Tensor;
+
+// common access to the rows of the xs for the NearestNeighborIndex implementations
+// reads the Tensor storage directly, avoiding the bounds checks in Tensor.get
+public abstract class AbstractNearestNeighborIndex implements NearestNeighborIndex {
+    protected final Tensor xs;
+    protected final double[] storage;
+    protected final int offset;
+    protected final int rowStride;
+    protected final int columnStride;
+    protected final int numberRows;
+    protected final int dimensions;
+
+    protected AbstractNearestNeighborIndex(Tensor xs) {
+        IAE.is2D(xs, "xs");
+        this.xs = xs;
+        this.storage = xs.getStorage();
+        this.offset = xs.getOffset();
+        this.rowStride = xs.getStride(0);
+        this.columnStride = xs.getStride(1);
+        this.numberRows = xs.getSize(0);
+        this.dimensions = xs.getSize(1);
+    }
+
+    // return the xs that were indexed
+    public Tensor getXs() {
+        return xs;
+    }
+
+    // return xs[row, column]
+    protected final double x(int row, int column) {
+        return storage[offset + row * rowStride + column * columnStride];
+    }
+
+    // return Euclidean distance from xs[row,:] to the query
+    // computed in the same order as DistanceEuclidean, so the values are identical
+    protected final double distance(int row, double[] query) {
+        int index = offset + row * rowStride;
+        double sumSquaredDifferences = 0;
+        for (int d = 0; d < dimensions; d++) {
+            final double difference = storage[index] - query[d];
+            sumSquaredDifferences += difference * difference;
+            index += columnStride;
+        }
+        return Math.sqrt(sumSquaredDifferences);
+    }
+
+    // return the query as an array, checking its size
+    protected final double[] toArray(Tensor query) {
+        IAE.is1D(query, "query");
+        IAE.equals(query.getSize(0), dimensions, "length of query = size of xs row", "query", "number columns in xs");
+        double[] result = new double[dimensions];
+        for (int d = 0; d < dimensions; d++)
+            result[d] = query.get(d);
+        return result;
+    }
+
+    // return true iff a region no closer than lowerBound can be skipped
+    // ties are not skipped, as a tied row with a lower index would displace the worst candidate
+    // the bound is relaxed slightly, as it is computed in a different order than the row distances
+    protected static boolean canSkip(double lowerBound, NearestCandidates candidates) {
+        final double relativeSlack = 1e-9;
+        return candidates.isFull() && lowerBound * (1 - relativeSlack) > candidates.worstDistance();
+    }
+
+    // partially order order[from, to) on the parallel keys[from, to) so that position k holds
+    // the element that would be there if fully sorted, smaller keys before it and larger after it
+    protected static void select(int[] order, double[] keys, int from, int to, int k) {
+        int left = from;
+        int right = to - 1;
+        while (right > left) {
+            // median of three pivot
+            final int middle = (left + right) >>> 1;
+            if (keys[middle] < keys[left]) swap(order, keys, middle, left);
+            if (keys[right] < keys[left]) swap(order, keys, right, left);
+            if (keys[right] < keys[middle]) swap(order, keys, right, middle);
+            final double pivot = keys[middle];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    swap(order, keys, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j)
+                right = j;
+            else if (k >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    private static void swap(int[] order, double[] keys, int i, int j) {
+        final int o = order[i];
+        order[i] = order[j];
+        order[j] = o;
+        final double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+    }
+}
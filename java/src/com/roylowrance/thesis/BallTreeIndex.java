@@ -0,0 +1,183 @@
+package com.roylowrance.thesis;
+
+import com.roylowrance.util.Log;
+import com.roylowrance.util.Tensor;
+
+// exact nearest neighbors using a ball tree over the rows of xs
+//
+// Each node holds the centroid of its rows and the radius of the ball around the centroid
+// that contains them. An interior node splits its rows at the median of their projections
+// onto the line through two far-apart rows. The search visits the child whose centroid is
+// closer first and skips a ball if the distance from the query to the ball could not beat
+// the worst candidate.
+//
+// Ball bounds do not degrade with the number of dimensions the way KD-tree cells do, so this
+// index is the fallback for the wider feature sets.
+public class BallTreeIndex extends AbstractNearestNeighborIndex {
+    private final static int LEAF_SIZE = 32;
+    private final static int LEAF = -1;
+
+    private int[] order;        // row indices, permuted so that each node covers order[start, end)
+    private int[] nodeStart;
+    private int[] nodeEnd;
+    private int[] nodeLeft;     // LEAF for a leaf node
+    private int[] nodeRight;
+    private double[] centers;   // node i's centroid is centers[i * dimensions, (i + 1) * dimensions)
+    private double[] radii;
+    private int numberNodes;
+
+    // build the tree; takes O(n d log n) time
+    public BallTreeIndex(Tensor xs) {
+        super(xs);
+        Log log = new Log("BallTreeIndex", false);
+        final long startTime = System.nanoTime();
+
+        order = new int[numberRows];
+        for (int i = 0; i < numberRows; i++)
+            order[i] = i;
+
+        final int maxNodes = 2 * (numberRows / (LEAF_SIZE / 2)) + 1; // leaves hold at least LEAF_SIZE / 2 rows
+        nodeStart = new int[maxNodes];
+        nodeEnd = new int[maxNodes];
+        nodeLeft = new int[maxNodes];
+        nodeRight = new int[maxNodes];
+        centers = new double[maxNodes * dimensions];
+        radii = new double[maxNodes];
+        numberNodes = 0;
+
+        double[] keys = new double[numberRows];
+        build(0, numberRows, keys);
+        log.format("built %d nodes in %f seconds%n", numberNodes, (System.nanoTime() - startTime) / 1e9);
+    }
+
+    // return number of nodes in the tree
+    public int getNumberNodes() {
+        return numberNodes;
+    }
+
+    @Override
+    public void nearest(Tensor query, int xsRowIndexToOmit, NearestCandidates candidates) {
+        IAE.notNull(candidates, "candidates");
+        final double[] q = toArray(query);
+        search(0, distanceToCenter(0, q), q, xsRowIndexToOmit, candidates);
+    }
+
+    ////////////////////// private
+
+    // build node covering order[start, end); return its node number
+    private int build(int start, int end, double[] keys) {
+        final int node = numberNodes++;
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeLeft[node] = LEAF;
+        nodeRight[node] = LEAF;
+
+        // centroid and radius
+        final int base = node * dimensions;
+        for (int position = start; position < end; position++) {
+            final int row = order[position];
+            for (int d = 0; d < dimensions; d++)
+                centers[base + d] += x(row, d);
+        }
+        for (int d = 0; d < dimensions; d++)
+            centers[base + d] /= (end - start);
+        int farthestFromCenter = order[start];
+        double radius = 0;
+        for (int position = start; position < end; position++) {
+            final int row = order[position];
+            final double distance = rowToCenter(row, node);
+            if (distance > radius) {
+                radius = distance;
+                farthestFromCenter = row;
+            }
+        }
+        radii[node] = radius;
+
+        if (end - start <= LEAF_SIZE || radius == 0)
+            return node;
+
+        // project onto the line from a (far from the center) to b (far from a)
+        final int a = farthestFromCenter;
+        int b = a;
+        double farthest = 0;
+        for (int position = start; position < end; position++) {
+            final int row = order[position];
+            final double distance = rowToRow(row, a);
+            if (distance > farthest) {
+                farthest = distance;
+                b = row;
+            }
+        }
+        for (int position = start; position < end; position++) {
+            final int row = order[position];
+            double projection = 0;
+            for (int d = 0; d < dimensions; d++)
+                projection += (x(row, d) - x(a, d)) * (x(b, d) - x(a, d));
+            keys[position] = projection;
+        }
+        final int middle = (start + end) >>> 1;
+        select(order, keys, start, end, middle);
+
+        nodeLeft[node] = build(start, middle, keys);
+        nodeRight[node] = build(middle, end, keys);
+        return node;
+    }
+
+    // distanceToNode is the distance from the query to the node's centroid
+    private void search(int node, double distanceToNode, double[] q, int omit, NearestCandidates candidates) {
+        if (canSkip(distanceToNode - radii[node], candidates))
+            return;
+
+        if (nodeLeft[node] == LEAF) {
+            for (int position = nodeStart[node]; position < nodeEnd[node]; position++) {
+                final int row = order[position];
+                if (row == omit)
+                    continue;
+                candidates.offer(distance(row, q), row);
+            }
+            return;
+        }
+
+        final int left = nodeLeft[node];
+        final int right = nodeRight[node];
+        final double distanceToLeft = distanceToCenter(left, q);
+        final double distanceToRight = distanceToCenter(right, q);
+        if (distanceToLeft <= distanceToRight) {
+            search(left, distanceToLeft, q, omit, candidates);
+            search(right, distanceToRight, q, omit, candidates);
+        }
+        else {
+            search(right, distanceToRight, q, omit, candidates);
+            search(left, distanceToLeft, q, omit, candidates);
+        }
+    }
+
+    private double distanceToCenter(int node, double[] q) {
+        final int base = node * dimensions;
+        double sumSquaredDifferences = 0;
+        for (int d = 0; d < dimensions; d++) {
+            final double difference = centers[base + d] - q[d];
+            sumSquaredDifferences += difference * difference;
+        }
+        return Math.sqrt(sumSquaredDifferences);
+    }
+
+    private double rowToCenter(int row, int node) {
+        final int base = node * dimensions;
+        double sumSquaredDifferences = 0;
+        for (int d = 0; d < dimensions; d++) {
+            final double difference = x(row, d) - centers[base + d];
+            sumSquaredDifferences += difference * difference;
+        }
+        return Math.sqrt(sumSquaredDifferences);
+    }
+
+    private double rowToRow(int row1, int row2) {
+        double sumSquaredDifferences = 0;
+        for (int d = 0; d < dimensions; d++) {
+            final double difference = x(row1, d) - x(row2, d);
+            sumSquaredDifferences += difference * difference;
+        }
+        return Math.sqrt(sumSquaredDifferences);
+    }
+}
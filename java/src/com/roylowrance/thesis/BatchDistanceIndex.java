@@ -0,0 +1,267 @@
+package com.roylowrance.thesis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.roylowrance.util.Tensor;
+
+// exact nearest neighbors for many queries at once
+//
+// synopsis:
+// BatchDistanceIndex batch = new BatchDistanceIndex(xs, numberThreads);
+// NearestCandidates[] nearest = batch.nearest(queries, xsRowIndicesToOmit, k); // one sorted result per row of queries
+// batch.shutdown();                                                            // stop the threads
+//
+// The squared distance from query q to row x is computed as |q|^2 + |x|^2 - 2 q.x, where the
+// row norms are computed once, here, and the dot products for a block of queries against each
+// row form a matrix multiply. Each row of xs is read from memory once per block of QUERY_BLOCK
+// queries and its dot products with 4 queries are accumulated together. Blocks of queries are
+// processed on separate threads.
+//
+// The decomposition rounds differently than summing the squared differences, so it is used only
+// to discard rows. A row is kept if its decomposed value is within twice the rounding error bound
+// of the kth smallest decomposed value; the Euclidean distances of the kept rows are then computed
+// as DistanceEuclidean does. Hence the results are identical to BruteForceIndex.
+public class BatchDistanceIndex extends AbstractNearestNeighborIndex {
+    private final static int QUERY_BLOCK = 16; // queries sharing each pass over the xs
+
+    private final double[] rows;        // the xs, packed row major starting at rowsOffset
+    private final int rowsOffset;
+    private final double[] squaredNorms;
+    private final double maxSquaredNorm;
+    private final int numberThreads;
+    private ExecutorService executor;   // null if single threaded
+
+    // construct, computing the squared row norms
+    public BatchDistanceIndex(Tensor xs, int numberThreads) {
+        super(xs);
+        IAE.positive(numberThreads, "numberThreads");
+        this.numberThreads = numberThreads;
+
+        if (columnStride == 1 && rowStride == dimensions) {
+            rows = storage;
+            rowsOffset = offset;
+        }
+        else {
+            rows = new double[numberRows * dimensions];
+            rowsOffset = 0;
+            for (int i = 0; i < numberRows; i++)
+                for (int d = 0; d < dimensions; d++)
+                    rows[i * dimensions + d] = x(i, d);
+        }
+
+        squaredNorms = new double[numberRows];
+        double max = 0;
+        for (int i = 0; i < numberRows; i++) {
+            squaredNorms[i] = squaredNorm(rows, rowsOffset + i * dimensions);
+            max = Math.max(max, squaredNorms[i]);
+        }
+        maxSquaredNorm = max;
+
+        executor = (numberThreads == 1) ? null : Executors.newFixedThreadPool(numberThreads);
+    }
+
+    // stop the threads; the index cannot be used afterwards
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdown();
+        executor = null;
+    }
+
+    // return number of threads used by nearest(Tensor, int[], int)
+    public int getNumberThreads() {
+        return numberThreads;
+    }
+
+    @Override
+    public void nearest(Tensor query, int xsRowIndexToOmit, NearestCandidates candidates) {
+        IAE.notNull(candidates, "candidates");
+        final double[] q = toArray(query);
+        final int[] omit = {xsRowIndexToOmit};
+        NearestCandidates[] results = new NearestCandidates[1];
+        searchBlock(q, new double[] {squaredNorm(q, 0)}, omit, 0, 1, candidates.getCapacity(), results);
+        for (int i = 0; i < results[0].size(); i++)
+            candidates.offer(results[0].getDistance(i), results[0].getIndex(i));
+    }
+
+    // return the k nearest rows of xs to each row of queries, omitting row xsRowIndicesToOmit[i] for query i
+    // each result is sorted
+    public NearestCandidates[] nearest(Tensor queries, int[] xsRowIndicesToOmit, int k) {
+        IAE.is2D(queries, "queries");
+        IAE.equals(queries.getSize(1), dimensions, "number of columns in queries = in xs", "queries", "xs");
+        IAE.notNull(xsRowIndicesToOmit, "xsRowIndicesToOmit");
+        IAE.equals(xsRowIndicesToOmit.length, queries.getSize(0), "one omitted row per query", "xsRowIndicesToOmit", "queries");
+        IAE.positive(k, "k");
+
+        final int numberQueries = queries.getSize(0);
+        final double[] q = new double[numberQueries * dimensions];
+        final double[] qSquaredNorms = new double[numberQueries];
+        for (int i = 0; i < numberQueries; i++) {
+            for (int d = 0; d < dimensions; d++)
+                q[i * dimensions + d] = queries.get(i, d);
+            qSquaredNorms[i] = squaredNorm(q, i * dimensions);
+        }
+
+        final NearestCandidates[] results = new NearestCandidates[numberQueries];
+        final int[] omit = xsRowIndicesToOmit;
+        final int kk = k;
+        if (executor == null) {
+            for (int from = 0; from < numberQueries; from += QUERY_BLOCK)
+                searchBlock(q, qSquaredNorms, omit, from, Math.min(from + QUERY_BLOCK, numberQueries), k, results);
+            return results;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int from = 0; from < numberQueries; from += QUERY_BLOCK) {
+            final int blockFrom = from;
+            final int blockTo = Math.min(from + QUERY_BLOCK, numberQueries);
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    searchBlock(q, qSquaredNorms, omit, blockFrom, blockTo, kk, results);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Object> future : executor.invokeAll(tasks))
+                future.get();
+        }
+        catch (InterruptedException e) {throw new RuntimeException(e);}
+        catch (ExecutionException e) {throw new RuntimeException(e.getCause());}
+        return results;
+    }
+
+    // return |q - x|^2 - rounded as the decomposition is - for queries[queryIndex,:] and each of the rows
+    // in [rowFrom, rowTo); result[queryIndex * (rowTo - rowFrom) + (row - rowFrom)]
+    public double[] squaredDistances(Tensor queries, int rowFrom, int rowTo) {
+        IAE.is2D(queries, "queries");
+        IAE.equals(queries.getSize(1), dimensions, "number of columns in queries = in xs", "queries", "xs");
+        IAE.nonNegative(rowFrom, "rowFrom");
+        IAE.lessEqual(rowFrom, rowTo, "rowFrom", "rowTo");
+        IAE.lessEqual(rowTo, numberRows, "rowTo", "number of rows in xs");
+
+        final int numberQueries = queries.getSize(0);
+        final int numberColumns = rowTo - rowFrom;
+        double[] q = new double[numberQueries * dimensions];
+        for (int i = 0; i < numberQueries; i++)
+            for (int d = 0; d < dimensions; d++)
+                q[i * dimensions + d] = queries.get(i, d);
+        double[] dots = new double[numberQueries];
+        double[] result = new double[numberQueries * numberColumns];
+        for (int row = rowFrom; row < rowTo; row++) {
+            dotProducts(q, 0, numberQueries, rowsOffset + row * dimensions, dots);
+            for (int i = 0; i < numberQueries; i++)
+                result[i * numberColumns + row - rowFrom] = squaredNorm(q, i * dimensions) + squaredNorms[row] - 2 * dots[i];
+        }
+        return result;
+    }
+
+    ////////////////////// private
+
+    // rows not discarded for one query
+    private static class Kept {
+        public double[] values = new double[1024]; // decomposed squared distances
+        public int[] rows = new int[1024];
+        public int size;
+
+        public void add(double value, int row) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+                rows = Arrays.copyOf(rows, 2 * size);
+            }
+            values[size] = value;
+            rows[size] = row;
+            size++;
+        }
+    }
+
+    // determine results[from, to) for queries [from, to) in one pass over the xs
+    private void searchBlock(double[] q, double[] qSquaredNorms, int[] omit, int from, int to, int k, NearestCandidates[] results) {
+        final int numberQueries = to - from;
+        NearestCandidates[] decomposed = new NearestCandidates[numberQueries];
+        Kept[] kept = new Kept[numberQueries];
+        double[] slack = new double[numberQueries];
+        final double unitRoundoff = Math.ulp(1.0) / 2;
+        for (int i = 0; i < numberQueries; i++) {
+            decomposed[i] = new NearestCandidates(k);
+            kept[i] = new Kept();
+            // twice a bound on the difference between |q|^2 + |x|^2 - 2 q.x and the sum of squared
+            // differences, each as rounded
+            slack[i] = 2 * 8 * (dimensions + 3) * unitRoundoff * (qSquaredNorms[from + i] + maxSquaredNorm);
+        }
+
+        double[] dots = new double[numberQueries];
+        for (int row = 0; row < numberRows; row++) {
+            dotProducts(q, from, numberQueries, rowsOffset + row * dimensions, dots);
+            final double rowSquaredNorm = squaredNorms[row];
+            for (int i = 0; i < numberQueries; i++) {
+                if (row == omit[from + i])
+                    continue;
+                final double value = qSquaredNorms[from + i] + rowSquaredNorm - 2 * dots[i];
+                NearestCandidates candidates = decomposed[i];
+                if (!candidates.isFull() || value <= candidates.worstDistance() + slack[i]) {
+                    kept[i].add(value, row);
+                    candidates.offer(value, row);
+                }
+            }
+        }
+
+        // compute the exact distances for the rows that could be among the k nearest
+        for (int i = 0; i < numberQueries; i++) {
+            final double[] query = Arrays.copyOfRange(q, (from + i) * dimensions, (from + i + 1) * dimensions);
+            final double threshold = decomposed[i].isFull() ? decomposed[i].worstDistance() + slack[i] : Double.POSITIVE_INFINITY;
+            NearestCandidates result = new NearestCandidates(k);
+            for (int j = 0; j < kept[i].size; j++) {
+                if (kept[i].values[j] <= threshold)
+                    result.offer(distance(kept[i].rows[j], query), kept[i].rows[j]);
+            }
+            result.sort();
+            results[from + i] = result;
+        }
+    }
+
+    // dots[i] = q[from + i,:] . rows[rowBase, rowBase + dimensions) for i in [0, numberQueries)
+    // 4 queries at a time, so that each element of the row is loaded once for 4 products
+    private void dotProducts(double[] q, int from, int numberQueries, int rowBase, double[] dots) {
+        int i = 0;
+        for (; i + 4 <= numberQueries; i += 4) {
+            final int base0 = (from + i) * dimensions;
+            final int base1 = base0 + dimensions;
+            final int base2 = base1 + dimensions;
+            final int base3 = base2 + dimensions;
+            double dot0 = 0, dot1 = 0, dot2 = 0, dot3 = 0;
+            for (int d = 0; d < dimensions; d++) {
+                final double x = rows[rowBase + d];
+                dot0 += q[base0 + d] * x;
+                dot1 += q[base1 + d] * x;
+                dot2 += q[base2 + d] * x;
+                dot3 += q[base3 + d] * x;
+            }
+            dots[i] = dot0;
+            dots[i + 1] = dot1;
+            dots[i + 2] = dot2;
+            dots[i + 3] = dot3;
+        }
+        for (; i < numberQueries; i++) {
+            final int base = (from + i) * dimensions;
+            double dot = 0;
+            for (int d = 0; d < dimensions; d++)
+                dot += q[base + d] * rows[rowBase + d];
+            dots[i] = dot;
+        }
+    }
+
+    private double squaredNorm(double[] values, int base) {
+        double sum = 0;
+        for (int d = 0; d < dimensions; d++)
+            sum += values[base + d] * values[base + d];
+        return sum;
+    }
+}
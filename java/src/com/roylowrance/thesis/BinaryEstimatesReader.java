@@ -0,0 +1,130 @@
+package com.roylowrance.thesis;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// read the estimates in a file written by BinaryEstimatesWriter, in order
+//
+// synopsis:
+// BinaryEstimatesReader reader = new BinaryEstimatesReader(path);
+// while (reader.next())
+//     use(reader.getApn(), reader.getDate(), reader.getK(), reader.getValue());
+// reader.close();
+// BinaryEstimatesReader.exportText(path, textPath);  // apn,date,k,value lines, as CreateEstimates writes
+//
+// Only whole records are read, so a file being written may be read up to its last whole record.
+public class BinaryEstimatesReader {
+    private final static int BUFFER_RECORDS = 1 << 16;
+
+    private final String filePath;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final long numberRecords;
+    private long numberRead;
+
+    private long apn;
+    private int date;
+    private int k;
+    private float value;
+
+    // open the file and check its header
+    public BinaryEstimatesReader(String filePath) {
+        IAE.notNull(filePath, "filePath");
+        this.filePath = filePath;
+        try {
+            this.file = new RandomAccessFile(filePath, "r");
+            this.channel = file.getChannel();
+            if (file.length() < BinaryEstimatesWriter.HEADER_BYTES || file.readInt() != BinaryEstimatesWriter.MAGIC) {
+                file.close();
+                throw new IllegalArgumentException("not a binary estimates file; filePath=" + filePath);
+            }
+            final int version = file.readInt();
+            if (version != BinaryEstimatesWriter.VERSION) {
+                file.close();
+                throw new IllegalArgumentException("unsupported binary estimates file version; version=" + version);
+            }
+            this.numberRecords = (file.length() - BinaryEstimatesWriter.HEADER_BYTES) / BinaryEstimatesWriter.RECORD_BYTES;
+            channel.position(BinaryEstimatesWriter.HEADER_BYTES);
+        }
+        catch (IOException e) {throw new RuntimeException("IOException opening " + filePath + "; e=" + e);}
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * BinaryEstimatesWriter.RECORD_BYTES);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.limit(0);
+    }
+
+    // return number of whole records in the file when opened
+    public long size() {
+        return numberRecords;
+    }
+
+    // advance to the next record; return false if there are no more
+    public boolean next() {
+        if (numberRead == numberRecords)
+            return false;
+        if (buffer.remaining() < BinaryEstimatesWriter.RECORD_BYTES)
+            fill();
+        apn = buffer.getLong();
+        date = buffer.getInt();
+        k = buffer.getShort();
+        value = buffer.getFloat();
+        numberRead++;
+        return true;
+    }
+
+    // fields of the current record
+    public long getApn() {return apn;}
+    public int getDate() {return date;}
+    public int getK() {return k;}
+    public float getValue() {return value;}
+
+    // return the date of the current record as "YYYYMMDD"
+    public String getDateString() {
+        return String.format("%08d", date);
+    }
+
+    public void close() {
+        try {file.close();}
+        catch (IOException e) {throw new RuntimeException("IOException closing " + filePath + "; e=" + e);}
+    }
+
+    // write the estimates in the binary file as the text lines apn,date,k,value that CreateEstimates writes
+    // return number of estimates written
+    public static long exportText(String binaryFilePath, String textFilePath) {
+        IAE.notNull(textFilePath, "textFilePath");
+        BinaryEstimatesReader reader = new BinaryEstimatesReader(binaryFilePath);
+        try {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(textFilePath));
+            while (reader.next()) {
+                writer.write(String.format("%d,%s,%d,%.2f", reader.getApn(), reader.getDateString(), reader.getK(), reader.getValue()));
+                writer.newLine();
+            }
+            writer.close();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException writing " + textFilePath + "; e=" + e);}
+        finally {reader.close();}
+        return reader.size();
+    }
+
+    ////////////////////// private
+
+    // read whole records into the buffer
+    private void fill() {
+        buffer.compact();
+        final long remainingBytes = (numberRecords - numberRead) * BinaryEstimatesWriter.RECORD_BYTES;
+        if (remainingBytes < buffer.remaining())
+            buffer.limit(buffer.position() + (int) remainingBytes);
+        try {
+            while (buffer.hasRemaining())
+                if (channel.read(buffer) < 0)
+                    throw new RuntimeException("binary estimates file truncated while reading; filePath=" + filePath);
+        }
+        catch (IOException e) {throw new RuntimeException("IOException reading " + filePath + "; e=" + e);}
+        buffer.flip();
+    }
+}
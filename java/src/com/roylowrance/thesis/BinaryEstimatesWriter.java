@@ -0,0 +1,132 @@
+package com.roylowrance.thesis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// binary file of estimates written by a long computation that can be stopped and resumed
+// the binary counterpart of the text records apn,date,k,value written by CreateEstimates
+//
+// synopsis:
+// BinaryEstimatesWriter writer = new BinaryEstimatesWriter(path, inputs);  // resumes if path.checkpoint matches the inputs
+// for (int index = writer.getNextIndex(); index < n; index++) {
+//     writer.write(apn, date, k, value);   // for each estimate from item index; date is YYYYMMDD as an int
+//     writer.checkpoint(index + 1);        // perhaps only every so often
+// }
+// writer.checkpoint(n);
+// writer.close();                          // records written after the last checkpoint will be dropped on resume
+// BinaryEstimatesReader reader = new BinaryEstimatesReader(path);  // to read them back or export them as text
+//
+// layout (big endian):
+//   header, HEADER_BYTES long: int magic, int version
+//   then RECORD_BYTES long records: long apn, int date YYYYMMDD, short k, float value
+// The value is a float, so it holds about 7 significant digits: a price of $1,000,000 to within about $0.06.
+//
+// The records are packed into a direct buffer and written to the file channel when the buffer fills, so
+// that no text is formatted while estimating. Checkpoints are as for CheckpointedTextFile; see Checkpoint.
+public class BinaryEstimatesWriter {
+    public final static int MAGIC = 0x45535449; // "ESTI"
+    public final static int VERSION = 1;
+    public final static int HEADER_BYTES = 8;
+    public final static int RECORD_BYTES = 8 + 4 + 2 + 4;
+    private final static int BUFFER_RECORDS = 1 << 16;
+
+    private final String filePath;
+    private final String checkpointPath;
+    private final String inputs;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int resumedIndex;
+
+    // open the file, resuming from its checkpoint if that was written for the same inputs
+    public BinaryEstimatesWriter(String filePath, String inputs) {
+        IAE.notNull(filePath, "filePath");
+        this.filePath = filePath;
+        this.checkpointPath = filePath + ".checkpoint";
+        this.inputs = inputs;
+
+        long length = 0;
+        int index = 0;
+        Checkpoint checkpoint = Checkpoint.read(checkpointPath, inputs);
+        if (checkpoint != null && new File(filePath).length() >= checkpoint.getLength() && checkpoint.getLength() >= HEADER_BYTES) {
+            index = checkpoint.getNextIndex();
+            length = checkpoint.getLength();
+        }
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            this.file = new RandomAccessFile(filePath, "rw");
+            this.channel = file.getChannel();
+            channel.truncate(length);
+            channel.position(length);
+            if (length == 0) {
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                writeBuffer();
+            }
+        }
+        catch (IOException e) {throw new RuntimeException("IOException opening " + filePath + "; e=" + e);}
+        this.resumedIndex = index;
+    }
+
+    // return index of the first item not completely written when the file was opened; 0 if started over
+    public int getNextIndex() {
+        return resumedIndex;
+    }
+
+    // return path to the file
+    public String getFilePath() {
+        return filePath;
+    }
+
+    // append an estimate
+    // date is YYYYMMDD, for example 20050215; k must fit in a short
+    public void write(long apn, int date, int k, float value) {
+        if (k < 0 || k > Short.MAX_VALUE)
+            throw new IllegalArgumentException("k does not fit in a short; k=" + k);
+        if (buffer.remaining() < RECORD_BYTES) {
+            try {writeBuffer();}
+            catch (IOException e) {throw new RuntimeException("IOException writing " + filePath + "; e=" + e);}
+        }
+        buffer.putLong(apn);
+        buffer.putInt(date);
+        buffer.putShort((short) k);
+        buffer.putFloat(value);
+    }
+
+    // record that the estimates for every item before nextIndex have been written
+    // the estimates are forced to disk before the checkpoint is written
+    public void checkpoint(int nextIndex) {
+        IAE.nonNegative(nextIndex, "nextIndex");
+        long length;
+        try {
+            writeBuffer();
+            channel.force(false);
+            length = channel.position();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException forcing " + filePath + "; e=" + e);}
+        Checkpoint.write(checkpointPath, inputs, nextIndex, length);
+    }
+
+    // write the estimates not yet written and close the file without checkpointing it
+    public void close() {
+        try {
+            writeBuffer();
+            file.close();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException closing " + filePath + "; e=" + e);}
+    }
+
+    ////////////////////// private
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,113 @@
+package com.roylowrance.thesis;
+
+import com.roylowrance.util.Tensor;
+
+// exact nearest neighbors by examining every row of xs
+// no build cost beyond one pass to find the column variances; each query costs O(n d)
+//
+// With early abandon (the default), once the candidates are full a row's squared distance is
+// accumulated over the dimensions in decreasing order of variance, so that the partial sum grows
+// quickly, and the row is rejected as soon as the partial sum exceeds the square of the worst
+// candidate's distance. Only the rows not rejected have their distances computed, in the usual
+// order, so the candidates are the same as without early abandon.
+public class BruteForceIndex extends AbstractNearestNeighborIndex {
+    private final static int CHECK_EVERY = 4; // dimensions accumulated between tests of the bound
+
+    private final boolean earlyAbandon;
+    private final int[] columnOrder;   // columns in decreasing order of variance
+    private final int[] columnOffsets; // offset in storage of each column in columnOrder
+
+    // construct with early abandon
+    public BruteForceIndex(Tensor xs) {
+        this(xs, true);
+    }
+
+    // construct, with or without early abandon
+    public BruteForceIndex(Tensor xs, boolean earlyAbandon) {
+        super(xs);
+        this.earlyAbandon = earlyAbandon;
+        this.columnOrder = new int[dimensions];
+        this.columnOffsets = new int[dimensions];
+        if (!earlyAbandon)
+            return;
+
+        // order the columns on decreasing variance
+        double[] variances = new double[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            double sum = 0;
+            double sumSquares = 0;
+            for (int row = 0; row < numberRows; row++) {
+                final double value = x(row, d);
+                sum += value;
+                sumSquares += value * value;
+            }
+            final double mean = (numberRows == 0) ? 0 : sum / numberRows;
+            variances[d] = (numberRows == 0) ? 0 : sumSquares / numberRows - mean * mean;
+        }
+        for (int d = 0; d < dimensions; d++) {
+            // insertion sort
+            int position = d;
+            while (position > 0 && variances[columnOrder[position - 1]] < variances[d]) {
+                columnOrder[position] = columnOrder[position - 1];
+                position--;
+            }
+            columnOrder[position] = d;
+        }
+        for (int d = 0; d < dimensions; d++)
+            columnOffsets[d] = columnOrder[d] * columnStride;
+    }
+
+    @Override
+    public void nearest(Tensor query, int xsRowIndexToOmit, NearestCandidates candidates) {
+        IAE.notNull(candidates, "candidates");
+        final double[] q = toArray(query);
+        if (!earlyAbandon) {
+            for (int i = 0; i < numberRows; i++) {
+                if (i == xsRowIndexToOmit)
+                    continue;
+                candidates.offer(distance(i, q), i);
+            }
+            return;
+        }
+
+        // the query, in the order of the columns
+        double[] orderedQuery = new double[dimensions];
+        for (int d = 0; d < dimensions; d++)
+            orderedQuery[d] = q[columnOrder[d]];
+
+        // the bound is relaxed slightly, as the partial sums are computed in a different order than the distances
+        final double relativeSlack = 1e-9;
+        double bound = candidates.isFull() ? square(candidates.worstDistance()) * (1 + relativeSlack) : Double.POSITIVE_INFINITY;
+        for (int i = 0; i < numberRows; i++) {
+            if (i == xsRowIndexToOmit)
+                continue;
+            if (bound != Double.POSITIVE_INFINITY && exceeds(i, orderedQuery, bound))
+                continue;
+            if (candidates.offer(distance(i, q), i) && candidates.isFull())
+                bound = square(candidates.worstDistance()) * (1 + relativeSlack);
+        }
+    }
+
+    ////////////////////// private
+
+    // return true iff the squared distance from xs[row,:] to the query is certainly greater than bound
+    private boolean exceeds(int row, double[] orderedQuery, double bound) {
+        final int base = offset + row * rowStride;
+        double partialSum = 0;
+        int d = 0;
+        while (d < dimensions) {
+            final int end = Math.min(d + CHECK_EVERY, dimensions);
+            for (; d < end; d++) {
+                final double difference = storage[base + columnOffsets[d]] - orderedQuery[d];
+                partialSum += difference * difference;
+            }
+            if (partialSum > bound)
+                return true;
+        }
+        return false;
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+}
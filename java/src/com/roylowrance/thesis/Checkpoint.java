@@ -0,0 +1,103 @@
+package com.roylowrance.thesis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+// the checkpoint of an output file written by a long computation that can be stopped and resumed
+// (see CheckpointedTextFile and BinaryEstimatesWriter)
+//
+// synopsis:
+// Checkpoint checkpoint = Checkpoint.read(checkpointPath, inputs);  // null if none or for other inputs
+// int nextIndex = checkpoint.getNextIndex();
+// long length = checkpoint.getLength();
+// Checkpoint.write(checkpointPath, inputs, nextIndex, length);
+//
+// The checkpoint file holds the inputs, the index of the next item to process, and the length of the
+// output file once the output for the earlier items was written and forced to disk. It is written to a
+// temporary file then renamed, so it is always complete. The inputs are any one line that identifies
+// what was computed, such as the fingerprint of the data and the parameters.
+public class Checkpoint {
+    private final static String INPUTS_KEY = "inputs";
+    private final static String NEXT_INDEX_KEY = "nextIndex";
+    private final static String LENGTH_KEY = "length";
+
+    private final int nextIndex;
+    private final long length;
+
+    private Checkpoint(int nextIndex, long length) {
+        this.nextIndex = nextIndex;
+        this.length = length;
+    }
+
+    // return index of the next item to process
+    public int getNextIndex() {
+        return nextIndex;
+    }
+
+    // return length of the output file for the items before the next index
+    public long getLength() {
+        return length;
+    }
+
+    // return the checkpoint in the file, or null if there is none or it is for other inputs
+    public static Checkpoint read(String checkpointPath, String inputs) {
+        IAE.notNull(checkpointPath, "checkpointPath");
+        checkInputs(inputs);
+        if (!new File(checkpointPath).exists())
+            return null;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(checkpointPath));
+            try {
+                if (!(INPUTS_KEY + "|" + inputs).equals(reader.readLine()))
+                    return null;
+                String nextIndexLine = reader.readLine();
+                String lengthLine = reader.readLine();
+                if (nextIndexLine == null || !nextIndexLine.startsWith(NEXT_INDEX_KEY + "|") ||
+                    lengthLine == null || !lengthLine.startsWith(LENGTH_KEY + "|"))
+                    return null;
+                return new Checkpoint(
+                        Integer.valueOf(nextIndexLine.substring(NEXT_INDEX_KEY.length() + 1)),
+                        Long.valueOf(lengthLine.substring(LENGTH_KEY.length() + 1)));
+            }
+            finally {reader.close();}
+        }
+        catch (IOException e) {throw new RuntimeException("IOException reading " + checkpointPath + "; e=" + e);}
+    }
+
+    // write the checkpoint to a temporary file then rename it, so that a reader never sees part of it
+    public static void write(String checkpointPath, String inputs, int nextIndex, long length) {
+        IAE.notNull(checkpointPath, "checkpointPath");
+        checkInputs(inputs);
+        IAE.nonNegative(nextIndex, "nextIndex");
+        File checkpoint = new File(checkpointPath);
+        File temporary = new File(checkpointPath + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(temporary);
+            PrintWriter checkpointWriter = new PrintWriter(new OutputStreamWriter(stream));
+            checkpointWriter.println(INPUTS_KEY + "|" + inputs);
+            checkpointWriter.println(NEXT_INDEX_KEY + "|" + nextIndex);
+            checkpointWriter.println(LENGTH_KEY + "|" + length);
+            checkpointWriter.flush();
+            stream.getChannel().force(false);
+            checkpointWriter.close();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException writing " + temporary + "; e=" + e);}
+        if (temporary.renameTo(checkpoint))
+            return;
+        // some file systems do not rename over an existing file
+        checkpoint.delete();
+        if (!temporary.renameTo(checkpoint))
+            throw new RuntimeException("unable to write checkpoint " + checkpointPath);
+    }
+
+    private static void checkInputs(String inputs) {
+        IAE.notNull(inputs, "inputs");
+        if (inputs.contains("\n"))
+            throw new IllegalArgumentException("inputs must be one line; inputs=" + inputs);
+    }
+}
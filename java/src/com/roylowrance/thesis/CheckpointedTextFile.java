@@ -0,0 +1,99 @@
+package com.roylowrance.thesis;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+
+// a text file written by a long computation that can be stopped and resumed
+//
+// synopsis:
+// CheckpointedTextFile file = new CheckpointedTextFile(path, inputs);  // resumes if path.checkpoint matches the inputs
+// for (int index = file.getNextIndex(); index < n; index++) {
+//     file.println(line);                // for each line computed from item index
+//     file.checkpoint(index + 1);        // perhaps only every so often
+// }
+// file.checkpoint(n);
+// file.close();                          // lines written after the last checkpoint will be dropped on resume
+//
+// The checkpoint file path.checkpoint holds the inputs, the index of the next item to process, and the
+// length of the text file once the lines for the earlier items were written and forced to disk. See
+// Checkpoint.
+//
+// On construction, if the checkpoint's inputs are the same as the inputs, the text file is truncated to
+// the checkpointed length, dropping the lines of any item begun later, and appended to. Otherwise the
+// text file is started over. The inputs are any string that identifies what was computed, such as the
+// fingerprint of the data and the parameters.
+public class CheckpointedTextFile {
+    private final String filePath;
+    private final String checkpointPath;
+    private final String inputs;
+    private final FileOutputStream fileOutputStream;
+    private final PrintWriter writer;
+    private final int resumedIndex;
+
+    // open the text file, resuming from its checkpoint if that was written for the same inputs
+    public CheckpointedTextFile(String filePath, String inputs) {
+        IAE.notNull(filePath, "filePath");
+        this.filePath = filePath;
+        this.checkpointPath = filePath + ".checkpoint";
+        this.inputs = inputs;
+
+        long length = 0;
+        int index = 0;
+        Checkpoint checkpoint = Checkpoint.read(checkpointPath, inputs);
+        if (checkpoint != null && new File(filePath).length() >= checkpoint.getLength()) {
+            index = checkpoint.getNextIndex();
+            length = checkpoint.getLength();
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+            file.setLength(length);
+            file.close();
+            this.fileOutputStream = new FileOutputStream(filePath, true);
+        }
+        catch (IOException e) {throw new RuntimeException("IOException opening " + filePath + "; e=" + e);}
+        this.writer = new PrintWriter(new OutputStreamWriter(fileOutputStream));
+        this.resumedIndex = index;
+    }
+
+    // return index of the first item not completely written when the file was opened; 0 if started over
+    public int getNextIndex() {
+        return resumedIndex;
+    }
+
+    // return path to the text file
+    public String getFilePath() {
+        return filePath;
+    }
+
+    // write a line
+    public void println(String line) {
+        writer.println(line);
+    }
+
+    // record that the lines for every item before nextIndex have been written
+    // the lines are forced to disk before the checkpoint is written
+    public void checkpoint(int nextIndex) {
+        IAE.nonNegative(nextIndex, "nextIndex");
+        writer.flush();
+        if (writer.checkError())
+            throw new RuntimeException("error writing " + filePath);
+        long length;
+        try {
+            fileOutputStream.getChannel().force(false);
+            length = fileOutputStream.getChannel().position();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException forcing " + filePath + "; e=" + e);}
+        Checkpoint.write(checkpointPath, inputs, nextIndex, length);
+    }
+
+    // close the text file without checkpointing it
+    public void close() {
+        writer.close();
+        if (writer.checkError())
+            throw new RuntimeException("error writing " + filePath);
+    }
+}
@@ -37,23 +37,26 @@ public class CompareHpiKnn {
     
     private void mainWorker() {
         
-        final Tensor actualApns = readFeature("apns");
-        final Tensor actualDates = readFeature("dates");
-        final Tensor actualPricesLog = readFeature("SALE-AMOUNT-log");
+        // APNs are read as longs, so that they are compared exactly
+        final long[] actualApns = readFeature("apns", DataFrame.LONG).getLongs("apns");
+        final Tensor actualDates = readFeature("dates", DataFrame.DOUBLE).getColumnTensor("dates");
+        final Tensor actualPricesLog = readFeature("SALE-AMOUNT-log", DataFrame.DOUBLE).getColumnTensor("SALE-AMOUNT-log");
         checkSizes(actualApns, actualDates, actualPricesLog);
         
         CsvReader hpiReader = new CsvReader(LAUFER_DIR + "hpivalues.txt", SEPARATOR_REGEX);
-        DataFrame hpiDf = hpiReader.readAll();
-        final Tensor hpiApns = hpiDf.getColumnNamed("unformattedapn");
-        final Tensor hpiDates = hpiDf.getColumnNamed("date");
-        final Tensor hpiPricesLog = Tensor.log(hpiDf.getColumnNamed("housevalue"));
+        DataFrame hpiDf = hpiReader.readColumns(new String[] {"unformattedapn", "date", "housevalue"}, 
+                new int[] {DataFrame.LONG, DataFrame.DOUBLE, DataFrame.DOUBLE});
+        final long[] hpiApns = hpiDf.getLongs("unformattedapn");
+        final Tensor hpiDates = hpiDf.getColumnTensor("date");
+        final Tensor hpiPricesLog = Tensor.log(hpiDf.getColumnTensor("housevalue"));
         checkSizes(hpiApns, hpiDates, hpiPricesLog);
         
         CsvReader knnReader = new CsvReader(OBS1_DIR + "analysis/" + "estimates-knn-1A.csv", SEPARATOR_REGEX);
-        DataFrame knnDf = knnReader.readAll();
-        final Tensor knnApns = knnDf.getColumnNamed("apn");
-        final Tensor knnDates = knnDf.getColumnNamed("date");
-        final Tensor knnPricesLog = Tensor.log(knnDf.getColumnNamed("estimatedValue"));
+        DataFrame knnDf = knnReader.readColumns(new String[] {"apn", "date", "estimatedValue"}, 
+                new int[] {DataFrame.LONG, DataFrame.DOUBLE, DataFrame.DOUBLE});
+        final long[] knnApns = knnDf.getLongs("apn");
+        final Tensor knnDates = knnDf.getColumnTensor("date");
+        final Tensor knnPricesLog = Tensor.log(knnDf.getColumnTensor("estimatedValue"));
         checkSizes(knnApns, knnDates, knnPricesLog);
         
         analyze(actualApns, actualDates, actualPricesLog,
@@ -67,20 +70,40 @@ public class CompareHpiKnn {
     ///////////////////////////// private
     
     private class ApnDate {
-        public double apn;
+        public long apn;
         public double date;
         
         // constructor
-        public ApnDate(double apn, double date) {
+        public ApnDate(long apn, double date) {
             this.apn = apn;
             this.date = date;
         }
+        
+        // equal if the same APN and date, so that an ApnDate can be a key of a HashMap
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ApnDate))
+                return false;
+            ApnDate that = (ApnDate) other;
+            return apn == that.apn && date == that.date;
+        }
+        
+        @Override
+        public int hashCode() {
+            final long dateBits = Double.doubleToLongBits(date);
+            return 31 * (int) (apn ^ (apn >>> 32)) + (int) (dateBits ^ (dateBits >>> 32));
+        }
+        
+        @Override
+        public String toString() {
+            return "ApnDate(" + apn + ", " + date + ")";
+        }
     }
     
     // produce the RMSE values for each set of comparisons
-    private void analyze(Tensor actualApns, Tensor actualDates, Tensor actualPricesLog,
-                         Tensor hpiApns, Tensor hpiDates, Tensor hpiPricesLog,
-                         Tensor knnApns, Tensor knnDates, Tensor knnPricesLog) {
+    private void analyze(long[] actualApns, Tensor actualDates, Tensor actualPricesLog,
+                         long[] hpiApns, Tensor hpiDates, Tensor hpiPricesLog,
+                         long[] knnApns, Tensor knnDates, Tensor knnPricesLog) {
         Map<ApnDate,Double> hpiMap = makeMap(hpiApns, hpiDates, hpiPricesLog);
         Map<ApnDate,Double> knnMap = makeMap(knnApns, knnDates, knnPricesLog);
         
@@ -93,9 +116,9 @@ public class CompareHpiKnn {
         writeHeader(pw);
         double hpiSumSquaredErrors = 0;
         double knnSumSquaredErrors = 0;
-        final int NUMBER_OBSERVATIONS = actualApns.getSize(0);
+        final int NUMBER_OBSERVATIONS = actualApns.length;
         for (int i = 0; i < NUMBER_OBSERVATIONS; i++) {
-            double actualApn = actualApns.get(i);
+            long actualApn = actualApns[i];
             double actualDate = actualDates.get(i);
             if (!isDateOfInterest(actualDate))
                 continue;
@@ -131,18 +154,22 @@ public class CompareHpiKnn {
     // make sure size of the parallel arrays is the same
     private Integer commonSize = null;
     private void checkSize(Tensor x) {
-        if (x.getNDimensions() != 0) 
+        if (x.getNDimensions() != 1) 
             throw new IllegalArgumentException("must be 1d; x=" + x);
+        checkSize(x.getSize(0));
+    }
+    
+    private void checkSize(int size) {
         if (commonSize == null)
-            commonSize = x.getSize(0);
+            commonSize = size;
         else 
-            if (commonSize != x.getSize(0))
-                throw new IllegalArgumentException("x is not of size " + commonSize + " ;x=" + x);
+            if (commonSize != size)
+                throw new IllegalArgumentException("size is not " + commonSize + "; size=" + size);
     }
     
     // make sure sizes of the parallel arrays are the same
-    private void checkSizes(Tensor a, Tensor b, Tensor c) {
-        checkSize(a);
+    private void checkSizes(long[] a, Tensor b, Tensor c) {
+        checkSize(a.length);
         checkSize(b);
         checkSize(c);
     }
@@ -173,7 +200,7 @@ public class CompareHpiKnn {
     }
     
     // return estimated price
-    private double estimatedPrice(Map<ApnDate,Double> map, double apn, double date) {
+    private double estimatedPrice(Map<ApnDate,Double> map, long apn, double date) {
         ApnDate key = new ApnDate(apn,date);
         if (map.containsKey(key))
             return map.get(key);
@@ -187,20 +214,20 @@ public class CompareHpiKnn {
 
     
     // construct a TreeMap from the inputs
-    private Map<ApnDate,Double> makeMap(Tensor apns, Tensor dates, Tensor pricesLog) {
+    private Map<ApnDate,Double> makeMap(long[] apns, Tensor dates, Tensor pricesLog) {
         Map<ApnDate,Double> result = new HashMap<ApnDate, Double>();
-        for (int i = 0; i < apns.getSize(0); i++) {
-            result.put(new ApnDate(apns.get(i), dates.get(i)), pricesLog.get(i));
+        for (int i = 0; i < apns.length; i++) {
+            result.put(new ApnDate(apns[i], dates.get(i)), pricesLog.get(i));
         }
         return result;
     }
     
-    // return feature as a tensor
-    private Tensor readFeature(String filebasename) {
+    // return feature as a data frame with one column of the type
+    private DataFrame readFeature(String filebasename, int type) {
         CsvReader csvReader = new CsvReader(OBS1_DIR + "features/" + filebasename + ".csv", SEPARATOR_REGEX);
-        DataFrame df = csvReader.readOnlyColumn();
+        DataFrame df = csvReader.readColumns(new String[] {filebasename}, new int[] {type});
         csvReader.close();
-        return df.getColumnNamed(filebasename);
+        return df;
     }
     
     // write a detail line
@@ -213,7 +240,7 @@ public class CompareHpiKnn {
             double hpiError,
             double knnPrice,
             double knnError) {
-        String s = String.format("%10.0f %8.0f %8.0f %8s %8s %8s %8s %8s %8s",
+        String s = String.format("%10d %8.0f %8.0f %8s %8s %8s %8s %8s %8s",
                 actualApnDate.apn, actualApnDate.date, actualPrice,
                 estimateApnDate.date, hpiPrice, hpiError,
                 estimateApnDate.date, knnPrice, knnError);
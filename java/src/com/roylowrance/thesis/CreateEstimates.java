@@ -4,17 +4,22 @@ package com.roylowrance.thesis;
 // writes a csv file in the analysis directory of the selected observation set
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.roylowrance.util.CommandLine;
 import com.roylowrance.util.CsvReader;
 import com.roylowrance.util.CsvWriter;
-import com.roylowrance.util.DataFrame;
-import com.roylowrance.util.Date;
 import com.roylowrance.util.LineScanner;
 import com.roylowrance.util.Log;
 import com.roylowrance.util.Represents;
@@ -25,8 +30,11 @@ import com.roylowrance.util.Tensor;
  * for each mid-quarter date in years 2000, 2001, ..., 2009. To date, these
  * algorithms are not trained so there is no learned W vector to manage.
  * <p>
- * The program can run for a long time, so it periodically writes the csv file to disk. However, this
- * implementation does not re-use this potentially-partial set of results if the program is restarted.
+ * The program can run for a long time, so it periodically checkpoints the text file for its piece: it
+ * forces the estimates to disk and records, in a checkpoint file beside the text file, the index of the
+ * next transaction to examine. If the program is stopped and restarted with the same data and
+ * parameters, it resumes from the checkpoint, dropping any estimates written after it, so that no
+ * estimate is repeated. See CheckpointedTextFile.
  * <p>
  * Program will read 112,143 APNs and estimate prices and estimate 40 prices for each (once per calendar
  * quarter for 10 years) for a total of about 4,500,000 estimates.
@@ -34,61 +42,30 @@ import com.roylowrance.util.Tensor;
  * Each estimate takes about 0.07 seconds, so 4,500,000 will take 315,000 seconds which is 87 hours.
  * Plan is to run this on one core. Note that this program appends the estimates to the csv file, so 
  * that results are not lost if this program is stopped.
+ * <p>
+ * Alternatively, --action=all estimates every APN in one process on several threads, which share the data,
+ * and needs no merge. The pieces remain for spreading the work over several machines.
+ * <p>
+ * With --index=decomposed, the 40 queries for an APN, which differ only in the standardized day, are
+ * searched together by a DayDecomposedIndex: the distance over the other features is found once per APN
+ * and each date then costs one pass over the rows rather than one distance computation per row. The
+ * estimates are the same as with --index=brute.
+ * <p>
+ * With --output=binary, the estimates are written as fixed-width records by a BinaryEstimatesWriter to
+ * a .bin file rather than formatted as text, which keeps the formatting off the estimating threads.
+ * --action=export then writes the text file for each binary file in the analysis directory.
  */
 public class CreateEstimates {
-
-    /**
-     * Hold the estimation data and, at construction time, compute the values needed to standardize
-     * new day numbers.
-     * 
-     * @author roy
-     *
-     */
-    private static class EstimationData {
-        public Tensor apns;
-        public Tensor days;
-        public int indexOfStandardizedDay;
-        public Tensor xs;
-        public Tensor ys;
-
-        private double daysMean;
-        private double daysStandardDeviation;
-
-        // constructor also computes factors needed to standardize a day number
-        public EstimationData(Tensor apns, Tensor days, int indexOfStandardizeDay, Tensor xs, Tensor ys) {
-            this.apns = apns;
-            this.days = days;
-            this.indexOfStandardizedDay = indexOfStandardizeDay;
-            this.xs = xs;
-            this.ys = ys;
-            setDaysStandardizationValues();
-        }
-
-        /**
-         * Determine factors (mean and standard deviation) needed to standardize day numbers.
-         */
-        private void setDaysStandardizationValues() {
-            // compute from first principles
-            this.daysMean = Tensor.mean(days);
-            this.daysStandardDeviation = Tensor.std(days);
-        }
-
-        /**
-         * Return standardized day number for a date YYYYMMDD
-         * @param date  the date "YYYYMMDD"
-         * @return      the standardized day number (number of days past epoch, standardized)
-         */
-        public double standardizedDay(String date) {
-            IAE.notNull(date, "date");
-            long dayNumber = Date.daysPastEpoch(date);
-            return (dayNumber - daysMean) / daysStandardDeviation;
-        }
-    }
+    // the index kind that searches for all the dates of an APN at once
+    private final static String DECOMPOSED = "decomposed";
+    private final static String[] INDEX_KINDS = makeIndexKinds();
 
     /**
      * Estimate value for every APN in the the quarters in 2000, 2001, ..., 2009 and write these estimates to
      * file analysis/estimates-knn-PIECE.txt. Write progress lines to stdout.
      * <p>
+     * Resume from the checkpoint of the file, if it was written for the same data and parameters.
+     * <p>
      * The APNs are determined by reading the transaction file. Each APN may occur multiple times, so the implementation
      * keeps track of APNs already seen and does not reprocess them. There may be some APNs that are not in the 
      * test period (the quarters estimated) so the entire transaction file needs to be examined.
@@ -99,39 +76,39 @@ public class CreateEstimates {
      * @param obs             name of observation set
      * @param estimationData  previously existing estimation data
      * @param pieces          number of pieces
+     * @param indexKind       kind of NearestNeighborIndex used to search for neighbors, or "decomposed"
+     * @param efSearch        for the hnsw index, the number of nodes kept while searching the graph
+     * @param binary          if true, write estimates-knn-PIECE.bin with a BinaryEstimatesWriter instead of text
      */
-    private void estimatesKnn(int piece, String dataDir, int k, String obs, EstimationData estimationData, int pieces) {
+    public void estimatesKnn(int piece, String dataDir, int k, String obs, EstimationData estimationData, int pieces, String indexKind, int efSearch,
+            boolean binary) {
 
         final boolean debugging = false;
         Log log = new Log("CreateEstimate.estimatesKnn", true);
         //final int saveFrequency = 1000;
 
-        String txtFilePath = dataDir + "generated-v4/obs" + obs + "/analysis/estimates-knn-" + obs + "-" + piece + ".txt";
-        PrintWriter textFile;
-        try {textFile= new PrintWriter(txtFilePath);}
-        catch (FileNotFoundException e) {throw new RuntimeException("File Not Found e=" + e);}
+        String filePathBase = dataDir + "generated-v4/obs" + obs + "/analysis/estimates-knn-" + obs + "-" + piece;
+        final String inputs = String.format("fingerprint=%s,k=%d,piece=%d,pieces=%d,index=%s,efSearch=%d",
+                estimationData.fingerprint, k, piece, pieces, indexKind, efSearch);
+        EstimatesSink textFile = makeEstimatesSink(filePathBase, inputs, binary);
+        final int checkpointFrequency = 100; // number of APNs estimated between checkpoints
         //PriorResults priorResults = readPriorResultsFile(csvFilePath);
         //Set<ApnDateK> processed = priorResults.knownResultIds;
         //CsvWriter csvWriter = priorResults.csvWriter;  // header already written
         
-        // setup the k nearest neighbors algorithm
-        final String cacheFileNameSuffix = "-merged";
-        KNearestNeighbors knn = new KNearestNeighbors(
-                estimationData.xs, 
-                estimationData.ys,
-                null,  // no cache 
-                cacheFileNameSuffix);
+        ApnEstimator apnEstimator = makeApnEstimator(dataDir, k, obs, estimationData, indexKind, efSearch);
 
         // process each transaction in the estimation data
         // determine each unique APN
         // for each unique APN in the piece, estimate its value at mid-quarter in the years 2000, 2001, ..., 2009
         final int numberIndices = estimationData.xs.getSize(0);
-        final Tensor xs = estimationData.xs;
-        final int indexOfStandardizedDay = estimationData.indexOfStandardizedDay;
-        final int omitNoXsRow = -1; // indicator to knn.estimate to use all the xs
         int countApnsEstimated = 0;
-        Set<ApnDateK> processed = new HashSet<ApnDateK> ();
-        for (int testIndex = 0; testIndex < numberIndices; testIndex++) {
+        Set<ApnDateK> processed = readProcessed(textFile);
+        if (textFile.getNextIndex() > 0)
+            log.format("resuming at index %d with %d estimates already made%n", textFile.getNextIndex(), processed.size());
+        int nextIndex = textFile.getNextIndex();
+        for (int testIndex = textFile.getNextIndex(); testIndex < numberIndices; testIndex++) {
+            nextIndex = testIndex + 1;
             final double apn = estimationData.apns.get(testIndex);
             //System.out.println("apn " + apn + " pieces " + pieces + " rem " + (apn%pieces) + " piece " + piece);
             if (piece != (apn % pieces)) {
@@ -142,32 +119,23 @@ public class CreateEstimates {
             countApnsEstimated++;
             final long apnStartTime = System.nanoTime();
             
-                for (int year = 2000; year < 2010; year++) {
-                    for (String dateString : makeDateStrings(year)) {
-                    	// check if we already have an estimate
-                    	ApnDateK newKey = new ApnDateK(apn, dateString, k);
-                    	if (processed.contains(newKey)) {
-                    		log.format("skipping %.0f %s %k since already done%n", apn, dateString, k);
-                    		continue; // on to next date
-                    	}
-                    	processed.add(newKey);
-                    	
-                    	// create and save the estimate
-                        Tensor query = xs.selectRow(testIndex);
-                        query.set(indexOfStandardizedDay, estimationData.standardizedDay(dateString));
-                        long startTime = System.nanoTime();
-                        String record = String.format("%.0f,%s,%d,%.2f", apn, dateString, k, 
-                                Math.exp(knn.estimate((int) k, query, omitNoXsRow)));
-                        //String txtRow = makeTextFileRecord(apn, dateString, (int) k, knn.estimate((int) k, query, omitNoXsRow));
-                        log.println(record);
-                        final int apnReportingFrequency = 1000;
-                        if (processed.size() % apnReportingFrequency == 0) {
-                            double elapsedSeconds = ((System.nanoTime() - startTime) / 1e9);
-                            log.format("in %7.5f secs%n", elapsedSeconds);
-                        }
-                        textFile.println(record);
-                    } // end for dateString
-                } // end for year  
+                // determine the dates not yet estimated
+                ArrayList<String> dateStrings = new ArrayList<String>();
+                for (String dateString : makeAllDateStrings()) {
+                    // check if we already have an estimate
+                    ApnDateK newKey = new ApnDateK(apn, dateString, k);
+                    if (processed.contains(newKey)) {
+                        log.format("skipping %.0f %s %d since already done%n", apn, dateString, k);
+                        continue; // on to next date
+                    }
+                    processed.add(newKey);
+                    dateStrings.add(dateString);
+                }
+                
+                // create and save the estimates
+                final double[] estimates = apnEstimator.estimate(testIndex, dateStrings);
+                for (int i = 0; i < estimates.length; i++)
+                    textFile.write(apn, dateStrings.get(i), k, estimates[i]);
                 
                 // maybe write progress info to stdout
                 final int indexReportingFrequency = 100;
@@ -176,15 +144,272 @@ public class CreateEstimates {
                     System.out.format("processed index %d of %d; added %d APNs so far%n", 
                             testIndex, numberIndices, processed.size());
                 }
+                if (countApnsEstimated % checkpointFrequency == 0)
+                    textFile.checkpoint(nextIndex);
                 if (debugging && (processed.size() > 3))
                     break;
         } // end for testIndex
 
+        textFile.checkpoint(nextIndex);
         textFile.close();
         log.format("estimated %d APNs%n", countApnsEstimated);
         log.format("estimated %d values%n", processed.size());
     }
 
+    /**
+     * Estimate value for every APN in the quarters in 2000, 2001, ..., 2009 on numberThreads threads in this
+     * process and write these estimates to file analysis/estimates-knn-OBS-all.txt. Write progress lines to stdout.
+     * <p>
+     * Each APN is estimated once, at its first transaction, by a task. The threads take the tasks in turn, so
+     * that they stay busy however long each APN takes, and share the one copy of the estimation data and
+     * index. The main thread writes the estimates of the APNs in the order of their first transactions, hence
+     * the file is the same whatever the number of threads, and contains what the pieces together would.
+     * <p>
+     * Resume from the checkpoint of the file, if it was written for the same data and parameters.
+     * 
+     * @param dataDir         location of data directory     
+     * @param k               value to use for k
+     * @param obs             name of observation set
+     * @param estimationData  previously existing estimation data
+     * @param indexKind       kind of NearestNeighborIndex used to search for neighbors, or "decomposed"
+     * @param efSearch        for the hnsw index, the number of nodes kept while searching the graph
+     * @param numberThreads   number of threads estimating
+     * @param binary          if true, write estimates-knn-OBS-all.bin with a BinaryEstimatesWriter instead of text
+     */
+    public void estimatesKnnAll(String dataDir, int k, String obs, EstimationData estimationData, String indexKind, int efSearch, int numberThreads,
+            boolean binary) {
+        IAE.positive(numberThreads, "numberThreads");
+        Log log = new Log("CreateEstimate.estimatesKnnAll", true);
+
+        String filePathBase = dataDir + "generated-v4/obs" + obs + "/analysis/estimates-knn-" + obs + "-all";
+        final String inputs = String.format("fingerprint=%s,k=%d,piece=all,index=%s,efSearch=%d",
+                estimationData.fingerprint, k, indexKind, efSearch);
+        EstimatesSink textFile = makeEstimatesSink(filePathBase, inputs, binary);
+        final int checkpointFrequency = 1000;      // number of APNs written between checkpoints
+        final long reportingNanos = 60 * 1000000000L; // time between progress lines
+
+        // the first transaction of each APN not yet written
+        final int numberIndices = estimationData.xs.getSize(0);
+        Set<Double> seen = new HashSet<Double>();
+        List<Integer> firstIndices = new ArrayList<Integer>();
+        for (int testIndex = 0; testIndex < numberIndices; testIndex++) {
+            if (seen.add(estimationData.apns.get(testIndex)) && testIndex >= textFile.getNextIndex())
+                firstIndices.add(testIndex);
+        }
+        if (textFile.getNextIndex() > 0)
+            log.format("resuming at index %d with %d APNs to estimate%n", textFile.getNextIndex(), firstIndices.size());
+
+        final ApnEstimator apnEstimator = makeApnEstimator(dataDir, k, obs, estimationData, indexKind, efSearch);
+        final List<String> dateStrings = makeAllDateStrings();
+        
+        // keep a few tasks per thread submitted ahead of the one being written
+        final int ahead = 4 * numberThreads;
+        ExecutorService executor = Executors.newFixedThreadPool(numberThreads);
+        LinkedList<Future<double[]>> submitted = new LinkedList<Future<double[]>>();
+        final long startTime = System.nanoTime();
+        long lastReportTime = startTime;
+        int nextIndex = textFile.getNextIndex();
+        try {
+            int nextTask = 0;
+            for (; nextTask < Math.min(ahead, firstIndices.size()); nextTask++)
+                submitted.add(executor.submit(estimateTask(apnEstimator, firstIndices.get(nextTask), dateStrings)));
+            for (int task = 0; task < firstIndices.size(); task++) {
+                final double apn = estimationData.apns.get(firstIndices.get(task));
+                final double[] estimates = submitted.removeFirst().get();
+                for (int i = 0; i < estimates.length; i++)
+                    textFile.write(apn, dateStrings.get(i), k, estimates[i]);
+                nextIndex = firstIndices.get(task) + 1;
+                if (nextTask < firstIndices.size()) {
+                    submitted.add(executor.submit(estimateTask(apnEstimator, firstIndices.get(nextTask), dateStrings)));
+                    nextTask++;
+                }
+                
+                if ((task + 1) % checkpointFrequency == 0)
+                    textFile.checkpoint(nextIndex);
+                final long now = System.nanoTime();
+                if (now - lastReportTime >= reportingNanos) {
+                    final double apnsPerSecond = (task + 1) / ((now - startTime) / 1e9);
+                    System.out.format("estimated %d of %d APNs; %.1f APNs/sec; %.2f hours to go%n",
+                            task + 1, firstIndices.size(), apnsPerSecond, (firstIndices.size() - task - 1) / apnsPerSecond / 3600);
+                    lastReportTime = now;
+                }
+            }
+        }
+        catch (InterruptedException e) {throw new RuntimeException(e);}
+        catch (ExecutionException e) {throw new RuntimeException(e.getCause());}
+        finally {executor.shutdownNow();}
+
+        textFile.checkpoint(numberIndices);
+        textFile.close();
+        log.format("estimated %d APNs on %d threads in %f seconds%n", firstIndices.size(), numberThreads, (System.nanoTime() - startTime) / 1e9);
+    }
+
+    private static Callable<double[]> estimateTask(final ApnEstimator apnEstimator, final int testIndex, final List<String> dateStrings) {
+        return new Callable<double[]>() {
+            @Override
+            public double[] call() {
+                return apnEstimator.estimate(testIndex, dateStrings);
+            }
+        };
+    }
+
+    /**
+     * Make the estimator for the kind of index.
+     * <p>
+     * The hnsw graph is persisted in the caches directory, so that all the pieces share one build.
+     * The decomposed index searches for all the dates of an APN at once, so is used without a KNearestNeighbors.
+     */
+    private ApnEstimator makeApnEstimator(String dataDir, int k, String obs, EstimationData estimationData, String indexKind, int efSearch) {
+        if (indexKind.equals(DECOMPOSED))
+            return new ApnEstimator(estimationData, k, new DayDecomposedIndex(estimationData.xs, estimationData.indexOfStandardizedDay), null);
+        final String cacheFileNameSuffix = "-merged";
+        final NearestNeighborIndex index = indexKind.equals("hnsw") ?
+                NearestNeighborIndexes.makeHnsw(estimationData.xs, makePathToCacheDirectory(dataDir, obs) + "hnsw-graph.bin", efSearch) :
+                NearestNeighborIndexes.make(indexKind, estimationData.xs);
+        KNearestNeighbors knn = new KNearestNeighbors(
+                estimationData.xs, 
+                estimationData.ys,
+                null,  // no cache 
+                cacheFileNameSuffix,
+                index);
+        return new ApnEstimator(estimationData, k, null, knn);
+    }
+
+    /**
+     * Estimate the value of an APN at dates, with either a DayDecomposedIndex or a KNearestNeighbors.
+     * <p>
+     * Thread safe, as the estimation data are only read and the searches are thread safe.
+     */
+    private static class ApnEstimator {
+        private final EstimationData estimationData;
+        private final int k;
+        private final DayDecomposedIndex decomposedIndex;
+        private final KNearestNeighbors knn;
+
+        public ApnEstimator(EstimationData estimationData, int k, DayDecomposedIndex decomposedIndex, KNearestNeighbors knn) {
+            this.estimationData = estimationData;
+            this.k = k;
+            this.decomposedIndex = decomposedIndex;
+            this.knn = knn;
+        }
+
+        /**
+         * Return the estimates, which are log prices, at each of the dates.
+         * @param testIndex    a transaction for the APN, whose features are used
+         * @param dateStrings  the dates "YYYYMMDD"
+         * @return             one estimate for each date, in the order of the dates
+         */
+        public double[] estimate(int testIndex, List<String> dateStrings) {
+            final int omitNoXsRow = -1; // indicator to knn.estimate to use all the xs
+            
+            // the query is a copy, as the row is a view of the xs
+            final Tensor query = Tensor.newInstance(estimationData.xs.selectRow(testIndex));
+            final double[] days = new double[dateStrings.size()];
+            for (int i = 0; i < days.length; i++)
+                days[i] = estimationData.standardizedDay(dateStrings.get(i));
+            final List<Neighbors> neighborsAtDays = (decomposedIndex != null && days.length > 0) ?
+                    decomposedIndex.nearestAtDays(query, omitNoXsRow, days, k) :
+                    null;
+            
+            double[] result = new double[days.length];
+            for (int i = 0; i < days.length; i++) {
+                double estimate;
+                if (decomposedIndex != null)
+                    estimate = KNearestNeighbors.estimate(k, neighborsAtDays.get(i), estimationData.ys);
+                else {
+                    query.set(estimationData.indexOfStandardizedDay, days[i]);
+                    estimate = knn.estimate(k, query, omitNoXsRow);
+                }
+                result[i] = estimate;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Destination of the estimates: text records apn,date,k,value or binary records, with checkpoints.
+     */
+    private interface EstimatesSink {
+        public int getNextIndex();
+        public String getFilePath();
+        public boolean isBinary();
+        // logEstimate is the estimated log price; the price is written
+        public void write(double apn, String date, int k, double logEstimate);
+        public void checkpoint(int nextIndex);
+        public void close();
+    }
+
+    private static class TextEstimatesSink implements EstimatesSink {
+        private final CheckpointedTextFile file;
+
+        public TextEstimatesSink(String filePath, String inputs) {
+            file = new CheckpointedTextFile(filePath, inputs);
+        }
+
+        public int getNextIndex() {return file.getNextIndex();}
+        public String getFilePath() {return file.getFilePath();}
+        public boolean isBinary() {return false;}
+        public void checkpoint(int nextIndex) {file.checkpoint(nextIndex);}
+        public void close() {file.close();}
+
+        public void write(double apn, String date, int k, double logEstimate) {
+            file.println(String.format("%.0f,%s,%d,%.2f", apn, date, k, Math.exp(logEstimate)));
+        }
+    }
+
+    private static class BinaryEstimatesSink implements EstimatesSink {
+        private final BinaryEstimatesWriter writer;
+
+        public BinaryEstimatesSink(String filePath, String inputs) {
+            writer = new BinaryEstimatesWriter(filePath, inputs);
+        }
+
+        public int getNextIndex() {return writer.getNextIndex();}
+        public String getFilePath() {return writer.getFilePath();}
+        public boolean isBinary() {return true;}
+        public void checkpoint(int nextIndex) {writer.checkpoint(nextIndex);}
+        public void close() {writer.close();}
+
+        public void write(double apn, String date, int k, double logEstimate) {
+            writer.write((long) apn, Integer.parseInt(date), k, (float) Math.exp(logEstimate));
+        }
+    }
+
+    // return sink writing filePathBase.bin if binary, otherwise filePathBase.txt
+    private EstimatesSink makeEstimatesSink(String filePathBase, String inputs, boolean binary) {
+        return binary ?
+                new BinaryEstimatesSink(filePathBase + ".bin", inputs) :
+                new TextEstimatesSink(filePathBase + ".txt", inputs);
+    }
+
+    /**
+     * Return the estimates already in the file, which has been truncated to its checkpoint.
+     * @param textFile  the checkpointed file of estimates
+     * @return          the apn, date, and k of each estimate
+     */
+    private Set<ApnDateK> readProcessed(EstimatesSink textFile) {
+        Set<ApnDateK> result = new HashSet<ApnDateK>();
+        if (textFile.getNextIndex() == 0)
+            return result;
+        if (textFile.isBinary()) {
+            BinaryEstimatesReader reader = new BinaryEstimatesReader(textFile.getFilePath());
+            while (reader.next())
+                result.add(new ApnDateK(reader.getApn(), reader.getDateString(), reader.getK()));
+            reader.close();
+            return result;
+        }
+        LineScanner ls = new LineScanner(textFile.getFilePath());
+        while (ls.hasNextLine()) {
+            String[] fields = ls.nextLine().split(",");
+            if (fields.length != 4)
+                throw new RuntimeException("estimate does not have 4 fields; filePath=" + textFile.getFilePath());
+            result.add(new ApnDateK(Double.valueOf(fields[0]), fields[1], Integer.valueOf(fields[2])));
+        }
+        try {ls.close();}
+        catch (IOException e) {throw new RuntimeException("IOException closing " + textFile.getFilePath() + "; e=" + e);}
+        return result;
+    }
+
     /**
      * Convert the args to an array of String value.
      * @param apn
@@ -217,32 +442,23 @@ public class CreateEstimates {
         return result;
     }
 
-    // read the estimation data from the file system
     /**
-     * Read and return the estimation data from the file system.
-     * @param obs      observation set name; ex: "1A"
-     * @param dataDir  path to data directory; ex: "/home/roy/..."
-     * @return         collection of estimation data
+     * Make the quarterly date strings "YYYYMMDD" for the years 2000, 2001, ..., 2009.
+     * @return the 40 dates, in order
      */
-    private EstimationData makeEstimationData(String obs, String dataDir) {
-        String obsDir = dataDir + "generated-v4/obs" + obs + "/";
-        String featuresDir = obsDir + "features/";
-        String separatorRegex = "\\|";
-
-        // read in features and determine the column index that contains the standardized day value
-        CsvReader csvReader = new CsvReader(obsDir + "features-combined.csv", separatorRegex);
-        DataFrame dataFrame = csvReader.readAll();
-        int indexOfStandardizedDay;
-        for (indexOfStandardizedDay = 0; indexOfStandardizedDay < dataFrame.getNames().size(); indexOfStandardizedDay++) {
-            if (dataFrame.getNames().get(indexOfStandardizedDay).equals("day-std"))
-                break;
-        }
-        if (indexOfStandardizedDay == dataFrame.getNames().size())
-            throw new RuntimeException("day-std not found");
+    private ArrayList<String> makeAllDateStrings() {
+        ArrayList<String> result = new ArrayList<String>();
+        for (int year = 2000; year < 2010; year++)
+            result.addAll(makeDateStrings(year));
+        return result;
+    }
 
-        return new EstimationData(new CsvReader(featuresDir + "apns.csv", separatorRegex).readOnlyColumn().getTensor(), new CsvReader(
-                featuresDir + "day.csv", separatorRegex).readOnlyColumn().getTensor(), indexOfStandardizedDay, dataFrame.getTensor(),
-                new CsvReader(featuresDir + "SALE-AMOUNT-log.csv", separatorRegex).readOnlyColumn().getTensor());
+    // the kinds of NearestNeighborIndex and the decomposed kind
+    private static String[] makeIndexKinds() {
+        String[] result = new String[NearestNeighborIndexes.KINDS.length + 1];
+        System.arraycopy(NearestNeighborIndexes.KINDS, 0, result, 0, NearestNeighborIndexes.KINDS.length);
+        result[result.length - 1] = DECOMPOSED;
+        return result;
     }
 
     private String makePathToCacheDirectory(String dataDir, String obs) {
@@ -260,15 +476,29 @@ public class CreateEstimates {
      * Example: To merge 48 pieces into estimates-knn.csv
      *   CreateEstimates --action=merge,--algo=knn,--dataDir=../../data/,--obs=1A,--pieces=48
      * 
+     * Example: To create all the estimates (in file estimates-knn-1A-all.txt) on 8 threads in one process
+     *   CreateEstimates --action=all,--algo=knn,--dataDir=../../data/,--k=24,--obs=1A,--threads=8
+     * 
+     * Example: To create them as binary records (in file estimates-knn-1A-all.bin) and then as text
+     *   CreateEstimates --action=all,--algo=knn,--dataDir=../../data/,--k=24,--obs=1A,--output=binary
+     *   CreateEstimates --action=export,--algo=knn,--dataDir=../../data/,--obs=1A
+     * 
      * Command line arguments: 
      * <ul>
-     * <li> --action[N|merge]         if n, create estimates-knn-1a-N.csv; 
+     * <li> --action[N|merge|all|export] if n, create estimates-knn-1a-N.csv; 
      *                                if merge, merge all the pieces and estimates-knn-1A.csv together into estimates-knn.csv
+     *                                if all, create estimates-knn-1A-all.txt, which holds every estimate, in this process
+     *                                if export, write estimates-knn-1A-*.txt for each estimates-knn-1A-*.bin
      * <li> --algo=[knn|kwavg|llr]    algorithm to test 
      * <li> --dataDir=path/to/data/   where to find <project>/data/ 
      * <li> --k=INTEGER               k value to use 
      * <li> --obs=[1A|2R|3R]          observation set to use
-     * <li> --pieces=N                number of pieces
+     * <li> --pieces=N                number of pieces; not used by --action=all
+     * <li> --threads=T               optional, for --action=all, number of threads; default the number of processors
+     * <li> --index=[brute|kdtree|balltree|auto|hnsw|decomposed] optional, how to search for neighbors; default brute
+     *                                decomposed searches for all the dates of an APN at once
+     * <li> --efSearch=N              optional, for --index=hnsw, higher gives better recall and is slower; default 512
+     * <li> --output=[text|binary]    optional, write .txt or .bin files of estimates; default text
      * </ul>
      * 
      * @param commandLineArguments       command line from operating system
@@ -285,14 +515,29 @@ public class CreateEstimates {
         final String action = commandLine.optionValue("--action");
         final String algo = commandLine.optionIsOneOf("--algo", "knn");
         final String dataDir = commandLine.optionValue("--dataDir");
-        final int k = commandLine.optionValueInteger("--k");
         final String obs = commandLine.optionValue("--obs");
-        final int pieces = commandLine.optionValueInteger("--pieces");
+        if (action.equals("export")) {
+            hs.export(dataDir, obs);
+            System.out.println("Finished.");
+            return;
+        }
+        final int k = commandLine.optionValueInteger("--k");
+        final int pieces = action.equals("all") ? 1 : commandLine.optionValueInteger("--pieces");
+        final String indexKind = 
+                commandLine.isPresent("--index") ? commandLine.optionIsOneOf("--index", INDEX_KINDS) : "brute";
+        final int efSearch = 
+                commandLine.isPresent("--efSearch") ? commandLine.optionValueInteger("--efSearch") : NearestNeighborIndexes.HNSW_EF_SEARCH;
+        final int numberThreads = 
+                commandLine.isPresent("--threads") ? commandLine.optionValueInteger("--threads") : Runtime.getRuntime().availableProcessors();
+        final boolean binary = 
+                commandLine.isPresent("--output") && commandLine.optionIsOneOf("--output", "text", "binary").equals("binary");
         
         if (action.equals("merge"))
             hs.merge(algo, dataDir, obs, pieces);
+        else if (action.equals("all"))
+            hs.estimatesAll(algo, dataDir, k, obs, indexKind, efSearch, numberThreads, binary);
         else if  (Represents.int_(action))
-            hs.estimates(Integer.valueOf(action), algo, dataDir, k, obs, pieces);
+            hs.estimates(Integer.valueOf(action), algo, dataDir, k, obs, pieces, indexKind, efSearch, binary);
         else 
             throw new IllegalArgumentException("unknown action =" + action);
         
@@ -302,9 +547,18 @@ public class CreateEstimates {
         // System.out.println("Wrote to files " + outFileNameBaseSuffix + ".*");
     }
     
-    private void estimates(int piece, String algo, String dataDir, int k, String obs, int pieces) {
+    private void estimates(int piece, String algo, String dataDir, int k, String obs, int pieces, String indexKind, int efSearch,
+            boolean binary) {
         if (algo.equals("knn"))
-            estimatesKnn(piece, dataDir, k, obs, makeEstimationData(obs, dataDir), pieces);
+            estimatesKnn(piece, dataDir, k, obs, EstimationData.read(obs, dataDir), pieces, indexKind, efSearch, binary);
+        else
+            throw new IllegalArgumentException("algo not known; algo=" + algo);
+    }
+    
+    private void estimatesAll(String algo, String dataDir, int k, String obs, String indexKind, int efSearch, int numberThreads,
+            boolean binary) {
+        if (algo.equals("knn"))
+            estimatesKnnAll(dataDir, k, obs, EstimationData.read(obs, dataDir), indexKind, efSearch, numberThreads, binary);
         else
             throw new IllegalArgumentException("algo not known; algo=" + algo);
     }
@@ -316,6 +570,29 @@ public class CreateEstimates {
             throw new IllegalArgumentException("unknown algo = " + algo);
     }
     
+    /**
+     * Write estimates-knn-OBS-NAME.txt for each binary file estimates-knn-OBS-NAME.bin in the analysis directory.
+     * @param dataDir  path to data directory
+     * @param obs      observation set
+     */
+    private void export(String dataDir, String obs) {
+        Log log = new Log("CreateEstimates.export", true);
+        File analysisDir = new File(dataDir + "generated-v4/obs" + obs + "/analysis/");
+        final String prefix = "estimates-knn-" + obs + "-";
+        String[] names = analysisDir.list();
+        if (names == null)
+            throw new IllegalArgumentException("not a directory: " + analysisDir);
+        Arrays.sort(names);
+        for (String name : names) {
+            if (!name.startsWith(prefix) || !name.endsWith(".bin"))
+                continue;
+            final String binaryPath = new File(analysisDir, name).getPath();
+            final String textPath = binaryPath.substring(0, binaryPath.length() - ".bin".length()) + ".txt";
+            final long records = BinaryEstimatesReader.exportText(binaryPath, textPath);
+            log.println("wrote " + records + " estimates to " + textPath);
+        }
+    }
+
     /**
      * Append to estimates-knn-1A.csv the info in files estimates-knn-N.txt.
      * @param dataDir  path to data directory
@@ -360,6 +637,25 @@ public class CreateEstimates {
     		this.date = date;
     		this.k = k;
     	}
+    	
+    	@Override
+    	public int hashCode() {
+    	    final long apnBits = Double.doubleToLongBits(apn);
+    	    int result = (int) (apnBits ^ (apnBits >>> 32));
+    	    result = 31 * result + date.hashCode();
+    	    result = 31 * result + k;
+    	    return result;
+    	}
+    	
+    	@Override
+    	public boolean equals(Object obj) {
+    	    if (this == obj)
+    	        return true;
+    	    if (!(obj instanceof ApnDateK))
+    	        return false;
+    	    ApnDateK other = (ApnDateK) obj;
+    	    return Double.doubleToLongBits(apn) == Double.doubleToLongBits(other.apn) && date.equals(other.date) && k == other.k;
+    	}
     }
     
     private class ResultRow {
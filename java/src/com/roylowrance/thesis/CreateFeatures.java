@@ -9,6 +9,7 @@ import java.util.List;
 
 import com.roylowrance.thesis.ObsVisit.Visitor;
 
+import com.roylowrance.util.ColumnStoreWriter;
 import com.roylowrance.util.CommandLine;
 import com.roylowrance.util.Date;
 import com.roylowrance.util.Extractor;
@@ -82,6 +83,7 @@ public class CreateFeatures {
      * 
      * Write files PROJECT/data/generated-v4/obsOBS/features/*.ser (OLD VERSION)
      * Write files PROJECT/data/generate-v4/obsOBS/features/*.csv (pipe separated values)
+     * Write file PROJECT/data/generate-v4/obsOBS/features.columns (each feature as a column; see ColumnStoreWriter)
      * 
      * @param args
      *            command line; specifies OBS as 1A or 2R
@@ -109,11 +111,13 @@ public class CreateFeatures {
 
         // write the id fields and the days and days-std fields
         Tensor apn = convertStringsHoldingLongsToTensor(all.get("APN ID"));
+        // each feature is also written as a column of the column store, which is readable when closed
+        ColumnStoreWriter store = new ColumnStoreWriter(columnStorePath(inDir), apn.getSize(0));
         if (debugging) {
             log.format("first apn: %17.15f%n", apn.get(0));
             log.println("first apn:" + apn.get(0));
         }
-        serialize(apn, outDir, "apns");
+        serialize(apn, outDir, "apns", store, ColumnStoreWriter.LONG);
         if (debugging)
             return;
 
@@ -122,25 +126,25 @@ public class CreateFeatures {
         // - number of days past the epoch, as a long
         // - standardized(number of days past the epoch), as a double
         Tensor date = convertStringsHoldingsIntToTensor(all.get("DATE ID")); // example: 20041215
-        serialize(date, outDir, "date");
+        serialize(date, outDir, "date", store, ColumnStoreWriter.INT);
 
         Tensor day = convertStringsHoldingDateToTensorHoldingDays(all.get("DATE ID")); // example: 74516
-        serialize(day, outDir, "day");
+        serialize(day, outDir, "day", store, ColumnStoreWriter.INT);
 
         Tensor dayStd = standardize(day);
-        serialize(dayStd, outDir, "day-std");
+        serialize(dayStd, outDir, "day-std", store);
 
         // every transaction has a random number that can be used for random
         // selection
-        serialize(convertStringsHoldingFloatsToTensor(all.get("random")), outDir, "random");
+        serialize(convertStringsHoldingFloatsToTensor(all.get("random")), outDir, "random", store);
 
-        serialize(convertStringsHoldingsIntToTensor(all.get("PROPERTY ZIPCODE")), outDir, "zipcode9");
+        serialize(convertStringsHoldingsIntToTensor(all.get("PROPERTY ZIPCODE")), outDir, "zipcode9", store, ColumnStoreWriter.INT);
 
         // write the sale amount in raw and log form
         Tensor saleAmount = convertStringsHoldingFloatsToTensor(all.get("SALE AMOUNT"));
         Tensor saleAmountLog = Tensor.log(saleAmount);
-        serialize(saleAmount, outDir, "SALE-AMOUNT");
-        serialize(saleAmountLog, outDir, "SALE-AMOUNT-log");
+        serialize(saleAmount, outDir, "SALE-AMOUNT", store);
+        serialize(saleAmountLog, outDir, "SALE-AMOUNT-log", store);
 
         // write the numeric features fields
         // these are all standardized
@@ -149,7 +153,7 @@ public class CreateFeatures {
                                                           // hyphens
             Tensor idx = convertStringsHoldingFloatsToTensor(all.get(name));
             String fieldName = fileNameBase + "-std";
-            serialize(standardize(idx), outDir, fieldName);
+            serialize(standardize(idx), outDir, fieldName, store);
         }
 
         // write the numeric size feature fields
@@ -186,7 +190,7 @@ public class CreateFeatures {
             }
             Tensor idxLog = Tensor.log(idx);
             String fieldName = fileNameBase + "-log-std";
-            serialize(standardize(idxLog), outDir, fieldName);
+            serialize(standardize(idxLog), outDir, fieldName, store);
         }
 
         {
@@ -195,7 +199,7 @@ public class CreateFeatures {
             Tensor percentImprovementValue = Tensor.cdiv(improvementValue, totalValue); 
             String filePath = outDir + "percent-improvement-value" + "-std.ser";
             System.out.println("writing file " + filePath);
-            serialize(standardize(percentImprovementValue), outDir, "percent-improvement-value-std");
+            serialize(standardize(percentImprovementValue), outDir, "percent-improvement-value-std", store);
         }
 
         // write the categorical fields
@@ -214,7 +218,7 @@ public class CreateFeatures {
                     newConstructionIndicator.set(i, value.equals("3") || value.equals("003") ? 1 : 0);
                 }
                 String filePath = outDir + "new-construction-indicator.ser";
-                serialize(newConstructionIndicator, outDir, "new-construction-indicator");
+                serialize(newConstructionIndicator, outDir, "new-construction-indicator", store);
             }
 
             else {
@@ -223,10 +227,11 @@ public class CreateFeatures {
                 for (String value : values) {
                     String fileNameBase = name.replace(' ', '-') + "-is-" + value;
                     ArrayList<String> indicator = indicate(all.get(name), value);
-                    serialize(convertStringsHoldingFloatsToTensor(indicator), outDir, fileNameBase);
+                    serialize(convertStringsHoldingFloatsToTensor(indicator), outDir, fileNameBase, store);
                 }
             }
         }
+        store.close();
         System.out.println("CreateFeatures finished");
     }
 
@@ -436,6 +441,44 @@ public class CreateFeatures {
         return result;
     }
 
+    // return path to the column store holding the features of the observations in obsDir
+    public static String columnStorePath(String obsDir) {
+        return obsDir + "features.columns";
+    }
+
+    // serialize a Tensor of doubles as a pipe-delimited csv file and as a column of the store
+    public static void serialize(Tensor tensor, String dir, String fieldName, ColumnStoreWriter store) throws FileNotFoundException, IOException {
+        serialize(tensor, dir, fieldName, store, ColumnStoreWriter.DOUBLE);
+    }
+
+    // serialize a Tensor as a pipe-delimited csv file and as a column of the store of the type
+    // a LONG or INT column holds the elements, which must be integers in the range of the type, as longs or ints
+    public static void serialize(Tensor tensor, String dir, String fieldName, ColumnStoreWriter store, byte type) 
+    throws FileNotFoundException, IOException {
+        final int size = tensor.getSize(0);
+        long[] longs = null;
+        int[] ints = null;
+        if (type == ColumnStoreWriter.LONG) {
+            longs = new long[size];
+            for (int i = 0; i < size; i++)
+                longs[i] = integer(tensor, i, fieldName, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+        else if (type == ColumnStoreWriter.INT) {
+            ints = new int[size];
+            for (int i = 0; i < size; i++)
+                ints[i] = (int) integer(tensor, i, fieldName, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        
+        // the values are checked before either file is written
+        serialize(tensor, dir, fieldName);
+        if (longs != null)
+            store.writeLongs(fieldName, longs);
+        else if (ints != null)
+            store.writeInts(fieldName, ints);
+        else
+            store.writeDoubles(fieldName, tensor);
+    }
+
     // serialize a Tensor as a pipe-limited csv file
     public static void serialize(Tensor tensor, String dir, String fieldName) throws FileNotFoundException, IOException {
         final String filePath = dir + fieldName + ".csv";
@@ -445,6 +488,16 @@ public class CreateFeatures {
         tensor.serialize(filePath,  "csvDelimiterPipe", fieldNames);
     }
 
+    // return the element, which must be an integer in [min, max]
+    private static long integer(Tensor tensor, int index, String fieldName, long min, long max) {
+        final double value = tensor.get(index);
+        // a double at or beyond 2^63 is not a long; (long) value would saturate to Long.MAX_VALUE
+        if (value != Math.rint(value) || value < min || value >= -(double) Long.MIN_VALUE || (long) value > max)
+            throw new IllegalArgumentException(
+                    "element " + index + " of " + fieldName + " is not an integer in [" + min + "," + max + "]; element=" + value);
+        return (long) value;
+    }
+
     // standardize a Tensor by subtracting mean from each element and dividing by standard deviation
     private static Tensor standardize(Tensor x) {
         final double mean = Tensor.mean(x);
@@ -1,8 +1,12 @@
 package com.roylowrance.thesis;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
+import com.roylowrance.util.ColumnStoreReader;
 import com.roylowrance.util.CommandLine;
 import com.roylowrance.util.CsvReader;
 import com.roylowrance.util.CsvWriter;
@@ -11,12 +15,14 @@ import com.roylowrance.util.Log;
 import com.roylowrance.util.Tensor;
 
 
-// Read the obsOBS/features/* files and combine them into one CSV in obsOBs/COMBINATION_FILE_NAME.csv
+// Read the obsOBS/features/* files, or the column store obsOBS/features.columns, and combine them into one CSV
+// in obsOBs/COMBINATION_FILE_NAME.csv
 public class CreateFeaturesCombined {
     
     // command line parameters
     // --obs=[1A|2R]  which observation set to use
-    //          reads from <project>/data/generated-v4/obsOBS/features/*.csv
+    //          reads from <project>/data/generated-v4/obsOBS/features.columns or, if it does not exist,
+    //          from <project>/data/generated-v4/obsOBS/features/*.csv
     // --combination=COMBINATION_FILE_NAME name of file to create
     //          writes <project/data/generated-v4/obsOBS/COMBINATION_FILE_NAME
     public static void main(String[] args)
@@ -27,20 +33,32 @@ public class CreateFeaturesCombined {
         // setup file paths
         String baseName = Dir.project() + "data/generated-v4/obs" + clp.obs;
         String baseDir = Dir.project() + "data/generated-v4/obs" + clp.obs + "/";
-        String inDir = baseDir + "features/";
         String outFilePath = baseDir + clp.combinationFileName;
         
-        create(inDir, outFilePath, clp.obs);
+        create(baseDir, outFilePath, clp.obs);
         System.out.println("finished CreateFeaturesCombined; --obs=" + clp.obs + " --combination=" + clp.combinationFileName);
     }
     
-    // read the files /features/*.csv and create COMBINATION_FILE_NAME
-    static void create  (String inDir, String outFilePath, String obs) 
+    // read the features from obsDir/features.columns, if CreateFeatures wrote it, otherwise from the
+    // files obsDir/features/*.csv, and create COMBINATION_FILE_NAME
+    static void create  (String obsDir, String outFilePath, String obs) 
     throws IOException {
         final String separatorRegex = "\\|";
         final String delimiter = "|";
+        final String inDir = obsDir + "features/";
         String[] inFieldNames = makeInFieldNames(obs);
         
+        ColumnStoreReader store = openFeatures(obsDir, obs);
+        if (store != null) {
+            Tensor xs = store.readColumns(inFieldNames).getTensor();
+            store.close();
+            CsvWriter csvWriter = new CsvWriter(outFilePath, delimiter);
+            csvWriter.writeRow(inFieldNames); // write header
+            csvWriter.writeRows(xs, Runtime.getRuntime().availableProcessors()); // write data
+            csvWriter.close();
+            return;
+        }
+        
         // read each feature file
         // accumulate results into map allColumns
         HashMap<String,Tensor> allColumns = new HashMap<String,Tensor> ();
@@ -75,10 +93,28 @@ public class CreateFeaturesCombined {
         // write bigTensor; first the header then the data
         CsvWriter csvWriter = new CsvWriter(outFilePath, delimiter);
         csvWriter.writeRow(inFieldNames); // write header
-        csvWriter.writeRows(bigTensor); // write data
+        csvWriter.writeRows(bigTensor, Runtime.getRuntime().availableProcessors()); // write data
         csvWriter.close();
     }
     
+    // return the column store of the features in obsDir, if it exists and has a column for each of the
+    // combined features of the observation set and each of the other names; otherwise return null
+    static ColumnStoreReader openFeatures(String obsDir, String obs, String... otherNames) {
+        final String storePath = CreateFeatures.columnStorePath(obsDir);
+        if (!new File(storePath).exists())
+            return null;
+        ColumnStoreReader store = new ColumnStoreReader(storePath);
+        ArrayList<String> names = new ArrayList<String>(Arrays.asList(makeInFieldNames(obs)));
+        names.addAll(Arrays.asList(otherNames));
+        for (String name : names) {
+            if (!store.has(name)) {
+                store.close();
+                return null;
+            }
+        }
+        return store;
+    }
+    
     // return array of field names for the observation set
     static String[] makeInFieldNames(String obs) {
         if (obs.equals("1A"))
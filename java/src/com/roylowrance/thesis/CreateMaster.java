@@ -52,17 +52,18 @@ public class CreateMaster {
 
 		String deedsHeader = readHeader(deedsHeaderPath);
 		Extractor deedsExtractor = new Extractor(deedsHeader, separatorRegex);
-		LineScanner deedsLineScanner = new LineScanner(deedsDataPath);
+		final boolean readAhead = true; // read the large file on a background thread
+		LineScanner deedsLineScanner = new LineScanner(deedsDataPath, readAhead);
 
 		String geocodingsHeader = readHeader(geocodingsHeaderPath);
 		Extractor geocodingsExtractor = new Extractor(geocodingsHeader,
 				separatorRegex);
-		LineScanner geocodingsLineScanner = new LineScanner(geocodingsDataPath);
+		LineScanner geocodingsLineScanner = new LineScanner(geocodingsDataPath, readAhead);
 
 		String parcelsHeader = readHeader(parcelsHeaderPath);
 		Extractor parcelsExtractor = new Extractor(parcelsHeader,
 				separatorRegex);
-		LineScanner parcelsLineScanner = new LineScanner(parcelsDataPath);
+		LineScanner parcelsLineScanner = new LineScanner(parcelsDataPath, readAhead);
 
 		String masterDataPath = generatedDir + "master.data";
 		String masterHeadersPath = generatedDir + "master.headers"; // there are
@@ -1,8 +1,14 @@
 package com.roylowrance.thesis;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.roylowrance.util.CommandLine;
+import com.roylowrance.util.CsvWriter;
 import com.roylowrance.util.Date;
 import com.roylowrance.util.Log;
 import com.roylowrance.util.Report;
@@ -31,24 +37,42 @@ import com.roylowrance.util.Tensor;
 //Create the cache in PIECES + 1 passes
 //step p (p in 1, 2, ..., PIECES) creates a shard of the final cache in nearestNeighborsCache-piece-P.csv
 //step PIECES+1 combines the shards into nearestNeighborsCache-merged.csv
+//
+//Or create the merged cache in one process with --action=all, which uses all the cores
+//of one machine and can be restarted from its last checkpoint
 
 public class CreateNearestNeighborsCache {
     private static Report balanceReport;
     private static int PIECES = 48;
+    private static final int ALL_CHUNK_ROWS = 4096;  // for --action=all, rows between checkpoints
+    private static final int ALL_BLOCK_ROWS = 16;    // for --action=all, rows searched together by one task
     
     private static class CommandLineParameters{
         String obs = null;
         boolean isMerge = false;
+        boolean isAll = false;
+        boolean isBinary = false;
         int pieceNumber = 0;
         String pathToDataDir;
+        String indexKind = "brute";
+        int numberThreads = 0; // 0 ==> search for one query at a time using the index
     }
     
     /**
      * Main program to compute pieces of the knn cache or to splice the pieces together into one big cache
      * 
-     * Invoke with command line: --obs=[1R|2R] --action=[N|merge]
+     * Invoke with command line: --obs=[1R|2R] --action=[N|merge] [--index=[brute|kdtree|balltree|auto]] [--threads=T]
      *   Create piece N of the cache. There are 16 pieces all together (N = 1, 2, ..., 16)
+     *   The optional --index selects how the neighbors are searched (default brute); only the exact
+     *   kinds are allowed, as HpTest reads the cache as the exact neighbors
+     *   The optional --threads searches for tiles of queries together with a BatchDistanceIndex using T threads;
+     *   it cannot be combined with --index, as the batch index examines every row
      *   The file created is <project>/data/generated-v4/obsOBS/caches/NearestNeighborsCache-N.csv
+     * Invoke with command line: --obs=[1R|2R] --action=all [--threads=T] [--format=[csv|binary]]
+     *   Create the merged cache directly, searching for the neighbors of blocks of rows on T threads
+     *   (default: all the processors). Progress is checkpointed after each chunk of rows; if
+     *   interrupted, re-run the same command line to resume.
+     *   With --format=binary, create <SHA>-merged.bin, a NeighborsFile, instead of <SHA>-merged.csv
      * Invoke with command line: merge
      *   Merge the 64 pieces together into file 
      *   <project>/data/generated-v4/obsObs/caches/<SHA>.KNearestNeighbors-merged
@@ -78,6 +102,13 @@ public class CreateNearestNeighborsCache {
         if (clp.isMerge) {
             mergePieces(PIECES, testData.getXs(), testData.getYs(), cacheFileDirectory);
         }
+        else if (clp.isAll) {
+            final int numberThreads = (clp.numberThreads > 0) ? clp.numberThreads : Runtime.getRuntime().availableProcessors();
+            final String cacheFilePath = clp.isBinary ?
+                    createAllBinary(testData.getXs(), testData.getYs(), cacheFileDirectory, numberThreads) :
+                    createAll(testData.getXs(), testData.getYs(), cacheFileDirectory, numberThreads);
+            balanceReport.format("Wrote %d records to %s using %d threads%n", testData.getXs().getSize(0), cacheFilePath, numberThreads);
+        }
         else {
             createPiece(
                     clp.pieceNumber, 
@@ -85,7 +116,9 @@ public class CreateNearestNeighborsCache {
                     testData.getXs(), 
                     testData.getYs(),
                     testData.getDays(), 
-                    cacheFileDirectory);  
+                    cacheFileDirectory,
+                    clp.indexKind,
+                    clp.numberThreads);  
         }
         balanceReport.close();
         System.out.println("CreateNearestNeighbors.main finished");
@@ -101,7 +134,9 @@ public class CreateNearestNeighborsCache {
             Tensor xs, 
             Tensor ys,
             Tensor days, 
-            String cacheFileDirectory)
+            String cacheFileDirectory,
+            String indexKind,
+            int numberThreads)
     throws ClassNotFoundException, IOException {
         final boolean debugging = false;
         if (debugging)
@@ -117,41 +152,62 @@ public class CreateNearestNeighborsCache {
         final int numberObservations = xs.getSize(0);
 
         // construct knn algo with a cache, as we will write to the cache
-        KNearestNeighbors knn = new KNearestNeighbors(xs, ys, cacheFileDirectory, pieceSuffix(pieceNumber));
+        KNearestNeighbors knn = new KNearestNeighbors(xs, ys, cacheFileDirectory, pieceSuffix(pieceNumber), indexKind);
         
         int countNeighborsDetermined = 0;
         int countNotInPiece = 0;
         int countNotInTestSet = 0;
+        
+        // with threads, feed the queries in the piece through a batch index in tiles
+        final BatchDistanceIndex batch = (numberThreads > 0) ? new BatchDistanceIndex(xs, numberThreads) : null;
+        final int tileSize = 64 * numberThreads;
+        int[] tile = new int[tileSize];
+        int tileLength = 0;
       
-        for (int queryIndex = 0; queryIndex < numberObservations; queryIndex++) {
-            if (pieceCounter == pieceNumber) {
-                final long startTime = System.nanoTime();
-                log.println("pieceNumber:" + pieceNumber + " queryIndex:" + queryIndex);
+        try {
+            for (int queryIndex = 0; queryIndex < numberObservations; queryIndex++) {
+                if (pieceCounter == pieceNumber && batch != null) {
+                    tile[tileLength++] = queryIndex;
+                    if (tileLength == tileSize) {
+                        countNeighborsDetermined += estimateTile(knn, tile, tileLength, batch, pieceNumber, numberPieces);
+                        tileLength = 0;
+                    }
+                }
+                else if (pieceCounter == pieceNumber) {
+                    final long startTime = System.nanoTime();
+                    log.println("pieceNumber:" + pieceNumber + " queryIndex:" + queryIndex);
                 
-                // estimate for any value of k (say k = 1)
-                // the reason is that we don't use the estimate, we just want the side
-                // effect of calculating the 256 nearest neighbors
-                final int k = 1;
-                knn.estimate(k, xs.selectRow(queryIndex), queryIndex); 
+                    // estimate for any value of k (say k = 1)
+                    // the reason is that we don't use the estimate, we just want the side
+                    // effect of calculating the 256 nearest neighbors
+                    final int k = 1;
+                    knn.estimate(k, xs.selectRow(queryIndex), queryIndex); 
                
-                countNeighborsDetermined++;
-                final int reportingFrequency = 1000;
-                if (countNeighborsDetermined % reportingFrequency == 0) {
-                    final long elapsedSeconds = System.nanoTime() - startTime;
-                    System.out.format(
-                            "finished query index %d of piece %d of %d in %6.3f seconds%n",
-                            queryIndex, pieceNumber, numberPieces, elapsedSeconds / 1e9);
+                    countNeighborsDetermined++;
+                    final int reportingFrequency = 1000;
+                    if (countNeighborsDetermined % reportingFrequency == 0) {
+                        final long elapsedSeconds = System.nanoTime() - startTime;
+                        System.out.format(
+                                "finished query index %d of piece %d of %d in %6.3f seconds%n",
+                                queryIndex, pieceNumber, numberPieces, elapsedSeconds / 1e9);
+                    }
+                }
+                else {
+                    countNotInPiece++;
                 }
-            }
-            else {
-                countNotInPiece++;
-            }
 
-            pieceCounter++;
-            if (pieceCounter > numberPieces)
-                pieceCounter = 1;
-            if (debugging && countNeighborsDetermined > 3)
-                break;
+                pieceCounter++;
+                if (pieceCounter > numberPieces)
+                    pieceCounter = 1;
+                if (debugging && countNeighborsDetermined > 3)
+                    break;
+            }
+            if (batch != null)
+                countNeighborsDetermined += estimateTile(knn, tile, tileLength, batch, pieceNumber, numberPieces);
+        }
+        finally {
+            if (batch != null)
+                batch.shutdown();
         }
         
         // write the cache
@@ -170,6 +226,19 @@ public class CreateNearestNeighborsCache {
         System.out.println("CreateNearestNeighborsCache.createPiece finished");
     }
     
+    // determine the neighbors of the first tileLength query indices in the tile, adding them to the knn cache
+    // return number of queries
+    private static int estimateTile(KNearestNeighbors knn, int[] tile, int tileLength, BatchDistanceIndex batch, int pieceNumber, int numberPieces) {
+        if (tileLength == 0)
+            return 0;
+        final long startTime = System.nanoTime();
+        knn.estimateRows(1, Arrays.copyOf(tile, tileLength), batch);
+        System.out.format(
+                "finished through query index %d of piece %d of %d in %6.3f seconds%n",
+                tile[tileLength - 1], pieceNumber, numberPieces, (System.nanoTime() - startTime) / 1e9);
+        return tileLength;
+    }
+    
     // read  <project-dir>/data/generated-v4/obsOBS/caches/nearestNeighborsCache-piece-N.csv
     // write <project-dir>/data/generated-v4/obsOBS/cache/nearestNeighborsCache-merged.csv
     public static void mergePieces(int numberPieces, Tensor xs, Tensor ys, String cacheDirectory)
@@ -192,6 +261,170 @@ public class CreateNearestNeighborsCache {
             throw new RuntimeException("out of balance; records written=" + recordsWritten + " ; records added=" + totalRecordsAdded);
     }
     
+    // create <project-dir>/data/generated-v4/obsOBS/caches/<SHA>-merged.csv in one process
+    // the rows are processed in chunks; the neighbors for the blocks of rows in a chunk are found by a 
+    // work-stealing ForkJoinPool, then the chunk's records are appended to the cache file in row order
+    // after each chunk, the cache file is forced to disk and <SHA>-merged.csv.checkpoint records the rows
+    // completed and the length of the cache file (see Checkpoint)
+    // if the checkpoint exists when started, the cache file is truncated to its recorded length and the
+    // remaining rows are processed
+    // return path to the cache file
+    public static String createAll(Tensor xs, Tensor ys, String cacheFileDirectory, int numberThreads)
+    throws IOException {
+        Log log = new Log("CreateNearestNeighborsCache.createAll", true);
+        IAE.is2D(xs, "xs");
+        IAE.is1D(ys, "ys");
+        IAE.isNotNull(cacheFileDirectory, "cacheFileDirectory");
+        IAE.positive(numberThreads, "numberThreads");
+        
+        final String mergedSuffix = "-merged";
+        final Nearest256Ys nearest256Ys = new Nearest256Ys(xs, ys, cacheFileDirectory, mergedSuffix);
+        final String cacheFilePath = nearest256Ys.cacheFilePath(mergedSuffix);
+        final String checkpointPath = cacheFilePath + ".checkpoint";
+        final String inputs = createAllInputs(nearest256Ys);
+        final String delimiter = "|";
+        final int numberRows = xs.getSize(0);
+        
+        // resume from the checkpoint, if any
+        int firstRow = 0;
+        CsvWriter csvWriter;
+        final Checkpoint checkpoint = Checkpoint.read(checkpointPath, inputs);
+        if (checkpoint != null && new File(cacheFilePath).length() >= checkpoint.getLength()) {
+            firstRow = checkpoint.getNextIndex();
+            RandomAccessFile cacheFile = new RandomAccessFile(cacheFilePath, "rw");
+            cacheFile.setLength(checkpoint.getLength());
+            cacheFile.close();
+            csvWriter = new CsvWriter(cacheFilePath, delimiter, true);
+            log.format("resuming at row %d of %d%n", firstRow, numberRows);
+        }
+        else {
+            csvWriter = new CsvWriter(cacheFilePath, delimiter);
+            csvWriter.writeRow(nearest256Ys.cacheColumnNames());
+        }
+        
+        final BatchDistanceIndex batch = new BatchDistanceIndex(xs, 1); // threads come from the pool
+        final ForkJoinPool pool = new ForkJoinPool(numberThreads);
+        final NearestCandidates[] chunkNeighbors = new NearestCandidates[ALL_CHUNK_ROWS];
+        final long startTime = System.nanoTime();
+        try {
+            for (int chunkFirstRow = firstRow; chunkFirstRow < numberRows; chunkFirstRow += ALL_CHUNK_ROWS) {
+                final int chunkLastRow = Math.min(chunkFirstRow + ALL_CHUNK_ROWS, numberRows);
+                pool.invoke(new NeighborsTask(batch, chunkFirstRow, chunkFirstRow, chunkLastRow, chunkNeighbors));
+                
+                for (int row = chunkFirstRow; row < chunkLastRow; row++) {
+                    Neighbors neighbors = new Neighbors(chunkNeighbors[row - chunkFirstRow]);
+                    nearest256Ys.writeCacheRecord(csvWriter, xs.selectRow(row), neighbors);
+                }
+                Checkpoint.write(checkpointPath, inputs, chunkLastRow, csvWriter.force());
+                reportProgress(startTime, chunkLastRow - firstRow, chunkLastRow, numberRows);
+            }
+        }
+        finally {pool.shutdownNow();}
+        csvWriter.close();
+        if (!new File(checkpointPath).delete())
+            throw new RuntimeException("unable to delete checkpoint file " + checkpointPath);
+        return cacheFilePath;
+    }
+    
+    // return the inputs recorded in the checkpoint of createAll
+    public static String createAllInputs(Nearest256Ys nearest256Ys) {
+        return String.format("fingerprint=%s,kMax=%d,format=csv", nearest256Ys.getFingerprint(), Nearest256Ys.K_MAX);
+    }
+    
+    // create <project-dir>/data/generated-v4/obsOBS/caches/<SHA>-merged.bin, a NeighborsFile, in one process
+    // the neighbors are found as in createAll; each chunk is stored then forced to disk
+    // if the file exists, the chunks whose rows are all stored are skipped, so an interrupted run resumes
+    // return path to the neighbors file
+    public static String createAllBinary(Tensor xs, Tensor ys, String cacheFileDirectory, int numberThreads)
+    throws IOException {
+        IAE.is2D(xs, "xs");
+        IAE.is1D(ys, "ys");
+        IAE.isNotNull(cacheFileDirectory, "cacheFileDirectory");
+        IAE.positive(numberThreads, "numberThreads");
+        
+        final String mergedSuffix = "-merged";
+        final Nearest256Ys nearest256Ys = new Nearest256Ys(xs, ys, cacheFileDirectory, mergedSuffix);
+        final String filePath = nearest256Ys.neighborsFilePath(mergedSuffix);
+        final int numberRows = xs.getSize(0);
+        final NeighborsFile neighborsFile = new File(filePath).exists() ?
+                NeighborsFile.open(filePath, nearest256Ys.getFingerprint(), numberRows, Nearest256Ys.K_MAX, xs.getSize(1), true) :
+                NeighborsFile.create(filePath, nearest256Ys.getFingerprint(), numberRows, Nearest256Ys.K_MAX, xs.getSize(1));
+        
+        final BatchDistanceIndex batch = new BatchDistanceIndex(xs, 1); // threads come from the pool
+        final ForkJoinPool pool = new ForkJoinPool(numberThreads);
+        final NearestCandidates[] chunkNeighbors = new NearestCandidates[ALL_CHUNK_ROWS];
+        final long startTime = System.nanoTime();
+        int rowsSearched = 0;
+        try {
+            for (int chunkFirstRow = 0; chunkFirstRow < numberRows; chunkFirstRow += ALL_CHUNK_ROWS) {
+                final int chunkLastRow = Math.min(chunkFirstRow + ALL_CHUNK_ROWS, numberRows);
+                boolean isStored = true;
+                for (int row = chunkFirstRow; row < chunkLastRow && isStored; row++)
+                    isStored = neighborsFile.has(row);
+                if (isStored)
+                    continue;
+                
+                pool.invoke(new NeighborsTask(batch, chunkFirstRow, chunkFirstRow, chunkLastRow, chunkNeighbors));
+                for (int row = chunkFirstRow; row < chunkLastRow; row++)
+                    neighborsFile.put(row, chunkNeighbors[row - chunkFirstRow]);
+                neighborsFile.force();
+                rowsSearched += chunkLastRow - chunkFirstRow;
+                reportProgress(startTime, rowsSearched, chunkLastRow, numberRows);
+            }
+        }
+        finally {pool.shutdownNow();}
+        neighborsFile.close();
+        return filePath;
+    }
+    
+    private static void reportProgress(long startTime, int rowsSearched, int rowsFinished, int numberRows) {
+        final double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+        final double rowsPerSecond = rowsSearched / elapsedSeconds;
+        System.out.format("finished %d of %d rows; %.1f rows/second; about %.0f seconds remaining%n",
+                rowsFinished, numberRows, rowsPerSecond, (numberRows - rowsFinished) / rowsPerSecond);
+    }
+    
+    // determine the neighbors of xs rows [from, to), each omitting itself
+    // the neighbors of row r are stored in neighbors[r - chunkFirstRow]
+    private static class NeighborsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final BatchDistanceIndex batch;
+        private final int chunkFirstRow;
+        private final int from;
+        private final int to;
+        private final NearestCandidates[] neighbors;
+        
+        public NeighborsTask(BatchDistanceIndex batch, int chunkFirstRow, int from, int to, NearestCandidates[] neighbors) {
+            this.batch = batch;
+            this.chunkFirstRow = chunkFirstRow;
+            this.from = from;
+            this.to = to;
+            this.neighbors = neighbors;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > ALL_BLOCK_ROWS) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(
+                        new NeighborsTask(batch, chunkFirstRow, from, middle, neighbors),
+                        new NeighborsTask(batch, chunkFirstRow, middle, to, neighbors));
+                return;
+            }
+            final Tensor xs = batch.getXs();
+            final int dimensions = xs.getSize(1);
+            Tensor queries = new Tensor(to - from, dimensions);
+            int[] omit = new int[to - from];
+            for (int row = from; row < to; row++) {
+                for (int d = 0; d < dimensions; d++)
+                    queries.set(row - from, d, xs.get(row, d));
+                omit[row - from] = row;
+            }
+            NearestCandidates[] found = batch.nearest(queries, omit, Nearest256Ys.K_MAX);
+            System.arraycopy(found, 0, neighbors, from - chunkFirstRow, to - from);
+        }
+    }
+    
     // return suffix to cache file name
     public static String pieceSuffix(int pieceNumber) {
         return "-" + Integer.toString(pieceNumber);
@@ -201,15 +434,18 @@ public class CreateNearestNeighborsCache {
   
     // validate and parse the command line
     // --obs=[1A|2R]
-    // --action=[N|merge]
+    // --action=[N|merge|all]
     // --dataDir=path/to/data/directory
+    // [--index=[brute|kdtree|balltree|auto]]; not hnsw, which is approximate
+    // [--threads=T]
+    // [--format=[csv|binary]]
     private static CommandLineParameters validateAndParseCommandLine(String[] args) {
         Log log = new Log("KNearestNeighbors.CommandLineParameters", false);
         CommandLine cl = new CommandLine(args);
         System.out.println("command line:"  + cl);
 
         if (!(cl.isPresent("--action") && cl.isPresent("--dataDir") && cl.isPresent("--obs"))) 
-            throw new IllegalArgumentException("required parameters are --action=[N|merge] --dataDir=path/to/data/dir/ --obs=[1A|2R]");
+            throw new IllegalArgumentException("required parameters are --action=[N|merge|all] --dataDir=path/to/data/dir/ --obs=[1A|2R]");
         
         CommandLineParameters clp = new CommandLineParameters();
         
@@ -220,13 +456,16 @@ public class CreateNearestNeighborsCache {
         if (action.equals("merge")) {
             clp.isMerge = true;
         }
+        else if (action.equals("all")) {
+            clp.isAll = true;
+        }
         else if (Represents.int_(action)) {
             clp.pieceNumber = Integer.parseInt(action);
             if (clp.pieceNumber < 1 || clp.pieceNumber > PIECES)
                 throw new IllegalArgumentException("piece number in [1,16]; piece number=" + clp.pieceNumber);
         }
         else 
-            throw new IllegalArgumentException("--action=[merge|N]");
+            throw new IllegalArgumentException("--action=[merge|all|N]");
         
         // --data
         clp.pathToDataDir = cl.getOptionValue("--dataDir");
@@ -236,6 +475,25 @@ public class CreateNearestNeighborsCache {
         clp.obs = cl.getOptionValue("--obs");
         if (!(clp.obs.equals("1A") || clp.obs.equals("2R")))
             throw new IllegalArgumentException("parameter is --obs=[1A|2R]");
+        
+        // --index
+        if (cl.isPresent("--index"))
+            clp.indexKind = cl.optionIsOneOf("--index", NearestNeighborIndexes.EXACT_KINDS);
+        
+        // --threads
+        if (cl.isPresent("--threads")) {
+            clp.numberThreads = cl.optionValueInteger("--threads");
+            IAE.positive(clp.numberThreads, "--threads");
+        }
+        
+        // --index selects the index used for one query at a time; --threads and --action=all search with a
+        // BatchDistanceIndex instead, so would ignore it
+        if (cl.isPresent("--index") && (clp.numberThreads > 0 || clp.isAll || clp.isMerge))
+            throw new IllegalArgumentException("--index applies only to --action=N without --threads; command line=" + cl);
+        
+        // --format
+        if (cl.isPresent("--format"))
+            clp.isBinary = cl.optionIsOneOf("--format", "csv", "binary").equals("binary");
     
         return clp;
     }
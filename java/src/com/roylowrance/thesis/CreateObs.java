@@ -49,6 +49,13 @@ public class CreateObs {
 			private Extractor parcelExtractor = null;
 			private Extractor deedExtractor = null;
 			private Extractor geocodingExtractor = null;
+			// the fields read directly, found once from the headers
+			private Extractor.Field apnField = null;
+			private Extractor.Field fipsCodeField = null;
+			private Extractor.Field censusTractField = null;
+			private Extractor.Field dateRecodedField = null;
+			private Extractor.Field latitudeField = null;
+			private Extractor.Field longitudeField = null;
 			private String separatorRegex = null;
 			private String fieldSeparator = null;
 			private RecordSelector deedSelector = null;
@@ -105,13 +112,19 @@ public class CreateObs {
 				}
 				parcelSelector = new RecordSelector(
 						FieldDefinitions.parcels(obs), parcelExtractor);
+				apnField = parcelExtractor.field("APN RECODED");
+				fipsCodeField = parcelExtractor.field("FIPS CODE");
+				censusTractField = parcelExtractor.field("CENSUS TRACT");
 
 				deedExtractor = new Extractor(deedHeader, separatorRegex);
 				deedSelector = new RecordSelector(FieldDefinitions.deeds(obs),
 						deedExtractor);
+				dateRecodedField = deedExtractor.field("DATE RECODED");
 
 				geocodingExtractor = new Extractor(geocodingHeader,
 						separatorRegex);
+				latitudeField = geocodingExtractor.field("Latitude");
+				longitudeField = geocodingExtractor.field("Longitude");
 			}
 
 			public void end() {
@@ -208,8 +221,10 @@ public class CreateObs {
 				// check that the parcel record contains the keys to the census
 				// file
 
-				String apn = parcelExtractor.extract(parcelRecord,
-						"APN RECODED");
+				// the selector has split the record, so this does not split it again
+				Extractor.Record parcelFields = parcelExtractor
+						.split(parcelRecord);
+				String apn = parcelFields.get(apnField);
 				if (apn == null) {
 					reasonsParcelRejected.increment("apn missing");
 					parcelReport.println("parcel with missing apn:"
@@ -217,8 +232,7 @@ public class CreateObs {
 					return;
 				}
 
-				String fipsCode = parcelExtractor.extract(parcelRecord,
-						"FIPS CODE");
+				String fipsCode = parcelFields.get(fipsCodeField);
 				if (fipsCode == null) {
 					reasonsParcelRejected.increment("fips code missing");
 					parcelReport.println("parcel with missing fips code:"
@@ -226,8 +240,7 @@ public class CreateObs {
 					return;
 				}
 
-				String censusTract = parcelExtractor.extract(parcelRecord,
-						"CENSUS TRACT");
+				String censusTract = parcelFields.get(censusTractField);
 				if (censusTract == null) {
 					reasonsParcelRejected.increment("census tract missing");
 					parcelReport.println("parcel with missing census tract:"
@@ -266,10 +279,10 @@ public class CreateObs {
 					// we know there is exactly one geocoding record
 					// we know all the values are valid, so no need to run the
 					// record selector
-					latitude = geocodingExtractor.extract(geocodingRecord,
-							"Latitude");
-					longitude = geocodingExtractor.extract(geocodingRecord,
-							"Longitude");
+					Extractor.Record geocodingFields = geocodingExtractor
+							.split(geocodingRecord);
+					latitude = geocodingFields.get(latitudeField);
+					longitude = geocodingFields.get(longitudeField);
 					if (latitude == null || longitude == null) {
 						System.out.println("latitude:" + latitude);
 						System.out.println("longitude:" + longitude);
@@ -293,8 +306,8 @@ public class CreateObs {
 								+ ">");
 						continue; // don't process this deed
 					}
-					String dateRecoded = deedExtractor.extract(deedRecord,
-							"DATE RECODED");
+					String dateRecoded = deedExtractor.split(deedRecord).get(
+							dateRecodedField);
 
 					log.println("selectedParcelFields:" + selectedParcelFields);
 					String transactionRecord = apn + fieldSeparator
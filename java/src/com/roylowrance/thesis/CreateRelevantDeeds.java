@@ -10,7 +10,6 @@ import java.util.NoSuchElementException;
 import com.roylowrance.util.Extractor;
 import com.roylowrance.util.Log;
 import com.roylowrance.util.Report;
-import com.roylowrance.util.Represents;
 
 // create file deeds-relevant.* in generated-v4 
 // Read data/raw/deeds-all-columns/*
@@ -27,6 +26,7 @@ import com.roylowrance.util.Represents;
 // - have a SALE CODE that does not indicate a lease (L) or partial sale (P)
 // - have a TRANSACTION TYPE CODE of 1 (resale) or 3 (subdivision/new construction)
 public class CreateRelevantDeeds {
+	private final static long NOT_AN_INT = Long.MIN_VALUE; // returned by intValue
 
 	public static void main(String args[]) throws FileNotFoundException,
 			IOException {
@@ -88,6 +88,7 @@ public class CreateRelevantDeeds {
 		private int numberRecordsRead;
 		private String separatorRegex;
 		private Extractor extractor;
+		private DeedFields fields;
 		private PrintWriter dataWriter;
 		private String separator;
 		private Report errorReport;
@@ -113,9 +114,10 @@ public class CreateRelevantDeeds {
 
 			if (numberRecordsRead == 1) {
 				extractor = new Extractor(inputLine, separatorRegex);
+				fields = new DeedFields(extractor);
 				firstInputLine = new String(inputLine);
 			} else {
-				processDataLine(extractor, inputLine, dataWriter, separator,
+				processDataLine(extractor, fields, inputLine, dataWriter, separator,
 						errorReport);
 			}
 		}
@@ -132,6 +134,37 @@ public class CreateRelevantDeeds {
 		}
 	}
 
+	// the fields of a deed that are read, found once from the header
+	static class DeedFields {
+		final Extractor.Field apnUnformatted;
+		final Extractor.Field apnFormatted;
+		final Extractor.Field priorSalesAmount;
+		final Extractor.Field saleDate;
+		final Extractor.Field recordingDate;
+		final Extractor.Field documentTypeCode;
+		final Extractor.Field multiApnCount;
+		final Extractor.Field multiApnFlagCode;
+		final Extractor.Field priCatCode;
+		final Extractor.Field saleAmount;
+		final Extractor.Field saleCode;
+		final Extractor.Field transactionTypeCode;
+
+		DeedFields(Extractor extractor) {
+			apnUnformatted = extractor.field("APN UNFORMATTED");
+			apnFormatted = extractor.field("APN FORMATTED");
+			priorSalesAmount = extractor.field("PRIOR SALES AMOUNT");
+			saleDate = extractor.field("SALE DATE");
+			recordingDate = extractor.field("RECORDING DATE");
+			documentTypeCode = extractor.field("DOCUMENT TYPE CODE"); // DEEDC
+			multiApnCount = extractor.field("MULTI APN COUNT");
+			multiApnFlagCode = extractor.field("MULTI APN FLAG CODE"); // SLMLT
+			priCatCode = extractor.field("PRI CAT CODE"); // PRICATCODE
+			saleAmount = extractor.field("SALE AMOUNT");
+			saleCode = extractor.field("SALE CODE"); // SCODE
+			transactionTypeCode = extractor.field("TRANSACTION TYPE CODE"); // TRNTP
+		}
+	}
+
 	// process a CAC06037F<suffix>.txt file, writing relevant deeds to
 	// outputWriter
 	// add two fields: APN RECODED, SALE DATE RECODED
@@ -161,19 +194,21 @@ public class CreateRelevantDeeds {
 
 	// if the data line is relevant, write it to the outputWriter
 	// prepend recoded apns and sale dates
-	private static void processDataLine(Extractor extractor, String dataLine,
-			PrintWriter dataWriter, String separator, Report errorReport) {
+	private static void processDataLine(Extractor extractor, DeedFields fields,
+			String dataLine, PrintWriter dataWriter, String separator,
+			Report errorReport) {
 		final boolean debugging = true;
 		final boolean logging = false;
 		Log log = new Log("CreateRelevantDeeds.processDataLine", logging);
 		String apnUnformatted = null;
 		String apnFormatted = null;
+		Extractor.Record record = null;
 
 		// check number of fields and extract the two APNs
 		try {
-			extractor.checkNumberOfFields(dataLine);
-			apnUnformatted = extractor.extract(dataLine, "APN UNFORMATTED");
-			apnFormatted = extractor.extract(dataLine, "APN FORMATTED");
+			record = extractor.split(dataLine);
+			apnUnformatted = record.get(fields.apnUnformatted);
+			apnFormatted = record.get(fields.apnFormatted);
 		} catch (Extractor.Exception e) {
 			// the input record had the wrong number of field
 			errorReport.println(" ");
@@ -184,9 +219,8 @@ public class CreateRelevantDeeds {
 		}
 		
 		if (debugging) {
-			String priorSalesAmount = extractor.extract(dataLine, "PRIOR SALES AMOUNT");
-			//System.out.println("PRIOR SALES AMOUNT =<" + priorSalesAmount + ">");
-			if (!priorSalesAmount.isEmpty())
+			//System.out.println("PRIOR SALES AMOUNT =<" + record.get(fields.priorSalesAmount) + ">");
+			if (!record.isEmpty(fields.priorSalesAmount))
 				throw new RuntimeException("PRIOR SALES AMOUNT not empty");
 		}
 		// debugging
@@ -205,10 +239,8 @@ public class CreateRelevantDeeds {
 		}
 
 		try {
-			String saleDate = cleanDate(extractor
-					.extract(dataLine, "SALE DATE"));
-			String recordingDate = cleanDate(extractor.extract(dataLine,
-					"RECORDING DATE"));
+			String saleDate = cleanDate(record.get(fields.saleDate));
+			String recordingDate = cleanDate(record.get(fields.recordingDate));
 			if (debugging) {
 				if (saleDate.equals("20041228")
 						|| recordingDate.equals("20041218"))
@@ -233,7 +265,7 @@ public class CreateRelevantDeeds {
 				}
 			}
 
-			if (recordIsRelevant(dataLine, extractor)) {
+			if (recordIsRelevant(record, fields)) {
 				String prependedRecord = apnRecoded + separator + dateRecoded
 						+ separator + dataLine;
 				dataWriter.println(prependedRecord);
@@ -252,35 +284,30 @@ public class CreateRelevantDeeds {
 		}
 	}
 
-	private static boolean recordIsRelevant(String dataLine, Extractor extractor) {
+	private static boolean recordIsRelevant(Extractor.Record record, DeedFields fields) {
 		final boolean logging = false;
 		Log log = new Log("recordIsRelevant");
 		if (logging)
-			log.println("dataLine:" + dataLine);
+			log.println("dataLine:" + record.getLine());
 
 		// a Grant deed or Trust deed (trust deeds are used with mortgages)
-		String dtc = extractor.extract(dataLine, "DOCUMENT TYPE CODE"); // DEEDC
 		if (logging)
-			log.println("dtc:" + dtc);
-		if (!(dtc.equals("G") || dtc.equals("T")))
+			log.println("dtc:" + record.get(fields.documentTypeCode));
+		if (!(record.equals(fields.documentTypeCode, "G") || record.equals(fields.documentTypeCode, "T")))
 			return false;
 
 		// Number of parcels sold is 1 or 0 (only 1 record has a 0 value)
-		String mac = extractor.extract(dataLine, "MULTI APN COUNT");
 		if (logging)
-			log.println("mac:" + mac);
-		if (!Represents.int_(mac))
-			return false;
-		int value = Integer.valueOf(mac);
+			log.println("mac:" + record.get(fields.multiApnCount));
+		long value = intValue(record, fields.multiApnCount);
 		if (!(value == 0 || value == 1))
 			return false;
 
 		// Any code explains the kind of multiple apn sale
 		// The only relevant value is hence an empty string
-		String mafc = extractor.extract(dataLine, "MULTI APN FLAG CODE"); // SLMLT
 		if (logging)
-			log.println("mafc:" + mafc);
-		if (mafc.length() > 0)
+			log.println("mafc:" + record.get(fields.multiApnFlagCode));
+		if (!record.isEmpty(fields.multiApnFlagCode))
 			return false;
 
 		// Keep A (Arms Length Transaction) only
@@ -291,43 +318,48 @@ public class CreateRelevantDeeds {
 		// - notice of default
 		// - assignment
 		// - release
-		String pcc = extractor.extract(dataLine, "PRI CAT CODE"); // PRICATCODE
 		if (logging)
-			log.println("pcc:" + pcc);
-		if (!pcc.equals("A"))
+			log.println("pcc:" + record.get(fields.priCatCode));
+		if (!record.equals(fields.priCatCode, "A"))
 			return false;
 
 		// supplied and not zero
-		String sa = extractor.extract(dataLine, "SALE AMOUNT");
 		if (logging)
-			log.println("sa:" + sa);
-		if (sa.length() == 0)
-			return false;
-		if (!Represents.int_(sa))
-			return false;
-		if (Integer.valueOf(sa) == 0)
+			log.println("sa:" + record.get(fields.saleAmount));
+		value = intValue(record, fields.saleAmount);
+		if (value == NOT_AN_INT || value == 0)
 			return false;
 
 		// Reject L (partial) P (partial) L (lease)
-		String sc = extractor.extract(dataLine, "SALE CODE"); // SCODE
 		if (logging)
-			log.println("sc:" + sc);
-		if (sc.equals("L") || sc.equals("P"))
+			log.println("sc:" + record.get(fields.saleCode));
+		if (record.equals(fields.saleCode, "L") || record.equals(fields.saleCode, "P"))
 			return false;
 
 		// Keep 001 (Resale) 003 (subdivision/new construction)
 		// Reject refinance, timeshar, construction loan, seller carryback,
 		// nominal
-		String ttc = extractor.extract(dataLine, "TRANSACTION TYPE CODE"); // TRNTP
 		if (logging)
-			log.println("ttc:" + ttc);
-		if (!(ttc.equals("1") || ttc.equals("001") || ttc.equals("3") || ttc
-				.equals("003")))
+			log.println("ttc:" + record.get(fields.transactionTypeCode));
+		Extractor.Field ttc = fields.transactionTypeCode;
+		if (!(record.equals(ttc, "1") || record.equals(ttc, "001") || record.equals(ttc, "3") || record
+				.equals(ttc, "003")))
 			return false;
 
 		return true;
 	}
 
+	// return the field as an int, as Represents.int_ and Integer.valueOf would
+	// return NOT_AN_INT if it is not one, including if it is empty
+	private static long intValue(Extractor.Record record, Extractor.Field field) {
+		try {
+			final long value = record.getLong(field);
+			return (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) ? NOT_AN_INT : value;
+		} catch (NumberFormatException e) {
+			return NOT_AN_INT;
+		}
+	}
+
 	// replace any final 00 with 01
 	public static String cleanDate(String s) {
 		if (s.endsWith("00"))
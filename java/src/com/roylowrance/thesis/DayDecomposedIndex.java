@@ -0,0 +1,141 @@
+package com.roylowrance.thesis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.roylowrance.util.Tensor;
+
+// exact nearest neighbors for queries that differ only in the day column
+//
+// synopsis:
+// DayDecomposedIndex index = new DayDecomposedIndex(xs, indexOfStandardizedDay);
+// List<Neighbors> neighbors = index.nearestAtDays(query, xsRowIndexToOmit, days, k); // one per day
+// index.nearest(query, xsRowIndexToOmit, candidates);  // as any NearestNeighborIndex
+//
+// The squared distance from a row to a query is the sum of a fixed part, over the columns other than
+// the day column, and the squared difference of the days. CreateEstimates estimates each APN at 40
+// dates, changing only the day in the query, so the fixed part is computed once per APN in one pass
+// over every row and each date then costs O(n) rather than O(n d).
+//
+// The sum is then in a different order than the distance, so each date takes two passes over the
+// keys: the first finds the worst key among the best k, the second computes the distance, in the same
+// order as DistanceEuclidean, of each row whose key is not more than slightly larger. The candidates
+// are therefore the same as those of a scan of every row.
+//
+// Queries are thread safe.
+public class DayDecomposedIndex extends AbstractNearestNeighborIndex {
+    private final int dayColumn;
+    private final double[] rowDays; // xs[:,dayColumn]
+    private final ThreadLocal<Scratch> scratch;
+
+    // construct; dayColumn is the column of xs holding the (standardized) day
+    public DayDecomposedIndex(Tensor xs, int dayColumn) {
+        super(xs);
+        IAE.nonNegative(dayColumn, "dayColumn");
+        IAE.lessEqual(dayColumn, dimensions - 1, "dayColumn", "last column in xs");
+        this.dayColumn = dayColumn;
+        this.rowDays = new double[numberRows];
+        for (int i = 0; i < numberRows; i++)
+            rowDays[i] = x(i, dayColumn);
+        final int n = numberRows;
+        this.scratch = new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch(n);
+            }
+        };
+    }
+
+    // return the column holding the day
+    public int getDayColumn() {
+        return dayColumn;
+    }
+
+    @Override
+    public void nearest(Tensor query, int xsRowIndexToOmit, NearestCandidates candidates) {
+        IAE.notNull(candidates, "candidates");
+        final double[] q = toArray(query);
+        final Scratch s = scratch.get();
+        setFixed(q, s.fixed);
+        nearestAtDay(q, xsRowIndexToOmit, candidates, s);
+    }
+
+    // return, for each of the days, the up to capacity nearest rows to the query with its day column
+    // replaced by that day
+    // the query is not changed
+    public List<Neighbors> nearestAtDays(Tensor query, int xsRowIndexToOmit, double[] days, int capacity) {
+        IAE.notNull(days, "days");
+        IAE.positive(capacity, "capacity");
+        final double[] q = toArray(query);
+        final Scratch s = scratch.get();
+        setFixed(q, s.fixed);
+
+        List<Neighbors> result = new ArrayList<Neighbors>(days.length);
+        NearestCandidates candidates = new NearestCandidates(capacity);
+        for (double day : days) {
+            q[dayColumn] = day;
+            candidates.reset();
+            nearestAtDay(q, xsRowIndexToOmit, candidates, s);
+            candidates.sort();
+            result.add(new Neighbors(candidates));
+        }
+        return result;
+    }
+
+    ////////////////////// private
+
+    // per-thread working storage for queries
+    private static class Scratch {
+        public double[] fixed; // sum of squared differences over the columns other than the day column
+        public double[] keys;  // fixed part plus squared difference of the days
+
+        public Scratch(int numberRows) {
+            fixed = new double[numberRows];
+            keys = new double[numberRows];
+        }
+    }
+
+    // set fixed[i] for each row
+    private void setFixed(double[] q, double[] fixed) {
+        for (int i = 0; i < numberRows; i++) {
+            int index = offset + i * rowStride;
+            double sumSquaredDifferences = 0;
+            for (int d = 0; d < dimensions; d++) {
+                if (d != dayColumn) {
+                    final double difference = storage[index] - q[d];
+                    sumSquaredDifferences += difference * difference;
+                }
+                index += columnStride;
+            }
+            fixed[i] = sumSquaredDifferences;
+        }
+    }
+
+    // offer to candidates the rows nearest to q, whose fixed parts have been set
+    private void nearestAtDay(double[] q, int xsRowIndexToOmit, NearestCandidates candidates, Scratch s) {
+        final double[] fixed = s.fixed;
+        final double[] keys = s.keys;
+        final double day = q[dayColumn];
+        final int capacity = candidates.getCapacity();
+
+        // find the worst key among the best capacity keys
+        NearestCandidates best = new NearestCandidates(capacity);
+        for (int i = 0; i < numberRows; i++) {
+            final double difference = rowDays[i] - day;
+            keys[i] = fixed[i] + difference * difference;
+            if (i != xsRowIndexToOmit)
+                best.offer(keys[i], i);
+        }
+        if (best.size() == 0)
+            return;
+
+        // the bound is relaxed slightly, as the keys are computed in a different order than the distances
+        final double relativeSlack = 1e-9;
+        final double bound = best.isFull() ? best.worstDistance() * (1 + relativeSlack) : Double.POSITIVE_INFINITY;
+        for (int i = 0; i < numberRows; i++) {
+            if (i == xsRowIndexToOmit || keys[i] > bound)
+                continue;
+            candidates.offer(distance(i, q), i);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.roylowrance.thesis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// a client of an EstimationServer
+//
+// synopsis:
+// EstimationClient client = new EstimationClient("127.0.0.1", port);
+// List<String> records = client.estimate(items);  // items "apn,date,k"; records "apn,date,k,value"
+// List<String> values = client.query(items);      // items "k,x1,...,xd"
+// Map<String,String> stats = client.stats();      // e.g., stats.get("p99Micros")
+//
+// Each call is one request, however many items it has. A client may be used by several threads.
+public class EstimationClient {
+    private final String baseUrl;
+
+    public EstimationClient(String host, int port) {
+        IAE.notNull(host, "host");
+        IAE.positive(port, "port");
+        this.baseUrl = "http://" + host + ":" + port;
+    }
+
+    // return the estimate record for each item "apn,date,k"
+    public List<String> estimate(List<String> items) {
+        return post("/estimate", items);
+    }
+
+    // return the estimate for each item "k,x1,...,xd"
+    public List<String> query(List<String> items) {
+        return post("/query", items);
+    }
+
+    // return the server's statistics, by name
+    public Map<String, String> stats() {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (String line : request("/stats", "GET", null)) {
+            final int equals = line.indexOf('=');
+            result.put(line.substring(0, equals), line.substring(equals + 1));
+        }
+        return result;
+    }
+
+    ////////////////////// private
+
+    private List<String> post(String path, List<String> items) {
+        IAE.notNull(items, "items");
+        StringBuilder body = new StringBuilder();
+        for (String item : items) {
+            if (item.indexOf('\n') >= 0)
+                throw new IllegalArgumentException("item is more than one line; item=" + item);
+            body.append(item).append('\n');
+        }
+        return request(path, "POST", body.toString());
+    }
+
+    // return the lines of the response
+    // throw RuntimeException holding the server's message if the request was not answered
+    private List<String> request(String path, String method, String body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestMethod(method);
+            if (body != null) {
+                connection.setDoOutput(true);
+                OutputStream os = connection.getOutputStream();
+                os.write(body.getBytes("UTF-8"));
+                os.close();
+            }
+            final int status = connection.getResponseCode();
+            InputStream is = (status == 200) ? connection.getInputStream() : connection.getErrorStream();
+            List<String> lines = readLines(is);
+            if (status != 200)
+                throw new RuntimeException("request " + path + " failed with status " + status + ": " + (lines.isEmpty() ? "" : lines.get(0)));
+            return lines;
+        }
+        catch (IOException e) {throw new RuntimeException("IOException requesting " + baseUrl + path + "; e=" + e);}
+    }
+
+    private static List<String> readLines(InputStream is) throws IOException {
+        List<String> result = new ArrayList<String>();
+        if (is == null)
+            return result;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null)
+            result.add(line);
+        reader.close();
+        return result;
+    }
+}
@@ -0,0 +1,135 @@
+package com.roylowrance.thesis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.roylowrance.util.ColumnStoreReader;
+import com.roylowrance.util.CsvReader;
+import com.roylowrance.util.DataFrame;
+import com.roylowrance.util.Date;
+import com.roylowrance.util.Tensor;
+
+/**
+ * Hold the estimation data and, at construction time, compute the values needed to standardize
+ * new day numbers.
+ * <p>
+ * Used by CreateEstimates and EstimationServer. Instances are not changed after construction, so may
+ * be shared by threads.
+ * 
+ * @author roy
+ *
+ */
+public class EstimationData {
+    public final Tensor apns;
+    public final Tensor days;
+    public final int indexOfStandardizedDay;
+    public final Tensor xs;
+    public final Tensor ys;
+    public final String fingerprint; // of the xs and ys; see Fingerprint
+
+    private double daysMean;
+    private double daysStandardDeviation;
+    private final Map<Double, Integer> firstIndices = new HashMap<Double, Integer>();
+
+    // constructor also computes factors needed to standardize a day number
+    public EstimationData(Tensor apns, Tensor days, int indexOfStandardizeDay, Tensor xs, Tensor ys, String fingerprint) {
+        IAE.is1D(apns, "apns");
+        IAE.is1D(days, "days");
+        IAE.is2D(xs, "xs");
+        IAE.is1D(ys, "ys");
+        this.apns = apns;
+        this.days = days;
+        this.indexOfStandardizedDay = indexOfStandardizeDay;
+        this.xs = xs;
+        this.ys = ys;
+        this.fingerprint = fingerprint;
+        setDaysStandardizationValues();
+        for (int i = apns.getSize(0) - 1; i >= 0; i--)
+            firstIndices.put(apns.get(i), i);
+    }
+
+    /**
+     * Read and return the estimation data from the file system.
+     * @param obs      observation set name; ex: "1A"
+     * @param dataDir  path to data directory; ex: "/home/roy/..."
+     * @return         collection of estimation data
+     */
+    public static EstimationData read(String obs, String dataDir) {
+        IAE.notNull(obs, "obs");
+        IAE.notNull(dataDir, "dataDir");
+        String obsDir = dataDir + "generated-v4/obs" + obs + "/";
+        String featuresDir = obsDir + "features/";
+        String separatorRegex = "\\|";
+
+        // read only the needed columns from the column store, if CreateFeatures wrote it
+        ColumnStoreReader store = CreateFeaturesCombined.openFeatures(obsDir, obs, "apns", "day", "SALE-AMOUNT-log");
+        if (store != null) {
+            final String[] xsNames = CreateFeaturesCombined.makeInFieldNames(obs);
+            final Tensor xs = store.readColumns(xsNames).getTensor();
+            final Tensor ys = store.readColumn("SALE-AMOUNT-log");
+            final Tensor apns = store.readColumn("apns");
+            final Tensor days = store.readColumn("day");
+            store.close();
+            final String storePath = CreateFeatures.columnStorePath(obsDir);
+            final int indexOfStandardizedDay = Arrays.asList(xsNames).indexOf("day-std");
+            if (indexOfStandardizedDay < 0)
+                throw new RuntimeException("day-std not found");
+            final String fingerprint = Fingerprint.of(xs, ys, new String[] {storePath}, storePath + ".estimation-fingerprint");
+            return new EstimationData(apns, days, indexOfStandardizedDay, xs, ys, fingerprint);
+        }
+
+        // read in features and determine the column index that contains the standardized day value
+        final String xsFilePath = obsDir + "features-combined.csv";
+        final String ysFilePath = featuresDir + "SALE-AMOUNT-log.csv";
+        CsvReader csvReader = new CsvReader(xsFilePath, separatorRegex);
+        DataFrame dataFrame = csvReader.readAll(Runtime.getRuntime().availableProcessors());
+        int indexOfStandardizedDay;
+        for (indexOfStandardizedDay = 0; indexOfStandardizedDay < dataFrame.getNames().size(); indexOfStandardizedDay++) {
+            if (dataFrame.getNames().get(indexOfStandardizedDay).equals("day-std"))
+                break;
+        }
+        if (indexOfStandardizedDay == dataFrame.getNames().size())
+            throw new RuntimeException("day-std not found");
+
+        // the fingerprint identifies the data in the checkpoints; its sidecar also records the apns and days files
+        final String apnsFilePath = featuresDir + "apns.csv";
+        final String dayFilePath = featuresDir + "day.csv";
+        final Tensor xs = dataFrame.getTensor();
+        final Tensor ys = new CsvReader(ysFilePath, separatorRegex).readOnlyColumn().getTensor();
+        final String fingerprint = Fingerprint.of(xs, ys, new String[] {xsFilePath, ysFilePath, apnsFilePath, dayFilePath},
+                xsFilePath + ".estimation-fingerprint");
+        return new EstimationData(new CsvReader(apnsFilePath, separatorRegex).readOnlyColumn().getTensor(), new CsvReader(
+                dayFilePath, separatorRegex).readOnlyColumn().getTensor(), indexOfStandardizedDay, xs, ys, fingerprint);
+    }
+
+    /**
+     * Return standardized day number for a date YYYYMMDD
+     * @param date  the date "YYYYMMDD"
+     * @return      the standardized day number (number of days past epoch, standardized)
+     */
+    public double standardizedDay(String date) {
+        IAE.notNull(date, "date");
+        long dayNumber = Date.daysPastEpoch(date);
+        return (dayNumber - daysMean) / daysStandardDeviation;
+    }
+
+    /**
+     * Return the index of the first transaction for an APN.
+     * @param apn  the APN
+     * @return     the index in the apns and the rows of xs, or -1 if there is no transaction for the APN
+     */
+    public int firstIndexOf(double apn) {
+        Integer result = firstIndices.get(apn);
+        return (result == null) ? -1 : result;
+    }
+
+    /**
+     * Determine factors (mean and standard deviation) needed to standardize day numbers.
+     */
+    private void setDaysStandardizationValues() {
+        // compute from first principles
+        this.daysMean = Tensor.mean(days);
+        this.daysStandardDeviation = Tensor.std(days);
+    }
+}
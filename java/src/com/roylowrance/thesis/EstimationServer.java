@@ -0,0 +1,287 @@
+package com.roylowrance.thesis;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.roylowrance.util.CommandLine;
+import com.roylowrance.util.Tensor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+// a resident server answering k nearest neighbors estimates over HTTP on the loopback interface,
+// so that the estimation data are read and the index built once rather than by every program
+//
+// synopsis:
+// EstimationServer server = new EstimationServer(estimationData, index, port, numberThreads);  // port 0 for any free port
+// server.start();
+// int port = server.getPort();
+// String record = server.estimate("apn,date,k");     // also answered without HTTP
+// server.stop();
+//
+// command line:
+// EstimationServer --dataDir=../../data/ --obs=1A [--port=8765] [--index=brute|kdtree|balltree|auto|hnsw] [--efSearch=N] [--threads=T]
+//
+// Each request holds one item per line, so that a client can send any number of items at once
+// (see EstimationClient). The response holds one line per item, in the same order.
+//   POST /estimate  items apn,date,k       -> apn,date,k,value, the record written by CreateEstimates
+//   POST /query     items k,x1,x2,...,xd   -> the average of the ys of the k nearest rows, in full precision
+//   GET  /stats                            -> name=value lines: requests, items, errors, and the
+//                                             p50, p90, p99 and max latency of recent requests in microseconds
+// An item that cannot be estimated fails its request with status 400 and a message.
+//
+// The requests are answered by numberThreads threads, which share the estimation data and index, so
+// the index must be thread safe, as all the NearestNeighborIndex implementations are.
+public class EstimationServer {
+    public final static int DEFAULT_PORT = 8765;
+    private final static int LATENCIES_KEPT = 1 << 16; // latencies of the most recent requests
+
+    private final EstimationData estimationData;
+    private final KNearestNeighbors knn;
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+    private final Latencies latencies = new Latencies(LATENCIES_KEPT);
+
+    // construct, listening on the loopback interface at the port; 0 for a free port
+    public EstimationServer(EstimationData estimationData, NearestNeighborIndex index, int port, int numberThreads) {
+        IAE.notNull(estimationData, "estimationData");
+        IAE.notNull(index, "index");
+        IAE.nonNegative(port, "port");
+        IAE.positive(numberThreads, "numberThreads");
+        this.estimationData = estimationData;
+        this.knn = new KNearestNeighbors(estimationData.xs, estimationData.ys, null, "", index); // no cache
+        try {this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);}
+        catch (IOException e) {throw new RuntimeException("IOException creating server on port " + port + "; e=" + e);}
+        this.executor = Executors.newFixedThreadPool(numberThreads);
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/estimate", new ItemsHandler() {
+            @Override
+            protected String answer(String item) {
+                return estimate(item);
+            }
+        });
+        httpServer.createContext("/query", new ItemsHandler() {
+            @Override
+            protected String answer(String item) {
+                return query(item);
+            }
+        });
+        httpServer.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, stats());
+            }
+        });
+    }
+
+    // start answering requests
+    public void start() {
+        httpServer.start();
+    }
+
+    // stop answering requests, waiting up to a second for those being answered
+    public void stop() {
+        httpServer.stop(1);
+        executor.shutdownNow();
+    }
+
+    // return the port listened to
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    // return the estimate record "apn,date,k,value" for an item "apn,date,k"
+    // the value is estimated as CreateEstimates does, from the features of the first transaction for the APN
+    public String estimate(String item) {
+        IAE.notNull(item, "item");
+        String[] fields = item.split(",");
+        if (fields.length != 3)
+            throw new IllegalArgumentException("item is not apn,date,k; item=" + item);
+        final double apn = parseDouble(fields[0], item);
+        final String date = fields[1];
+        final int k = parseInt(fields[2], item);
+        if (!date.matches("[0-9]{8}"))
+            throw new IllegalArgumentException("date is not YYYYMMDD; item=" + item);
+        final int index = estimationData.firstIndexOf(apn);
+        if (index < 0)
+            throw new IllegalArgumentException("no transaction for the apn; item=" + item);
+
+        // the query is a copy, as the row is a view of the xs
+        final int omitNoXsRow = -1;
+        Tensor query = Tensor.newInstance(estimationData.xs.selectRow(index));
+        query.set(estimationData.indexOfStandardizedDay, estimationData.standardizedDay(date));
+        return String.format("%.0f,%s,%d,%.2f", apn, date, k, Math.exp(knn.estimate(k, query, omitNoXsRow)));
+    }
+
+    // return the estimate for an item "k,x1,x2,...,xd", where the xs are the features of the query
+    public String query(String item) {
+        IAE.notNull(item, "item");
+        String[] fields = item.split(",");
+        final int dimensions = estimationData.xs.getSize(1);
+        if (fields.length != dimensions + 1)
+            throw new IllegalArgumentException("item does not have k and " + dimensions + " features; item=" + item);
+        final int k = parseInt(fields[0], item);
+        Tensor query = new Tensor(dimensions);
+        for (int d = 0; d < dimensions; d++)
+            query.set(d, parseDouble(fields[d + 1], item));
+        final int omitNoXsRow = -1;
+        return Double.toString(knn.estimate(k, query, omitNoXsRow));
+    }
+
+    // return the statistics as name=value lines
+    public String stats() {
+        return latencies.toString();
+    }
+
+    /**
+     * Serve estimates until the process is stopped.
+     *
+     * @param commandLineArguments       command line from operating system
+     */
+    public static void main(String[] commandLineArguments) {
+        final CommandLine commandLine = new CommandLine(commandLineArguments);
+        commandLine.println();
+        final String dataDir = commandLine.optionValue("--dataDir");
+        final String obs = commandLine.optionValue("--obs");
+        final int port = commandLine.isPresent("--port") ? commandLine.optionValueInteger("--port") : DEFAULT_PORT;
+        final String indexKind =
+                commandLine.isPresent("--index") ? commandLine.optionIsOneOf("--index", NearestNeighborIndexes.KINDS) : "brute";
+        final int efSearch =
+                commandLine.isPresent("--efSearch") ? commandLine.optionValueInteger("--efSearch") : NearestNeighborIndexes.HNSW_EF_SEARCH;
+        final int numberThreads =
+                commandLine.isPresent("--threads") ? commandLine.optionValueInteger("--threads") : Runtime.getRuntime().availableProcessors();
+
+        EstimationData estimationData = EstimationData.read(obs, dataDir);
+        // the hnsw graph is shared with CreateEstimates
+        final NearestNeighborIndex index = indexKind.equals("hnsw") ?
+                NearestNeighborIndexes.makeHnsw(estimationData.xs, dataDir + "generated-v4/obs" + obs + "/caches/hnsw-graph.bin", efSearch) :
+                NearestNeighborIndexes.make(indexKind, estimationData.xs);
+        final EstimationServer server = new EstimationServer(estimationData, index, port, numberThreads);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        server.start();
+        System.out.format("serving estimates for obs %s on 127.0.0.1:%d with %d threads%n", obs, server.getPort(), numberThreads);
+    }
+
+    ////////////////////// private
+
+    // answer each line of the request body, timing the request
+    private abstract class ItemsHandler implements HttpHandler {
+        protected abstract String answer(String item);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final long startTime = System.nanoTime();
+            if (!exchange.getRequestMethod().equals("POST")) {
+                latencies.error();
+                respond(exchange, 405, "use POST\n");
+                return;
+            }
+            List<String> items = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0)
+                    items.add(line);
+            }
+            reader.close();
+
+            StringBuilder response = new StringBuilder();
+            try {
+                for (String item : items)
+                    response.append(answer(item)).append('\n');
+            }
+            catch (RuntimeException e) {
+                latencies.error();
+                respond(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+            respond(exchange, 200, response.toString());
+            latencies.record(System.nanoTime() - startTime, items.size());
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = toBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+
+    private static byte[] toBytes(String s) {
+        try {return s.getBytes("UTF-8");}
+        catch (UnsupportedEncodingException e) {throw new RuntimeException(e);}
+    }
+
+    private static double parseDouble(String field, String item) {
+        try {return Double.valueOf(field);}
+        catch (NumberFormatException e) {throw new IllegalArgumentException("not a number: " + field + "; item=" + item);}
+    }
+
+    private static int parseInt(String field, String item) {
+        try {return Integer.valueOf(field);}
+        catch (NumberFormatException e) {throw new IllegalArgumentException("not an integer: " + field + "; item=" + item);}
+    }
+
+    // counts of requests and the latencies of the most recent ones
+    private static class Latencies {
+        private final long[] nanos;
+        private long requests;
+        private long items;
+        private long errors;
+
+        public Latencies(int capacity) {
+            nanos = new long[capacity];
+        }
+
+        public synchronized void record(long elapsedNanos, int numberItems) {
+            nanos[(int) (requests % nanos.length)] = elapsedNanos;
+            requests++;
+            items += numberItems;
+        }
+
+        public synchronized void error() {
+            errors++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            final int kept = (int) Math.min(requests, nanos.length);
+            long[] sorted = Arrays.copyOf(nanos, kept);
+            Arrays.sort(sorted);
+            StringBuilder result = new StringBuilder();
+            result.append("requests=").append(requests).append('\n');
+            result.append("items=").append(items).append('\n');
+            result.append("errors=").append(errors).append('\n');
+            result.append("p50Micros=").append(percentile(sorted, 50) / 1000).append('\n');
+            result.append("p90Micros=").append(percentile(sorted, 90) / 1000).append('\n');
+            result.append("p99Micros=").append(percentile(sorted, 99) / 1000).append('\n');
+            result.append("maxMicros=").append(kept == 0 ? 0 : sorted[kept - 1] / 1000).append('\n');
+            return result.toString();
+        }
+
+        // nearest rank percentile; 0 if there are none
+        private static long percentile(long[] sorted, int percent) {
+            if (sorted.length == 0)
+                return 0;
+            final int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+    }
+}
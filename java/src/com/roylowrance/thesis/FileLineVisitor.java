@@ -3,15 +3,34 @@ package com.roylowrance.thesis;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.roylowrance.util.FieldTokenizer;
+import com.roylowrance.util.ParallelLineReader;
+import com.roylowrance.util.ReadAheadInputStream;
 
 // visit each line in a file
+//
+// The file is read ahead of the visitor on a background thread, and decompressed if its name ends with .gz;
+// see ReadAheadInputStream.
+//
+// visitParallel visits the lines on several threads: the file is split into chunks at line ends, and the
+// lines of each chunk are visited, in order, by a visitor made for that chunk. The visitors are returned
+// in the order of their chunks, so that their results can be combined in file order. A compressed file
+// cannot be split, so its lines are visited by one visitor on this thread.
 public class FileLineVisitor {
+	private final static int READ_AHEAD_CHARS = 1 << 16;
+	
 	private BufferedReader bufferedReader;
 
 	public FileLineVisitor(String filePath) throws FileNotFoundException {
-		bufferedReader = new BufferedReader(new FileReader(new File(filePath)));
+		if (!new File(filePath).isFile())
+			throw new FileNotFoundException(filePath);
+		bufferedReader = new BufferedReader(new InputStreamReader(new ReadAheadInputStream(
+				ReadAheadInputStream.openFile(filePath), filePath)), READ_AHEAD_CHARS);
 	}
 
 	public void close() throws IOException {
@@ -26,6 +45,11 @@ public class FileLineVisitor {
 		public void end(); // called after last visit
 	}
 
+	// make the visitor for a chunk of a file; called on several threads
+	public interface VisitorFactory<V extends Visitor> {
+		public V make(int chunkIndex);
+	}
+
 	// visit up to throttle input lines
 	// set throttle to 0 to visit all lines
 	public void visit(Visitor visitor, int throttle) throws IOException {
@@ -37,4 +61,41 @@ public class FileLineVisitor {
 		visitor.end();
 	}
 
+	// visit every line of the file on numberThreads threads, with one visitor per chunk of the file
+	// return the visitors, in file order
+	// the lines must end with \n or \r\n
+	public static <V extends Visitor> List<V> visitParallel(String filePath, int numberThreads, final VisitorFactory<V> factory) {
+		if (ReadAheadInputStream.isGzip(filePath)) {
+			final int chunkIndex = 0;
+			V visitor = factory.make(chunkIndex);
+			List<V> result = new ArrayList<V>();
+			try {
+				FileLineVisitor flv = new FileLineVisitor(filePath);
+				final int throttle = 0;
+				flv.visit(visitor, throttle);
+				flv.close();
+			}
+			catch (IOException e) {throw new RuntimeException("IOException reading " + filePath + "; e=" + e);}
+			result.add(visitor);
+			return result;
+		}
+		final char anyDelimiter = '\t'; // the lines are not split into fields
+		ParallelLineReader reader = new ParallelLineReader(filePath, anyDelimiter, numberThreads);
+		try {
+			final boolean skipFirstLine = false;
+			return reader.parse(new ParallelLineReader.ChunkParser<V>() {
+				@Override
+				public V parse(FieldTokenizer lines, int chunkIndex) {
+					V visitor = factory.make(chunkIndex);
+					visitor.start();
+					while (lines.next())
+						visitor.visit(lines.getLine());
+					visitor.end();
+					return visitor;
+				}
+			}, skipFirstLine);
+		}
+		finally {reader.close();}
+	}
+
 }
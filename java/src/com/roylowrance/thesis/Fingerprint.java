@@ -0,0 +1,252 @@
+package com.roylowrance.thesis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.roylowrance.util.Tensor;
+
+// the SHA fingerprint of xs and ys, which names the files built from them (see Nearest256Ys)
+//
+// synopsis:
+// String fingerprint = Fingerprint.of(xs, ys);                         // computed once per process for the xs and ys
+// String fingerprint = Fingerprint.of(xs, ys, dataFilePaths, sidecarPath); // read from the sidecar if the data files are unchanged
+//
+// The digest is the SHA of, for each row i, the 8 big-endian bytes of ys[i] then of xs[i,0], ..., xs[i,d-1].
+// That is the digest files have always been named by, so the fingerprint of the same data is unchanged.
+// SHA is sequential, so the digest is computed on one thread, but the bytes are packed from the Tensor
+// storage by other threads, a chunk of rows at a time, into buffers that are reused.
+//
+// The sidecar holds the size and last-modified time of each data file and the fingerprint; when the
+// data files have the same sizes and times, the fingerprint is read rather than computed.
+//
+// The fingerprint of the xs and ys most recently fingerprinted is remembered, so they must not be
+// changed afterwards.
+public class Fingerprint {
+    private final static int CHUNK_BYTES = 1 << 20; // bytes packed per task
+    private final static String FINGERPRINT_KEY = "fingerprint";
+
+    private static WeakReference<Tensor> lastXs = new WeakReference<Tensor>(null);
+    private static WeakReference<Tensor> lastYs = new WeakReference<Tensor>(null);
+    private static String lastFingerprint;
+
+    // return fingerprint of the xs and ys, computing it unless it was the last one found
+    public static String of(Tensor xs, Tensor ys) {
+        IAE.is2D(xs, "xs");
+        IAE.is1D(ys, "ys");
+        String remembered = recall(xs, ys);
+        if (remembered != null)
+            return remembered;
+        String fingerprint = compute(xs, ys);
+        remember(xs, ys, fingerprint);
+        return fingerprint;
+    }
+
+    // return fingerprint of the xs and ys, which were read from the data files
+    // if the sidecar was written for data files of the same sizes and last-modified times, its
+    // fingerprint is used; otherwise the fingerprint is computed and the sidecar rewritten
+    public static String of(Tensor xs, Tensor ys, String[] dataFilePaths, String sidecarPath) {
+        IAE.is2D(xs, "xs");
+        IAE.is1D(ys, "ys");
+        IAE.notNull(dataFilePaths, "dataFilePaths");
+        IAE.notNull(sidecarPath, "sidecarPath");
+        List<String> keys = sidecarKeys(dataFilePaths);
+
+        String fingerprint = readSidecar(sidecarPath, keys);
+        if (fingerprint == null) {
+            fingerprint = compute(xs, ys);
+            writeSidecar(sidecarPath, keys, fingerprint);
+        }
+        remember(xs, ys, fingerprint);
+        return fingerprint;
+    }
+
+    // return the fingerprint, always computing it, packing on a thread per processor
+    public static String compute(Tensor xs, Tensor ys) {
+        return compute(xs, ys, Runtime.getRuntime().availableProcessors());
+    }
+
+    // return the fingerprint, always computing it, packing on up to numberThreads threads
+    public static String compute(Tensor xs, Tensor ys, int numberThreads) {
+        IAE.is2D(xs, "xs");
+        IAE.is1D(ys, "ys");
+        IAE.positive(numberThreads, "numberThreads");
+        final int numberRows = xs.getSize(0);
+        IAE.equals(ys.getSize(0), numberRows, "one y per row of xs", "ys", "xs");
+
+        MessageDigest md;
+        try {md = MessageDigest.getInstance("SHA");}
+        catch (NoSuchAlgorithmException e) {throw new RuntimeException(e);}
+
+        final int rowBytes = 8 * (xs.getSize(1) + 1);
+        final int rowsPerChunk = Math.max(1, CHUNK_BYTES / rowBytes);
+        final int numberChunks = (numberRows + rowsPerChunk - 1) / rowsPerChunk;
+        if (Math.min(numberThreads, numberChunks) <= 1) {
+            byte[] buffer = new byte[rowsPerChunk * rowBytes];
+            for (int chunk = 0; chunk < numberChunks; chunk++) {
+                final int firstRow = chunk * rowsPerChunk;
+                final int lastRow = Math.min(firstRow + rowsPerChunk, numberRows);
+                pack(xs, ys, firstRow, lastRow, buffer);
+                md.update(buffer, 0, (lastRow - firstRow) * rowBytes);
+            }
+            return toHex(md.digest());
+        }
+
+        // pack up to 2 chunks per thread ahead of the digest, each into a buffer from the ring
+        final int ahead = 2 * Math.min(numberThreads, numberChunks);
+        final byte[][] buffers = new byte[ahead][rowsPerChunk * rowBytes];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numberThreads, numberChunks));
+        List<Future<Integer>> packed = new ArrayList<Future<Integer>>();
+        try {
+            for (int chunk = 0; chunk < Math.min(ahead, numberChunks); chunk++)
+                packed.add(executor.submit(packTask(xs, ys, chunk * rowsPerChunk, rowsPerChunk, buffers[chunk])));
+            for (int chunk = 0; chunk < numberChunks; chunk++) {
+                final int length = packed.get(chunk).get();
+                md.update(buffers[chunk % ahead], 0, length);
+                // the buffer is free, so pack a later chunk into it
+                final int next = chunk + ahead;
+                if (next < numberChunks)
+                    packed.add(executor.submit(packTask(xs, ys, next * rowsPerChunk, rowsPerChunk, buffers[next % ahead])));
+            }
+        }
+        catch (InterruptedException e) {throw new RuntimeException(e);}
+        catch (ExecutionException e) {throw new RuntimeException(e.getCause());}
+        finally {executor.shutdownNow();}
+        return toHex(md.digest());
+    }
+
+    // convert bytes to hex representatives in a String
+    public static String toHex(byte[] bytes) {
+        char[] hexArray = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+        char[] hexChars = new char[bytes.length * 2];
+        for (int j = 0; j < bytes.length; j++) {
+            int v = bytes[j] & 0xFF;
+            hexChars[j*2] = hexArray[v/16];
+            hexChars[j*2 + 1] = hexArray[v%16];
+        }
+        return new String(hexChars);
+    }
+
+    ////////////////////// private
+
+    private static Callable<Integer> packTask(final Tensor xs, final Tensor ys, final int firstRow, final int rowsPerChunk,
+            final byte[] buffer) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return pack(xs, ys, firstRow, Math.min(firstRow + rowsPerChunk, xs.getSize(0)), buffer);
+            }
+        };
+    }
+
+    // write the bytes of rows [firstRow, lastRow) into the buffer, reading the Tensor storage directly
+    // return number of bytes written
+    private static int pack(Tensor xs, Tensor ys, int firstRow, int lastRow, byte[] buffer) {
+        final double[] xsStorage = xs.getStorage();
+        final int xsOffset = xs.getOffset();
+        final int rowStride = xs.getStride(0);
+        final int columnStride = xs.getStride(1);
+        final int dimensions = xs.getSize(1);
+        final double[] ysStorage = ys.getStorage();
+        final int ysOffset = ys.getOffset();
+        final int ysStride = ys.getStride(0);
+
+        int position = 0;
+        for (int row = firstRow; row < lastRow; row++) {
+            position = putDouble(buffer, position, ysStorage[ysOffset + row * ysStride]);
+            int index = xsOffset + row * rowStride;
+            for (int d = 0; d < dimensions; d++) {
+                position = putDouble(buffer, position, xsStorage[index]);
+                index += columnStride;
+            }
+        }
+        return position;
+    }
+
+    // write the value big endian, as ByteBuffer.putDouble does
+    private static int putDouble(byte[] buffer, int position, double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8)
+            buffer[position++] = (byte) (bits >>> shift);
+        return position;
+    }
+
+    private static synchronized String recall(Tensor xs, Tensor ys) {
+        return (lastXs.get() == xs && lastYs.get() == ys) ? lastFingerprint : null;
+    }
+
+    private static synchronized void remember(Tensor xs, Tensor ys, String fingerprint) {
+        lastXs = new WeakReference<Tensor>(xs);
+        lastYs = new WeakReference<Tensor>(ys);
+        lastFingerprint = fingerprint;
+    }
+
+    // return a line path|size|lastModified for each data file
+    private static List<String> sidecarKeys(String[] dataFilePaths) {
+        List<String> keys = new ArrayList<String>();
+        for (String dataFilePath : dataFilePaths) {
+            File file = new File(dataFilePath);
+            if (!file.exists())
+                throw new IllegalArgumentException("data file does not exist; dataFilePath=" + dataFilePath);
+            keys.add(file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified());
+        }
+        return keys;
+    }
+
+    // return the fingerprint in the sidecar, or null if there is none or it was written for other data files
+    private static String readSidecar(String sidecarPath, List<String> keys) {
+        if (!new File(sidecarPath).exists())
+            return null;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(sidecarPath));
+            try {
+                for (String key : keys)
+                    if (!key.equals(reader.readLine()))
+                        return null;
+                String line = reader.readLine();
+                if (line == null || !line.startsWith(FINGERPRINT_KEY + "|"))
+                    return null;
+                return line.substring(FINGERPRINT_KEY.length() + 1);
+            }
+            finally {reader.close();}
+        }
+        catch (IOException e) {throw new RuntimeException("IOException reading " + sidecarPath + "; e=" + e);}
+    }
+
+    // write the sidecar to a temporary file then rename it, so that a reader never sees part of it
+    // several processes may write it at once; as each writes the same content, any one may win
+    private static void writeSidecar(String sidecarPath, List<String> keys, String fingerprint) {
+        File sidecar = new File(sidecarPath);
+        File temporary;
+        try {
+            temporary = File.createTempFile(sidecar.getName() + "-", ".tmp", sidecar.getAbsoluteFile().getParentFile());
+            PrintWriter writer = new PrintWriter(temporary);
+            for (String key : keys)
+                writer.println(key);
+            writer.println(FINGERPRINT_KEY + "|" + fingerprint);
+            writer.close();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException writing sidecar for " + sidecarPath + "; e=" + e);}
+        if (temporary.renameTo(sidecar))
+            return;
+        // some file systems do not rename over an existing file
+        sidecar.delete();
+        if (!temporary.renameTo(sidecar)) {
+            temporary.delete();
+            if (!sidecar.exists())
+                throw new RuntimeException("unable to write sidecar " + sidecarPath);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package com.roylowrance.thesis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import com.roylowrance.util.Log;
+import com.roylowrance.util.Tensor;
+
+// APPROXIMATE nearest neighbors using a hierarchical navigable small world graph
+// ref: Malkov and Yashunin, Efficient and robust approximate nearest neighbor search using
+// Hierarchical Navigable Small World graphs, 2016
+//
+// synopsis:
+// HnswIndex index = new HnswIndex(xs, m, efConstruction, seed);  // build the graph
+// index.save(graphFilePath);                                     // persist the graph
+// HnswIndex index = HnswIndex.load(graphFilePath, xs);           // re-use the graph with the same xs
+// index.setEfSearch(efSearch);                                   // trade recall for latency
+// index.nearest(query, xsRowIndexToOmit, candidates);
+//
+// Each row of xs is a node. Every node is linked to up to 2m near nodes on layer 0; a few
+// nodes also appear on higher, sparser layers with up to m links. A query descends greedily
+// through the upper layers, then runs a best-first search on layer 0 that keeps the efSearch
+// closest nodes seen. Larger efSearch visits more nodes and so gives higher recall. Use
+// KnnRecallStudy to measure recall@256 against the exact answer.
+//
+// Building is single threaded. Queries are thread safe.
+public class HnswIndex extends AbstractNearestNeighborIndex {
+    private final static int MAGIC = 0x484e5357; // "HNSW"
+    private final static int VERSION = 1;
+
+    private final int m;                // maximum links per node on layers >= 1
+    private final int m0;               // maximum links per node on layer 0
+    private final int efConstruction;
+    private int efSearch;
+
+    private int[] levels;               // highest layer of each node
+    private int[] links0;               // node i: links0[i * (m0 + 1)] is the count, followed by the linked nodes
+    private int[][] upperLinks;         // node i, layer l >= 1: same layout starting at upperLinks[i][(l - 1) * (m + 1)]
+    private int entryPoint;
+    private int maxLevel;
+    private double checksum;            // of the xs, to detect a graph file built from other xs
+
+    private ThreadLocal<Scratch> scratch;
+
+    // build the graph over all rows of xs
+    // m: links per node (16 is typical); efConstruction: breadth of search while linking (200 is typical)
+    public HnswIndex(Tensor xs, int m, int efConstruction, long seed) {
+        super(xs);
+        IAE.positive(m, "m");
+        IAE.positive(efConstruction, "efConstruction");
+        Log log = new Log("HnswIndex", true);
+        final long startTime = System.nanoTime();
+
+        this.m = m;
+        this.m0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efConstruction;
+        this.checksum = checksum(xs);
+        initializeScratch();
+
+        levels = new int[numberRows];
+        links0 = new int[numberRows * (m0 + 1)];
+        upperLinks = new int[numberRows][];
+        entryPoint = -1;
+        maxLevel = -1;
+
+        Random random = new Random(seed);
+        final double levelMultiplier = 1 / Math.log(m);
+        final int reportingFrequency = 100000;
+        for (int row = 0; row < numberRows; row++) {
+            final int level = (int) Math.floor(-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+            insert(row, level);
+            if ((row + 1) % reportingFrequency == 0)
+                log.format("inserted %d of %d rows in %f seconds%n", row + 1, numberRows, (System.nanoTime() - startTime) / 1e9);
+        }
+    }
+
+    // construct from a saved graph
+    private HnswIndex(Tensor xs, int m, int efConstruction) {
+        super(xs);
+        this.m = m;
+        this.m0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efConstruction;
+        initializeScratch();
+    }
+
+    // return number of nodes kept while searching layer 0
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    // set number of nodes kept while searching layer 0; larger values give higher recall
+    // nearest() always keeps at least one more than the capacity of its candidates
+    public void setEfSearch(int efSearch) {
+        IAE.positive(efSearch, "efSearch");
+        this.efSearch = efSearch;
+    }
+
+    @Override
+    public void nearest(Tensor query, int xsRowIndexToOmit, NearestCandidates candidates) {
+        IAE.notNull(candidates, "candidates");
+        final double[] q = toArray(query);
+        if (entryPoint == -1)
+            return;
+        Scratch s = scratch.get();
+
+        int[] entry = {entryPoint};
+        for (int layer = maxLevel; layer >= 1; layer--) {
+            NearestCandidates nearest = searchLayer(q, entry, 1, 1, layer, s);
+            entry[0] = nearest.getIndex(0);
+        }
+        final int ef = Math.max(efSearch, candidates.getCapacity() + 1);
+        NearestCandidates found = searchLayer(q, entry, 1, ef, 0, s);
+        for (int i = 0; i < found.size(); i++) {
+            final int row = found.getIndex(i);
+            if (row == xsRowIndexToOmit)
+                continue;
+            candidates.offer(distance(row, q), row);
+        }
+    }
+
+    // write the graph to a file
+    // the graph is written to a temporary file in the same directory, forced to disk, then renamed, so that
+    // a process that finds the file, as loadOrBuild does, never reads part of a graph
+    public void save(String filePath) throws IOException {
+        File file = new File(filePath);
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(file.getName() + ".", ".tmp", directory); // unique, as other processes may be saving
+        try {
+            FileOutputStream stream = new FileOutputStream(temporary);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 20));
+            try {write(out, stream);}
+            finally {out.close();}
+            if (!temporary.renameTo(file))
+                throw new IOException("unable to rename " + temporary + " to " + filePath);
+        }
+        finally {
+            temporary.delete(); // if not renamed
+        }
+    }
+
+    // return graph read from a file written by save(); the xs must be those used to build the graph
+    public static HnswIndex load(String filePath, Tensor xs) throws IOException {
+        IAE.is2D(xs, "xs");
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath), 1 << 20));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not an HNSW graph file; filePath=" + filePath);
+            final int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("unsupported HNSW graph file version; version=" + version);
+            final int numberRows = in.readInt();
+            final int dimensions = in.readInt();
+            if (numberRows != xs.getSize(0) || dimensions != xs.getSize(1))
+                throw new IllegalArgumentException("graph built for " + numberRows + " x " + dimensions + " xs; filePath=" + filePath);
+            final int m = in.readInt();
+            final int efConstruction = in.readInt();
+            HnswIndex result = new HnswIndex(xs, m, efConstruction);
+            result.entryPoint = in.readInt();
+            result.maxLevel = in.readInt();
+            result.checksum = in.readDouble();
+            if (result.checksum != checksum(xs))
+                throw new IllegalArgumentException("graph was built from different xs; filePath=" + filePath);
+            result.levels = new int[numberRows];
+            for (int row = 0; row < numberRows; row++)
+                result.levels[row] = in.readInt();
+            result.links0 = new int[numberRows * (result.m0 + 1)];
+            for (int i = 0; i < result.links0.length; i++)
+                result.links0[i] = in.readInt();
+            result.upperLinks = new int[numberRows][];
+            for (int row = 0; row < numberRows; row++) {
+                final int level = result.levels[row];
+                if (level == 0)
+                    continue;
+                result.upperLinks[row] = new int[level * (m + 1)];
+                for (int i = 0; i < result.upperLinks[row].length; i++)
+                    result.upperLinks[row][i] = in.readInt();
+            }
+            return result;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    // return graph from the file if it exists; otherwise build the graph and save it in the file
+    public static HnswIndex loadOrBuild(String filePath, Tensor xs, int m, int efConstruction) throws IOException {
+        if (new File(filePath).exists())
+            return load(filePath, xs);
+        final long seed = 27;
+        HnswIndex result = new HnswIndex(xs, m, efConstruction, seed);
+        result.save(filePath);
+        return result;
+    }
+
+    ////////////////////// private
+
+    // write the graph to out, then force the stream under it to disk
+    private void write(DataOutputStream out, FileOutputStream stream) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(numberRows);
+        out.writeInt(dimensions);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        out.writeDouble(checksum);
+        for (int row = 0; row < numberRows; row++)
+            out.writeInt(levels[row]);
+        for (int i = 0; i < links0.length; i++)
+            out.writeInt(links0[i]);
+        for (int row = 0; row < numberRows; row++) {
+            if (levels[row] == 0)
+                continue;
+            for (int value : upperLinks[row])
+                out.writeInt(value);
+        }
+        out.flush();
+        stream.getChannel().force(false);
+    }
+
+    // per-thread working storage for searches
+    private static class Scratch {
+        public int[] visited;   // visited[node] == generation iff node visited in current search
+        public int generation;
+        public MinHeap toVisit = new MinHeap();
+
+        public Scratch(int numberRows) {
+            visited = new int[numberRows];
+        }
+
+        // start a new search
+        public void nextGeneration() {
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                java.util.Arrays.fill(visited, 0);
+                generation = 1;
+            }
+        }
+    }
+
+    // growable binary min-heap of (distance, node) pairs
+    private static class MinHeap {
+        private double[] distances = new double[64];
+        private int[] nodes = new int[64];
+        private int size;
+
+        public void clear() {size = 0;}
+        public boolean isEmpty() {return size == 0;}
+        public double peekDistance() {return distances[0];}
+
+        public void push(double distance, int node) {
+            if (size == distances.length) {
+                distances = java.util.Arrays.copyOf(distances, 2 * size);
+                nodes = java.util.Arrays.copyOf(nodes, 2 * size);
+            }
+            int child = size++;
+            while (child > 0) {
+                final int parent = (child - 1) / 2;
+                if (distances[parent] <= distance)
+                    break;
+                distances[child] = distances[parent];
+                nodes[child] = nodes[parent];
+                child = parent;
+            }
+            distances[child] = distance;
+            nodes[child] = node;
+        }
+
+        // remove the smallest pair; return its node
+        public int pop() {
+            final int result = nodes[0];
+            size--;
+            final double distance = distances[size];
+            final int node = nodes[size];
+            int parent = 0;
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && distances[child + 1] < distances[child])
+                    child++;
+                if (distances[child] >= distance)
+                    break;
+                distances[parent] = distances[child];
+                nodes[parent] = nodes[child];
+                parent = child;
+            }
+            distances[parent] = distance;
+            nodes[parent] = node;
+            return result;
+        }
+    }
+
+    private void initializeScratch() {
+        final int n = numberRows;
+        scratch = new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch(n);
+            }
+        };
+    }
+
+    // a position-weighted sum of the xs
+    private static double checksum(Tensor xs) {
+        double result = xs.getSize(0) * 31.0 + xs.getSize(1);
+        for (int i = 0; i < xs.getSize(0); i++)
+            for (int j = 0; j < xs.getSize(1); j++)
+                result += xs.get(i, j) * (1 + (i + j) % 7);
+        return result;
+    }
+
+    private int[] linkArray(int node, int layer) {
+        return (layer == 0) ? links0 : upperLinks[node];
+    }
+
+    private int linkOffset(int node, int layer) {
+        return (layer == 0) ? node * (m0 + 1) : (layer - 1) * (m + 1);
+    }
+
+    private int maxLinks(int layer) {
+        return (layer == 0) ? m0 : m;
+    }
+
+    private double squaredDistance(int row, double[] q) {
+        int index = offset + row * rowStride;
+        double sumSquaredDifferences = 0;
+        for (int d = 0; d < dimensions; d++) {
+            final double difference = storage[index] - q[d];
+            sumSquaredDifferences += difference * difference;
+            index += columnStride;
+        }
+        return sumSquaredDifferences;
+    }
+
+    private double squaredDistance(int row1, int row2) {
+        int index1 = offset + row1 * rowStride;
+        int index2 = offset + row2 * rowStride;
+        double sumSquaredDifferences = 0;
+        for (int d = 0; d < dimensions; d++) {
+            final double difference = storage[index1] - storage[index2];
+            sumSquaredDifferences += difference * difference;
+            index1 += columnStride;
+            index2 += columnStride;
+        }
+        return sumSquaredDifferences;
+    }
+
+    // best-first search of one layer; return the ef closest nodes found, sorted on squared distance
+    private NearestCandidates searchLayer(double[] q, int[] entries, int numberEntries, int ef, int layer, Scratch s) {
+        s.nextGeneration();
+        final int generation = s.generation;
+        final int[] visited = s.visited;
+        MinHeap toVisit = s.toVisit;
+        toVisit.clear();
+        NearestCandidates found = new NearestCandidates(ef);
+
+        for (int i = 0; i < numberEntries; i++) {
+            final int entry = entries[i];
+            visited[entry] = generation;
+            final double distance = squaredDistance(entry, q);
+            toVisit.push(distance, entry);
+            found.offer(distance, entry);
+        }
+
+        while (!toVisit.isEmpty()) {
+            if (found.isFull() && toVisit.peekDistance() > found.worstDistance())
+                break;
+            final int node = toVisit.pop();
+            final int[] links = linkArray(node, layer);
+            final int base = linkOffset(node, layer);
+            final int count = links[base];
+            for (int i = 1; i <= count; i++) {
+                final int neighbor = links[base + i];
+                if (visited[neighbor] == generation)
+                    continue;
+                visited[neighbor] = generation;
+                final double distance = squaredDistance(neighbor, q);
+                if (!found.isFull() || distance < found.worstDistance()) {
+                    toVisit.push(distance, neighbor);
+                    found.offer(distance, neighbor);
+                }
+            }
+        }
+        found.sort();
+        return found;
+    }
+
+    // add a row to the graph
+    private void insert(int row, int level) {
+        levels[row] = level;
+        if (level > 0)
+            upperLinks[row] = new int[level * (m + 1)];
+        if (entryPoint == -1) {
+            entryPoint = row;
+            maxLevel = level;
+            return;
+        }
+
+        final double[] q = new double[dimensions];
+        for (int d = 0; d < dimensions; d++)
+            q[d] = x(row, d);
+        Scratch s = scratch.get();
+
+        int[] entries = {entryPoint};
+        int numberEntries = 1;
+        for (int layer = maxLevel; layer > level; layer--) {
+            NearestCandidates nearest = searchLayer(q, entries, numberEntries, 1, layer, s);
+            entries[0] = nearest.getIndex(0);
+        }
+        int[] selected = new int[m0];
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            NearestCandidates found = searchLayer(q, entries, numberEntries, efConstruction, layer, s);
+            final int numberSelected = selectNeighbors(found, maxLinks(layer), selected);
+
+            final int[] links = linkArray(row, layer);
+            final int base = linkOffset(row, layer);
+            links[base] = numberSelected;
+            for (int i = 0; i < numberSelected; i++) {
+                links[base + 1 + i] = selected[i];
+                addLink(selected[i], row, layer);
+            }
+
+            // the nodes found are the entry points for the next layer down
+            entries = new int[found.size()];
+            for (int i = 0; i < found.size(); i++)
+                entries[i] = found.getIndex(i);
+            numberEntries = found.size();
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = row;
+        }
+    }
+
+    // link from node to newNeighbor, shrinking node's links if there are too many
+    private void addLink(int node, int newNeighbor, int layer) {
+        final int[] links = linkArray(node, layer);
+        final int base = linkOffset(node, layer);
+        final int count = links[base];
+        final int max = maxLinks(layer);
+        if (count < max) {
+            links[base + 1 + count] = newNeighbor;
+            links[base] = count + 1;
+            return;
+        }
+        NearestCandidates all = new NearestCandidates(count + 1);
+        for (int i = 1; i <= count; i++)
+            all.offer(squaredDistance(node, links[base + i]), links[base + i]);
+        all.offer(squaredDistance(node, newNeighbor), newNeighbor);
+        all.sort();
+        int[] selected = new int[max];
+        final int numberSelected = selectNeighbors(all, max, selected);
+        links[base] = numberSelected;
+        for (int i = 0; i < numberSelected; i++)
+            links[base + 1 + i] = selected[i];
+    }
+
+    // choose up to max neighbors from the sorted candidates, preferring diverse directions:
+    // a candidate is skipped if it is closer to an already selected neighbor than to the base node
+    // skipped candidates fill any remaining slots
+    // return number selected
+    private int selectNeighbors(NearestCandidates sorted, int max, int[] selected) {
+        int numberSelected = 0;
+        boolean[] skipped = new boolean[sorted.size()];
+        for (int i = 0; i < sorted.size() && numberSelected < max; i++) {
+            final int candidate = sorted.getIndex(i);
+            final double distanceToBase = sorted.getDistance(i);
+            boolean isDiverse = true;
+            for (int j = 0; j < numberSelected; j++) {
+                if (squaredDistance(candidate, selected[j]) < distanceToBase) {
+                    isDiverse = false;
+                    break;
+                }
+            }
+            if (isDiverse)
+                selected[numberSelected++] = candidate;
+            else
+                skipped[i] = true;
+        }
+        for (int i = 0; i < sorted.size() && numberSelected < max; i++) {
+            if (skipped[i])
+                selected[numberSelected++] = sorted.getIndex(i);
+        }
+        return numberSelected;
+    }
+}
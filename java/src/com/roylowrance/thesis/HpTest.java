@@ -5,11 +5,20 @@ package com.roylowrance.thesis;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.roylowrance.util.CommandLine;
 import com.roylowrance.util.Date;
 import com.roylowrance.util.Log;
 import com.roylowrance.util.Represents;
+import com.roylowrance.util.Tensor;
 
 /**
  * Determine the pair (RMSE,fraction within 10 percent) for a single set of test parameters and write results to a txt file containing the
@@ -17,12 +26,15 @@ import com.roylowrance.util.Represents;
  * <p>
  * The text file contains one row in the format <p>hp1|hp2|...|hpN|rmse|within10
  * <p>
- * This implementation handles only testing of knn for which there is one hyperparameter k.
+ * This implementation handles only testing of knn for which there is one hyperparameter k. With --kMax=K, every k
+ * in 1 .. K is tested in one pass over the test transactions and one text file is written for each k.
  * 
  * @author Roy Lowrance
  * 
  */
 public class HpTest {
+    private final static int PARALLEL_WINDOW = 4096; // test transactions whose errors are held before being summed
+    private final static int PARALLEL_TILE = 64;     // test transactions evaluated together by one thread
 
 
     /**
@@ -30,7 +42,7 @@ public class HpTest {
      * @author roy
      *
      */
-    private static class IsTestDayNumber {
+    public static class IsTestDayNumber {
         private long lowestDayNumber;
         private long highestDayNumber;
 
@@ -69,9 +81,14 @@ public class HpTest {
      * <li> --algo=knn 
      * <li> --dataDir=pathToDataDirectory 
      * <li> --k=N a single k value to test (by producing RMSE and fraction within 10 percent)
+     * <li> --kMax=K instead of --k, test each k in 1 .. K, writing the file for each k
      * <li> --obs=[1A|2R|3R] observation set to use; only 2R is implemented so far 
      * <li> --testDateFirst=YYYYMMDD first test date (ex: 20000101) 
      * <li> --testDateLast=YYYYMMDD
+     * <li> --threads=T optional; if present, search for the neighbors of tiles of test transactions together
+     *      with a BatchDistanceIndex using T threads
+     * <li> --parallel=P optional, instead of --threads; if present, evaluate tiles of test transactions on P
+     *      threads. The results are identical to those of a single-threaded run.
      * </ul>
      * 
      * @param commandLineArguments  the command line from operating system
@@ -86,7 +103,11 @@ public class HpTest {
         CommandLineParameters clp = hs.commandLineValidate(commandLineArguments);
 
         if (clp.algo.equals("knn") && clp.k != null)
-            hs.knnTest(clp.obs, clp.dataDir, clp.k, clp.testDateFirst, clp.testDateLast, new TestData(clp.obs, clp.dataDir));
+            hs.knnTest(clp.obs, clp.dataDir, clp.k, clp.testDateFirst, clp.testDateLast, new TestData(clp.obs, clp.dataDir),
+                    clp.numberThreads, clp.numberParallel);
+        else if (clp.algo.equals("knn") && clp.kMax != null)
+            hs.knnTestAllK(clp.obs, clp.dataDir, clp.kMax, clp.testDateFirst, clp.testDateLast, new TestData(clp.obs, clp.dataDir),
+                    clp.numberThreads, clp.numberParallel);
         else
             throw new RuntimeException("unimplemented case");
 
@@ -94,14 +115,93 @@ public class HpTest {
         System.out.println("Finished.");
     }
 
-    // //////////////////////////////// private classes
+    // //////////////////////////////// classes
 
-    private static class TestResult {
+    public static class TestResult {
         public double rmse;
         public double within10;
     }
 
-    // ////////////////////////////////// private methods
+    // accumulate the errors for the test transactions, in the order estimated
+    private static class TestErrors {
+        public double sumSquaredErrors = 0;
+        public int countNumberWithin10 = 0;
+        public int countEstimated = 0;
+
+        // both estimate and actual are in the log domain
+        public void add(double estimateLog, double actualLog) {
+            add(squaredError(estimateLog, actualLog), isWithin10(estimateLog, actualLog));
+        }
+
+        // add terms computed previously, perhaps on another thread
+        public void add(double squaredError, boolean within10) {
+            countEstimated++;
+            sumSquaredErrors += squaredError;
+            if (within10)
+                countNumberWithin10++;
+        }
+
+        // RMSE partial result based on log values
+        public static double squaredError(double estimateLog, double actualLog) {
+            double error = estimateLog - actualLog;
+            return error * error;
+        }
+
+        // within 10 percent partial result
+        public static boolean isWithin10(double estimateLog, double actualLog) {
+            double estimatePlain = Math.exp(estimateLog);
+            double actualPlain = Math.exp(actualLog);
+            double relativeError = Math.abs((estimatePlain - actualPlain) / actualPlain);
+            return relativeError <= 0.10;
+        }
+
+        public TestResult result() {
+            TestResult testResult = new TestResult();
+            testResult.rmse = Math.sqrt(sumSquaredErrors / countEstimated);
+            testResult.within10 = countNumberWithin10 * 1.0 / countEstimated;
+            return testResult;
+        }
+    }
+
+    // accumulate the errors for every k in 1 .. kMax, in the order estimated
+    // the estimate for k is the average of the first k ys of the neighbors, so a running sum over the
+    // neighbors gives each k's estimate in turn; the sums are formed as KNearestNeighbors.estimate
+    // forms them, hence the results for each k are identical to those of knnTestK
+    private static class TestErrorsAllK {
+        private final TestErrors[] testErrors; // index k - 1
+
+        public TestErrorsAllK(int kMax) {
+            testErrors = new TestErrors[kMax];
+            for (int i = 0; i < kMax; i++)
+                testErrors[i] = new TestErrors();
+        }
+
+        // actual is in the log domain, as are the ys
+        public void add(Neighbors neighbors, Tensor ys, double actualLog) {
+            final int kMax = testErrors.length;
+            IAE.lessEqual(kMax, neighbors.size(), "kMax", "number of pre-computed neighbors for this query");
+            double sumYs = 0;
+            for (int k = 1; k <= kMax; k++) {
+                sumYs += neighbors.getY(ys, k - 1);
+                testErrors[k - 1].add(sumYs / (double) k, actualLog);
+            }
+        }
+
+        public int getCountEstimated() {
+            return testErrors[0].countEstimated;
+        }
+
+        // return the results, index k - 1
+        public TestResult[] result() {
+            TestResult[] result = new TestResult[testErrors.length];
+            for (int i = 0; i < testErrors.length; i++)
+                result[i] = testErrors[i].result();
+            return result;
+        }
+    }
+
+    // ////////////////////////////////// methods
+    // the knnTest* methods that return results are public, so that the paths can be tested against one another
 
     /**
      * Determine RMSE and fraction within 10 percent for hyperparameter k using the knn algorithm and testing
@@ -113,25 +213,87 @@ public class HpTest {
      * @param testDateFirst  first date to test YYYYMMDD
      * @param testDateLast   last date to test YYYYMMDD
      * @param testData       all the test data
+     * @param numberThreads  if not null, number of threads for a BatchDistanceIndex
+     * @param numberParallel if not null, number of threads evaluating the test transactions
+     */
+    private void knnTest(String obs, String dataDir, double k, String testDateFirst, String testDateLast, TestData testData,
+            Integer numberThreads, Integer numberParallel) {
+        String cacheDir = dataDir + "generated-v4/obs" + obs + "/caches/";
+        KNearestNeighbors knn = makeKnn(testData, cacheDir);
+
+        // determine RMSE and fraction within 10 percent of actuals
+        IsTestDayNumber isTestDayNumber = makeTestDayNumber(testDateFirst, testDateLast);
+        TestResult testResult;
+        if (numberParallel != null)
+            testResult = knnTestKsParallel(new int[] {(int) k}, isTestDayNumber, testData, knn, numberParallel)[0];
+        else if (numberThreads != null)
+            testResult = knnTestKBatch(k, isTestDayNumber, testData, knn, numberThreads);
+        else
+            testResult = knnTestK(k, isTestDayNumber, testData, cacheDir, knn);
+
+        writeResult(obs, dataDir, (int) k, testDateFirst, testDateLast, testResult);
+    }
+
+    /**
+     * Determine RMSE and fraction within 10 percent for each k in 1 .. kMax using the knn algorithm, finding
+     * the neighbors of each test transaction once. Write the file knnTest writes for each k.
+     * 
+     * @param obs            name of the observation set
+     * @param dataDir        path to find the data directory
+     * @param kMax           the largest k, at most Nearest256Ys.K_MAX
+     * @param testDateFirst  first date to test YYYYMMDD
+     * @param testDateLast   last date to test YYYYMMDD
+     * @param testData       all the test data
+     * @param numberThreads  if not null, number of threads for a BatchDistanceIndex
+     * @param numberParallel if not null, number of threads evaluating the test transactions
      */
-    private void knnTest(String obs, String dataDir, double k, String testDateFirst, String testDateLast, TestData testData) {
-        String[] keyNames = { "k" };
+    private void knnTestAllK(String obs, String dataDir, int kMax, String testDateFirst, String testDateLast, TestData testData,
+            Integer numberThreads, Integer numberParallel) {
+        IAE.positive(kMax, "kMax");
+        IAE.lessEqual(kMax, Nearest256Ys.K_MAX, "kMax", "maximum pre-computed k value");
         String cacheDir = dataDir + "generated-v4/obs" + obs + "/caches/";
+        KNearestNeighbors knn = makeKnn(testData, cacheDir);
+
+        IsTestDayNumber isTestDayNumber = makeTestDayNumber(testDateFirst, testDateLast);
+        TestResult[] testResults;
+        if (numberParallel != null) {
+            int[] ks = new int[kMax];
+            for (int k = 1; k <= kMax; k++)
+                ks[k - 1] = k;
+            testResults = knnTestKsParallel(ks, isTestDayNumber, testData, knn, numberParallel);
+        }
+        else
+            testResults = knnTestAllKs(kMax, isTestDayNumber, testData, knn, numberThreads);
+        for (int k = 1; k <= kMax; k++)
+            writeResult(obs, dataDir, k, testDateFirst, testDateLast, testResults[k - 1]);
+    }
 
-        // construct the KNearestNeighbors object and read in the cache
+    /**
+     * Construct the KNearestNeighbors object and read in the cache, preferring the binary neighbors file,
+     * which is mapped rather than parsed.
+     * @param testData
+     * @param cacheDir
+     * @return
+     */
+    private KNearestNeighbors makeKnn(TestData testData, String cacheDir) {
         // NOTE: compare log(price), not price
         KNearestNeighbors knn = new KNearestNeighbors(testData.getXs(), testData.getYs(), cacheDir, "-merged");
         final String mergedCacheFileNameSuffix = "-merged";
-        knn.cacheMerge(mergedCacheFileNameSuffix);
-
-        // determine RMSE and fraction within 10 percent of actuals
-        TestResult testResult = knnTestK(k, makeTestDayNumber(testDateFirst, testDateLast), testData, cacheDir, knn);
+        if (!knn.openNeighborsFile(mergedCacheFileNameSuffix))
+            knn.cacheMerge(mergedCacheFileNameSuffix);
+        return knn;
+    }
 
+    /**
+     * Write the file .../analysis/search-knn-OBS-STARTDATE-ENDDATE-k.txt holding the one line k|rmse|within10
+     * and report the result on stdout.
+     */
+    private void writeResult(String obs, String dataDir, int k, String testDateFirst, String testDateLast, TestResult testResult) {
         // write k and result to file
         PrintWriter pw;
         try {
             String filePath = dataDir + "generated-v4/obs" + obs + "/analysis/search-knn" + "-" + obs + "-" + testDateFirst + "-"
-                    + testDateLast + "-" + (int) k + ".txt";
+                    + testDateLast + "-" + k + ".txt";
             pw = new PrintWriter(filePath);
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
@@ -139,7 +301,7 @@ public class HpTest {
 
         // write one record
         final String separator = "|";
-        pw.print(String.format("%03d", (int) k));
+        pw.print(String.format("%03d", k));
         pw.print(separator);
         pw.print(testResult.rmse);
         pw.print(separator);
@@ -149,7 +311,7 @@ public class HpTest {
         pw.close();
 
         // write results to stdout
-        System.out.format("results for k = %d: rmse = %f fraction within 10 percent = %f%n", (int) k, testResult.rmse, testResult.within10);
+        System.out.format("results for k = %d: rmse = %f fraction within 10 percent = %f%n", k, testResult.rmse, testResult.within10);
     }
 
     /**
@@ -161,53 +323,250 @@ public class HpTest {
      * @param knn
      * @return
      */
-    private TestResult knnTestK(double k, IsTestDayNumber isTestDayNumber, TestData testData, String cacheDir, KNearestNeighbors knn) {
+    public TestResult knnTestK(double k, IsTestDayNumber isTestDayNumber, TestData testData, String cacheDir, KNearestNeighbors knn) {
         final boolean debugging = false;
         Log log = new Log("HpTest.appendKnnTestResult", true);
         final boolean printElapsedTime = true;
 
-        double sumSquaredErrors = 0;
-        int countNumberWithin10 = 0;
-        int countEstimated = 0;
+        TestErrors testErrors = new TestErrors();
         final int testIndices = testData.getYs().getSize(0);
+        final int[] dayNumbers = testData.getDayNumbers();
         for (int testIndex = 0; testIndex < testIndices; testIndex++) {
-            long dayNumber = testData.getDays().getLong(testIndex);
+            long dayNumber = dayNumbers[testIndex];
             if (!isTestDayNumber.apply(dayNumber))
                 continue;
-            countEstimated++;
             // both estimate and actual are in the log domain
             final long startTime = System.nanoTime();
             double estimateLog = knn.estimate((int) k, testData.getXs().selectRow(testIndex), testIndex);
+            double actualLog = testData.getYs().get(testIndex);
+            testErrors.add(estimateLog, actualLog);
             final int reportingFrequency = 10000;
-            if (printElapsedTime && countEstimated % reportingFrequency == 1) {
+            if (printElapsedTime && testErrors.countEstimated % reportingFrequency == 1) {
                 final long endTime = System.nanoTime();
                 double elapsedSeconds = (endTime - startTime) / 1e9;
-                System.out.format("HpTest.knnAppendTestResults #%d (testIndex %d of %d) k %.0f took %f seconds%n", countEstimated,
+                System.out.format("HpTest.knnAppendTestResults #%d (testIndex %d of %d) k %.0f took %f seconds%n", testErrors.countEstimated,
                         testIndex, testIndices, k, elapsedSeconds);
             }
-            double actualLog = testData.getYs().get(testIndex);
+            if (debugging)
+                log.format("testIndex %d actualLog %10.6f estimateLog %10.6f error %10.6f%n",
+                        testIndex,actualLog,estimateLog,estimateLog - actualLog);
+        }
+        log.println("testIndices:" + testIndices);
+        log.println("countEstimated:" + testErrors.countEstimated);
+        return testErrors.result();
+    }
 
-            // compute RMSE partial result based on log values
-            double error = estimateLog - actualLog;
-            sumSquaredErrors += error * error;
+    /**
+     * Determine rmse and within10 for the hyperparameter k, searching for the neighbors of tiles of test
+     * transactions together. The errors are accumulated in the same order as in knnTestK.
+     * @param k
+     * @param isTestDayNumber
+     * @param testData
+     * @param knn
+     * @param numberThreads
+     * @return
+     */
+    public TestResult knnTestKBatch(double k, IsTestDayNumber isTestDayNumber, TestData testData, KNearestNeighbors knn, int numberThreads) {
+        Log log = new Log("HpTest.knnTestKBatch", true);
+        IAE.positive(numberThreads, "numberThreads");
+        BatchDistanceIndex batch = new BatchDistanceIndex(testData.getXs(), numberThreads);
+        final int tileSize = 64 * numberThreads;
 
-            // compute within 10 percent partial result
-            double estimatePlain = Math.exp(estimateLog);
-            double actualPlain = Math.exp(actualLog);
-            double relativeError = Math.abs((estimatePlain - actualPlain) / actualPlain);
-            if (relativeError <= 0.10)
-                countNumberWithin10++;
-            if (debugging)
-                log.format("testIndex %d actualLog %10.6f estimateLog %10.6f error %10.6f%n" +
-                        "actualPlain %10.0f estimatePlain %10.0f relerror %10.6f%n",
-                        testIndex,actualLog,estimateLog,error,actualPlain,estimatePlain,relativeError);
+        TestErrors testErrors = new TestErrors();
+        final int testIndices = testData.getYs().getSize(0);
+        final int[] dayNumbers = testData.getDayNumbers();
+        int[] tile = new int[tileSize];
+        int tileLength = 0;
+        try {
+            for (int testIndex = 0; testIndex < testIndices; testIndex++) {
+                long dayNumber = dayNumbers[testIndex];
+                if (isTestDayNumber.apply(dayNumber))
+                    tile[tileLength++] = testIndex;
+                if (tileLength == tileSize || (testIndex == testIndices - 1 && tileLength > 0)) {
+                    final long startTime = System.nanoTime();
+                    double[] estimatesLog = knn.estimateRows((int) k, Arrays.copyOf(tile, tileLength), batch);
+                    for (int i = 0; i < tileLength; i++)
+                        testErrors.add(estimatesLog[i], testData.getYs().get(tile[i]));
+                    System.out.format("HpTest.knnTestKBatch estimated %d (through testIndex %d of %d) k %.0f in %f seconds%n",
+                            testErrors.countEstimated, tile[tileLength - 1], testIndices, k, (System.nanoTime() - startTime) / 1e9);
+                    tileLength = 0;
+                }
+            }
+        }
+        finally {
+            batch.shutdown();
         }
         log.println("testIndices:" + testIndices);
-        log.println("countEstimated:" + countEstimated);
-        TestResult testResult = new TestResult();
-        testResult.rmse = Math.sqrt(sumSquaredErrors / countEstimated);
-        testResult.within10 = countNumberWithin10 * 1.0 / countEstimated;
-        return testResult;
+        log.println("countEstimated:" + testErrors.countEstimated);
+        return testErrors.result();
+    }
+
+    /**
+     * Determine rmse and within10 for each k in 1 .. kMax. The neighbors of each test transaction are found
+     * once; if numberThreads is not null, those of tiles of test transactions are searched for together.
+     * The errors are accumulated in the same order as in knnTestK.
+     * @param kMax
+     * @param isTestDayNumber
+     * @param testData
+     * @param knn
+     * @param numberThreads
+     * @return results, index k - 1
+     */
+    public TestResult[] knnTestAllKs(int kMax, IsTestDayNumber isTestDayNumber, TestData testData, KNearestNeighbors knn, Integer numberThreads) {
+        Log log = new Log("HpTest.knnTestAllKs", true);
+        BatchDistanceIndex batch = (numberThreads == null) ? null : new BatchDistanceIndex(testData.getXs(), numberThreads);
+        final int tileSize = (numberThreads == null) ? 1 : 64 * numberThreads;
+        final Tensor ys = testData.getYs();
+
+        TestErrorsAllK testErrors = new TestErrorsAllK(kMax);
+        final int testIndices = ys.getSize(0);
+        final int[] dayNumbers = testData.getDayNumbers();
+        final long startTime = System.nanoTime();
+        int[] tile = new int[tileSize];
+        int tileLength = 0;
+        try {
+            for (int testIndex = 0; testIndex < testIndices; testIndex++) {
+                long dayNumber = dayNumbers[testIndex];
+                if (isTestDayNumber.apply(dayNumber))
+                    tile[tileLength++] = testIndex;
+                if (tileLength == tileSize || (testIndex == testIndices - 1 && tileLength > 0)) {
+                    if (batch == null) {
+                        for (int i = 0; i < tileLength; i++)
+                            testErrors.add(knn.nearest(testData.getXs().selectRow(tile[i]), tile[i]), ys, ys.get(tile[i]));
+                    }
+                    else {
+                        List<Neighbors> neighbors = knn.nearestRows(Arrays.copyOf(tile, tileLength), batch);
+                        for (int i = 0; i < tileLength; i++)
+                            testErrors.add(neighbors.get(i), ys, ys.get(tile[i]));
+                    }
+                    final int reportingFrequency = 10000;
+                    if (testErrors.getCountEstimated() % reportingFrequency < tileLength)
+                        System.out.format("HpTest.knnTestAllKs estimated %d (through testIndex %d of %d) all k in %f seconds%n",
+                                testErrors.getCountEstimated(), tile[tileLength - 1], testIndices, (System.nanoTime() - startTime) / 1e9);
+                    tileLength = 0;
+                }
+            }
+        }
+        finally {
+            if (batch != null)
+                batch.shutdown();
+        }
+        log.println("testIndices:" + testIndices);
+        log.println("countEstimated:" + testErrors.getCountEstimated());
+        return testErrors.result();
+    }
+
+    /**
+     * Determine rmse and within10 for each k in ks, evaluating tiles of test transactions on numberParallel threads.
+     * <p>
+     * The test transactions are taken in windows. The threads find the neighbors of the transactions in a window,
+     * and compute each transaction's squared error and within 10 percent indicator for each k. The terms are then
+     * summed on this thread in the order of the test transactions, the order in which knnTestK and knnTestAllKs
+     * sum them. Hence the results do not depend on the number of threads and are identical to those of a
+     * single-threaded run.
+     * @param ks              values of k, increasing
+     * @param isTestDayNumber
+     * @param testData
+     * @param knn
+     * @param numberParallel  number of threads
+     * @return results, parallel to ks
+     */
+    public TestResult[] knnTestKsParallel(final int[] ks, IsTestDayNumber isTestDayNumber, final TestData testData,
+            final KNearestNeighbors knn, int numberParallel) {
+        Log log = new Log("HpTest.knnTestKsParallel", true);
+        IAE.notNull(ks, "ks");
+        IAE.positive(ks.length, "number of ks");
+        for (int j = 0; j < ks.length; j++) {
+            IAE.positive(ks[j], "k");
+            if (j > 0 && ks[j] <= ks[j - 1])
+                throw new IllegalArgumentException("ks not increasing; ks[" + j + "]=" + ks[j]);
+        }
+        IAE.positive(numberParallel, "numberParallel");
+
+        // the test transactions, in order
+        final Tensor ys = testData.getYs();
+        final int testIndices = ys.getSize(0);
+        final int[] dayNumbers = testData.getDayNumbers();
+        int[] selected = new int[testIndices];
+        int numberSelected = 0;
+        for (int testIndex = 0; testIndex < testIndices; testIndex++)
+            if (isTestDayNumber.apply(dayNumbers[testIndex]))
+                selected[numberSelected++] = testIndex;
+
+        // each thread searches its tile at once, as does knnTestKBatch; the threads come from the executor
+        final BatchDistanceIndex batch = new BatchDistanceIndex(testData.getXs(), 1);
+        ExecutorService executor = Executors.newFixedThreadPool(numberParallel);
+        final int numberKs = ks.length;
+        final double[] squaredErrors = new double[PARALLEL_WINDOW * numberKs];
+        final boolean[] within10s = new boolean[PARALLEL_WINDOW * numberKs];
+        TestErrors[] testErrors = new TestErrors[numberKs];
+        for (int j = 0; j < numberKs; j++)
+            testErrors[j] = new TestErrors();
+
+        final long startTime = System.nanoTime();
+        try {
+            for (int windowFirst = 0; windowFirst < numberSelected; windowFirst += PARALLEL_WINDOW) {
+                final int windowLast = Math.min(windowFirst + PARALLEL_WINDOW, numberSelected);
+
+                // compute the terms for the window
+                List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+                for (int tileFirst = windowFirst; tileFirst < windowLast; tileFirst += PARALLEL_TILE) {
+                    final int[] tile = Arrays.copyOfRange(selected, tileFirst, Math.min(tileFirst + PARALLEL_TILE, windowLast));
+                    final int tilePosition = tileFirst - windowFirst;
+                    tasks.add(new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            List<Neighbors> neighbors = knn.nearestRows(tile, batch);
+                            for (int i = 0; i < tile.length; i++)
+                                addTerms(ks, neighbors.get(i), ys, ys.get(tile[i]), (tilePosition + i) * ks.length, squaredErrors, within10s);
+                            return null;
+                        }
+                    });
+                }
+                try {
+                    for (Future<Object> future : executor.invokeAll(tasks))
+                        future.get();
+                }
+                catch (InterruptedException e) {executor.shutdownNow(); throw new RuntimeException(e);}
+                catch (ExecutionException e) {executor.shutdownNow(); throw new RuntimeException(e.getCause());}
+
+                // sum the terms in order
+                for (int position = 0; position < windowLast - windowFirst; position++)
+                    for (int j = 0; j < numberKs; j++)
+                        testErrors[j].add(squaredErrors[position * numberKs + j], within10s[position * numberKs + j]);
+                System.out.format("HpTest.knnTestKsParallel estimated %d of %d (through testIndex %d of %d) in %f seconds%n",
+                        windowLast, numberSelected, selected[windowLast - 1], testIndices, (System.nanoTime() - startTime) / 1e9);
+            }
+        }
+        finally {
+            executor.shutdown();
+            batch.shutdown();
+        }
+        log.println("testIndices:" + testIndices);
+        log.println("countEstimated:" + testErrors[0].countEstimated);
+
+        TestResult[] result = new TestResult[numberKs];
+        for (int j = 0; j < numberKs; j++)
+            result[j] = testErrors[j].result();
+        return result;
+    }
+
+    // set the terms at [base, base + ks.length) for one test transaction, for each k in ks
+    // the estimates are formed as KNearestNeighbors.estimate forms them
+    private static void addTerms(int[] ks, Neighbors neighbors, Tensor ys, double actualLog, int base, double[] squaredErrors,
+            boolean[] within10s) {
+        IAE.lessEqual(ks[ks.length - 1], neighbors.size(), "k", "number of pre-computed neighbors for this query");
+        double sumYs = 0;
+        int j = 0;
+        for (int k = 1; k <= ks[ks.length - 1]; k++) {
+            sumYs += neighbors.getY(ys, k - 1);
+            if (k == ks[j]) {
+                final double estimateLog = sumYs / (double) k;
+                squaredErrors[base + j] = TestErrors.squaredError(estimateLog, actualLog);
+                within10s[base + j] = TestErrors.isWithin10(estimateLog, actualLog);
+                j++;
+            }
+        }
     }
 
     /**
@@ -231,6 +590,9 @@ public class HpTest {
         public String obs;
         public String testDateFirst;
         public String testDateLast;
+        public Integer numberThreads;
+        public Integer kMax;
+        public Integer numberParallel;
 
         public void print() {
             System.out.format("Command Line Parameters as parsed%n");
@@ -238,9 +600,12 @@ public class HpTest {
             System.out.format("algo          = %s%n", algo);
             System.out.format("dataDir       = %s%n", dataDir);
             System.out.format("k             = %s%n", k);
+            System.out.format("kMax          = %s%n", kMax);
             System.out.format("obs           = %s%n", obs);
             System.out.format("testDateFirst = %s%n", testDateFirst);
             System.out.format("testDateLast  = %s%n", testDateLast);
+            System.out.format("numberThreads = %s%n", numberThreads);
+            System.out.format("numberParallel= %s%n", numberParallel);
         }
     }
 
@@ -263,7 +628,11 @@ public class HpTest {
         // required --dataDir=path/to/data/dir/
         clp.dataDir = cl.optionValue("--dataDir");
 
-        clp.k = cl.optionIsDouble("--k");
+        // one of --k=N and --kMax=K
+        if (cl.isPresent("--kMax"))
+            clp.kMax = cl.optionValueInteger("--kMax");
+        else
+            clp.k = cl.optionIsDouble("--k");
 
         // required --obs==[1A|2R|3R]
         clp.obs = cl.optionIsOneOf("--obs", "1A", "2R", "2A");
@@ -278,6 +647,17 @@ public class HpTest {
         if (!Represents.date(clp.testDateLast))
             throw new IllegalArgumentException("--testDateLast does not represent a valid date; testDateLast=" + clp.testDateLast);
 
+        // optional --threads=T
+        if (cl.isPresent("--threads"))
+            clp.numberThreads = cl.optionValueInteger("--threads");
+
+        // optional --parallel=P
+        if (cl.isPresent("--parallel")) {
+            if (clp.numberThreads != null)
+                throw new IllegalArgumentException("specify at most one of --threads and --parallel");
+            clp.numberParallel = cl.optionValueInteger("--parallel");
+        }
+
         clp.print();
         return clp;
     }
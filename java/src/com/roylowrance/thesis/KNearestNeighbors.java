@@ -4,7 +4,13 @@ package com.roylowrance.thesis;
 //
 // making estimates:
 // knn = KNearestNeighbors(xs, ys, pathToCacheDirectory, cacheFileNameOriginalSuffix);  // do not read the cache!
+// knn = KNearestNeighbors(xs, ys, pathToCacheDirectory, cacheFileNameOriginalSuffix, "kdtree");  // search with an index
+// knn = KNearestNeighbors(xs, ys, pathToCacheDirectory, cacheFileNameOriginalSuffix, index);  // search with a built index
 // double x = knn.estimate(k, query, xsRowIndexToOmit);  // estimate using xs, omitting perhaps one row
+// double[] x = knn.estimateRows(k, xsRowIndices, batch);  // estimate for many rows of xs, each omitting itself
+// Neighbors neighbors = knn.nearest(query, xsRowIndexToOmit);  // the cached neighbors, for use by other estimators
+// List<Neighbors> neighbors = knn.nearestRows(xsRowIndices, batch);  // likewise for many rows of xs, each omitting itself
+// double x = KNearestNeighbors.estimate(k, neighbors, ys);  // estimate from neighbors found previously
 //
 // maintaining the cache on disk:
 // knn.writeCache();  // write cache to file name implied during construction
@@ -36,12 +42,13 @@ package com.roylowrance.thesis;
 //        write(apn, date, estimate)
 //    }
 
-import java.util.ArrayList;
+import java.util.List;
 
 import com.roylowrance.util.Tensor;
 
 public class KNearestNeighbors {
 	private Nearest256Ys nearest256Ys;
+	private Tensor ys;
 	
 	// construct
 	// always initialize the nearest-neighbors cache from the specified disk file unless path is NULL
@@ -53,6 +60,34 @@ public class KNearestNeighbors {
 	    IAE.isNotNull(cacheFileNameOriginalSuffix, "cacheFileNameOriginalSuffix");
 
 	    this.nearest256Ys = new Nearest256Ys(xs, ys, cacheDirPath, cacheFileNameOriginalSuffix);
+	    this.ys = ys;
+	}
+	
+	// construct, searching with an index of the specified kind (see NearestNeighborIndexes)
+	// the index is built once, here, from the xs
+	// the kind must be exact if there is a cache, as the cached neighbors are read as the exact neighbors
+	public KNearestNeighbors(Tensor xs, Tensor ys, String cacheDirPath, String cacheFileNameOriginalSuffix, String indexKind) {
+	    IAE.is2D(xs, "xs");
+	    IAE.is1D(ys,  "ys");
+	    IAE.isNotNull(cacheFileNameOriginalSuffix, "cacheFileNameOriginalSuffix");
+	    IAE.isNotNull(indexKind, "indexKind");
+	    if (cacheDirPath != null && !NearestNeighborIndexes.isExact(indexKind))
+	        throw new IllegalArgumentException("a cache must hold exact neighbors; indexKind=" + indexKind);
+
+	    this.nearest256Ys = new Nearest256Ys(
+	            xs, ys, cacheDirPath, cacheFileNameOriginalSuffix, NearestNeighborIndexes.make(indexKind, xs));
+	    this.ys = ys;
+	}
+	
+	// construct, searching with an index previously built from the xs
+	public KNearestNeighbors(Tensor xs, Tensor ys, String cacheDirPath, String cacheFileNameOriginalSuffix, NearestNeighborIndex index) {
+	    IAE.is2D(xs, "xs");
+	    IAE.is1D(ys,  "ys");
+	    IAE.isNotNull(cacheFileNameOriginalSuffix, "cacheFileNameOriginalSuffix");
+	    IAE.isNotNull(index, "index");
+
+	    this.nearest256Ys = new Nearest256Ys(xs, ys, cacheDirPath, cacheFileNameOriginalSuffix, index);
+	    this.ys = ys;
 	}
 	
 	// merge a cache on disk with current cache
@@ -61,12 +96,30 @@ public class KNearestNeighbors {
 	    return nearest256Ys.cacheMerge(fileNameSuffix);
 	}
 	
+	// use the binary neighbors file with the suffix, if it exists
+	// return true iff it exists
+	public boolean openNeighborsFile(String fileNameSuffix) {
+	    return nearest256Ys.openNeighborsFile(fileNameSuffix);
+	}
+	
 	// write the cache 
 	// return number of data records written
 	public int cacheWrite() {
 	    return nearest256Ys.cacheWrite();
 	}
 	
+	// return the up to Nearest256Ys.K_MAX nearest rows of xs to the query and their distances
+	// the result is cached, so that other estimators can reuse it
+	public Neighbors nearest(Tensor query, int xsRowIndexToOmit) {
+	    return nearest256Ys.nearest(query, xsRowIndexToOmit);
+	}
+	
+	// return the neighbors of each of the rows of xs, omitting the row itself
+	// the neighbors of the rows are searched for together using the batch, which must have been built from the xs
+	public List<Neighbors> nearestRows(int[] xsRowIndices, BatchDistanceIndex batch) {
+	    return nearest256Ys.nearestRows(xsRowIndices, batch);
+	}
+	
 	// estimate using constructed xs as the potential neighbors
 	// if 0 <= xsRowIndexToOmit < xs.getSize(0) then don't use that row as a potential neighbor
 	public double estimate(int k, Tensor query, int xsRowIndexToOmit) {
@@ -74,15 +127,36 @@ public class KNearestNeighbors {
 	    IAE.lessEqual(k, Nearest256Ys.K_MAX, "k", "maximum pre-computed k value");
 	    IAE.notNull(query, "query");
 	    
-	    ArrayList<Double> nearestYs = nearest256Ys.apply(query, xsRowIndexToOmit);
-	    IAE.lessEqual(k, nearestYs.size(), "k", "number of pre-computed neighbors for this query");
+	    return estimate(k, nearest256Ys.nearest(query, xsRowIndexToOmit), ys);
+	}
+	
+	// estimate as the average of the ys of the k nearest of the neighbors
+	// the ys need not be those the neighbors were found for, but must be parallel to the xs
+	public static double estimate(int k, Neighbors neighbors, Tensor ys) {
+	    IAE.positive(k, "k");
+	    IAE.notNull(neighbors, "neighbors");
+	    IAE.is1D(ys, "ys");
+	    IAE.lessEqual(k, neighbors.size(), "k", "number of pre-computed neighbors for this query");
 	    
         double sumYs = 0;
         for (int i = 0; i < k; i++) {
-            sumYs += nearestYs.get(i);
+            sumYs += neighbors.getY(ys, i);
         }
         return sumYs / (double) k;
 	}
 	
+	// estimate at each of the rows of xs, omitting the row itself as a potential neighbor
+	// the neighbors of the rows are searched for together using the batch, which must have been built from the xs
+	public double[] estimateRows(int k, int[] xsRowIndices, BatchDistanceIndex batch) {
+	    IAE.positive(k, "k");
+	    IAE.lessEqual(k, Nearest256Ys.K_MAX, "k", "maximum pre-computed k value");
+	    
+	    List<Neighbors> nearest = nearest256Ys.nearestRows(xsRowIndices, batch);
+	    double[] result = new double[xsRowIndices.length];
+	    for (int i = 0; i < xsRowIndices.length; i++)
+	        result[i] = estimate(k, nearest.get(i), ys);
+	    return result;
+	}
+	
 
 }
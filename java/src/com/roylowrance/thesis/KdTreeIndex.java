@@ -0,0 +1,138 @@
+package com.roylowrance.thesis;
+
+import com.roylowrance.util.Log;
+import com.roylowrance.util.Tensor;
+
+// exact nearest neighbors using a KD-tree over the rows of xs
+//
+// Each interior node splits its rows at the median of the dimension with the largest spread.
+// The search descends to the nearer child first and visits the farther child only if the
+// distance from the query to the farther child's cell could beat the worst candidate.
+// The distance to a cell is maintained incrementally (Arya and Mount) from the offsets of the
+// query to each splitting plane crossed.
+//
+// Works well when the number of dimensions is modest compared to log2(number of rows). For
+// higher dimensions, consider BallTreeIndex.
+public class KdTreeIndex extends AbstractNearestNeighborIndex {
+    private final static int LEAF_SIZE = 32;
+    private final static int LEAF = -1;
+
+    private int[] order;        // row indices, permuted so that each node covers order[start, end)
+    private int[] nodeStart;
+    private int[] nodeEnd;
+    private int[] nodeLeft;     // LEAF for a leaf node
+    private int[] nodeRight;
+    private int[] splitDimension;
+    private double[] splitValue;
+    private int numberNodes;
+
+    // build the tree; takes O(n d log n) time
+    public KdTreeIndex(Tensor xs) {
+        super(xs);
+        Log log = new Log("KdTreeIndex", false);
+        final long startTime = System.nanoTime();
+
+        order = new int[numberRows];
+        for (int i = 0; i < numberRows; i++)
+            order[i] = i;
+
+        final int maxNodes = 2 * (numberRows / (LEAF_SIZE / 2)) + 1; // leaves hold at least LEAF_SIZE / 2 rows
+        nodeStart = new int[maxNodes];
+        nodeEnd = new int[maxNodes];
+        nodeLeft = new int[maxNodes];
+        nodeRight = new int[maxNodes];
+        splitDimension = new int[maxNodes];
+        splitValue = new double[maxNodes];
+        numberNodes = 0;
+
+        double[] keys = new double[numberRows];
+        build(0, numberRows, keys);
+        log.format("built %d nodes in %f seconds%n", numberNodes, (System.nanoTime() - startTime) / 1e9);
+    }
+
+    // return number of nodes in the tree
+    public int getNumberNodes() {
+        return numberNodes;
+    }
+
+    @Override
+    public void nearest(Tensor query, int xsRowIndexToOmit, NearestCandidates candidates) {
+        IAE.notNull(candidates, "candidates");
+        final double[] q = toArray(query);
+        double[] offsets = new double[dimensions];
+        search(0, 0.0, offsets, q, xsRowIndexToOmit, candidates);
+    }
+
+    ////////////////////// private
+
+    // build node covering order[start, end); return its node number
+    private int build(int start, int end, double[] keys) {
+        final int node = numberNodes++;
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeLeft[node] = LEAF;
+        nodeRight[node] = LEAF;
+
+        if (end - start <= LEAF_SIZE)
+            return node;
+
+        // split on the dimension with the largest spread
+        int bestDimension = -1;
+        double bestSpread = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double lowest = Double.POSITIVE_INFINITY;
+            double highest = Double.NEGATIVE_INFINITY;
+            for (int position = start; position < end; position++) {
+                final double value = x(order[position], d);
+                if (value < lowest) lowest = value;
+                if (value > highest) highest = value;
+            }
+            if (highest - lowest > bestSpread) {
+                bestSpread = highest - lowest;
+                bestDimension = d;
+            }
+        }
+        if (bestDimension == -1)
+            return node; // all the rows are identical
+
+        for (int position = start; position < end; position++)
+            keys[position] = x(order[position], bestDimension);
+        final int middle = (start + end) >>> 1;
+        select(order, keys, start, end, middle);
+
+        splitDimension[node] = bestDimension;
+        splitValue[node] = keys[middle];
+        // rows in [start, middle) are <= splitValue; rows in [middle, end) are >= splitValue
+        nodeLeft[node] = build(start, middle, keys);
+        nodeRight[node] = build(middle, end, keys);
+        return node;
+    }
+
+    // rd is the squared distance from the query to the node's cell
+    private void search(int node, double rd, double[] offsets, double[] q, int omit, NearestCandidates candidates) {
+        if (nodeLeft[node] == LEAF) {
+            for (int position = nodeStart[node]; position < nodeEnd[node]; position++) {
+                final int row = order[position];
+                if (row == omit)
+                    continue;
+                candidates.offer(distance(row, q), row);
+            }
+            return;
+        }
+
+        final int dimension = splitDimension[node];
+        final double difference = q[dimension] - splitValue[node];
+        final int near = (difference < 0) ? nodeLeft[node] : nodeRight[node];
+        final int far = (difference < 0) ? nodeRight[node] : nodeLeft[node];
+
+        search(near, rd, offsets, q, omit, candidates);
+
+        final double oldOffset = offsets[dimension];
+        final double farRd = Math.max(0.0, rd - oldOffset * oldOffset + difference * difference);
+        if (canSkip(Math.sqrt(farRd), candidates))
+            return;
+        offsets[dimension] = difference;
+        search(far, farRd, offsets, q, omit, candidates);
+        offsets[dimension] = oldOffset;
+    }
+}
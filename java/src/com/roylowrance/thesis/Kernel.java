@@ -9,5 +9,6 @@ public interface Kernel {
 
 	public double apply(Distance distance, Tensor queryPoint, Tensor samplePoint, Hp hp);
 	public double apply(Distance distance, Tensor tensor2D, int i, int j, Hp hp); // smoothed distance from idx[i,:] to idx[j,:]
+	public double apply(double distance, Hp hp); // weight for a distance already computed, as by a Nearest256Ys
 
 }
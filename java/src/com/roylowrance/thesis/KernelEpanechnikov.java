@@ -68,6 +68,17 @@ public class KernelEpanechnikov implements Kernel {
 	    return result;
 	}
 	
+	// return weight for a distance already computed
+	@Override
+	public double apply(double distance, Hp hp) {
+	    if (hp == null)
+	        throw new IllegalArgumentException("hp is null");
+	    Double lambda = hp.getBandwidth();
+	    if (lambda == null)
+	        throw new IllegalArgumentException("bandwidth is missing");
+	    return d(distance / lambda);
+	}
+	
 	// see hastie-02 p 167
 	private double d(double t) {
 	    if (Math.abs(t) <= 1)
@@ -70,4 +70,15 @@ public class KernelGaussian implements Kernel {
 	        log.println("d:" + d + " weight:" + result);
 	    return result;
 	}
+	
+	// return weight for a distance already computed
+	@Override
+	public double apply(double distance, Hp hp) {
+	    if (hp == null)
+	        throw new IllegalArgumentException("hp is null");
+	    final Double varianceTimes2 = hp.getBandwidth();
+	    if (varianceTimes2 == null)
+	        throw new IllegalArgumentException("bandwidth is null");
+	    return Math.exp(- (distance * distance) / varianceTimes2);
+	}
 }
@@ -0,0 +1,117 @@
+package com.roylowrance.thesis;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.roylowrance.util.CommandLine;
+import com.roylowrance.util.Log;
+import com.roylowrance.util.Tensor;
+
+// measure recall@256 of the approximate HNSW search against the exact Nearest256Ys answer
+//
+// Invoke with command line: --dataDir=path/to/data/ --obs=OBS [--sample=N] [--efSearch=(e1,e2,...)]
+//   --sample    number of randomly-chosen rows of the test data used as queries; default 1000
+//   --efSearch  values of the recall knob to measure; default (256,512,1024)
+// The graph is read from (or built and written to) <dataDir>/generated-v4/obsOBS/caches/hnsw-graph.bin,
+// the same file that CreateEstimates --index=hnsw uses.
+//
+// As in the cross validation, each query omits its own row from the candidate neighbors.
+// Prints one line per efSearch value: the mean recall and the mean seconds per query.
+public class KnnRecallStudy {
+
+    public static void main(String[] args) {
+        Log log = new Log("KnnRecallStudy.main", true);
+        CommandLine cl = new CommandLine(args);
+        cl.println();
+        final String dataDir = cl.optionValue("--dataDir");
+        final String obs = cl.optionValue("--obs");
+        final int sample = cl.isPresent("--sample") ? cl.optionValueInteger("--sample") : 1000;
+        final String[] efSearches = cl.isPresent("--efSearch") ? cl.getOptionValueList("--efSearch") : new String[] {"256", "512", "1024"};
+
+        TestData testData = new TestData(obs, dataDir);
+        final Tensor xs = testData.getXs();
+        final Tensor ys = testData.getYs();
+        final String graphFilePath = dataDir + "generated-v4/obs" + obs + "/caches/hnsw-graph.bin";
+        final long startTime = System.nanoTime();
+        HnswIndex hnsw = NearestNeighborIndexes.makeHnsw(xs, graphFilePath, NearestNeighborIndexes.HNSW_EF_SEARCH);
+        log.format("graph ready in %f seconds%n", (System.nanoTime() - startTime) / 1e9);
+
+        final int[] queryRows = sampleRows(xs.getSize(0), sample, 27);
+        Nearest256Ys exact = new Nearest256Ys(xs, ys, null, "", new BruteForceIndex(xs));
+        Nearest256Ys approximate = new Nearest256Ys(xs, ys, null, "", hnsw);
+        for (String efSearch : efSearches) {
+            hnsw.setEfSearch(Integer.valueOf(efSearch));
+            Result result = measure(exact, approximate, xs, queryRows);
+            System.out.format("efSearch %s recall@%d %.4f approximate seconds/query %.6f exact seconds/query %.6f%n",
+                    efSearch, Nearest256Ys.K_MAX, result.recall, result.approximateSeconds, result.exactSeconds);
+        }
+        System.out.println("Finished.");
+    }
+
+    // mean over the queries
+    public static class Result {
+        public double recall;               // fraction of the exact neighbors also found by the approximate search
+        public double exactSeconds;         // per query
+        public double approximateSeconds;   // per query
+    }
+
+    // compare the neighbors found by approximate to those found by exact for each query row
+    // each query omits its own row
+    public static Result measure(Nearest256Ys exact, Nearest256Ys approximate, Tensor xs, int[] queryRows) {
+        IAE.notNull(exact, "exact");
+        IAE.notNull(approximate, "approximate");
+        IAE.is2D(xs, "xs");
+        IAE.notNull(queryRows, "queryRows");
+        IAE.positive(queryRows.length, "queryRows.length");
+
+        double sumRecall = 0;
+        long exactNanos = 0;
+        long approximateNanos = 0;
+        for (int queryRow : queryRows) {
+            Tensor query = xs.selectRow(queryRow);
+
+            long startTime = System.nanoTime();
+            int[] exactRows = exact.nearestRowIndices(query, queryRow);
+            exactNanos += System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            int[] approximateRows = approximate.nearestRowIndices(query, queryRow);
+            approximateNanos += System.nanoTime() - startTime;
+
+            Set<Integer> found = new HashSet<Integer>();
+            for (int row : approximateRows)
+                found.add(row);
+            int numberFound = 0;
+            for (int row : exactRows)
+                if (found.contains(row))
+                    numberFound++;
+            sumRecall += (exactRows.length == 0) ? 1.0 : numberFound / (double) exactRows.length;
+        }
+
+        Result result = new Result();
+        result.recall = sumRecall / queryRows.length;
+        result.exactSeconds = exactNanos / 1e9 / queryRows.length;
+        result.approximateSeconds = approximateNanos / 1e9 / queryRows.length;
+        return result;
+    }
+
+    // return up to sampleSize distinct row indices in [0, numberRows)
+    private static int[] sampleRows(int numberRows, int sampleSize, long seed) {
+        final int size = Math.min(numberRows, sampleSize);
+        // partial Fisher-Yates shuffle
+        int[] rows = new int[numberRows];
+        for (int i = 0; i < numberRows; i++)
+            rows[i] = i;
+        Random random = new Random(seed);
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            final int j = i + random.nextInt(numberRows - i);
+            final int temp = rows[i];
+            rows[i] = rows[j];
+            rows[j] = temp;
+            result[i] = rows[i];
+        }
+        return result;
+    }
+}
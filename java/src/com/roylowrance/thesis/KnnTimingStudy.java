@@ -44,6 +44,7 @@ public class KnnTimingStudy {
 			final long endTime = System.nanoTime();
 			report("experiment4", endTime - startTime);
 		}
+		experiment5(xs);
 	}
 	
 	private static void report(String what, long nanoSeconds) {
@@ -102,6 +103,22 @@ public class KnnTimingStudy {
 		return Math.sqrt(sumSquares);
 	}
 	
+	// nearest 256 neighbors by scanning every row, without and with early abandon
+	private static void experiment5(Tensor xs) {
+		final int numberQueries = 20;
+		BruteForceIndex[] indexes = {new BruteForceIndex(xs, false), new BruteForceIndex(xs, true)};
+		String[] names = {"experiment5 full distances", "experiment5 early abandon"};
+		for (int which = 0; which < indexes.length; which++) {
+			final long startTime = System.nanoTime();
+			for (int queryIndex = 0; queryIndex < numberQueries; queryIndex++) {
+				NearestCandidates candidates = new NearestCandidates(Nearest256Ys.K_MAX);
+				indexes[which].nearest(xs.selectRow(queryIndex), queryIndex, candidates);
+			}
+			final long endTime = System.nanoTime();
+			report(names[which] + " (per query)", (endTime - startTime) / numberQueries);
+		}
+	}
+	
 	private static void experiment4(Tensor xs) {
 	    if (xs.getNDimensions() != 0)
 	        throw new IllegalArgumentException("xs must be 2D; xs=" + xs);
@@ -35,6 +35,8 @@ public class LocalLinearRegression {
 	 * b(x)^T = (1,x) B is N x 2 regression matrix with ith row b(x_i)^T W is N
 	 * x N diagonal matrix with ith element K_lambda(x0,x1)
 	 * 
+	 * If B^T W B is singular, the kernel-weighted average is returned.
+	 * 
 	 * @param distance
 	 *            distance function which depends on the hyperparamters
 	 * @param kernel
@@ -60,8 +62,6 @@ public class LocalLinearRegression {
 																		// nothing
 																		// more
 			Tensor locations, Tensor queryLocation, Tensor ys) {
-		final boolean logging = true;
-		Log log = new Log("LocalLinearRegression.apply", logging);
 		if (locations.getNDimensions() != 2)
 		    throw new IllegalArgumentException("locations must be 2D; locations=" + locations);
 		if (queryLocation.getNDimensions() != 1)
@@ -73,104 +73,138 @@ public class LocalLinearRegression {
 		final int d = locations.getSize(1);
 		final int dp1 = d + 1;
 
-		// initial the diagonal matrix w that contains the weights
-		// since the off-diagonal entries are 0, store it in an idx1
-		// TODO: use Idx2DoubleDiagonal
-		Idx2Diagonal weights = new Idx2Diagonal(n, n);
-		for (int index = 0; index < n; index++) {
-			weights.set(
-					index,
-					index,
-					kernel.apply(distance, queryLocation,
-							locations.selectRow(index), hp));
-		}
-		if (logging && false) {
-			log.println("weights:" + weights);
+		// accumulate B^T W B and B^T W y, where the ith row of B is [1, x^i]
+		// and the ith diagonal element of W is K_lambda(x0, x^i)
+		double[][] btwb = new double[dp1][dp1];
+		double[] btwy = new double[dp1];
+		double[] b = new double[dp1];
+		double sumWeights = 0;
+		double sumWeightedYs = 0;
+		for (int rowIndex = 0; rowIndex < n; rowIndex++) {
+			final double weight = kernel.apply(distance, queryLocation, selectRow(locations, rowIndex), hp);
+			final double y = ys.get(rowIndex);
+			b[0] = 1.0;
+			for (int columnIndex = 1; columnIndex < dp1; columnIndex++)
+				b[columnIndex] = locations.get(rowIndex, columnIndex - 1);
+			addRow(b, weight, y, btwb, btwy);
+			sumWeights += weight;
+			sumWeightedYs += weight * y;
 		}
 
-		// build B
-		// the ith row of B is [1, x^i]
-		Tensor b = new Tensor(n, dp1);
-		for (int rowIndex = 0; rowIndex < b.getSize(0); rowIndex++) {
-			b.set(rowIndex, 0, 1.0);
-			for (int columnIndex = 1; columnIndex < b.getSize(1); columnIndex++)
-				b.set(rowIndex, columnIndex,
-						locations.get(rowIndex, columnIndex - 1));
-		}
-		if (logging) {
-			for (int rowIndex = 0; rowIndex < n; rowIndex++)
-				log.println("B[" + rowIndex + ",:]=" + b.selectRow(rowIndex));
-		}
+		// if singular, the kernel-weighted average
+		double[] betaHat = solve(btwb, btwy);
+		if (betaHat == null)
+			return sumWeightedYs / sumWeights;
+		double yHat = betaHat[0];
+		for (int columnIndex = 1; columnIndex < dp1; columnIndex++)
+			yHat += queryLocation.get(columnIndex - 1) * betaHat[columnIndex];
+		return yHat;
+	}
 
-		// develop B^t W B
-		Tensor bTranspose = b.transpose();
-		if (logging) {
-			for (int rowIndex = 0; rowIndex < n; rowIndex++)
-				log.println("bTranspose[" + rowIndex + ",:]="
-						+ bTranspose.selectRow(rowIndex));
+	/**
+	 * Return yHat, the estimated y, from a local linear regression on the k
+	 * nearest neighbors previously found for the query.
+	 * 
+	 * Only the neighbors' rows enter the regression; each is weighted by the
+	 * kernel applied to its stored Euclidean distance. The regression is on
+	 * (1, x - queryLocation), so yHat is the fitted intercept. If the weighted
+	 * normal equations are singular (for example, k <= d or all the weights
+	 * are zero), the kernel-weighted average of the neighbors is returned.
+	 * 
+	 * @param kernel
+	 *            kernel function which depends on the hyperparameters
+	 * @param hp
+	 *            hyperparameters passed to kernel function
+	 * @param k
+	 *            number of the neighbors to use, nearest first
+	 * @param neighbors
+	 *            the neighbors of the query, as from Nearest256Ys.nearest
+	 * @param locations
+	 *            the xs in which the neighbors were found
+	 * @param queryLocation
+	 *            a vector, the location for which the query is done
+	 * @param ys
+	 *            parallel vector to locations, the y values that are known
+	 * @return yHat := b(x)^T (B^T W B)^-1 B^T W y over the neighbors
+	 */
+	public static double apply(Kernel kernel, Hp hp, int k, Neighbors neighbors, Tensor locations, Tensor queryLocation,
+			Tensor ys) {
+		IAE.notNull(kernel, "kernel");
+		IAE.positive(k, "k");
+		IAE.notNull(neighbors, "neighbors");
+		IAE.is2D(locations, "locations");
+		IAE.is1D(queryLocation, "queryLocation");
+		IAE.is1D(ys, "ys");
+		IAE.lessEqual(k, neighbors.size(), "k", "number of neighbors");
+
+		final int dp1 = locations.getSize(1) + 1;
+
+		// accumulate B^T W B and B^T W y, where row i of B is [1, x_i - queryLocation]
+		double[][] btwb = new double[dp1][dp1];
+		double[] btwy = new double[dp1];
+		double[] b = new double[dp1];
+		double sumWeights = 0;
+		double sumWeightedYs = 0;
+		for (int i = 0; i < k; i++) {
+			final int row = neighbors.getIndex(i);
+			final double weight = kernel.apply(neighbors.getDistance(i), hp);
+			final double y = ys.get(row);
+			b[0] = 1.0;
+			for (int column = 1; column < dp1; column++)
+				b[column] = locations.get(row, column - 1) - queryLocation.get(column - 1);
+			addRow(b, weight, y, btwb, btwy);
+			sumWeights += weight;
+			sumWeightedYs += weight * y;
 		}
 
-		Tensor btw = new Tensor(dp1, n);
-		// TODO: replace with call to IdxOps.multiply
-		// ((B^t W))_ij = ((B^t))_ij * weight_j
-		for (int rowIndex = 0; rowIndex < bTranspose.getSize(0); rowIndex++)
-			for (int columnIndex = 0; columnIndex < bTranspose.getSize(1); columnIndex++) {
-				log.println("bTranspose[" + rowIndex + "," + columnIndex + "]="
-						+ bTranspose.get(rowIndex, columnIndex));
-				log.println("weights:" + weights.get(columnIndex, columnIndex));
-				btw.set(rowIndex,
-						columnIndex,
-						bTranspose.get(rowIndex, columnIndex)
-								* weights.get(columnIndex, columnIndex));
-			}
-		if (logging) {
-			for (int rowIndex = 0; rowIndex < n; rowIndex++)
-				log.println("bTransposeWeight[" + rowIndex + ",:]="
-						+ btw.selectRow(rowIndex));
-		}
+		double[] betaHat = solve(btwb, btwy);
+		if (betaHat == null)
+			return sumWeightedYs / sumWeights;
+		return betaHat[0];
+	}
 
-		Tensor btwb = IdxOps.matrixMultiply(btw, b);
-		if (logging) {
-			for (int rowIndex = 0; rowIndex < n; rowIndex++)
-				log.println("btwb[" + rowIndex + ",:]="
-						+ btwb.selectRow(rowIndex));
+	// add the row b with its weight and y to B^T W B and B^T W y
+	private static void addRow(double[] b, double weight, double y, double[][] btwb, double[] btwy) {
+		for (int r = 0; r < b.length; r++) {
+			for (int c = 0; c < b.length; c++)
+				btwb[r][c] += b[r] * weight * b[c];
+			btwy[r] += b[r] * weight * y;
 		}
+	}
 
-		// Develop B^T W y using the existing B^T W
-		// Idx1Double btwy = IdxOps.matrixMultiply(btw, locations);
-		if (true)
-			throw new RuntimeException("code matrixMultiply");
-
-		// Dev
-		Tensor bq = new Tensor(dp1);
-		bq.set(0, 1.0);
-		for (int index = 0; index < bq.size(); index++)
-			bq.set(index, (double) queryLocation.get(index));
-
-		Tensor bqbt = IdxOps.matrixMultiply(bq, bTranspose);
-
-		Tensor bqbtw = new Tensor(n);
-		for (int index = 0; index < n; index++)
-			bqbtw.set(index, weights.get(index, index) * bqbt.get(index));
-
-		// build B^T W
-		// row 1 = [w1 w2 ... wN]
-		// row 2 = [w1x^1_1 w2x^2_1 ... wNX^N_1
-		// row d+1 = [w1x^1_d w2x^2_d
-
-		// OLD CODE BELOW ME
-		double sumWeights = 0;
-		double sumWeightedYs = 0;
-		for (int rowIndex = 0; rowIndex < locations.getNumberRows(); rowIndex++) {
-			Tensor trainingLocation = selectRow(locations, rowIndex);
-			double weight = kernel.apply(distance, trainingLocation,
-					queryLocation, hp);
-			log.println("trainingLocation:" + trainingLocation + " weight:"
-					+ weight);
-			sumWeights += weight;
-			sumWeightedYs += weight * ys.get(rowIndex);
+	// return x such that a x = b, by Gaussian elimination with partial pivoting
+	// return null if a is singular; a and b are overwritten
+	private static double[] solve(double[][] a, double[] b) {
+		final int n = b.length;
+		double scale = 0;
+		for (int r = 0; r < n; r++)
+			for (int c = 0; c < n; c++)
+				scale = Math.max(scale, Math.abs(a[r][c]));
+		final double tolerance = scale * n * Math.ulp(1.0);
+		for (int column = 0; column < n; column++) {
+			int pivot = column;
+			for (int r = column + 1; r < n; r++)
+				if (Math.abs(a[r][column]) > Math.abs(a[pivot][column]))
+					pivot = r;
+			if (!(Math.abs(a[pivot][column]) > tolerance))
+				return null;
+			double[] rowTemp = a[column]; a[column] = a[pivot]; a[pivot] = rowTemp;
+			double temp = b[column]; b[column] = b[pivot]; b[pivot] = temp;
+			for (int r = column + 1; r < n; r++) {
+				final double factor = a[r][column] / a[column][column];
+				for (int c = column; c < n; c++)
+					a[r][c] -= factor * a[column][c];
+				b[r] -= factor * b[column];
+			}
+		}
+		double[] x = new double[n];
+		for (int r = n - 1; r >= 0; r--) {
+			double sum = b[r];
+			for (int c = r + 1; c < n; c++)
+				sum -= a[r][c] * x[c];
+			x[r] = sum / a[r][r];
 		}
-		return sumWeightedYs / sumWeights;
+		return x;
 	}
 
 	// return as idx1 the index'ed row
@@ -20,7 +20,8 @@ public class MasterVisit {
 
 	public MasterVisit(String fileDataPath, String fileHeaderPath)
 			throws FileNotFoundException, IOException {
-		master = new LineScanner(fileDataPath);
+		final boolean readAhead = true; // read the large file on a background thread
+		master = new LineScanner(fileDataPath, readAhead);
 
 		// read and save the headers
 		LineScanner headers = new LineScanner(fileHeaderPath);
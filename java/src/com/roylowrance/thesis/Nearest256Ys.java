@@ -4,18 +4,39 @@ package com.roylowrance.thesis;
  *  
  *  to obtain the 256 nearest y values for a query point:
  *  Nearest256Ys n256ys = Nearest256Ys(xs, ys, cacheDirPath, cacheFileNameSuffix); // no cache files read
+ *  Nearest256Ys n256ys = Nearest256Ys(xs, ys, cacheDirPath, cacheFileNameSuffix, index); // search with a NearestNeighborIndex
  *  ArrayList<Double> nearest256Ys = n256ys.apply(xsRowIndexToOmit, query);        // save result in cache; reuse on same query
+ *  Neighbors neighbors = n256ys.nearest(query, xsRowIndexToOmit);                // the rows and distances; cached as apply is
+ *  int[] rowIndices = n256ys.nearestRowIndices(query, xsRowIndexToOmit);        // the rows of xs, nearest first; not cached
+ *  List<ArrayList<Double>> nearest = n256ys.applyRows(xsRowIndices, batch);     // many queries at once; each omits its own row
+ *  List<Neighbors> nearest = n256ys.nearestRows(xsRowIndices, batch);           // likewise, the rows and distances
  *  
  *  to maintain the cache:
  *  numberRecordsRead = n256ys.cacheMerge(cacheFileNameSuffix);   // add records in file to current cache
  *  numberRecordsWritten = n256ys.cacheWrite();                   // write the cache to disk using original cacheFileNameSuffix
+ *  csvWriter.writeRow(n256ys.cacheRecord(query, neighbors));    // write a cache file record by record
+ *  n256ys.writeCacheRecord(csvWriter, query, neighbors);        // likewise, without creating a String per field
+ *  
+ *  The cache holds the row indices and distances of the neighbors, not their ys, so that it serves
+ *  any estimator (see KNearestNeighbors, WeightedAverage, LocalLinearRegression). The ys are looked
+ *  up when a result is returned.
+ *  
+ *  The cache (see QueryCache) is keyed by the values of the query, not by the Tensor, and by the row
+ *  omitted, and holds every query unless bounded with setCacheMaximumSize. A cache file does not record
+ *  the row omitted; when it is merged, each query is taken to have omitted the first row of the xs with
+ *  its values that is not among its neighbors.
+ *  
+ *  Queries (apply, nearest, applyRows, nearestRows, nearestRowIndices) may be made from several
+ *  threads at once; maintaining the cache may not.
+ *  
+ *  to use a binary neighbors file (see NeighborsFile) built for the same xs and ys:
+ *  boolean exists = n256ys.openNeighborsFile(cacheFileNameSuffix); // then queries that are rows of the xs are read from it
  */
 
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -26,33 +47,49 @@ import com.roylowrance.util.Tensor;
 
 // Return list of up to the nearest 256 Y values associated with a pre-defined list of x values
 // The xs and ys are previously defined
+// A cache file has a header then one record per query: the query t1 .. td, the row indices i1 .. i256
+// of its neighbors and their distances d1 .. d256; -1 marks a missing neighbor
 public class Nearest256Ys {
     public final static int K_MAX = 256;
     private Tensor xs;
     private Tensor ys;
     private String cacheFilePathBase;
     private String cacheFileNameOriginalSuffix;
+    private NearestNeighborIndex index;
+    private String fingerprint;
     
-    private HashMap<Tensor, ArrayList<Double>> cache;
+    private QueryCache cache; // null if constructed without a cache directory
+    private NeighborsFile neighborsFile; // null if not opened
+    private HashMap<QueryCache.Key, int[]> rowsWithValues; // the rows of the xs with each value; built by cacheMerge
     
     // construct but do not read cache files from disk
+    // search by examining every row of xs
     public Nearest256Ys(Tensor xs, Tensor ys, String cacheDirPath, String cacheFileNameSuffix) {
+        this(xs, ys, cacheDirPath, cacheFileNameSuffix, new BruteForceIndex(xs));
+    }
+    
+    // construct but do not read cache files from disk
+    // search using the index, which must have been built from the xs
+    public Nearest256Ys(Tensor xs, Tensor ys, String cacheDirPath, String cacheFileNameSuffix, NearestNeighborIndex index) {
         IAE.is2D(xs, "xs");
         IAE.is1D(ys, "ys");
         //IAE.notNull(cacheDirPath, "cacheFilePath");
         IAE.notNull(cacheFileNameSuffix, "cacheFileNameSuffix");
+        IAE.notNull(index, "index");
         
         this.xs = xs;
         this.ys = ys;
+        this.index = index;
         
         if (cacheDirPath == null) {
         	cache = null;
         }
         else {
-        	this.cacheFilePathBase = cacheDirPath + makeSHA();
+        	this.fingerprint = Fingerprint.of(xs, ys);
+        	this.cacheFilePathBase = cacheDirPath + fingerprint;
         	this.cacheFileNameOriginalSuffix = cacheFileNameSuffix;
         	
-        	cache = new HashMap<Tensor, ArrayList<Double>>();
+        	cache = new QueryCache(Integer.MAX_VALUE);
         }
     }
     
@@ -61,61 +98,116 @@ public class Nearest256Ys {
     // the xsRowIndexToOmit can be out of bounds (for example, -1) to indicate that
     // no row in the xs is to be excluded
     public ArrayList<Double> apply(Tensor query, int xsRowIndexToOmit) {
-        Log log = new Log("Nearest256Ys.apply", false);
+        return toYs(nearest(query, xsRowIndexToOmit));
+    }
+    
+    // return the up to K_MAX rows of xs nearest to the query and their distances, nearest first
+    // remember the query and results and re-use if query is presented again
+    public Neighbors nearest(Tensor query, int xsRowIndexToOmit) {
+        Log log = new Log("Nearest256Ys.nearest", false);
         IAE.notNull(query, "query");
         
         if (cache == null) {
         	log.println("no cache in use: query:" + query);
-        }
-        else if (cache.containsKey(query)) {
-            log.println("found in cache; query:" + query);
-            return cache.get(query);
+        	return search(query, xsRowIndexToOmit);
         }
         
-        final long startTime = System.nanoTime();
-        Distance distance = new DistanceEuclidean();
+        // a query being searched for by another thread is not searched for again
+        final int omit = xsRowIndexToOmit;
+        return cache.get(query, omittedRow(xsRowIndexToOmit), new QueryCache.Loader() {
+            @Override
+            public Neighbors load(Tensor query) {
+                return search(query, omit);
+            }
+        });
+    }
+    
+    // return, for each query xs[xsRowIndices[i],:], the list apply(query, xsRowIndices[i]) would return
+    // the queries not in the cache are searched together using the batch, which must have been built from the xs
+    public List<ArrayList<Double>> applyRows(int[] xsRowIndices, BatchDistanceIndex batch) {
+        List<Neighbors> nearest = nearestRows(xsRowIndices, batch);
+        List<ArrayList<Double>> result = new ArrayList<ArrayList<Double>>(nearest.size());
+        for (Neighbors neighbors : nearest)
+            result.add(toYs(neighbors));
+        return result;
+    }
+    
+    // return, for each query xs[xsRowIndices[i],:], the neighbors nearest(query, xsRowIndices[i]) would return
+    // the queries not in the cache are searched together using the batch, which must have been built from the xs
+    public List<Neighbors> nearestRows(int[] xsRowIndices, BatchDistanceIndex batch) {
+        IAE.notNull(xsRowIndices, "xsRowIndices");
+        IAE.notNull(batch, "batch");
+        if (batch.getXs() != xs)
+            throw new IllegalArgumentException("batch was not built from the xs");
+        
+        List<Neighbors> result = new ArrayList<Neighbors>(xsRowIndices.length);
+        Tensor[] queries = new Tensor[xsRowIndices.length];
+        int numberToSearch = 0;
+        for (int i = 0; i < xsRowIndices.length; i++) {
+            queries[i] = xs.selectRow(xsRowIndices[i]);
+            Neighbors cached = (cache == null) ? null : cache.get(queries[i], xsRowIndices[i]);
+            if (cached == null && neighborsFile != null && neighborsFile.has(xsRowIndices[i]))
+                cached = readNeighborsFile(xsRowIndices[i]);
+            result.add(cached);
+            if (cached == null)
+                numberToSearch++;
+        }
+        if (numberToSearch == 0)
+            return result;
         
-        List<DistanceIndex> pairs = new ArrayList<DistanceIndex>();
-        for (int i = 0; i < xs.getSize(0); i++) {
-            if (i == xsRowIndexToOmit)
+        // search for the queries not in the cache
+        final int dimensions = xs.getSize(1);
+        Tensor toSearch = new Tensor(numberToSearch, dimensions);
+        int[] omit = new int[numberToSearch];
+        int position = 0;
+        for (int i = 0; i < xsRowIndices.length; i++) {
+            if (result.get(i) != null)
                 continue;
-            pairs.add(new DistanceIndex(distance.apply(xs, i, query), i));
+            for (int d = 0; d < dimensions; d++)
+                toSearch.set(position, d, xs.get(xsRowIndices[i], d));
+            omit[position] = xsRowIndices[i];
+            position++;
         }
-
-        // sort the pairs in increasing distance order
-        Collections.sort(pairs);
-
-        // return the first K_MAX of the y values
-        ArrayList<Double> result = new ArrayList<Double>();
-        int inserted = 0;
-        for (DistanceIndex pair : pairs) {
-            //log.println("pair:" + pair);
-            if (inserted >= K_MAX || inserted >= xs.getSize(0))
-                break;
-            result.add(ys.get(pair.index));
-            inserted++;
+        NearestCandidates[] nearest = batch.nearest(toSearch, omit, K_MAX);
+        
+        position = 0;
+        for (int i = 0; i < xsRowIndices.length; i++) {
+            if (result.get(i) != null)
+                continue;
+            Neighbors neighbors = new Neighbors(nearest[position++]);
+            result.set(i, neighbors);
+            if (cache != null)
+                cache.put(queries[i], xsRowIndices[i], neighbors);
         }
-
-        final long stopTime = System.nanoTime();
-        log.println("elapsed seconds:" + ((stopTime - startTime) / 1e9));
-        if (cache != null)
-        	cache.put(query, result);
         return result;
-        
-        
+    }
+    
+    // return indices of the up to K_MAX rows of xs nearest to the query, in increasing distance order
+    // the cache is neither read nor updated; the neighbors file, if open, is read
+    public int[] nearestRowIndices(Tensor query, int xsRowIndexToOmit) {
+        IAE.notNull(query, "query");
+        return search(query, xsRowIndexToOmit).getIndices();
     }
     
     // merge cache on disk with current cache
-    // return number of data records in the on-disk cache
+    // return number of data records added, those whose queries were not already in the cache
     // NOTE: only the queries not seen so far will be actually merged
     public int cacheMerge(String cacheFileNameSuffix) {
         Log log = new Log("Nearest256Ys.cacheMerge", false);
         log.println("cacheFileNameSuffix:" + cacheFileNameSuffix);
         final String separatorRegex = "\\|";
-        CsvReader csvreader = new CsvReader(cacheFilePathBase + cacheFileNameSuffix + ".csv", separatorRegex);
+        CsvReader csvreader = new CsvReader(cacheFilePath(cacheFileNameSuffix), separatorRegex);
         
-        // ignore the header
-        csvreader.next();
+        // check the header
+        // files written before the neighbors' rows and distances were kept hold only their ys
+        final int dimensions = xs.getSize(1);
+        ArrayList<String> header = csvreader.next();
+        if (header.size() != dimensions + 2 * K_MAX) {
+            csvreader.close();
+            throw new IllegalArgumentException(
+                    "cache file does not hold row indices and distances; rebuild it; cacheFileNameSuffix=" + cacheFileNameSuffix +
+                    " number of columns=" + header.size());
+        }
         
         // parse each data row
         int numberRecordsAdded = 0;
@@ -123,24 +215,25 @@ public class Nearest256Ys {
             ArrayList<String> row = csvreader.next();
             log.format("row size %d%n", row.size());
             
-            final int dimensions = xs.getSize(1);
-            log.format("dimensions %d%n", dimensions);
             Tensor key = new Tensor(dimensions);
             for (int i = 0; i < dimensions; i++) 
                 key.set(i, Double.valueOf(row.get(i)));
             
-            // append each y value
-            // a y value < 0 indicates the value is missing
-            // a missing value can arise because a specific x had fewer than 256 neighbors
-            ArrayList<Double> yValues = new ArrayList<Double>();
-            for (int i = 0; i < K_MAX; i++) {
-                double nextValue = Double.valueOf(row.get(dimensions + i));
-                if (nextValue >= 0)
-                    yValues.add(nextValue);
+            // a row index < 0 indicates the neighbor is missing
+            // a missing neighbor can arise because a specific x had fewer than 256 neighbors
+            int size = 0;
+            while (size < K_MAX && Integer.parseInt(row.get(dimensions + size)) >= 0)
+                size++;
+            int[] indices = new int[size];
+            double[] distances = new double[size];
+            for (int i = 0; i < size; i++) {
+                indices[i] = Integer.parseInt(row.get(dimensions + i));
+                distances[i] = Double.valueOf(row.get(dimensions + K_MAX + i));
             }
             
-            cache.put(key, yValues);
-            numberRecordsAdded++;
+            Neighbors neighbors = new Neighbors(indices, distances);
+            if (cache.putIfAbsent(key, omittedRow(key, neighbors), neighbors))
+                numberRecordsAdded++;
         }
         
         csvreader.close();
@@ -151,17 +244,13 @@ public class Nearest256Ys {
     // return number of data records written
     public int cacheWrite() {
         Log log = new Log("Nearest256Ys.cacheWrite", true);
+        if (getCache().getEvictions() > 0)
+            throw new IllegalStateException("queries have been evicted from the cache; cache=" + cache);
         final String delimiter = "|";
-        CsvWriter csvwriter = new CsvWriter(cacheFilePathBase + cacheFileNameOriginalSuffix + ".csv", delimiter);
-        
-        final int numberDimensions = xs.getSize(1);
+        CsvWriter csvwriter = new CsvWriter(cacheFilePath(cacheFileNameOriginalSuffix), delimiter);
         
         // write column names
-        String[] columnNames = new String[numberDimensions + K_MAX];
-        for (int i = 0; i < numberDimensions; i++)
-            columnNames[i] = "t" + (i + 1);
-        for (int i = 0; i < K_MAX; i++)
-            columnNames[numberDimensions + i] = "y" + (i + 1);
+        String[] columnNames = cacheColumnNames();
         log.println("number of column names:" + columnNames.length);
         log.println("columnNames:" + columnNames);
         csvwriter.writeRow(columnNames);
@@ -169,105 +258,196 @@ public class Nearest256Ys {
         
         // write one row for each cache value
         int dataRecordsWritten = 0;
-        for (Tensor key : cache.keySet()) {
-            Tensor row = new Tensor(numberDimensions + K_MAX);
-            for (int i = 0; i < numberDimensions; i++)
-                row.set(i, key.get(i));
-            List<Double> cachedYs = cache.get(key);
-            for (int i = 0; i < K_MAX; i++) {
-                // there may be fewer the K_MAX neighbors
-                row.set(numberDimensions + i, (i < cachedYs.size()) ? cachedYs.get(i) : -1);
-            }
-            log.println("data row:" + row);
-            csvwriter.writeRow(row);
+        for (QueryCache.Entry entry : cache.entries()) {
+            writeCacheRecord(csvwriter, entry.query, entry.neighbors);
             dataRecordsWritten++;
         }
         csvwriter.close();
         return dataRecordsWritten;
     }
     
-    ////////////////////// private
+    // return path to the cache file with the suffix, as written by cacheWrite and read by cacheMerge
+    public String cacheFilePath(String cacheFileNameSuffix) {
+        if (cache == null)
+            throw new IllegalStateException("constructed without a cache directory");
+        return cacheFilePathBase + cacheFileNameSuffix + ".csv";
+    }
     
-    // hold pairs containing a distance and an index, which is the row in xs
-    // used for sorting, so must implement compareTo
-    private static class DistanceIndex implements Comparable<Object> {
-        public double distance;
-        public int index;
-        
-        public DistanceIndex(double distance, int index) {
-            this.distance = distance;
-            this.index = index;
+    // return path to the binary neighbors file with the suffix
+    public String neighborsFilePath(String cacheFileNameSuffix) {
+        if (cache == null)
+            throw new IllegalStateException("constructed without a cache directory");
+        return cacheFilePathBase + cacheFileNameSuffix + ".bin";
+    }
+    
+    // return the cache of queries, whose counters describe its use
+    public QueryCache getCache() {
+        if (cache == null)
+            throw new IllegalStateException("constructed without a cache directory");
+        return cache;
+    }
+    
+    // bound the number of queries cached; the least recently used are evicted beyond maximumSize
+    // a cache from which queries have been evicted cannot be written
+    public void setCacheMaximumSize(int maximumSize) {
+        QueryCache bounded = new QueryCache(maximumSize);
+        for (QueryCache.Entry entry : getCache().entries())
+            bounded.put(entry.query, entry.omittedRow, entry.neighbors);
+        cache = bounded;
+    }
+    
+    // return the SHA of the xs and ys, which identifies the files built from them
+    public String getFingerprint() {
+        if (cache == null)
+            throw new IllegalStateException("constructed without a cache directory");
+        return fingerprint;
+    }
+    
+    // if the binary neighbors file with the suffix exists, open it and use it for queries that are
+    // rows of the xs, each omitting itself
+    // the file must hold the distances to the neighbors, which the Neighbors carry
+    // return true iff the file exists
+    public boolean openNeighborsFile(String cacheFileNameSuffix) {
+        final String filePath = neighborsFilePath(cacheFileNameSuffix);
+        if (!new File(filePath).exists())
+            return false;
+        NeighborsFile opened;
+        try {opened = NeighborsFile.open(filePath, fingerprint, xs.getSize(0), K_MAX, xs.getSize(1), false);}
+        catch (IOException e) {throw new RuntimeException("IOException for " + filePath + "; e=" + e);}
+        if (!opened.hasDistances()) {
+            try {opened.close();}
+            catch (IOException e) {throw new RuntimeException("IOException for " + filePath + "; e=" + e);}
+            throw new IllegalArgumentException("neighbors file holds no distances; filePath=" + filePath);
         }
-        
-        @Override public int compareTo(Object other) {
-            // order first on distance
-            if (this.distance < ((DistanceIndex) other).distance)
-                return -1;
-            if (this.distance > ((DistanceIndex) other).distance)
-                return 1;
-            
-            // order next on index
-            if (this.index < ((DistanceIndex) other).index)
-                return -1;
-            if (this.index > ((DistanceIndex) other).index)
-                return 1;
-            
-            return 0;
+        neighborsFile = opened;
+        return true;
+    }
+    
+    // return the header of a cache file
+    public String[] cacheColumnNames() {
+        final int numberDimensions = xs.getSize(1);
+        String[] columnNames = new String[numberDimensions + 2 * K_MAX];
+        for (int i = 0; i < numberDimensions; i++)
+            columnNames[i] = "t" + (i + 1);
+        for (int i = 0; i < K_MAX; i++) {
+            columnNames[numberDimensions + i] = "i" + (i + 1);
+            columnNames[numberDimensions + K_MAX + i] = "d" + (i + 1);
         }
+        return columnNames;
     }
     
-    // return SHA message digest as a String
-    private String makeSHA() {
-        Log log = new Log("Nearest256Ys.makeSHA", true);
-        MessageDigest md = null;
-        try {
-            md = MessageDigest.getInstance("SHA");
+    // return a data record of a cache file: the query followed by the row indices then the distances
+    // of the K_MAX nearest neighbors
+    public String[] cacheRecord(Tensor query, Neighbors neighbors) {
+        final int numberDimensions = xs.getSize(1);
+        String[] row = new String[numberDimensions + 2 * K_MAX];
+        for (int i = 0; i < numberDimensions; i++)
+            row[i] = String.valueOf(query.get(i));
+        for (int i = 0; i < K_MAX; i++) {
+            // there may be fewer the K_MAX neighbors
+            final boolean present = i < neighbors.size();
+            row[numberDimensions + i] = present ? String.valueOf(neighbors.getIndex(i)) : "-1";
+            row[numberDimensions + K_MAX + i] = present ? String.valueOf(neighbors.getDistance(i)) : "-1";
         }
-        catch (NoSuchAlgorithmException e) {throw new RuntimeException(e);}
-        
-        // update digest for all the xs and all the ys
-        IAE.isNotNull(xs, "xs");
-        IAE.isNotNull(ys, "ys");
-        for (int i = 0; i < xs.getSize(0); i++) {
-            updateDigest(md, ys.get(i));
-            for (int j = 0; j < xs.getSize(1); j++)
-                updateDigest(md, xs.get(i,j));
+        return row;
+    }
+    
+    // write the fields of cacheRecord(query, neighbors) as a row
+    public void writeCacheRecord(CsvWriter csvWriter, Tensor query, Neighbors neighbors) {
+        final int numberDimensions = xs.getSize(1);
+        for (int i = 0; i < numberDimensions; i++)
+            csvWriter.writeField(query.get(i));
+        for (int i = 0; i < K_MAX; i++)
+            csvWriter.writeField(i < neighbors.size() ? neighbors.getIndex(i) : -1);
+        for (int i = 0; i < K_MAX; i++) {
+            if (i < neighbors.size())
+                csvWriter.writeField(neighbors.getDistance(i));
+            else
+                csvWriter.writeField(-1L); // as an int, as cacheRecord writes it
         }
+        csvWriter.endRow();
+    }
+    
+    ////////////////////// private
+    
+    // return the neighbors from the neighbors file, if it holds the query, otherwise from the index
+    private Neighbors search(Tensor query, int xsRowIndexToOmit) {
+        if (neighborsFile != null && isRowOfXs(query, xsRowIndexToOmit) && neighborsFile.has(xsRowIndexToOmit))
+            return readNeighborsFile(xsRowIndexToOmit);
         
-        byte[] bytes = md.digest();
-        // convert the bytes into an equivalent String in hex encoding
-        // not:
-        //   String result = new String(bytes);
-        String result = toHex(bytes);
-        log.println("result:" + result);
-        return result;
+        // keep only the K_MAX best candidates; ties on distance are resolved in favor of the
+        // lower index, as a full sort would do
+        NearestCandidates candidates = new NearestCandidates(K_MAX);
+        index.nearest(query, xsRowIndexToOmit, candidates);
+        candidates.sort();
+        return new Neighbors(candidates);
     }
     
-    // convert a double value to an array of bytes
-    // ref:
-    // http://stackoverflow.com/questions/2905556/how-can-i-convert-a-byte-array-into-a-double-and-back
-    private byte[] toByteArray(double value) {
-        byte[] result = new byte[8];
-        ByteBuffer.wrap(result).putDouble(value);
-        return result;
+    // return the neighbors of the row stored in the neighbors file
+    // the file holds the distances as floats
+    private Neighbors readNeighborsFile(int row) {
+        final int size = neighborsFile.size(row);
+        int[] indices = new int[size];
+        double[] distances = new double[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = neighborsFile.getIndex(row, i);
+            distances[i] = neighborsFile.getDistance(row, i);
+        }
+        return new Neighbors(indices, distances);
     }
     
-    // convert bytes to hex representatives in a String
-    // ref:
-    // http://stackoverflow.com/questions/332079/in-java-how-do-i-convert-a-byte-array-to-a-string-of-hex-digits-while-keeping-l
-    public String toHex(byte[] bytes) {
-        char[] hexArray = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
-        char[] hexChars = new char[bytes.length * 2];
-        for (int j = 0; j < bytes.length; j++) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j*2] = hexArray[v/16];
-            hexChars[j*2 + 1] = hexArray[v%16];
+    // return the row to omit as the cache records it: QueryCache.NO_ROW if not a row of the xs
+    private int omittedRow(int xsRowIndexToOmit) {
+        return (xsRowIndexToOmit >= 0 && xsRowIndexToOmit < xs.getSize(0)) ? xsRowIndexToOmit : QueryCache.NO_ROW;
+    }
+    
+    // return the row omitted when the neighbors of the query in a cache file were found, which the file does
+    // not record: the first row of the xs with the query's values that is not among the neighbors, or
+    // QueryCache.NO_ROW if there is none
+    private int omittedRow(Tensor query, Neighbors neighbors) {
+        if (rowsWithValues == null) {
+            rowsWithValues = new HashMap<QueryCache.Key, int[]>();
+            for (int row = 0; row < xs.getSize(0); row++) {
+                QueryCache.Key key = new QueryCache.Key(xs.selectRow(row), QueryCache.NO_ROW);
+                int[] rows = rowsWithValues.get(key);
+                rows = (rows == null) ? new int[1] : Arrays.copyOf(rows, rows.length + 1);
+                rows[rows.length - 1] = row;
+                rowsWithValues.put(key, rows);
+            }
+        }
+        int[] rows = rowsWithValues.get(new QueryCache.Key(query, QueryCache.NO_ROW));
+        if (rows == null)
+            return QueryCache.NO_ROW;
+        for (int row : rows) {
+            boolean isNeighbor = false;
+            for (int i = 0; i < neighbors.size() && !isNeighbor; i++)
+                isNeighbor = neighbors.getIndex(i) == row;
+            if (!isNeighbor)
+                return row;
         }
-        return new String(hexChars);
+        return QueryCache.NO_ROW;
+    }
+    
+    // return the ys of the neighbors, nearest first
+    private ArrayList<Double> toYs(Neighbors neighbors) {
+        ArrayList<Double> result = new ArrayList<Double>(neighbors.size());
+        for (int i = 0; i < neighbors.size(); i++)
+            result.add(neighbors.getY(ys, i));
+        return result;
+    }
+    
+    // return true iff the query is xs[row,:]
+    private boolean isRowOfXs(Tensor query, int row) {
+        if (row < 0 || row >= xs.getSize(0))
+            return false;
+        for (int d = 0; d < xs.getSize(1); d++)
+            if (query.get(d) != xs.get(row, d))
+                return false;
+        return true;
     }
     
-    private void updateDigest(MessageDigest md, double x) {
-        byte[] bytes = toByteArray(x);
-        md.update(bytes, 0, bytes.length);
+    // convert bytes to hex representatives in a String
+    public String toHex(byte[] bytes) {
+        return Fingerprint.toHex(bytes);
     }
 }
@@ -0,0 +1,165 @@
+package com.roylowrance.thesis;
+
+// synopsis: keep the best (smallest distance) K candidates seen so far
+//
+// NearestCandidates candidates = new NearestCandidates(K);
+// for each row i
+//     candidates.offer(distance(i), i);  // no allocation per row
+// candidates.sort();                     // now in increasing (distance, index) order
+// for (int i = 0; i < candidates.size(); i++)
+//     use(candidates.getDistance(i), candidates.getIndex(i));
+// candidates.reset();                    // re-use for the next query
+//
+// The candidates are held in a bounded max-heap stored in parallel double[] and int[]
+// arrays, so that the root is the worst candidate kept. A new candidate is accepted
+// only if it is better than the root. Candidates are ordered first on distance then on
+// index, which is the same total order used when all the candidates were sorted.
+public class NearestCandidates {
+    private final int capacity;
+    private double[] distances;
+    private int[] indices;
+    private int size;
+    private boolean isSorted;
+
+    // construct with room for capacity candidates
+    public NearestCandidates(int capacity) {
+        IAE.positive(capacity, "capacity");
+        this.capacity = capacity;
+        this.distances = new double[capacity];
+        this.indices = new int[capacity];
+        reset();
+    }
+
+    // discard all candidates
+    public void reset() {
+        size = 0;
+        isSorted = false;
+    }
+
+    // return maximum number of candidates retained
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // return number of candidates retained
+    public int size() {
+        return size;
+    }
+
+    // return true iff capacity candidates have been retained
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    // return distance of the worst candidate retained
+    // any new candidate with a larger distance will be rejected once the heap is full
+    public double worstDistance() {
+        if (size == 0)
+            throw new IllegalStateException("no candidates");
+        if (isSorted)
+            return distances[size - 1];
+        return distances[0];
+    }
+
+    // consider a candidate; return true iff it was retained
+    public boolean offer(double distance, int index) {
+        if (isSorted)
+            throw new IllegalStateException("sorted; call reset() before offering more candidates");
+        if (size < capacity) {
+            distances[size] = distance;
+            indices[size] = index;
+            siftUp(size);
+            size++;
+            return true;
+        }
+        if (!isWorse(distances[0], indices[0], distance, index))
+            return false;
+        // replace the worst candidate
+        distances[0] = distance;
+        indices[0] = index;
+        siftDown(0);
+        return true;
+    }
+
+    // order the candidates in increasing (distance, index) order
+    // heap sort in place, so no allocation
+    public void sort() {
+        if (isSorted)
+            return;
+        for (int last = size - 1; last > 0; last--) {
+            swap(0, last);
+            siftDown(0, last);
+        }
+        isSorted = true;
+    }
+
+    // return distance of the i-th best candidate; must have called sort()
+    public double getDistance(int i) {
+        checkSortedIndex(i);
+        return distances[i];
+    }
+
+    // return xs row index of the i-th best candidate; must have called sort()
+    public int getIndex(int i) {
+        checkSortedIndex(i);
+        return indices[i];
+    }
+
+    ////////////////////// private
+
+    private void checkSortedIndex(int i) {
+        if (!isSorted)
+            throw new IllegalStateException("not sorted; call sort() first");
+        if (i < 0 || i >= size)
+            throw new IllegalArgumentException("i out of range; i=" + i + " size=" + size);
+    }
+
+    // return true iff candidate a is worse than candidate b
+    private static boolean isWorse(double distanceA, int indexA, double distanceB, int indexB) {
+        if (distanceA > distanceB)
+            return true;
+        if (distanceA < distanceB)
+            return false;
+        return indexA > indexB;
+    }
+
+    private void siftUp(int child) {
+        while (child > 0) {
+            final int parent = (child - 1) / 2;
+            if (!isWorse(distances[child], indices[child], distances[parent], indices[parent]))
+                return;
+            swap(child, parent);
+            child = parent;
+        }
+    }
+
+    private void siftDown(int parent) {
+        siftDown(parent, size);
+    }
+
+    // restore heap property in [0, limit)
+    private void siftDown(int parent, int limit) {
+        while (true) {
+            final int left = 2 * parent + 1;
+            if (left >= limit)
+                return;
+            final int right = left + 1;
+            int worst = left;
+            if (right < limit && isWorse(distances[right], indices[right], distances[left], indices[left]))
+                worst = right;
+            if (!isWorse(distances[worst], indices[worst], distances[parent], indices[parent]))
+                return;
+            swap(parent, worst);
+            parent = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+        final int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+    }
+}
@@ -0,0 +1,20 @@
+package com.roylowrance.thesis;
+
+import com.roylowrance.util.Tensor;
+
+// a nearest neighbor index over the rows of an xs Tensor
+// built once from the xs, then queried many times
+// all the implementations are exact except HnswIndex, which is approximate
+//
+// NearestNeighborIndex index = NearestNeighborIndexes.make("auto", xs);
+// NearestCandidates candidates = new NearestCandidates(Nearest256Ys.K_MAX);
+// index.nearest(query, xsRowIndexToOmit, candidates);  // candidates now hold the nearest rows
+public interface NearestNeighborIndex {
+
+    // offer to candidates the rows of xs nearest to the query
+    // for an exact index, after the call candidates contains exactly the rows a scan of every row would retain
+    // the xsRowIndexToOmit can be out of bounds (for example, -1) to indicate that
+    // no row in the xs is to be excluded
+    public void nearest(Tensor query, int xsRowIndexToOmit, NearestCandidates candidates);
+
+}
@@ -0,0 +1,65 @@
+package com.roylowrance.thesis;
+
+import java.io.IOException;
+
+import com.roylowrance.util.Tensor;
+
+// factory for the NearestNeighborIndex implementations
+// kinds:
+//   brute    examine every row (the original algorithm)
+//   kdtree   KdTreeIndex
+//   balltree BallTreeIndex
+//   auto     kdtree for few dimensions, balltree otherwise
+//   hnsw     HnswIndex, which is APPROXIMATE; built in memory with the default parameters
+public class NearestNeighborIndexes {
+    public final static String[] KINDS = {"brute", "kdtree", "balltree", "auto", "hnsw"};
+    public final static String[] EXACT_KINDS = {"brute", "kdtree", "balltree", "auto"}; // all but hnsw
+
+    // HNSW graph parameters
+    public final static int HNSW_M = 16;
+    public final static int HNSW_EF_CONSTRUCTION = 200;
+    public final static int HNSW_EF_SEARCH = 512;
+
+    // a KD-tree prunes well only while 2^dimensions is small compared to the number of rows
+    private final static int MAX_KD_TREE_DIMENSIONS = 20;
+
+    // return true iff an index of the kind finds exactly the nearest neighbors
+    public static boolean isExact(String kind) {
+        for (String exactKind : EXACT_KINDS)
+            if (exactKind.equals(kind))
+                return true;
+        return false;
+    }
+
+    // return a new index of the specified kind over the rows of xs
+    public static NearestNeighborIndex make(String kind, Tensor xs) {
+        IAE.notNull(kind, "kind");
+        IAE.is2D(xs, "xs");
+        if (kind.equals("brute"))
+            return new BruteForceIndex(xs);
+        if (kind.equals("kdtree"))
+            return new KdTreeIndex(xs);
+        if (kind.equals("balltree"))
+            return new BallTreeIndex(xs);
+        if (kind.equals("auto"))
+            return (xs.getSize(1) <= MAX_KD_TREE_DIMENSIONS) ? new KdTreeIndex(xs) : new BallTreeIndex(xs);
+        if (kind.equals("hnsw")) {
+            final long seed = 27;
+            HnswIndex result = new HnswIndex(xs, HNSW_M, HNSW_EF_CONSTRUCTION, seed);
+            result.setEfSearch(HNSW_EF_SEARCH);
+            return result;
+        }
+        throw new IllegalArgumentException("unknown index kind; kind=" + kind);
+    }
+
+    // return an HNSW index read from the graph file, building and saving the graph first if the file does not exist
+    public static HnswIndex makeHnsw(Tensor xs, String graphFilePath, int efSearch) {
+        IAE.is2D(xs, "xs");
+        IAE.notNull(graphFilePath, "graphFilePath");
+        HnswIndex result;
+        try {result = HnswIndex.loadOrBuild(graphFilePath, xs, HNSW_M, HNSW_EF_CONSTRUCTION);}
+        catch (IOException e) {throw new RuntimeException("IOException for graph file " + graphFilePath + "; e=" + e);}
+        result.setEfSearch(efSearch);
+        return result;
+    }
+}
@@ -15,7 +15,7 @@ import com.roylowrance.util.Log;
 import com.roylowrance.util.Tensor;
 
 // maintain a nearest neighbors cache on disk
-// the disk file is a CSV file
+// the disk file is a CSV file or a binary NeighborsFile
 // the map contains the indices of the transactions, not the transactions themselves
 // so there is an issue of being sure that the map is correct for the problem
 // caller must solve that problem
@@ -124,6 +124,50 @@ public class NearestNeighborsCache {
         return countAdded;
     }
     
+    // put the stored rows of the binary NeighborsFile into the cache
+    // throws if key is already in the cache
+    // return number of records added to the map
+    public int putFromNeighborsFile(String filePath, String fingerprint) throws IOException {
+        NeighborsFile neighborsFile = NeighborsFile.open(filePath, fingerprint, false);
+        if (neighborsFile.getKMax() > maxValuesPerKey)
+            throw new IllegalArgumentException("file has too many neighbors per row; kMax=" + neighborsFile.getKMax());
+        int countAdded = 0;
+        for (int key = 0; key < neighborsFile.getNumberRows(); key++) {
+            if (!neighborsFile.has(key))
+                continue;
+            final int size = neighborsFile.size(key);
+            ArrayList<Integer> values = new ArrayList<Integer>(size);
+            for (int i = 0; i < size; i++)
+                values.add(neighborsFile.getIndex(key, i));
+            if (map.containsKey(key))
+                throw new RuntimeException("key is already in map; key=" + key);
+            map.put(key, values);
+            countAdded++;
+        }
+        neighborsFile.close();
+        return countAdded;
+    }
+    
+    // write cache as a binary NeighborsFile for the numberRows rows of an xs with the dimensions
+    // the distances are not known, so the file is marked as holding none, and its readers cannot use them
+    // return number of data records written
+    public int writeNeighborsFile(String filePath, String fingerprint, int numberRows, int dimensions) throws IOException {
+        final boolean hasDistances = false;
+        NeighborsFile neighborsFile = NeighborsFile.create(filePath, fingerprint, numberRows, maxValuesPerKey, dimensions, hasDistances);
+        int recordsWritten = 0;
+        for (int key : map.keySet()) {
+            ArrayList<Integer> values = map.get(key);
+            int[] indices = new int[values.size()];
+            for (int i = 0; i < values.size(); i++)
+                indices[i] = values.get(i);
+            final float[] noDistances = null;
+            neighborsFile.put(key, indices, noDistances);
+            recordsWritten++;
+        }
+        neighborsFile.close();
+        return recordsWritten;
+    }
+    
     // write cache as CSV to filePath
     // return number of data records written
     public int write(String filePath) {
@@ -0,0 +1,89 @@
+package com.roylowrance.thesis;
+
+import java.util.Arrays;
+
+import com.roylowrance.util.Tensor;
+
+// the nearest rows of the xs to a query: their row indices and Euclidean distances, nearest first
+//
+// synopsis:
+// Neighbors neighbors = new Neighbors(sortedCandidates);  // from a search
+// Neighbors neighbors = new Neighbors(indices, distances); // from a cache file
+// int row = neighbors.getIndex(i);                        // the i-th nearest row of the xs
+// double distance = neighbors.getDistance(i);             // its distance from the query
+// double y = neighbors.getY(ys, i);                       // its y, for any ys parallel to the xs
+//
+// Because the rows rather than their ys are kept, one set of neighbors serves any estimator and
+// any target column. Instances are immutable.
+public class Neighbors {
+    private final int[] indices;
+    private final double[] distances;
+
+    // construct from candidates that have been sorted
+    public Neighbors(NearestCandidates sorted) {
+        IAE.notNull(sorted, "sorted");
+        indices = new int[sorted.size()];
+        distances = new double[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            indices[i] = sorted.getIndex(i);
+            distances[i] = sorted.getDistance(i);
+        }
+    }
+
+    // construct from parallel arrays, nearest first; the arrays are copied
+    public Neighbors(int[] indices, double[] distances) {
+        IAE.notNull(indices, "indices");
+        IAE.notNull(distances, "distances");
+        IAE.equals(indices.length, distances.length, "one distance per index", "indices", "distances");
+        for (int i = 1; i < distances.length; i++)
+            if (distances[i] < distances[i - 1])
+                throw new IllegalArgumentException("distances not in increasing order; i=" + i);
+        this.indices = Arrays.copyOf(indices, indices.length);
+        this.distances = Arrays.copyOf(distances, distances.length);
+    }
+
+    // return number of neighbors
+    public int size() {
+        return indices.length;
+    }
+
+    // return row index in the xs of the i-th nearest neighbor
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    // return distance from the query to the i-th nearest neighbor
+    public double getDistance(int i) {
+        return distances[i];
+    }
+
+    // return y value of the i-th nearest neighbor
+    public double getY(Tensor ys, int i) {
+        return ys.get(indices[i]);
+    }
+
+    // return row indices of the neighbors, nearest first
+    public int[] getIndices() {
+        return Arrays.copyOf(indices, indices.length);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof Neighbors))
+            return false;
+        Neighbors other = (Neighbors) obj;
+        return Arrays.equals(indices, other.indices) && Arrays.equals(distances, other.distances);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(indices) + Arrays.hashCode(distances);
+    }
+
+    @Override
+    public String toString() {
+        return "Neighbors(size=" + indices.length + ")";
+    }
+}
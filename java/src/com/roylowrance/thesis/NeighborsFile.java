@@ -0,0 +1,271 @@
+package com.roylowrance.thesis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// binary nearest neighbors file, memory mapped and read directly by row index
+//
+// synopsis:
+// NeighborsFile nf = NeighborsFile.create(filePath, fingerprint, numberRows, kMax, dimensions); // all rows absent
+// NeighborsFile nf = NeighborsFile.create(filePath, fingerprint, numberRows, kMax, dimensions, false); // no distances
+// nf.put(row, candidates);                  // store the sorted candidates for the row
+// nf.put(row, indices, null);               // store the neighbors of the row, in a file with no distances
+// nf.close();
+// NeighborsFile nf = NeighborsFile.open(filePath, fingerprint, false); // read only
+// NeighborsFile nf = NeighborsFile.open(filePath, fingerprint, numberRows, kMax, dimensions, false); // also check the shape
+// if (nf.has(row))
+//     for (int i = 0; i < nf.size(row); i++)
+//         use(nf.getIndex(row, i), nf.getDistance(row, i)); // getDistance throws unless nf.hasDistances()
+//
+// layout (big endian):
+//   header, HEADER_BYTES long:
+//     int magic, int version, int numberRows, int kMax, int dimensions, int flags,
+//     int fingerprint length, the fingerprint characters as bytes
+//   then numberRows fixed-width records, one per row of the xs:
+//     int size + 1 (0 for a row not yet stored), kMax int row indices, kMax float distances
+// The fingerprint identifies the xs and ys (see Nearest256Ys), so that a file built from other data is not used.
+// The flag NO_DISTANCES marks a file whose neighbors were written without their distances (see
+// NearestNeighborsCache); the distance fields of its records are not set. Version 1 files have no flags
+// and always hold the distances.
+//
+// A mapping covers at most 2 GB, so the records are mapped in segments of whole records.
+public class NeighborsFile {
+    private final static int MAGIC = 0x4e4e4252; // "NNBR"
+    private final static int VERSION = 2;
+    private final static int HEADER_BYTES = 256;
+    private final static int NO_DISTANCES = 1; // flag
+
+    private final RandomAccessFile file;
+    private final boolean writable;
+    private final String fingerprint;
+    private final boolean hasDistances;
+    private final int numberRows;
+    private final int kMax;
+    private final int dimensions;
+    private final int recordBytes;
+    private final int rowsPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    // create a file in which no rows are yet stored; replaces any existing file
+    public static NeighborsFile create(String filePath, String fingerprint, int numberRows, int kMax, int dimensions) throws IOException {
+        final boolean hasDistances = true;
+        return create(filePath, fingerprint, numberRows, kMax, dimensions, hasDistances);
+    }
+
+    // create a file in which no rows are yet stored, holding the distances to the neighbors iff hasDistances
+    public static NeighborsFile create(String filePath, String fingerprint, int numberRows, int kMax, int dimensions,
+            boolean hasDistances) throws IOException {
+        IAE.notNull(filePath, "filePath");
+        IAE.notNull(fingerprint, "fingerprint");
+        IAE.nonNegative(numberRows, "numberRows");
+        IAE.positive(kMax, "kMax");
+        IAE.positive(dimensions, "dimensions");
+        if (fingerprint.length() > HEADER_BYTES - 7 * 4)
+            throw new IllegalArgumentException("fingerprint too long; fingerprint=" + fingerprint);
+
+        File f = new File(filePath);
+        if (f.exists() && !f.delete())
+            throw new IOException("unable to delete " + filePath);
+        RandomAccessFile file = new RandomAccessFile(f, "rw");
+        file.writeInt(MAGIC);
+        file.writeInt(VERSION);
+        file.writeInt(numberRows);
+        file.writeInt(kMax);
+        file.writeInt(dimensions);
+        file.writeInt(hasDistances ? 0 : NO_DISTANCES);
+        file.writeInt(fingerprint.length());
+        file.write(fingerprint.getBytes("US-ASCII"));
+        // the records are all zero, hence absent, until stored
+        file.setLength(HEADER_BYTES + (long) numberRows * recordBytes(kMax));
+        return new NeighborsFile(file, true, fingerprint, hasDistances, numberRows, kMax, dimensions);
+    }
+
+    // open an existing file, which must have the expected fingerprint and be as long as its header implies
+    public static NeighborsFile open(String filePath, String expectedFingerprint, boolean writable) throws IOException {
+        final int anyShape = -1;
+        return open(filePath, expectedFingerprint, anyShape, anyShape, anyShape, writable);
+    }
+
+    // open an existing file, which must also have been created for the number of rows, kMax, and dimensions
+    // a negative expected value is not checked
+    public static NeighborsFile open(String filePath, String expectedFingerprint, int expectedNumberRows, int expectedKMax,
+            int expectedDimensions, boolean writable) throws IOException {
+        IAE.notNull(filePath, "filePath");
+        IAE.notNull(expectedFingerprint, "expectedFingerprint");
+        RandomAccessFile file = new RandomAccessFile(filePath, writable ? "rw" : "r");
+        try {
+            if (file.length() < HEADER_BYTES || file.readInt() != MAGIC)
+                throw new IOException("not a neighbors file; filePath=" + filePath);
+            final int version = file.readInt();
+            if (version != 1 && version != VERSION)
+                throw new IOException("unsupported neighbors file version; version=" + version);
+            final int numberRows = file.readInt();
+            final int kMax = file.readInt();
+            final int dimensions = file.readInt();
+            final int flags = (version == 1) ? 0 : file.readInt();
+            final int fingerprintLength = file.readInt();
+            final int headerInts = (version == 1) ? 6 : 7;
+            if (numberRows < 0 || kMax < 1 || dimensions < 1 || (flags & ~NO_DISTANCES) != 0 || fingerprintLength < 0 ||
+                    fingerprintLength > HEADER_BYTES - headerInts * 4)
+                throw new IOException("corrupt neighbors file header; filePath=" + filePath);
+            byte[] fingerprintBytes = new byte[fingerprintLength];
+            file.readFully(fingerprintBytes);
+            final String fingerprint = new String(fingerprintBytes, "US-ASCII");
+            if (!fingerprint.equals(expectedFingerprint))
+                throw new IllegalArgumentException(
+                        "neighbors file built from other data; fingerprint=" + fingerprint + " expected=" + expectedFingerprint);
+            checkShape("numberRows", numberRows, expectedNumberRows, filePath);
+            checkShape("kMax", kMax, expectedKMax, filePath);
+            checkShape("dimensions", dimensions, expectedDimensions, filePath);
+            final long expectedLength = HEADER_BYTES + (long) numberRows * recordBytes(kMax);
+            if (file.length() != expectedLength)
+                throw new IOException("neighbors file has length " + file.length() + " not " + expectedLength + "; filePath=" + filePath);
+            return new NeighborsFile(file, writable, fingerprint, (flags & NO_DISTANCES) == 0, numberRows, kMax, dimensions);
+        }
+        catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        catch (RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private NeighborsFile(RandomAccessFile file, boolean writable, String fingerprint, boolean hasDistances, int numberRows, int kMax,
+            int dimensions) throws IOException {
+        this.file = file;
+        this.writable = writable;
+        this.fingerprint = fingerprint;
+        this.hasDistances = hasDistances;
+        this.numberRows = numberRows;
+        this.kMax = kMax;
+        this.dimensions = dimensions;
+        this.recordBytes = recordBytes(kMax);
+        this.rowsPerSegment = Math.max(1, Integer.MAX_VALUE / recordBytes);
+
+        final int numberSegments = (numberRows + rowsPerSegment - 1) / rowsPerSegment;
+        segments = new MappedByteBuffer[numberSegments];
+        FileChannel channel = file.getChannel();
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        for (int segment = 0; segment < numberSegments; segment++) {
+            final int rows = Math.min(rowsPerSegment, numberRows - segment * rowsPerSegment);
+            segments[segment] = channel.map(mode, HEADER_BYTES + (long) segment * rowsPerSegment * recordBytes, (long) rows * recordBytes);
+            segments[segment].order(ByteOrder.BIG_ENDIAN);
+        }
+    }
+
+    public String getFingerprint() {return fingerprint;}
+    public boolean hasDistances() {return hasDistances;}
+    public int getNumberRows() {return numberRows;}
+    public int getKMax() {return kMax;}
+    public int getDimensions() {return dimensions;}
+
+    // return true iff the neighbors of the row have been stored
+    public boolean has(int row) {
+        return segment(row).getInt(position(row)) != 0;
+    }
+
+    // return number of neighbors stored for the row
+    public int size(int row) {
+        final int sizePlusOne = segment(row).getInt(position(row));
+        if (sizePlusOne == 0)
+            throw new IllegalArgumentException("neighbors not stored for row " + row);
+        return sizePlusOne - 1;
+    }
+
+    // return row index of the i-th nearest neighbor of the row
+    public int getIndex(int row, int i) {
+        checkNeighbor(i);
+        return segment(row).getInt(position(row) + 4 + 4 * i);
+    }
+
+    // return distance to the i-th nearest neighbor of the row
+    public float getDistance(int row, int i) {
+        if (!hasDistances)
+            throw new IllegalStateException("neighbors file holds no distances");
+        checkNeighbor(i);
+        return segment(row).getFloat(position(row) + 4 + 4 * kMax + 4 * i);
+    }
+
+    // store the neighbors of the row, which must be sorted
+    public void put(int row, NearestCandidates sorted) {
+        IAE.notNull(sorted, "sorted");
+        int[] indices = new int[sorted.size()];
+        float[] distances = new float[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            indices[i] = sorted.getIndex(i);
+            distances[i] = (float) sorted.getDistance(i);
+        }
+        put(row, indices, distances);
+    }
+
+    // store the neighbors of the row, nearest first
+    // the distances are null iff the file holds no distances, and none may be NaN
+    public void put(int row, int[] indices, float[] distances) {
+        if (!writable)
+            throw new IllegalStateException("opened read only");
+        IAE.notNull(indices, "indices");
+        if (hasDistances) {
+            IAE.notNull(distances, "distances");
+            IAE.equals(indices.length, distances.length, "one distance per index", "indices", "distances");
+            for (int i = 0; i < distances.length; i++)
+                if (Float.isNaN(distances[i]))
+                    throw new IllegalArgumentException("distance " + i + " of row " + row + " is NaN");
+        }
+        else if (distances != null)
+            throw new IllegalArgumentException("neighbors file holds no distances");
+        IAE.lessEqual(indices.length, kMax, "number of neighbors", "kMax");
+        MappedByteBuffer buffer = segment(row);
+        final int position = position(row);
+        for (int i = 0; i < indices.length; i++) {
+            buffer.putInt(position + 4 + 4 * i, indices[i]);
+            if (hasDistances)
+                buffer.putFloat(position + 4 + 4 * kMax + 4 * i, distances[i]);
+        }
+        // the size is written last, so that a partly written record reads as absent
+        buffer.putInt(position, indices.length + 1);
+    }
+
+    // write the stored records to the disk
+    public void force() {
+        if (writable)
+            for (MappedByteBuffer segment : segments)
+                segment.force();
+    }
+
+    public void close() throws IOException {
+        force();
+        file.close();
+    }
+
+    ////////////////////// private
+
+    private static int recordBytes(int kMax) {
+        return 4 + 8 * kMax;
+    }
+
+    private static void checkShape(String name, int actual, int expected, String filePath) {
+        if (expected >= 0 && actual != expected)
+            throw new IllegalArgumentException("neighbors file has " + name + " " + actual + " not " + expected + "; filePath=" + filePath);
+    }
+
+    private MappedByteBuffer segment(int row) {
+        if (row < 0 || row >= numberRows)
+            throw new IllegalArgumentException("row out of range; row=" + row + " numberRows=" + numberRows);
+        return segments[row / rowsPerSegment];
+    }
+
+    private int position(int row) {
+        return (row % rowsPerSegment) * recordBytes;
+    }
+
+    private void checkNeighbor(int i) {
+        if (i < 0 || i >= kMax)
+            throw new IllegalArgumentException("neighbor out of range; i=" + i + " kMax=" + kMax);
+    }
+}
@@ -26,7 +26,8 @@ public class ObsVisit {
 		log.println("fileDataPath:" + fileDataPath);
 		log.println("fileHeaderPath:" + fileHeaderPath);
 
-		dataScanner = new LineScanner(fileDataPath);
+		final boolean readAhead = true; // read the large file on a background thread
+		dataScanner = new LineScanner(fileDataPath, readAhead);
 
 		LineScanner headerScanner = new LineScanner(fileHeaderPath);
 		header = headerScanner.nextLine();
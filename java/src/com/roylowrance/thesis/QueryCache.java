@@ -0,0 +1,233 @@
+package com.roylowrance.thesis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.roylowrance.util.Tensor;
+
+// cache of the neighbors of queries, keyed by the values in the query and the row of the xs omitted
+//
+// synopsis:
+// QueryCache cache = new QueryCache(maximumSize);     // least recently used entries are evicted beyond maximumSize
+// Neighbors neighbors = cache.get(query, omittedRow); // null if not cached
+// cache.put(query, omittedRow, neighbors);
+// boolean isAdded = cache.putIfAbsent(query, omittedRow, neighbors);
+// Neighbors neighbors = cache.get(query, omittedRow, loader); // load if not cached; one load per query at a time
+// long hits = cache.getHits();                        // also getMisses, getJoins, getEvictions
+// for (QueryCache.Entry entry : cache.entries()) ...
+//
+// A Tensor's equals and hashCode are those of Object, so the key is a copy of the query's values with
+// its hash computed once. Two queries are the same iff their values have the same bits and they omit the
+// same row (NO_ROW if none). The row is part of the key because the xs may hold duplicate rows: the
+// neighbors of row r, omitting r, include a duplicate row s, so they are not the neighbors of row s.
+//
+// All methods may be called from several threads. When several threads get the same query that is not
+// cached, one loads it and the others wait for and share its result (they are counted as joins).
+public class QueryCache {
+    public final static int NO_ROW = -1;
+
+    private final int maximumSize;
+    private final LinkedHashMap<Key, Neighbors> map;
+    private final HashMap<Key, FutureTask<Neighbors>> loading = new HashMap<Key, FutureTask<Neighbors>>();
+    private long hits;
+    private long misses;
+    private long joins;
+    private long evictions;
+
+    // construct an empty cache holding at most maximumSize entries
+    public QueryCache(int maximumSize) {
+        IAE.positive(maximumSize, "maximumSize");
+        this.maximumSize = maximumSize;
+        // access order, so that the eldest entry is the least recently used
+        this.map = new LinkedHashMap<Key, Neighbors>(16, 0.75f, true) {
+            private final static long serialVersionUID = 1;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Neighbors> eldest) {
+                if (size() <= QueryCache.this.maximumSize)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // loads the neighbors of a query not in the cache
+    public interface Loader {
+        public Neighbors load(Tensor query);
+    }
+
+    // a cached query, the row omitted, and its neighbors
+    public static class Entry {
+        public final Tensor query;
+        public final int omittedRow;
+        public final Neighbors neighbors;
+
+        public Entry(Tensor query, int omittedRow, Neighbors neighbors) {
+            this.query = query;
+            this.omittedRow = omittedRow;
+            this.neighbors = neighbors;
+        }
+    }
+
+    // return the neighbors of the query, omitting the row, or null if not cached
+    public synchronized Neighbors get(Tensor query, int omittedRow) {
+        Neighbors result = map.get(new Key(query, omittedRow));
+        if (result == null)
+            misses++;
+        else
+            hits++;
+        return result;
+    }
+
+    // return the neighbors of the query, omitting the row, loading and caching them if not cached
+    // if another thread is loading the same query, wait for its result
+    public Neighbors get(final Tensor query, int omittedRow, final Loader loader) {
+        IAE.notNull(loader, "loader");
+        final Key key = new Key(query, omittedRow);
+        FutureTask<Neighbors> task;
+        boolean isLoader = false;
+        synchronized (this) {
+            Neighbors cached = map.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            task = loading.get(key);
+            if (task == null) {
+                misses++;
+                task = new FutureTask<Neighbors>(new Callable<Neighbors>() {
+                    @Override
+                    public Neighbors call() {
+                        return loader.load(query);
+                    }
+                });
+                loading.put(key, task);
+                isLoader = true;
+            }
+            else
+                joins++;
+        }
+
+        if (isLoader) {
+            task.run();
+            synchronized (this) {
+                loading.remove(key);
+                if (!task.isCancelled()) {
+                    try {map.put(key, task.get());}
+                    catch (InterruptedException e) {throw new RuntimeException(e);}
+                    catch (ExecutionException e) {} // reported below
+                }
+            }
+        }
+        try {return task.get();}
+        catch (InterruptedException e) {throw new RuntimeException(e);}
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // cache the neighbors of the query, omitting the row, replacing any cached
+    public synchronized void put(Tensor query, int omittedRow, Neighbors neighbors) {
+        IAE.notNull(neighbors, "neighbors");
+        map.put(new Key(query, omittedRow), neighbors);
+    }
+
+    // cache the neighbors of the query, omitting the row, unless already cached
+    // return true iff cached
+    public synchronized boolean putIfAbsent(Tensor query, int omittedRow, Neighbors neighbors) {
+        IAE.notNull(neighbors, "neighbors");
+        Key key = new Key(query, omittedRow);
+        if (map.containsKey(key))
+            return false;
+        map.put(key, neighbors);
+        return true;
+    }
+
+    // return number of queries cached
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public int getMaximumSize() {return maximumSize;}
+    public synchronized long getHits() {return hits;}
+    public synchronized long getMisses() {return misses;}
+    public synchronized long getJoins() {return joins;}
+    public synchronized long getEvictions() {return evictions;}
+
+    // return the cached queries, the rows omitted, and their neighbors, least recently used first
+    // each query is a new Tensor
+    public synchronized List<Entry> entries() {
+        List<Entry> result = new ArrayList<Entry>(map.size());
+        for (Map.Entry<Key, Neighbors> entry : map.entrySet())
+            result.add(new Entry(entry.getKey().toTensor(), entry.getKey().omittedRow, entry.getValue()));
+        return result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache(size=" + map.size() + ",maximumSize=" + maximumSize + ",hits=" + hits + ",misses=" + misses +
+                ",joins=" + joins + ",evictions=" + evictions + ")";
+    }
+
+    ////////////////////// private
+
+    // the values of a query, the row omitted, and their hash
+    // also used by Nearest256Ys to find the rows of the xs with given values
+    static class Key {
+        private final double[] values;
+        private final int omittedRow;
+        private final int hash;
+
+        public Key(Tensor query, int omittedRow) {
+            IAE.is1D(query, "query");
+            this.omittedRow = omittedRow;
+            values = new double[query.getSize(0)];
+            long h = 31L * values.length + omittedRow;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = query.get(i);
+                h = mix(h * 31 + Double.doubleToLongBits(values[i]));
+            }
+            hash = (int) (h ^ (h >>> 32));
+        }
+
+        public Tensor toTensor() {
+            Tensor result = new Tensor(values.length);
+            for (int i = 0; i < values.length; i++)
+                result.set(i, values[i]);
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return hash == other.hash && omittedRow == other.omittedRow && Arrays.equals(values, other.values);
+        }
+
+        // spread the bits, as the values often differ only in their low order bits
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
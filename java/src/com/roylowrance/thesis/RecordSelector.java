@@ -15,6 +15,11 @@ public class RecordSelector {
 	private FieldDefinitions definitions = null;
 	// private int numberFields = 0;
 	private Extractor extractor = null;
+	// the definitions in the order of getFieldNames(), with their fields found once
+	private String[] fieldNames;
+	private Extractor.Field[] fields;
+	private String[] validValuesDefinitions;
+	private String[] recodeDefinitions;
 	private InvalidValueTracker invalidValueTracker = new InvalidValueTracker();
 
 	private class InvalidValueTracker {
@@ -49,6 +54,19 @@ public class RecordSelector {
 	public RecordSelector(FieldDefinitions definitions, Extractor extractor) {
 		this.definitions = definitions;
 		this.extractor = extractor;
+		final int numberFields = definitions.getNumberFields();
+		fieldNames = new String[numberFields];
+		fields = new Extractor.Field[numberFields];
+		validValuesDefinitions = new String[numberFields];
+		recodeDefinitions = new String[numberFields];
+		int i = 0;
+		for (String fieldName : definitions.getFieldNames()) {
+			fieldNames[i] = fieldName;
+			fields[i] = extractor.field(fieldName);
+			validValuesDefinitions[i] = definitions.getValidValuesDefinition(fieldName);
+			recodeDefinitions[i] = definitions.getRecodeDefinition(fieldName);
+			i++;
+		}
 	}
 
 	// thrown when the record is not selected
@@ -78,14 +96,15 @@ public class RecordSelector {
 		final boolean debugging = true;
 		final boolean logging = false;
 		Log log = new Log("RecordSelector.select", logging);
-		String[] answer = new String[definitions.getNumberFields()];
-		int i = 0;
-		for (String fieldName : definitions.getFieldNames()) {
+		String[] answer = new String[fields.length];
+		Extractor.Record fieldValues = extractor.split(record); // split once
+		for (int i = 0; i < fields.length; i++) {
+			final String fieldName = fieldNames[i];
 			if (debugging && fieldName.equals("PRIOR SALES AMOUNT"))
 				System.out.println("found PRIOR SALES AMOUNT FIELD");
-			String fieldValue = extractor.extract(record, fieldName);
-			boolean isValidValue = isValidField(
-					definitions.getValidValuesDefinition(fieldName), fieldValue);
+			String fieldValue = fieldValues.get(fields[i]);
+			boolean isValidValue = isValidField(validValuesDefinitions[i],
+					fieldValue);
 
 			log.println("fieldName:" + fieldName + " fieldValue:" + fieldValue
 					+ " isValidValue:" + isValidValue);
@@ -95,8 +114,7 @@ public class RecordSelector {
 				invalidValueTracker.remember(fieldName, fieldValue);
 				throw new RecordSelectorException(fieldName, fieldValue);
 			}
-			answer[i] = recode(definitions.getRecodeDefinition(fieldName),
-					fieldValue);
+			answer[i] = recode(recodeDefinitions[i], fieldValue);
 			if (logging)
 				log.println("recoded answer[" + i + "]:" + answer[i]);
 
@@ -107,8 +125,6 @@ public class RecordSelector {
 				if (!answer[i].equals("0"))
 					throw new RuntimeException("PRIOR SALE AMOUNT not zero");
 			}
-
-			i++;
 		}
 		log.println("answer:" + answer);
 		log.println("answer.length:" + answer.length);
@@ -1,27 +1,67 @@
 package com.roylowrance.thesis;
 
+import com.roylowrance.util.ColumnStoreReader;
 import com.roylowrance.util.CsvReader;
+import com.roylowrance.util.DataFrame;
 import com.roylowrance.util.Tensor;
 // hold the data needed to search over hyper parameters
 
 public class TestData {
-    private Tensor days; // days past epoch (without loss of precision, because of upstream processes)
+    private int[] dayNumbers; // days past epoch, read as ints
     private Tensor xs;
     private Tensor ys;
+    private String fingerprint; // of the xs and ys; see Fingerprint
 
     // read the training data from the file system
+    // the fingerprint is kept in features-combined.csv.fingerprint, so that it is computed only when the
+    // xs or ys files change
+    // if CreateFeatures wrote the column store features.columns, only the needed columns are read from it,
+    // and the fingerprint is kept in features.columns.fingerprint
     public TestData(String obs, String pathToDataDir) {
         String obsDir = pathToDataDir + "generated-v4/obs" + obs + "/";
+        ColumnStoreReader store = CreateFeaturesCombined.openFeatures(obsDir, obs, "day", "SALE-AMOUNT-log");
+        if (store != null) {
+            this.dayNumbers = store.readInts("day");
+            this.xs = store.readColumns(CreateFeaturesCombined.makeInFieldNames(obs)).getTensor();
+            this.ys = store.readColumn("SALE-AMOUNT-log");
+            store.close();
+            final String storePath = CreateFeatures.columnStorePath(obsDir);
+            this.fingerprint = Fingerprint.of(xs, ys, new String[] {storePath}, storePath + ".fingerprint");
+            return;
+        }
         String featuresDir = obsDir + "features/";
         String separatorRegex = "\\|";
-        this.days = new CsvReader(featuresDir + "day.csv", separatorRegex).readOnlyColumn().getTensor();
-        this.xs = new CsvReader(obsDir + "features-combined.csv", separatorRegex).readAll().getTensor();
-        this.ys = new CsvReader(featuresDir + "SALE-AMOUNT-log.csv", separatorRegex).readOnlyColumn().getTensor();
-     
+        String xsFilePath = obsDir + "features-combined.csv";
+        String ysFilePath = featuresDir + "SALE-AMOUNT-log.csv";
+        DataFrame days = new CsvReader(featuresDir + "day.csv", separatorRegex).readOnlyColumn(DataFrame.INT);
+        this.dayNumbers = days.getInts(days.getNames().get(0));
+        this.xs = new CsvReader(xsFilePath, separatorRegex).readAll(Runtime.getRuntime().availableProcessors()).getTensor();
+        this.ys = new CsvReader(ysFilePath, separatorRegex).readOnlyColumn().getTensor();
+        this.fingerprint = Fingerprint.of(xs, ys, new String[] {xsFilePath, ysFilePath}, xsFilePath + ".fingerprint");
     }
-    
+
+    // hold data already in memory
+    public TestData(int[] dayNumbers, Tensor xs, Tensor ys) {
+        IAE.notNull(dayNumbers, "dayNumbers");
+        IAE.is2D(xs, "xs");
+        IAE.is1D(ys, "ys");
+        this.dayNumbers = dayNumbers;
+        this.xs = xs;
+        this.ys = ys;
+        this.fingerprint = Fingerprint.of(xs, ys);
+    }
+
     // accessors
-    public Tensor getDays() {return days;}
+    public int[] getDayNumbers() {return dayNumbers;}
+    
+    // return new 1D tensor holding the day numbers
+    public Tensor getDays() {
+        Tensor result = new Tensor(dayNumbers.length);
+        for (int i = 0; i < dayNumbers.length; i++)
+            result.set(i, dayNumbers[i]);
+        return result;
+    }
     public Tensor getXs() {return xs;}
     public Tensor getYs() {return ys;}
+    public String getFingerprint() {return fingerprint;}
 }
@@ -61,6 +61,43 @@ public class WeightedAverage {
 		return sumWeightedYs / sumWeights;
 	}
 
+	/**
+	 * Return yHat, the estimated y, using the kernel to weight the k nearest
+	 * neighbors previously found for the query
+	 * 
+	 * The kernel is applied to the Euclidean distances stored with the
+	 * neighbors, so no distances are recomputed.
+	 * 
+	 * @param kernel
+	 *            kernel function which depends on the hyperparameters
+	 * @param hp
+	 *            hyperparameters passed to kernel function
+	 * @param k
+	 *            number of the neighbors to use, nearest first
+	 * @param neighbors
+	 *            the neighbors of the query, as from Nearest256Ys.nearest
+	 * @param ys
+	 *            parallel vector to the xs in which the neighbors were found
+	 * @return yHat := (sum_i kernel(distance_i) * y[index_i]) /
+	 *         sum_i kernel(distance_i), for i < k
+	 */
+	public static double apply(Kernel kernel, Hp hp, int k, Neighbors neighbors, Tensor ys) {
+	    IAE.notNull(kernel, "kernel");
+	    IAE.positive(k, "k");
+	    IAE.notNull(neighbors, "neighbors");
+	    IAE.is1D(ys, "ys");
+	    IAE.lessEqual(k, neighbors.size(), "k", "number of neighbors");
+
+		double sumWeights = 0;
+		double sumWeightedYs = 0;
+		for (int i = 0; i < k; i++) {
+			double weight = kernel.apply(neighbors.getDistance(i), hp);
+			sumWeights += weight;
+			sumWeightedYs += weight * neighbors.getY(ys, i);
+		}
+		return sumWeightedYs / sumWeights;
+	}
+
 	// return as 1D tensor the index'ed row
 	public static Tensor selectRow(Tensor x, int rowIndex) {
 	    if (x.getNDimensions() != 2)
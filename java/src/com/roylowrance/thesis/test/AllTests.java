@@ -11,7 +11,8 @@ import org.junit.runners.Suite.SuiteClasses;
 		//CreateObs2RKnnSearchRandomTest.class, CreateRelevantDeedsTest.class,
 		DistanceEuclideanTest.class, FileLineVisitorTest.class, HpTest.class,
 		KernelGaussianTest.class, KernelWeightedAverageTest.class,
-		KNearestNeighborsTest.class,
+		KNearestNeighborsTest.class, NearestCandidatesTest.class, NearestNeighborIndexTest.class, HnswIndexTest.class, CreateNearestNeighborsCacheTest.class,
+		NeighborsTest.class, FingerprintTest.class, QueryCacheTest.class, CheckpointedTextFileTest.class, EstimationServerTest.class, BinaryEstimatesTest.class,
 		// MasterVisitTest.class, not coded as a Junit test, so must be run by
 		// hand
 		ObsVisitTest.class, RecodeTest.class, })
@@ -0,0 +1,118 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.roylowrance.thesis.BinaryEstimatesReader;
+import com.roylowrance.thesis.BinaryEstimatesWriter;
+import com.roylowrance.thesis.Dir;
+
+public class BinaryEstimatesTest {
+    String filePath;
+
+    @Before
+    public void setUp() throws Exception {
+        filePath = Dir.project() + "data/tmp/BinaryEstimatesTest.bin";
+        new File(filePath).delete();
+        new File(filePath + ".checkpoint").delete();
+    }
+
+    // return apns of the records in the file
+    private List<Long> readApns() {
+        List<Long> result = new ArrayList<Long>();
+        BinaryEstimatesReader reader = new BinaryEstimatesReader(filePath);
+        while (reader.next())
+            result.add(reader.getApn());
+        reader.close();
+        return result;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        BinaryEstimatesWriter writer = new BinaryEstimatesWriter(filePath, "inputs");
+        assertEquals(0, writer.getNextIndex());
+        final int n = 100000; // more than fit in the buffer
+        for (int i = 0; i < n; i++)
+            writer.write(1000000000L + i, 20000215 + i % 3, i % 256, 100000.5f + i);
+        writer.close();
+        assertEquals(BinaryEstimatesWriter.HEADER_BYTES + (long) n * BinaryEstimatesWriter.RECORD_BYTES, new File(filePath).length());
+
+        BinaryEstimatesReader reader = new BinaryEstimatesReader(filePath);
+        assertEquals(n, reader.size());
+        for (int i = 0; i < n; i++) {
+            assertTrue(reader.next());
+            assertEquals(1000000000L + i, reader.getApn());
+            assertEquals(20000215 + i % 3, reader.getDate());
+            assertEquals(i % 256, reader.getK());
+            assertEquals(100000.5f + i, reader.getValue(), 0);
+        }
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    // a file stopped without being closed resumes at its last checkpoint
+    @Test
+    public void testResume() throws Exception {
+        BinaryEstimatesWriter writer = new BinaryEstimatesWriter(filePath, "inputs-a");
+        writer.write(1, 20000215, 5, 1.0f);
+        writer.write(2, 20000215, 5, 2.0f);
+        writer.checkpoint(2);
+        writer.write(3, 20000215, 5, 3.0f); // dropped on resume as not checkpointed
+        writer.close();
+        // part of a record reaches the disk before the process is stopped
+        RandomAccessFile partial = new RandomAccessFile(filePath, "rw");
+        partial.seek(partial.length());
+        partial.write(new byte[] {1, 2, 3});
+        partial.close();
+
+        BinaryEstimatesWriter resumed = new BinaryEstimatesWriter(filePath, "inputs-a");
+        assertEquals(2, resumed.getNextIndex());
+        resumed.write(4, 20000215, 5, 4.0f);
+        resumed.close();
+        List<Long> apns = readApns();
+        assertEquals(3, apns.size());
+        assertEquals(Long.valueOf(4), apns.get(2));
+
+        // other inputs start over
+        BinaryEstimatesWriter other = new BinaryEstimatesWriter(filePath, "inputs-b");
+        assertEquals(0, other.getNextIndex());
+        other.close();
+        assertEquals(0, readApns().size());
+    }
+
+    @Test
+    public void testExportText() throws Exception {
+        BinaryEstimatesWriter writer = new BinaryEstimatesWriter(filePath, "inputs");
+        writer.write(123456789L, 20050815, 24, 276309.6f);
+        writer.write(987654321L, 20091115, 1, 0.5f);
+        writer.close();
+
+        final String textPath = Dir.project() + "data/tmp/BinaryEstimatesTest.txt";
+        assertEquals(2, BinaryEstimatesReader.exportText(filePath, textPath));
+        BufferedReader reader = new BufferedReader(new FileReader(textPath));
+        assertEquals("123456789,20050815,24,276309.59", reader.readLine());
+        assertEquals("987654321,20091115,1,0.50", reader.readLine());
+        assertNull(reader.readLine());
+        reader.close();
+    }
+
+    @Test
+    public void testNotEstimatesFile() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+        file.writeInt(1234);
+        file.writeInt(BinaryEstimatesWriter.VERSION);
+        file.close();
+        try {new BinaryEstimatesReader(filePath); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.roylowrance.thesis.CheckpointedTextFile;
+import com.roylowrance.thesis.Dir;
+
+public class CheckpointedTextFileTest {
+    String filePath;
+
+    @Before
+    public void setUp() throws Exception {
+        filePath = Dir.project() + "data/tmp/CheckpointedTextFileTest.txt";
+        new File(filePath).delete();
+        new File(filePath + ".checkpoint").delete();
+    }
+
+    private List<String> readLines() throws Exception {
+        List<String> result = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(filePath));
+        String line;
+        while ((line = reader.readLine()) != null)
+            result.add(line);
+        reader.close();
+        return result;
+    }
+
+    // a file stopped without being closed resumes at its last checkpoint
+    @Test
+    public void testResume() throws Exception {
+        CheckpointedTextFile file = new CheckpointedTextFile(filePath, "inputs-a");
+        assertEquals(0, file.getNextIndex());
+        file.println("item 0");
+        file.println("item 1");
+        file.checkpoint(2);
+        // part of item 2 reaches the disk before the process is stopped
+        FileWriter partial = new FileWriter(filePath, true);
+        partial.write("item 2 par");
+        partial.close();
+
+        CheckpointedTextFile resumed = new CheckpointedTextFile(filePath, "inputs-a");
+        assertEquals(2, resumed.getNextIndex());
+        assertEquals(2, readLines().size());
+        resumed.println("item 2");
+        resumed.checkpoint(3);
+        resumed.println("item 3"); // written, but dropped on resume as not checkpointed
+        resumed.close();
+        assertEquals(4, readLines().size());
+
+        CheckpointedTextFile again = new CheckpointedTextFile(filePath, "inputs-a");
+        assertEquals(3, again.getNextIndex());
+        List<String> lines = readLines();
+        assertEquals(3, lines.size());
+        assertEquals("item 2", lines.get(2));
+        again.close();
+    }
+
+    // a checkpoint for other inputs is ignored and the file started over
+    @Test
+    public void testOtherInputs() throws Exception {
+        CheckpointedTextFile file = new CheckpointedTextFile(filePath, "inputs-a");
+        file.println("item 0");
+        file.checkpoint(1);
+        file.close();
+
+        CheckpointedTextFile other = new CheckpointedTextFile(filePath, "inputs-b");
+        assertEquals(0, other.getNextIndex());
+        assertEquals(0, readLines().size());
+        other.close();
+
+        try {new CheckpointedTextFile(filePath, "two\nlines"); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
+}
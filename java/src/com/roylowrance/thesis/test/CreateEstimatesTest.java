@@ -0,0 +1,98 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.roylowrance.thesis.CreateEstimates;
+import com.roylowrance.thesis.Dir;
+import com.roylowrance.thesis.EstimationData;
+import com.roylowrance.util.LineScanner;
+import com.roylowrance.util.Tensor;
+
+// the all-rows mode writes what the pieces write, in the same order, whatever the number of threads
+public class CreateEstimatesTest {
+    final String obs = "T";
+    final int k = 5;
+    String dataDir;
+    String analysisDir;
+    EstimationData estimationData;
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 400;
+        final int d = 3;
+        final int dayColumn = 1;
+        Tensor apns = new Tensor(n);
+        Tensor days = new Tensor(n);
+        Tensor xs = new Tensor(n, d);
+        Tensor ys = new Tensor(n);
+        Random random = new Random(27);
+        for (int i = 0; i < n; i++) {
+            apns.set(i, 1000 + random.nextInt(150)); // many APNs occur more than once
+            days.set(i, 11000 + random.nextInt(3650));
+            for (int j = 0; j < d; j++)
+                xs.set(i, j, random.nextGaussian());
+            ys.set(i, 12 + random.nextGaussian());
+        }
+        final double mean = Tensor.mean(days);
+        final double std = Tensor.std(days);
+        for (int i = 0; i < n; i++)
+            xs.set(i, dayColumn, (days.get(i) - mean) / std);
+        estimationData = new EstimationData(apns, days, dayColumn, xs, ys, "fingerprint");
+
+        dataDir = Dir.project() + "data/tmp/CreateEstimatesTest/";
+        analysisDir = dataDir + "generated-v4/obs" + obs + "/analysis/";
+        new File(analysisDir).mkdirs();
+        for (File file : new File(analysisDir).listFiles())
+            file.delete();
+    }
+
+    // return the lines of the file, deleting it and its checkpoint so that the next run starts over
+    private List<String> readAndDelete(String filePath) throws IOException {
+        List<String> result = new ArrayList<String>();
+        LineScanner ls = new LineScanner(filePath);
+        while (ls.hasNextLine())
+            result.add(ls.nextLine());
+        ls.close();
+        new File(filePath).delete();
+        new File(filePath + ".checkpoint").delete();
+        return result;
+    }
+
+    private void checkAllIsPieces(String indexKind) throws IOException {
+        CreateEstimates createEstimates = new CreateEstimates();
+        final int efSearch = 0;  // not used by the exact indexes
+        final boolean binary = false;
+        final int pieces = 1;
+        final int piece = 0;
+        createEstimates.estimatesKnn(piece, dataDir, k, obs, estimationData, pieces, indexKind, efSearch, binary);
+        List<String> expected = readAndDelete(analysisDir + "estimates-knn-" + obs + "-" + piece + ".txt");
+        assertTrue(expected.size() > 40);
+
+        final int[] threads = {1, 3};
+        for (int numberThreads : threads) {
+            createEstimates.estimatesKnnAll(dataDir, k, obs, estimationData, indexKind, efSearch, numberThreads, binary);
+            List<String> actual = readAndDelete(analysisDir + "estimates-knn-" + obs + "-all.txt");
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testBrute() throws IOException {
+        checkAllIsPieces("brute");
+    }
+
+    @Test
+    public void testDecomposed() throws IOException {
+        checkAllIsPieces("decomposed");
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.roylowrance.thesis.Checkpoint;
+import com.roylowrance.thesis.CreateNearestNeighborsCache;
+import com.roylowrance.thesis.Dir;
+import com.roylowrance.thesis.DistanceEuclidean;
+import com.roylowrance.thesis.Nearest256Ys;
+import com.roylowrance.thesis.Neighbors;
+import com.roylowrance.thesis.NeighborsFile;
+import com.roylowrance.util.CsvReader;
+import com.roylowrance.util.Tensor;
+
+public class CreateNearestNeighborsCacheTest {
+    Tensor xs;
+    Tensor ys;
+    String cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 300;
+        final int d = 3;
+        xs = new Tensor(n, d);
+        ys = new Tensor(n);
+        Random random = new Random(27);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < d; j++)
+                xs.set(i, j, random.nextGaussian());
+            ys.set(i, 100 + i);
+        }
+        cacheDir = Dir.project() + "data/tmp/CreateNearestNeighborsCacheTest-";
+    }
+
+    // check every record against the neighbors found one query at a time
+    private void checkCacheFile(String cacheFilePath) {
+        Nearest256Ys nearest256Ys = new Nearest256Ys(xs, ys, null, "");
+        CsvReader csvReader = new CsvReader(cacheFilePath, "\\|");
+        csvReader.next(); // skip header
+        int row = 0;
+        while (csvReader.hasNext()) {
+            ArrayList<String> fields = csvReader.next();
+            for (int j = 0; j < xs.getSize(1); j++)
+                assertEquals(xs.get(row, j), Double.valueOf(fields.get(j)), 0);
+            Neighbors expected = nearest256Ys.nearest(xs.selectRow(row), row);
+            for (int i = 0; i < Nearest256Ys.K_MAX; i++) {
+                final int index = Integer.parseInt(fields.get(xs.getSize(1) + i));
+                final double distance = Double.valueOf(fields.get(xs.getSize(1) + Nearest256Ys.K_MAX + i));
+                assertEquals((i < expected.size()) ? expected.getIndex(i) : -1, index);
+                assertEquals((i < expected.size()) ? expected.getDistance(i) : -1, distance, 0);
+            }
+            row++;
+        }
+        csvReader.close();
+        assertEquals(xs.getSize(0), row);
+    }
+
+    @Test
+    public void testCreateAll() throws Exception {
+        String cacheFilePath = CreateNearestNeighborsCache.createAll(xs, ys, cacheDir, 3);
+        checkCacheFile(cacheFilePath);
+        assertFalse(new File(cacheFilePath + ".checkpoint").exists());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        String cacheFilePath = CreateNearestNeighborsCache.createAll(xs, ys, cacheDir, 1);
+        final long fileLength = new File(cacheFilePath).length();
+
+        // simulate a run interrupted after writing part of a chunk past its checkpoint
+        // the checkpoint says nothing was completed after the header
+        final Nearest256Ys nearest256Ys = new Nearest256Ys(xs, ys, cacheDir, "-merged");
+        final String header = join(nearest256Ys.cacheColumnNames());
+        PrintWriter cacheFile = new PrintWriter(cacheFilePath);
+        cacheFile.println(header);
+        cacheFile.print("1.0|2.0|partial record");
+        cacheFile.close();
+        Checkpoint.write(cacheFilePath + ".checkpoint", CreateNearestNeighborsCache.createAllInputs(nearest256Ys), 0, header.length() + 1);
+
+        CreateNearestNeighborsCache.createAll(xs, ys, cacheDir, 2);
+        assertEquals(fileLength, new File(cacheFilePath).length());
+        checkCacheFile(cacheFilePath);
+    }
+
+    @Test // a checkpoint for other inputs is ignored, and the cache file started over
+    public void testCheckpointForOtherInputs() throws Exception {
+        String cacheFilePath = CreateNearestNeighborsCache.createAll(xs, ys, cacheDir, 1);
+        final long fileLength = new File(cacheFilePath).length();
+        PrintWriter cacheFile = new PrintWriter(cacheFilePath);
+        cacheFile.print("not a cache");
+        cacheFile.close();
+        Checkpoint.write(cacheFilePath + ".checkpoint", "other inputs", xs.getSize(0), 5);
+
+        CreateNearestNeighborsCache.createAll(xs, ys, cacheDir, 2);
+        assertEquals(fileLength, new File(cacheFilePath).length());
+        checkCacheFile(cacheFilePath);
+        assertFalse(new File(cacheFilePath + ".checkpoint").exists());
+    }
+
+    @Test
+    public void testCreateAllBinary() throws Exception {
+        String filePath = CreateNearestNeighborsCache.createAllBinary(xs, ys, cacheDir, 2);
+        assertTrue(filePath.endsWith("-merged.bin"));
+
+        Nearest256Ys fromFile = new Nearest256Ys(xs, ys, cacheDir, "-merged");
+        assertTrue(fromFile.openNeighborsFile("-merged"));
+        NeighborsFile neighborsFile = NeighborsFile.open(filePath, fromFile.getFingerprint(), false);
+        Nearest256Ys searched = new Nearest256Ys(xs, ys, null, "");
+        DistanceEuclidean distance = new DistanceEuclidean();
+        for (int row = 0; row < xs.getSize(0); row++) {
+            int[] expected = searched.nearestRowIndices(xs.selectRow(row), row);
+            int[] actual = fromFile.nearestRowIndices(xs.selectRow(row), row);
+            assertArrayEquals(expected, actual);
+            for (int i = 0; i < expected.length; i++)
+                assertEquals((float) distance.apply(xs, expected[i], xs.selectRow(row)), neighborsFile.getDistance(row, i), 0);
+        }
+        neighborsFile.close();
+    }
+
+    @Test // a file whose header does not match the data or whose length does not match its header is rejected
+    public void testOpenNeighborsFileChecks() throws Exception {
+        final String filePath = cacheDir + "checks.bin";
+        final String fingerprint = "abc123";
+        final int numberRows = 10;
+        final int kMax = 4;
+        final int dimensions = 3;
+        NeighborsFile created = NeighborsFile.create(filePath, fingerprint, numberRows, kMax, dimensions);
+        try {created.put(0, new int[] {1, 2}, new float[] {0.5f, Float.NaN}); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+        created.close();
+        NeighborsFile opened = NeighborsFile.open(filePath, fingerprint, numberRows, kMax, dimensions, false);
+        assertTrue(opened.hasDistances());
+        opened.close();
+
+        try {NeighborsFile.open(filePath, fingerprint, numberRows + 1, kMax, dimensions, false); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+        try {NeighborsFile.open(filePath, fingerprint, numberRows, Nearest256Ys.K_MAX, dimensions, false); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+        try {NeighborsFile.open(filePath, fingerprint, numberRows, kMax, dimensions + 1, false); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+
+        // truncated
+        RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+        try {NeighborsFile.open(filePath, fingerprint, false); fail("expected exception");}
+        catch (IOException e) {}
+    }
+
+    private String join(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                sb.append("|");
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.roylowrance.thesis.BruteForceIndex;
+import com.roylowrance.thesis.EstimationClient;
+import com.roylowrance.thesis.EstimationData;
+import com.roylowrance.thesis.EstimationServer;
+import com.roylowrance.thesis.KNearestNeighbors;
+import com.roylowrance.util.Tensor;
+
+public class EstimationServerTest {
+    EstimationData estimationData;
+    EstimationServer server;
+    EstimationClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 500;
+        final int d = 3;
+        final int dayColumn = 1;
+        Tensor apns = new Tensor(n);
+        Tensor days = new Tensor(n);
+        Tensor xs = new Tensor(n, d);
+        Tensor ys = new Tensor(n);
+        Random random = new Random(27);
+        for (int i = 0; i < n; i++) {
+            apns.set(i, 1000 + random.nextInt(200));
+            days.set(i, 11000 + random.nextInt(3650));
+            for (int j = 0; j < d; j++)
+                xs.set(i, j, random.nextGaussian());
+            ys.set(i, 12 + random.nextGaussian());
+        }
+        final double mean = Tensor.mean(days);
+        final double std = Tensor.std(days);
+        for (int i = 0; i < n; i++)
+            xs.set(i, dayColumn, (days.get(i) - mean) / std);
+        estimationData = new EstimationData(apns, days, dayColumn, xs, ys, "fingerprint");
+
+        final int anyPort = 0;
+        server = new EstimationServer(estimationData, new BruteForceIndex(xs), anyPort, 3);
+        server.start();
+        client = new EstimationClient("127.0.0.1", server.getPort());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    // an APN's estimate is that of the features of its first transaction with the date's day
+    private String expectedRecord(double apn, String date, int k) {
+        int first = 0;
+        while (estimationData.apns.get(first) != apn)
+            first++;
+        Tensor query = Tensor.newInstance(estimationData.xs.selectRow(first));
+        query.set(estimationData.indexOfStandardizedDay, estimationData.standardizedDay(date));
+        KNearestNeighbors knn = new KNearestNeighbors(estimationData.xs, estimationData.ys, null, "");
+        return String.format("%.0f,%s,%d,%.2f", apn, date, k, Math.exp(knn.estimate(k, query, -1)));
+    }
+
+    @Test
+    public void testEstimate() {
+        List<String> items = new ArrayList<String>();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            final double apn = estimationData.apns.get(i * 7);
+            final String date = (2000 + i % 10) + "0515";
+            final int k = 1 + i;
+            items.add(String.format("%.0f,%s,%d", apn, date, k));
+            expected.add(expectedRecord(apn, date, k));
+        }
+        assertEquals(expected, client.estimate(items));
+        assertEquals(expected.get(3), server.estimate(items.get(3)));
+    }
+
+    @Test
+    public void testQuery() {
+        KNearestNeighbors knn = new KNearestNeighbors(estimationData.xs, estimationData.ys, null, "");
+        Tensor query = new Tensor(3);
+        query.set(0, 0.5);
+        query.set(1, -0.25);
+        query.set(2, 1.0);
+        List<String> values = client.query(Arrays.asList("5,0.5,-0.25,1.0", "1,0.5,-0.25,1.0"));
+        assertEquals(2, values.size());
+        assertEquals(knn.estimate(5, query, -1), Double.valueOf(values.get(0)), 0);
+        assertEquals(knn.estimate(1, query, -1), Double.valueOf(values.get(1)), 0);
+    }
+
+    // several clients at once each get their own answers
+    @Test
+    public void testConcurrentClients() throws Exception {
+        final int numberClients = 4;
+        final int requestsPerClient = 10;
+        final String[] failures = new String[numberClients];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int c = 0; c < numberClients; c++) {
+            final int clientIndex = c;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int r = 0; r < requestsPerClient; r++) {
+                        final double apn = estimationData.apns.get(clientIndex * 50 + r);
+                        final int k = 1 + clientIndex;
+                        List<String> items = Arrays.asList(
+                                String.format("%.0f,20050215,%d", apn, k),
+                                String.format("%.0f,20051115,%d", apn, k));
+                        List<String> expected = Arrays.asList(expectedRecord(apn, "20050215", k), expectedRecord(apn, "20051115", k));
+                        if (!expected.equals(client.estimate(items)))
+                            failures[clientIndex] = "client " + clientIndex + " request " + r;
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        for (String failure : failures)
+            assertNull(failure);
+
+        Map<String, String> stats = client.stats();
+        assertEquals(Integer.toString(numberClients * requestsPerClient), stats.get("requests"));
+        assertEquals(Integer.toString(numberClients * requestsPerClient * 2), stats.get("items"));
+        assertEquals("0", stats.get("errors"));
+        final long p50 = Long.valueOf(stats.get("p50Micros"));
+        final long p99 = Long.valueOf(stats.get("p99Micros"));
+        assertTrue(p50 <= p99);
+        assertTrue(p99 <= Long.valueOf(stats.get("maxMicros")));
+    }
+
+    // a bad item fails its request, and the server continues
+    @Test
+    public void testErrors() {
+        try {client.estimate(Arrays.asList("999999,20050215,5")); fail("expected exception");}
+        catch (RuntimeException e) {assertTrue(e.getMessage().contains("no transaction"));}
+        try {client.query(Arrays.asList("5,1.0")); fail("expected exception");}
+        catch (RuntimeException e) {}
+        try {server.estimate("1000,2005,5"); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+
+        final double apn = estimationData.apns.get(0);
+        List<String> items = Arrays.asList(String.format("%.0f,20050215,5", apn));
+        assertEquals(1, client.estimate(items).size());
+        assertEquals("2", client.stats().get("errors"));
+    }
+
+}
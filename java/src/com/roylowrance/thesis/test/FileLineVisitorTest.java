@@ -6,18 +6,43 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.roylowrance.thesis.Dir;
 import com.roylowrance.thesis.FileLineVisitor;
 
 public class FileLineVisitorTest {
 	FileLineVisitor flv;
+	String filePath;
+	List<String> lines; // as written to the file
 
 	@Before
 	public void setUp() throws Exception {
-		// test on one of the deed input files
-		flv = new FileLineVisitor(
-				"/home/roy/Dropbox/nyu-thesis-project/data/raw/deeds-all-columns/CAC06037F1.txt");
+		// about 9 MB, so that the file is split into several chunks, each ending in the middle of some line
+		// some lines are empty, some end with \r\n, and the last has no line end
+		filePath = Dir.project() + "data/tmp/FileLineVisitorTest.txt";
+		lines = new ArrayList<String>();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(filePath), "US-ASCII");
+		final int numberLines = 60000;
+		for (int i = 0; i < numberLines; i++) {
+			StringBuilder line = new StringBuilder();
+			if (i % 1000 != 500) {
+				line.append(i).append('|');
+				for (int j = 0; j < (i * 7) % 300; j++)
+					line.append((char) ('a' + j % 26));
+			}
+			lines.add(line.toString());
+			writer.write(line.toString());
+			if (i < numberLines - 1)
+				writer.write((i % 3 == 0) ? "\r\n" : "\n");
+		}
+		writer.close();
+		flv = new FileLineVisitor(filePath);
 	}
 
 	@Test
@@ -41,7 +66,7 @@ public class FileLineVisitorTest {
 
 	@Test
 	public void testVisit() throws IOException {
-		// check that we read all records in the first deeds file
+		// check that we read all the lines
 		class MyVisitor implements FileLineVisitor.Visitor {
 			private int numberLinesRead;
 
@@ -68,7 +93,45 @@ public class FileLineVisitorTest {
 		MyVisitor mv = new MyVisitor();
 		int throttle = 0; // read all the lines
 		flv.visit(mv, throttle);
-		assertEquals(2204005, mv.getNumberLinesRead());
+		assertEquals(lines.size(), mv.getNumberLinesRead());
+	}
+
+	@Test
+	public void testVisitParallel() throws IOException {
+		// each visitor sees the lines of its chunk; together, in order, they are the lines of the file
+		class MyVisitor implements FileLineVisitor.Visitor {
+			public int chunkIndex;
+			public List<String> linesRead;
+
+			public MyVisitor(int chunkIndex) {
+				this.chunkIndex = chunkIndex;
+			}
+
+			public void start() {
+				linesRead = new ArrayList<String>();
+			}
+
+			public void visit(String line) {
+				linesRead.add(line);
+			}
+
+			public void end() {
+			}
+		}
+
+		List<MyVisitor> visitors = FileLineVisitor.visitParallel(filePath, 4,
+				new FileLineVisitor.VisitorFactory<MyVisitor>() {
+					public MyVisitor make(int chunkIndex) {
+						return new MyVisitor(chunkIndex);
+					}
+				});
+		assertTrue(visitors.size() > 1);
+		List<String> linesRead = new ArrayList<String>();
+		for (int i = 0; i < visitors.size(); i++) {
+			assertEquals(i, visitors.get(i).chunkIndex);
+			linesRead.addAll(visitors.get(i).linesRead);
+		}
+		assertEquals(lines, linesRead);
 	}
 
 }
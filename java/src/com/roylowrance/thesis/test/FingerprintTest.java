@@ -0,0 +1,93 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import com.roylowrance.thesis.Dir;
+import com.roylowrance.thesis.Fingerprint;
+import com.roylowrance.util.Tensor;
+
+public class FingerprintTest {
+    Tensor xs;
+    Tensor ys;
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 50000;
+        final int d = 5;
+        xs = new Tensor(n, d);
+        ys = new Tensor(n);
+        Random random = new Random(27);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < d; j++)
+                xs.set(i, j, random.nextGaussian());
+            ys.set(i, random.nextGaussian());
+        }
+    }
+
+    // the digest as computed when the cache files were first named
+    private String legacy(Tensor xs, Tensor ys) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA");
+        for (int i = 0; i < xs.getSize(0); i++) {
+            byte[] bytes = new byte[8];
+            ByteBuffer.wrap(bytes).putDouble(ys.get(i));
+            md.update(bytes, 0, bytes.length);
+            for (int j = 0; j < xs.getSize(1); j++) {
+                ByteBuffer.wrap(bytes).putDouble(xs.get(i, j));
+                md.update(bytes, 0, bytes.length);
+            }
+        }
+        return Fingerprint.toHex(md.digest());
+    }
+
+    @Test
+    public void testCompute() throws Exception {
+        final String expected = legacy(xs, ys);
+        assertEquals(expected, Fingerprint.compute(xs, ys, 1));
+        assertEquals(expected, Fingerprint.compute(xs, ys, 3));
+        assertEquals(expected, Fingerprint.of(xs, ys));
+
+        // a view with other strides
+        Tensor transposed = new Tensor(xs.getSize(1), xs.getSize(0));
+        for (int i = 0; i < xs.getSize(0); i++)
+            for (int j = 0; j < xs.getSize(1); j++)
+                transposed.set(j, i, xs.get(i, j));
+        assertEquals(expected, Fingerprint.compute(transposed.t(), ys, 2));
+
+        xs.set(123, 4, 0.5);
+        assertFalse(expected.equals(Fingerprint.compute(xs, ys, 2)));
+    }
+
+    @Test
+    public void testSidecar() throws Exception {
+        final String dataFilePath = Dir.project() + "data/tmp/FingerprintTest-data.csv";
+        final String sidecarPath = dataFilePath + ".fingerprint";
+        PrintWriter data = new PrintWriter(dataFilePath);
+        data.println("the xs and ys");
+        data.close();
+        new File(sidecarPath).delete();
+
+        final String expected = legacy(xs, ys);
+        assertEquals(expected, Fingerprint.of(xs, ys, new String[] {dataFilePath}, sidecarPath));
+        assertTrue(new File(sidecarPath).exists());
+
+        // the sidecar is used while the data file is unchanged, even for other tensors
+        Tensor otherYs = new Tensor(ys.getSize(0));
+        assertEquals(expected, Fingerprint.of(xs, otherYs, new String[] {dataFilePath}, sidecarPath));
+
+        // but not once the data file changes
+        data = new PrintWriter(dataFilePath);
+        data.println("other xs and ys");
+        data.close();
+        assertEquals(legacy(xs, otherYs), Fingerprint.of(xs, otherYs, new String[] {dataFilePath}, sidecarPath));
+    }
+
+}
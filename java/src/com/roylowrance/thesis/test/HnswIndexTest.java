@@ -0,0 +1,84 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import com.roylowrance.thesis.BruteForceIndex;
+import com.roylowrance.thesis.Dir;
+import com.roylowrance.thesis.HnswIndex;
+import com.roylowrance.thesis.KnnRecallStudy;
+import com.roylowrance.thesis.Nearest256Ys;
+import com.roylowrance.thesis.NearestCandidates;
+import com.roylowrance.util.Tensor;
+
+public class HnswIndexTest {
+    Tensor xs;
+    Tensor ys;
+    final int k = 256;
+    final int[] queryRows = {0, 97, 1234, 2500, 4999};
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 5000;
+        final int d = 6;
+        xs = new Tensor(n, d);
+        ys = new Tensor(n);
+        Random random = new Random(27);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < d; j++)
+                xs.set(i, j, random.nextGaussian());
+            ys.set(i, i);
+        }
+    }
+
+    @Test
+    public void testRecall() {
+        HnswIndex hnsw = new HnswIndex(xs, 16, 200, 27);
+        hnsw.setEfSearch(300);
+        final boolean earlyAbandon = false;
+        Nearest256Ys exact = new Nearest256Ys(xs, ys, null, "", new BruteForceIndex(xs, earlyAbandon));
+        Nearest256Ys approximate = new Nearest256Ys(xs, ys, null, "", hnsw);
+        KnnRecallStudy.Result result = KnnRecallStudy.measure(exact, approximate, xs, queryRows);
+        assertTrue("recall=" + result.recall, result.recall > 0.95);
+
+        // the query's own row is omitted
+        for (int queryRow : queryRows)
+            for (int row : approximate.nearestRowIndices(xs.selectRow(queryRow), queryRow))
+                assertTrue(row != queryRow);
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        HnswIndex built = new HnswIndex(xs, 8, 50, 27);
+        final String filePath = Dir.project() + "data/tmp/HnswIndexTest-graph.bin";
+        built.save(filePath);
+        built.save(filePath); // replaces the file, leaving no temporary file
+        for (String name : new File(filePath).getParentFile().list())
+            assertFalse(name, name.startsWith("HnswIndexTest-graph.bin.") && name.endsWith(".tmp"));
+        HnswIndex loaded = HnswIndex.load(filePath, xs);
+
+        for (int queryRow : queryRows) {
+            NearestCandidates expected = new NearestCandidates(k);
+            built.nearest(xs.selectRow(queryRow), -1, expected);
+            expected.sort();
+            NearestCandidates actual = new NearestCandidates(k);
+            loaded.nearest(xs.selectRow(queryRow), -1, actual);
+            actual.sort();
+
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+                assertEquals(expected.getIndex(i), actual.getIndex(i));
+        }
+
+        // the graph cannot be used with other xs
+        xs.set(10, 2, 123.0);
+        try {HnswIndex.load(filePath, xs); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import com.roylowrance.thesis.HpTest;
+import com.roylowrance.thesis.KNearestNeighbors;
+import com.roylowrance.thesis.Neighbors;
+import com.roylowrance.thesis.TestData;
+import com.roylowrance.util.Tensor;
+
+// test the paths HpTest takes to the rmse and within10 of each k against one another
+public class HpTestTest {
+    TestData testData;
+    HpTest.IsTestDayNumber isTestDayNumber;
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 6000; // 4200 test transactions, more than one window of the parallel path
+        final int d = 4;
+        Tensor xs = new Tensor(n, d);
+        Tensor ys = new Tensor(n);
+        int[] dayNumbers = new int[n];
+        Random random = new Random(19);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < d; j++)
+                xs.set(i, j, random.nextGaussian());
+            ys.set(i, 11 + random.nextGaussian());
+            dayNumbers[i] = i % 10;
+        }
+        testData = new TestData(dayNumbers, xs, ys);
+        isTestDayNumber = new HpTest.IsTestDayNumber(2, 8);
+    }
+
+    // return a KNearestNeighbors with no cache, so that each path searches for its own neighbors
+    private KNearestNeighbors makeKnn() {
+        return new KNearestNeighbors(testData.getXs(), testData.getYs(), null, "");
+    }
+
+    private void assertIdentical(HpTest.TestResult[] expected, HpTest.TestResult[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Double.doubleToLongBits(expected[i].rmse), Double.doubleToLongBits(actual[i].rmse));
+            assertEquals(Double.doubleToLongBits(expected[i].within10), Double.doubleToLongBits(actual[i].within10));
+        }
+    }
+
+    @Test // the sums are formed in the same order whatever the number of threads
+    public void testParallelIsIdentical() {
+        final int[] ks = {1, 2, 5, 17};
+        HpTest hpTest = new HpTest();
+        HpTest.TestResult[] one = hpTest.knnTestKsParallel(ks, isTestDayNumber, testData, makeKnn(), 1);
+        assertIdentical(one, hpTest.knnTestKsParallel(ks, isTestDayNumber, testData, makeKnn(), 2));
+        final int numberThreads = Math.max(3, Runtime.getRuntime().availableProcessors());
+        assertIdentical(one, hpTest.knnTestKsParallel(ks, isTestDayNumber, testData, makeKnn(), numberThreads));
+
+        // and are those of the single-threaded path
+        HpTest.TestResult[] allKs = hpTest.knnTestAllKs(ks[ks.length - 1], isTestDayNumber, testData, makeKnn(), null);
+        for (int j = 0; j < ks.length; j++)
+            assertIdentical(new HpTest.TestResult[] {allKs[ks[j] - 1]}, new HpTest.TestResult[] {one[j]});
+    }
+
+    @Test // the sums for each k from one pass are those of testing k alone, also when distances tie at k
+    public void testAllKsIsKnnTestK() {
+        // few distinct xs, so that many neighbors are at the same distance
+        final int n = 60;
+        Tensor xs = new Tensor(n, 2);
+        Tensor ys = new Tensor(n);
+        int[] dayNumbers = new int[n];
+        Random random = new Random(23);
+        for (int i = 0; i < n; i++) {
+            xs.set(i, 0, random.nextInt(3));
+            xs.set(i, 1, random.nextInt(3));
+            ys.set(i, 11 + random.nextGaussian());
+            dayNumbers[i] = i % 2;
+        }
+        TestData tiedData = new TestData(dayNumbers, xs, ys);
+        HpTest.IsTestDayNumber isTestDay = new HpTest.IsTestDayNumber(1, 1);
+        final int kMax = 12;
+
+        // there are ties at the boundary of some k
+        KNearestNeighbors knn = new KNearestNeighbors(xs, ys, null, "");
+        boolean isTied = false;
+        for (int row = 1; row < n; row += 2) {
+            Neighbors neighbors = knn.nearest(xs.selectRow(row), row);
+            for (int k = 1; k < kMax; k++)
+                isTied |= neighbors.getDistance(k - 1) == neighbors.getDistance(k);
+        }
+        assertTrue(isTied);
+
+        HpTest hpTest = new HpTest();
+        HpTest.TestResult[] allKs = hpTest.knnTestAllKs(kMax, isTestDay, tiedData, new KNearestNeighbors(xs, ys, null, ""), null);
+        HpTest.TestResult[] allKsBatch = hpTest.knnTestAllKs(kMax, isTestDay, tiedData, new KNearestNeighbors(xs, ys, null, ""), 2);
+        for (int k = 1; k <= kMax; k++) {
+            HpTest.TestResult expected = hpTest.knnTestK(k, isTestDay, tiedData, null, new KNearestNeighbors(xs, ys, null, ""));
+            assertIdentical(new HpTest.TestResult[] {expected}, new HpTest.TestResult[] {allKs[k - 1]});
+            assertIdentical(new HpTest.TestResult[] {expected}, new HpTest.TestResult[] {allKsBatch[k - 1]});
+        }
+    }
+
+}
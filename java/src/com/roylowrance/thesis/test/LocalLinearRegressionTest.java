@@ -1,41 +1,91 @@
-package com.roylowrance.thesis.test;
-
-import static org.junit.Assert.*;
-
-import org.junit.Before;
-import org.junit.Test;
-
-import com.roylowrance.util.Tensor;
-
-import com.roylowrance.thesis.DistanceEuclidean;
-import com.roylowrance.thesis.KernelGaussian;
-import com.roylowrance.thesis.Hp;
-import com.roylowrance.thesis.LocalLinearRegression;
-
-public class LocalLinearRegressionTest {
-
-	@Before
-	public void setUp() throws Exception {
-	}
-
-	@Test
-	public void testApply() {
-		// test d = 3
-		final int d = 3;
-		final int n = 4;
-
-		double[] queryLocationArray = { 1, 2, 3 };
-		Tensor queryLocation = new Tensor(queryLocationArray);
-
-		double[][] locationsArray = { { 1, 2, 6 }, { 1, 0, 3 }, { 0, 2, 3 },
-				{ 2, 1, 4 } };
-		Tensor locations = Tensor.newInstanceFromArray(locationsArray);
-
-		double[] ysArray = { 0, 24, 9, 14, 15 };
-		Tensor ys = Tensor.newInstanceFromArray(ysArray);
-
-		double answer = LocalLinearRegression.apply(new DistanceEuclidean(),
-				new KernelGaussian(), new Hp.Builder().bandwidth(1.0).build(),
-				locations, queryLocation, ys);
-	}
-}
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import com.roylowrance.util.Tensor;
+
+import com.roylowrance.thesis.BruteForceIndex;
+import com.roylowrance.thesis.DistanceEuclidean;
+import com.roylowrance.thesis.KernelGaussian;
+import com.roylowrance.thesis.Hp;
+import com.roylowrance.thesis.LocalLinearRegression;
+import com.roylowrance.thesis.NearestCandidates;
+import com.roylowrance.thesis.Neighbors;
+import com.roylowrance.thesis.WeightedAverage;
+
+public class LocalLinearRegressionTest {
+
+	@Before
+	public void setUp() throws Exception {
+	}
+
+	@Test
+	public void testApply() {
+		// test d = 3
+		final int d = 3;
+		final int n = 4;
+
+		double[] queryLocationArray = { 1, 2, 3 };
+		Tensor queryLocation = new Tensor(queryLocationArray);
+
+		double[][] locationsArray = { { 1, 2, 6 }, { 1, 0, 3 }, { 0, 2, 3 },
+				{ 2, 1, 4 } };
+		Tensor locations = Tensor.newInstanceFromArray(locationsArray);
+
+		double[] ysArray = { 0, 24, 9, 14, 15 };
+		Tensor ys = Tensor.newInstanceFromArray(ysArray);
+
+		double answer = LocalLinearRegression.apply(new DistanceEuclidean(),
+				new KernelGaussian(), new Hp.Builder().bandwidth(1.0).build(),
+				locations, queryLocation, ys);
+	}
+
+	// return the neighbors of the query among all the locations, nearest first
+	private Neighbors allNeighbors(Tensor locations, Tensor query) {
+		NearestCandidates candidates = new NearestCandidates(locations.getSize(0));
+		new BruteForceIndex(locations).nearest(query, -1, candidates);
+		candidates.sort();
+		return new Neighbors(candidates);
+	}
+
+	@Test // with every location as a neighbor, the estimate from the neighbors is that from the locations
+	public void testApplyNeighbors() {
+		final int n = 30;
+		final int d = 2;
+		Random random = new Random(27);
+		Tensor locations = new Tensor(n, d);
+		Tensor ys = new Tensor(n);
+		Tensor linearYs = new Tensor(n);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < d; j++)
+				locations.set(i, j, random.nextGaussian());
+			ys.set(i, 10 + random.nextGaussian());
+			linearYs.set(i, 3 + 2 * locations.get(i, 0) - locations.get(i, 1));
+		}
+		Tensor query = new Tensor(d);
+		query.set(0, 0.3);
+		query.set(1, -0.2);
+		Hp hp = new Hp.Builder().bandwidth(1.0).build();
+		KernelGaussian kernel = new KernelGaussian();
+		Neighbors neighbors = allNeighbors(locations, query);
+
+		final double expected = LocalLinearRegression.apply(new DistanceEuclidean(), kernel, hp, locations, query, ys);
+		final double actual = LocalLinearRegression.apply(kernel, hp, n, neighbors, locations, query, ys);
+		assertEquals(expected, actual, 1e-12 * Math.abs(expected));
+
+		// a linear function is fitted exactly
+		final double linear = 3 + 2 * 0.3 + 0.2;
+		assertEquals(linear, LocalLinearRegression.apply(new DistanceEuclidean(), kernel, hp, locations, query, linearYs), 1e-9);
+		assertEquals(linear, LocalLinearRegression.apply(kernel, hp, 10, neighbors, locations, query, linearYs), 1e-9);
+
+		// too few neighbors to fit d + 1 coefficients: the kernel-weighted average
+		final int k = 2;
+		assertEquals(WeightedAverage.apply(kernel, hp, k, neighbors, ys),
+				LocalLinearRegression.apply(kernel, hp, k, neighbors, locations, query, ys), 0);
+	}
+}
@@ -0,0 +1,82 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.roylowrance.thesis.NearestCandidates;
+
+public class NearestCandidatesTest {
+
+    @Test
+    public void testFewerCandidatesThanCapacity() {
+        NearestCandidates nc = new NearestCandidates(5);
+        nc.offer(3.0, 0);
+        nc.offer(1.0, 1);
+        nc.offer(2.0, 2);
+        assertEquals(3, nc.size());
+        assertFalse(nc.isFull());
+        assertEquals(3.0, nc.worstDistance(), 0);
+        nc.sort();
+        assertEquals(1, nc.getIndex(0));
+        assertEquals(2, nc.getIndex(1));
+        assertEquals(0, nc.getIndex(2));
+        assertEquals(3.0, nc.getDistance(2), 0);
+    }
+
+    @Test
+    public void testTiesResolvedOnIndex() {
+        NearestCandidates nc = new NearestCandidates(2);
+        assertTrue(nc.offer(1.0, 7));
+        assertTrue(nc.offer(1.0, 3));
+        assertTrue(nc.offer(1.0, 5)); // replaces index 7
+        assertFalse(nc.offer(1.0, 9));
+        nc.sort();
+        assertEquals(3, nc.getIndex(0));
+        assertEquals(5, nc.getIndex(1));
+    }
+
+    @Test
+    public void testSameAsFullSort() {
+        Random random = new Random(27);
+        final int n = 10000;
+        final int k = 256;
+        double[] distances = new double[n];
+        for (int i = 0; i < n; i++)
+            distances[i] = random.nextInt(500); // many ties
+
+        NearestCandidates nc = new NearestCandidates(k);
+        for (int i = 0; i < n; i++)
+            nc.offer(distances[i], i);
+        nc.sort();
+
+        // expected: sort (distance, index) encoded so that ties order on index
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = (long) distances[i] * n + i;
+        Arrays.sort(keys);
+        assertEquals(k, nc.size());
+        for (int i = 0; i < k; i++) {
+            assertEquals(keys[i] % n, nc.getIndex(i));
+            assertEquals(keys[i] / n, nc.getDistance(i), 0);
+        }
+    }
+
+    @Test
+    public void testReset() {
+        NearestCandidates nc = new NearestCandidates(1);
+        nc.offer(1.0, 1);
+        nc.sort();
+        try {nc.offer(0.5, 2); fail("expected exception");}
+        catch (IllegalStateException e) {}
+        nc.reset();
+        assertEquals(0, nc.size());
+        nc.offer(0.5, 2);
+        nc.sort();
+        assertEquals(2, nc.getIndex(0));
+    }
+
+}
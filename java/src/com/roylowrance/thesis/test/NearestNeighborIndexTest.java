@@ -0,0 +1,230 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import com.roylowrance.thesis.BallTreeIndex;
+import com.roylowrance.thesis.BatchDistanceIndex;
+import com.roylowrance.thesis.BruteForceIndex;
+import com.roylowrance.thesis.DayDecomposedIndex;
+import com.roylowrance.thesis.DistanceEuclidean;
+import com.roylowrance.thesis.KdTreeIndex;
+import com.roylowrance.thesis.NearestCandidates;
+import com.roylowrance.thesis.NearestNeighborIndex;
+import com.roylowrance.thesis.NearestNeighborIndexes;
+import com.roylowrance.thesis.Neighbors;
+import com.roylowrance.util.Tensor;
+
+// each index must return exactly what the brute force scan returns
+public class NearestNeighborIndexTest {
+    Tensor xs;
+    final int k = 256;
+
+    // the reference: the brute force scan that computes every distance in full
+    private NearestNeighborIndex fullScan(Tensor xs) {
+        final boolean earlyAbandon = false;
+        return new BruteForceIndex(xs, earlyAbandon);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 5000;
+        final int d = 6;
+        xs = new Tensor(n, d);
+        Random random = new Random(27);
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < d; j++)
+                xs.set(i, j, (j == 0) ? random.nextInt(4) : random.nextGaussian()); // column 0 creates ties
+        // duplicate some rows so that there are tied distances
+        for (int i = 0; i < 100; i++)
+            for (int j = 0; j < d; j++)
+                xs.set(n - 1 - i, j, xs.get(i, j));
+    }
+
+    private void checkSameAsBruteForce(NearestNeighborIndex index) {
+        NearestNeighborIndex bruteForce = fullScan(xs);
+        for (int queryIndex = 0; queryIndex < 50; queryIndex++) {
+            Tensor query = xs.selectRow(queryIndex * 97);
+            final int omit = (queryIndex % 2 == 0) ? queryIndex * 97 : -1;
+
+            NearestCandidates expected = new NearestCandidates(k);
+            bruteForce.nearest(query, omit, expected);
+            expected.sort();
+
+            NearestCandidates actual = new NearestCandidates(k);
+            index.nearest(query, omit, actual);
+            actual.sort();
+
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getIndex(i), actual.getIndex(i));
+                assertEquals(expected.getDistance(i), actual.getDistance(i), 0);
+            }
+        }
+    }
+
+    @Test // abandoning a distance once it exceeds the kth candidate's does not change the neighbors
+    public void testBruteForceEarlyAbandon() {
+        final int[] dimensions = {6, 13, 50};
+        for (int d : dimensions) {
+            final int n = 2000;
+            Tensor xs = new Tensor(n, d);
+            Random random = new Random(d);
+            for (int i = 0; i < n; i++)
+                for (int j = 0; j < d; j++)
+                    xs.set(i, j, (j == 0) ? random.nextInt(4) : random.nextGaussian()); // column 0 creates ties
+            for (int i = 0; i < 50; i++)
+                for (int j = 0; j < d; j++)
+                    xs.set(n - 1 - i, j, xs.get(i, j));
+
+            NearestNeighborIndex fullScan = fullScan(xs);
+            NearestNeighborIndex earlyAbandon = new BruteForceIndex(xs);
+            for (int queryIndex = 0; queryIndex < 40; queryIndex++) {
+                Tensor query = xs.selectRow(queryIndex * 47);
+                final int omit = (queryIndex % 2 == 0) ? queryIndex * 47 : -1;
+
+                NearestCandidates expected = new NearestCandidates(k);
+                fullScan.nearest(query, omit, expected);
+                expected.sort();
+
+                NearestCandidates actual = new NearestCandidates(k);
+                earlyAbandon.nearest(query, omit, actual);
+                actual.sort();
+
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals("d=" + d, expected.getIndex(i), actual.getIndex(i));
+                    assertEquals("d=" + d, expected.getDistance(i), actual.getDistance(i), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testKdTree() {
+        checkSameAsBruteForce(new KdTreeIndex(xs));
+    }
+
+    @Test
+    public void testBallTree() {
+        checkSameAsBruteForce(new BallTreeIndex(xs));
+    }
+
+    @Test
+    public void testBatchOneQuery() {
+        BatchDistanceIndex batch = new BatchDistanceIndex(xs, 1);
+        checkSameAsBruteForce(batch);
+        batch.shutdown();
+    }
+
+    @Test
+    public void testBatchManyQueries() {
+        // far from the origin, so that the decomposition loses digits to cancellation
+        for (int i = 0; i < xs.getSize(0); i++)
+            xs.set(i, 1, xs.get(i, 1) + 1e4);
+        final int numberQueries = 37;
+        Tensor queries = new Tensor(numberQueries, xs.getSize(1));
+        int[] omit = new int[numberQueries];
+        for (int q = 0; q < numberQueries; q++) {
+            for (int j = 0; j < xs.getSize(1); j++)
+                queries.set(q, j, xs.get(q * 131, j));
+            omit[q] = (q % 3 == 0) ? -1 : q * 131;
+        }
+
+        NearestNeighborIndex bruteForce = fullScan(xs);
+        BatchDistanceIndex batch = new BatchDistanceIndex(xs, 3);
+        NearestCandidates[] actual = batch.nearest(queries, omit, k);
+        batch.shutdown();
+        for (int q = 0; q < numberQueries; q++) {
+            NearestCandidates expected = new NearestCandidates(k);
+            bruteForce.nearest(queries.selectRow(q), omit[q], expected);
+            expected.sort();
+            assertEquals(expected.size(), actual[q].size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getIndex(i), actual[q].getIndex(i));
+                assertEquals(expected.getDistance(i), actual[q].getDistance(i), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testDayDecomposed() {
+        checkSameAsBruteForce(new DayDecomposedIndex(xs, 2));
+    }
+
+    // the neighbors at each day are those of the query with that day, and the query is unchanged
+    @Test
+    public void testDayDecomposedAtDays() {
+        final int dayColumn = 0; // has ties
+        DayDecomposedIndex index = new DayDecomposedIndex(xs, dayColumn);
+        NearestNeighborIndex bruteForce = fullScan(xs);
+        final double[] days = {-1.5, 0, 1, 2, 2.25, 7};
+        for (int queryIndex = 0; queryIndex < 10; queryIndex++) {
+            final int row = queryIndex * 131;
+            final int omit = (queryIndex % 2 == 0) ? row : -1;
+            Tensor query = xs.selectRow(row);
+            final double rowDay = query.get(dayColumn);
+            List<Neighbors> actual = index.nearestAtDays(query, omit, days, k);
+            assertEquals(rowDay, query.get(dayColumn), 0);
+            assertEquals(days.length, actual.size());
+
+            for (int dayIndex = 0; dayIndex < days.length; dayIndex++) {
+                Tensor dayQuery = Tensor.newInstance(query);
+                dayQuery.set(dayColumn, days[dayIndex]);
+                NearestCandidates expected = new NearestCandidates(k);
+                bruteForce.nearest(dayQuery, omit, expected);
+                expected.sort();
+                assertEquals(new Neighbors(expected), actual.get(dayIndex));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchSquaredDistances() {
+        BatchDistanceIndex batch = new BatchDistanceIndex(xs, 1);
+        Tensor queries = new Tensor(5, xs.getSize(1));
+        for (int q = 0; q < 5; q++)
+            for (int j = 0; j < xs.getSize(1); j++)
+                queries.set(q, j, xs.get(q + 1000, j));
+        double[] squaredDistances = batch.squaredDistances(queries, 10, 20);
+        assertEquals(5 * 10, squaredDistances.length);
+        DistanceEuclidean distance = new DistanceEuclidean();
+        for (int q = 0; q < 5; q++)
+            for (int row = 10; row < 20; row++) {
+                final double expected = distance.apply(xs, row, queries.selectRow(q));
+                assertEquals(expected * expected, squaredDistances[q * 10 + row - 10], 1e-9);
+            }
+    }
+
+    @Test
+    public void testFewerRowsThanK() {
+        Tensor small = new Tensor(10, 2);
+        for (int i = 0; i < 10; i++) {
+            small.set(i, 0, i);
+            small.set(i, 1, -i);
+        }
+        NearestCandidates candidates = new NearestCandidates(k);
+        new KdTreeIndex(small).nearest(small.selectRow(3), 3, candidates);
+        assertEquals(9, candidates.size());
+        candidates = new NearestCandidates(k);
+        new BallTreeIndex(small).nearest(small.selectRow(3), 3, candidates);
+        assertEquals(9, candidates.size());
+        candidates = new NearestCandidates(k);
+        new DayDecomposedIndex(small, 1).nearest(small.selectRow(3), 3, candidates);
+        assertEquals(9, candidates.size());
+    }
+
+    @Test
+    public void testMake() {
+        assertTrue(NearestNeighborIndexes.make("brute", xs) instanceof BruteForceIndex);
+        assertTrue(NearestNeighborIndexes.make("auto", xs) instanceof KdTreeIndex);
+        try {NearestNeighborIndexes.make("xyz", xs); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
+}
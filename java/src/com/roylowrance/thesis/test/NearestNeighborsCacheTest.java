@@ -119,6 +119,31 @@ public class NearestNeighborsCacheTest {
         catch (RuntimeException e) {}
     }
 
+    @Test
+    public void testPutFromNeighborsFile() throws IOException {
+        final String binaryFilePath = Dir.project() + "data/tmp/NearestNeighborsCacheTest.bin";
+        final String fingerprint = "abc123";
+        assertEquals(2, nnc.writeNeighborsFile(binaryFilePath, fingerprint, 10, 3));
+        
+        NearestNeighborsCache nnc2 = new NearestNeighborsCache();
+        assertEquals(2, nnc2.putFromNeighborsFile(binaryFilePath, fingerprint));
+        assertEquals(nnc.get(key1), nnc2.get(key1));
+        assertEquals(nnc.get(key2), nnc2.get(key2));
+        assertFalse(nnc2.containsKey(0));
+
+        // the distances were not written, so cannot be read
+        NeighborsFile neighborsFile = NeighborsFile.open(binaryFilePath, fingerprint, false);
+        assertFalse(neighborsFile.hasDistances());
+        assertEquals(nnc.get(key1).get(0), neighborsFile.getIndex(key1, 0), 0);
+        try {neighborsFile.getDistance(key1, 0); fail("expected exception");}
+        catch (IllegalStateException e) {}
+        neighborsFile.close();
+        
+        // the file was built from other data
+        try {new NearestNeighborsCache().putFromNeighborsFile(binaryFilePath, "xyz"); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
     @Test
     public void testWrite() throws FileNotFoundException {
         int recordsWritten = nnc.write(filePath);
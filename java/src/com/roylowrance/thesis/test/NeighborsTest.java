@@ -0,0 +1,120 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.roylowrance.thesis.Dir;
+import com.roylowrance.thesis.DistanceEuclidean;
+import com.roylowrance.thesis.Hp;
+import com.roylowrance.thesis.KNearestNeighbors;
+import com.roylowrance.thesis.KernelEpanechnikov;
+import com.roylowrance.thesis.KernelGaussian;
+import com.roylowrance.thesis.Nearest256Ys;
+import com.roylowrance.thesis.Neighbors;
+import com.roylowrance.thesis.WeightedAverage;
+import com.roylowrance.util.Tensor;
+
+public class NeighborsTest {
+    Tensor xs;
+    Tensor ys;
+    String cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 100;
+        final int d = 2;
+        xs = new Tensor(n, d);
+        ys = new Tensor(n);
+        Random random = new Random(27);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < d; j++)
+                xs.set(i, j, random.nextGaussian());
+            ys.set(i, 100 + i);
+        }
+        cacheDir = Dir.project() + "data/tmp/NeighborsTest-";
+    }
+
+    @Test
+    public void testConstruct() {
+        Neighbors neighbors = new Neighbors(new int[] {4, 2, 7}, new double[] {0.5, 1.0, 1.0});
+        assertEquals(3, neighbors.size());
+        assertEquals(2, neighbors.getIndex(1));
+        assertEquals(1.0, neighbors.getDistance(2), 0);
+        assertEquals(102, neighbors.getY(ys, 1), 0);
+
+        try {new Neighbors(new int[] {4, 2}, new double[] {1.0, 0.5}); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+        try {new Neighbors(new int[] {4, 2}, new double[] {0.5}); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
+    // the cache file holds the rows and distances, from which the ys are derived
+    @Test
+    public void testCacheWriteMerge() {
+        Nearest256Ys written = new Nearest256Ys(xs, ys, cacheDir, "-written");
+        for (int row = 0; row < 10; row++)
+            written.apply(xs.selectRow(row), row);
+        assertEquals(10, written.cacheWrite());
+
+        Nearest256Ys merged = new Nearest256Ys(xs, ys, cacheDir, "-unused");
+        assertEquals(10, merged.cacheMerge("-written"));
+        Nearest256Ys searched = new Nearest256Ys(xs, ys, null, "");
+        for (int row = 0; row < 10; row++) {
+            Neighbors expected = searched.nearest(xs.selectRow(row), row);
+            assertEquals(xs.getSize(0) - 1, expected.size());
+            assertEquals(expected, merged.nearest(xs.selectRow(row), row));
+            ArrayList<Double> expectedYs = searched.apply(xs.selectRow(row), row);
+            assertEquals(expectedYs, merged.apply(xs.selectRow(row), row));
+        }
+    }
+
+    // a cache file holding only the ys cannot be used
+    @Test
+    public void testCacheMergeYsOnly() throws Exception {
+        Nearest256Ys nearest256Ys = new Nearest256Ys(xs, ys, cacheDir, "-ysOnly");
+        PrintWriter cacheFile = new PrintWriter(nearest256Ys.cacheFilePath("-ysOnly"));
+        StringBuilder header = new StringBuilder("t1|t2");
+        for (int i = 0; i < Nearest256Ys.K_MAX; i++)
+            header.append("|y" + (i + 1));
+        cacheFile.println(header);
+        cacheFile.close();
+
+        try {nearest256Ys.cacheMerge("-ysOnly"); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
+    // one set of neighbors serves each estimator and any ys
+    @Test
+    public void testEstimators() {
+        final int queryRow = 17;
+        KNearestNeighbors knn = new KNearestNeighbors(xs, ys, null, "");
+        Neighbors neighbors = knn.nearest(xs.selectRow(queryRow), queryRow);
+
+        assertEquals(knn.estimate(5, xs.selectRow(queryRow), queryRow), KNearestNeighbors.estimate(5, neighbors, ys), 0);
+        Tensor otherYs = new Tensor(xs.getSize(0));
+        for (int i = 0; i < xs.getSize(0); i++)
+            otherYs.set(i, 2 * ys.get(i));
+        assertEquals(2 * knn.estimate(5, xs.selectRow(queryRow), queryRow), KNearestNeighbors.estimate(5, neighbors, otherYs), 1e-10);
+
+        // with all the other rows as neighbors, the kernel-weighted average is the one over all the rows
+        Hp hp = new Hp.Builder().bandwidth(2.0).build();
+        final double expected = WeightedAverage.apply(new DistanceEuclidean(), new KernelGaussian(), hp, xs, queryRow, ys);
+        final double actual = WeightedAverage.apply(new KernelGaussian(), hp, neighbors.size(), neighbors, ys);
+        assertEquals(expected, actual, 1e-10);
+
+        // with a bandwidth covering only the nearest neighbors, more neighbors leave the estimate unchanged
+        final double bandwidth = neighbors.getDistance(3);
+        Hp narrow = new Hp.Builder().bandwidth(bandwidth).build();
+        assertEquals(
+                WeightedAverage.apply(new KernelEpanechnikov(), narrow, 4, neighbors, ys),
+                WeightedAverage.apply(new KernelEpanechnikov(), narrow, 20, neighbors, ys),
+                1e-10);
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.roylowrance.thesis.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.roylowrance.thesis.BatchDistanceIndex;
+import com.roylowrance.thesis.Dir;
+import com.roylowrance.thesis.Nearest256Ys;
+import com.roylowrance.thesis.Neighbors;
+import com.roylowrance.thesis.QueryCache;
+import com.roylowrance.util.Tensor;
+
+public class QueryCacheTest {
+    Tensor xs;
+    Tensor ys;
+
+    @Before
+    public void setUp() throws Exception {
+        final int n = 10;
+        xs = new Tensor(n, 2);
+        ys = new Tensor(n);
+        for (int i = 0; i < n; i++) {
+            xs.set(i, 0, i);
+            xs.set(i, 1, i * i);
+            ys.set(i, i);
+        }
+    }
+
+    private Neighbors neighbors(int index) {
+        return new Neighbors(new int[] {index}, new double[] {1.0});
+    }
+
+    // a query is found by its values, not by the Tensor holding them
+    @Test
+    public void testGetPut() {
+        QueryCache cache = new QueryCache(100);
+        assertNull(cache.get(xs.selectRow(3), 3));
+        cache.put(xs.selectRow(3), 3, neighbors(3));
+        assertEquals(neighbors(3), cache.get(xs.selectRow(3), 3));
+        assertNull(cache.get(xs.selectRow(4), 4));
+        assertFalse(cache.putIfAbsent(xs.selectRow(3), 3, neighbors(5)));
+        assertTrue(cache.putIfAbsent(xs.selectRow(4), 4, neighbors(4)));
+        assertEquals(neighbors(3), cache.get(xs.selectRow(3), 3));
+        assertNull(cache.get(xs.selectRow(3), 4)); // another row omitted
+        assertNull(cache.get(xs.selectRow(3), QueryCache.NO_ROW));
+
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    // the least recently used query is evicted
+    @Test
+    public void testEviction() {
+        QueryCache cache = new QueryCache(3);
+        for (int i = 0; i < 3; i++)
+            cache.put(xs.selectRow(i), i, neighbors(i));
+        cache.get(xs.selectRow(0), 0); // now row 1 is the least recently used
+        cache.put(xs.selectRow(3), 3, neighbors(3));
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(xs.selectRow(1), 1));
+        assertNotNull(cache.get(xs.selectRow(0), 0));
+        assertNotNull(cache.get(xs.selectRow(2), 2));
+
+        List<QueryCache.Entry> entries = cache.entries();
+        assertEquals(3, entries.size());
+        assertEquals(3.0, entries.get(0).query.get(0), 0);
+        assertEquals(3, entries.get(0).omittedRow);
+        assertEquals(neighbors(2), entries.get(2).neighbors);
+    }
+
+    // threads getting the same query share one load
+    @Test
+    public void testSingleFlight() throws Exception {
+        final QueryCache cache = new QueryCache(100);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final QueryCache.Loader loader = new QueryCache.Loader() {
+            @Override
+            public Neighbors load(Tensor query) {
+                loads.incrementAndGet();
+                try {release.await();}
+                catch (InterruptedException e) {throw new RuntimeException(e);}
+                return neighbors((int) query.get(0));
+            }
+        };
+
+        final int numberThreads = 4;
+        final Neighbors[] results = new Neighbors[numberThreads];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < numberThreads; t++) {
+            final int threadIndex = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    results[threadIndex] = cache.get(xs.selectRow(7), 7, loader);
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        while (cache.getMisses() + cache.getJoins() < numberThreads)
+            Thread.sleep(1);
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(numberThreads - 1, cache.getJoins());
+        for (Neighbors result : results)
+            assertEquals(neighbors(7), result);
+        assertEquals(neighbors(7), cache.get(xs.selectRow(7), 7, loader));
+        assertEquals(1, cache.getHits());
+    }
+
+    // a failed load is not cached
+    @Test
+    public void testLoadFails() {
+        QueryCache cache = new QueryCache(100);
+        QueryCache.Loader loader = new QueryCache.Loader() {
+            @Override
+            public Neighbors load(Tensor query) {
+                throw new IllegalStateException("load failed");
+            }
+        };
+        try {cache.get(xs.selectRow(1), 1, loader); fail("expected exception");}
+        catch (IllegalStateException e) {}
+        assertEquals(0, cache.size());
+    }
+
+    // Nearest256Ys finds a query it has seen even when presented in another Tensor
+    @Test
+    public void testNearest256Ys() {
+        Nearest256Ys nearest256Ys = new Nearest256Ys(xs, ys, Dir.project() + "data/tmp/QueryCacheTest-", "");
+        Neighbors first = nearest256Ys.nearest(xs.selectRow(5), 5);
+        Neighbors second = nearest256Ys.nearest(xs.selectRow(5), 5);
+        assertSame(first, second);
+        assertEquals(1, nearest256Ys.getCache().getHits());
+        assertEquals(1, nearest256Ys.getCache().getMisses());
+
+        nearest256Ys.setCacheMaximumSize(1);
+        nearest256Ys.nearest(xs.selectRow(6), 6);
+        assertEquals(1, nearest256Ys.getCache().getEvictions());
+        try {nearest256Ys.cacheWrite(); fail("expected exception");}
+        catch (IllegalStateException e) {}
+    }
+
+    // the neighbors of one of two identical rows, each omitting itself, are not those of the other
+    @Test
+    public void testDuplicateRows() {
+        xs.set(8, 0, xs.get(2, 0));
+        xs.set(8, 1, xs.get(2, 1));
+        final String cacheDir = Dir.project() + "data/tmp/QueryCacheTest-";
+        Nearest256Ys nearest256Ys = new Nearest256Ys(xs, ys, cacheDir, "-duplicates");
+        Neighbors of2 = nearest256Ys.nearest(xs.selectRow(2), 2);
+        Neighbors of8 = nearest256Ys.nearest(xs.selectRow(8), 8);
+        checkOmits(of2, 2, 8);
+        checkOmits(of8, 8, 2);
+        assertEquals(0, nearest256Ys.getCache().getHits());
+
+        // likewise when searched for together
+        BatchDistanceIndex batch = new BatchDistanceIndex(xs, 1);
+        Nearest256Ys together = new Nearest256Ys(xs, ys, cacheDir, "-duplicates-together");
+        List<Neighbors> neighbors = together.nearestRows(new int[] {2, 8}, batch);
+        checkOmits(neighbors.get(0), 2, 8);
+        checkOmits(neighbors.get(1), 8, 2);
+        checkOmits(together.nearest(xs.selectRow(8), 8), 8, 2);
+        batch.shutdown();
+
+        // and when the cache is written and merged; the file does not record the row omitted
+        nearest256Ys.cacheWrite();
+        Nearest256Ys merged = new Nearest256Ys(xs, ys, cacheDir, "-merged");
+        assertEquals(2, merged.cacheMerge("-duplicates"));
+        assertEquals(of2, merged.nearest(xs.selectRow(2), 2));
+        assertEquals(of8, merged.nearest(xs.selectRow(8), 8));
+        assertEquals(2, merged.getCache().getHits());
+    }
+
+    // the neighbors omit the row and include its duplicate
+    private void checkOmits(Neighbors neighbors, int omitted, int duplicate) {
+        assertEquals(duplicate, neighbors.getIndex(0));
+        assertEquals(0, neighbors.getDistance(0), 0);
+        for (int i = 0; i < neighbors.size(); i++)
+            assertTrue(neighbors.getIndex(i) != omitted);
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.roylowrance.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// read a column store written by ColumnStoreWriter
+//
+// synopsis:
+// ColumnStoreReader reader = new ColumnStoreReader(filePath);  // maps the file and reads its directory
+// int n = reader.getNumberRows();
+// List<String> names = reader.getColumnNames();
+// boolean b = reader.has(name);
+// byte type = reader.getType(name);     // ColumnStoreWriter.DOUBLE, LONG, or INT
+// double x = reader.getMin(name); getMax(name); getMean(name); getStandardDeviation(name);
+// Tensor t = reader.readColumn(name);   // 1D, any type of column as doubles
+// DataFrame df = reader.readColumns(name1, name2, ...); // 2D with a column for each name, in the order named
+// DataFrame df = reader.readFrame(name1, name2, ...);   // a typed column for each name; see DataFrame
+// long[] a = reader.readLongs(name);    // a LONG column
+// int[] a = reader.readInts(name);      // an INT column
+// reader.close();
+//
+// Each column is mapped when read, so that reading it copies only its values, in bulk, from the page
+// cache; the columns not named are not read at all. The offsets are longs, so the file may be larger than
+// the 2 GB a mapping can cover; only each column (and the directory) must be smaller.
+public class ColumnStoreReader {
+    private final String filePath;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int numberRows;
+    private final List<String> columnNames = new ArrayList<String>();
+    private final HashMap<String, ColumnStoreWriter.Column> columns = new HashMap<String, ColumnStoreWriter.Column>();
+
+    public ColumnStoreReader(String filePath) {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath must not be null");
+        this.filePath = filePath;
+        final long fileLength;
+        try {
+            this.file = new RandomAccessFile(filePath, "r");
+            this.channel = file.getChannel();
+            fileLength = file.length();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException opening " + filePath + "; e=" + e);}
+
+        if (fileLength < ColumnStoreWriter.HEADER_BYTES)
+            throw new RuntimeException("not a column store; filePath=" + filePath);
+        ByteBuffer header = map(0, ColumnStoreWriter.HEADER_BYTES);
+        if (header.getInt(0) != ColumnStoreWriter.MAGIC)
+            throw new RuntimeException("not a column store; filePath=" + filePath);
+        final int version = header.getInt(4);
+        if (version != ColumnStoreWriter.VERSION)
+            throw new RuntimeException("column store version " + version + " is not " + ColumnStoreWriter.VERSION + "; filePath=" + filePath);
+        this.numberRows = header.getInt(8);
+        final int numberColumns = header.getInt(12);
+        final long directoryOffset = header.getLong(16);
+        if (directoryOffset < ColumnStoreWriter.HEADER_BYTES || directoryOffset > fileLength)
+            throw new RuntimeException("directory offset " + directoryOffset + " not in file; filePath=" + filePath);
+        ByteBuffer directory = map(directoryOffset, fileLength - directoryOffset);
+        for (int c = 0; c < numberColumns; c++) {
+            ColumnStoreWriter.Column column = new ColumnStoreWriter.Column();
+            byte[] name = new byte[directory.getShort()];
+            directory.get(name);
+            column.name = new String(name, ColumnStoreWriter.UTF8);
+            column.type = directory.get();
+            column.offset = directory.getLong();
+            column.min = directory.getDouble();
+            column.max = directory.getDouble();
+            column.mean = directory.getDouble();
+            column.standardDeviation = directory.getDouble();
+            if (column.offset < ColumnStoreWriter.HEADER_BYTES || column.offset + bytes(column) > directoryOffset)
+                throw new RuntimeException("column " + column.name + " not in file; filePath=" + filePath);
+            columnNames.add(column.name);
+            columns.put(column.name, column);
+        }
+    }
+
+    public void close() {
+        try {file.close();}
+        catch (IOException e) {throw new RuntimeException("IOException closing " + filePath + "; e=" + e);}
+    }
+
+    public int getNumberRows() {return numberRows;}
+
+    // return the names of the columns, in the order written
+    public List<String> getColumnNames() {return new ArrayList<String>(columnNames);}
+
+    public boolean has(String name) {return columns.containsKey(name);}
+
+    public byte getType(String name) {return column(name).type;}
+
+    public double getMin(String name) {return column(name).min;}
+
+    public double getMax(String name) {return column(name).max;}
+
+    public double getMean(String name) {return column(name).mean;}
+
+    public double getStandardDeviation(String name) {return column(name).standardDeviation;}
+
+    // return the column's values, converted to doubles if it is a LONG or INT column, as a 1D tensor
+    public Tensor readColumn(String name) {
+        double[] storage = new double[numberRows];
+        readInto(column(name), storage, 0, 1);
+        final int nDimensions = 1;
+        final int offset = 0;
+        return new Tensor(storage, nDimensions, offset, numberRows, 0, 1, 0);
+    }
+
+    // return the named columns, in the order named, as the columns of a 2D tensor
+    public DataFrame readColumns(String... names) {
+        if (names.length < 1)
+            throw new IllegalArgumentException("must name at least one column");
+        ArrayList<String> header = new ArrayList<String>();
+        double[] storage = new double[numberRows * names.length];
+        for (int c = 0; c < names.length; c++) {
+            readInto(column(names[c]), storage, c, names.length);
+            header.add(names[c]);
+        }
+        final int nDimensions = 2;
+        final int offset = 0;
+        return new DataFrame(header, new Tensor(storage, nDimensions, offset, numberRows, names.length, names.length, 1));
+    }
+
+    // return the named columns, in the order named, as a DataFrame with a column of the stored type for each
+    public DataFrame readFrame(String... names) {
+        DataFrame result = new DataFrame(numberRows);
+        for (String name : names) {
+            ColumnStoreWriter.Column column = column(name);
+            if (column.type == ColumnStoreWriter.LONG)
+                result.addLongs(name, readLongs(name));
+            else if (column.type == ColumnStoreWriter.INT)
+                result.addInts(name, readInts(name));
+            else
+                result.addDoubles(name, readColumn(name).getStorage());
+        }
+        return result;
+    }
+
+    public long[] readLongs(String name) {
+        ColumnStoreWriter.Column column = column(name, ColumnStoreWriter.LONG);
+        long[] result = new long[numberRows];
+        values(column).asLongBuffer().get(result);
+        return result;
+    }
+
+    public int[] readInts(String name) {
+        ColumnStoreWriter.Column column = column(name, ColumnStoreWriter.INT);
+        int[] result = new int[numberRows];
+        values(column).asIntBuffer().get(result);
+        return result;
+    }
+
+    ////////////////////// private
+
+    private ColumnStoreWriter.Column column(String name) {
+        ColumnStoreWriter.Column column = columns.get(name);
+        if (column == null)
+            throw new IllegalArgumentException("no column named " + name + "; columns=" + columnNames + "; filePath=" + filePath);
+        return column;
+    }
+
+    private ColumnStoreWriter.Column column(String name, byte type) {
+        ColumnStoreWriter.Column column = column(name);
+        if (column.type != type)
+            throw new IllegalArgumentException("column " + name + " has type " + column.type + " not " + type);
+        return column;
+    }
+
+    // return a buffer holding the column's values
+    private ByteBuffer values(ColumnStoreWriter.Column column) {
+        return map(column.offset, bytes(column));
+    }
+
+    // return number of bytes in the column's values
+    private long bytes(ColumnStoreWriter.Column column) {
+        final long width = (column.type == ColumnStoreWriter.INT) ? 4 : 8;
+        return width * numberRows;
+    }
+
+    // return the bytes of the file at [offset, offset + length) mapped and in the store's byte order
+    private ByteBuffer map(long offset, long length) {
+        if (length > Integer.MAX_VALUE)
+            throw new RuntimeException("cannot map " + length + " bytes, more than a mapping can hold; filePath=" + filePath);
+        MappedByteBuffer result;
+        try {result = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);}
+        catch (IOException e) {throw new RuntimeException("IOException mapping " + filePath + "; e=" + e);}
+        result.order(ColumnStoreWriter.ORDER);
+        return result;
+    }
+
+    // put the column's values as doubles into storage at offset, offset + stride, ...
+    private void readInto(ColumnStoreWriter.Column column, double[] storage, int offset, int stride) {
+        ByteBuffer values = values(column);
+        if (column.type == ColumnStoreWriter.DOUBLE && stride == 1) {
+            values.asDoubleBuffer().get(storage, offset, numberRows);
+            return;
+        }
+        for (int i = 0, index = offset; i < numberRows; i++, index += stride) {
+            switch (column.type) {
+            case ColumnStoreWriter.DOUBLE: storage[index] = values.getDouble(); break;
+            case ColumnStoreWriter.LONG: storage[index] = values.getLong(); break;
+            case ColumnStoreWriter.INT: storage[index] = values.getInt(); break;
+            default: throw new RuntimeException("column " + column.name + " has unknown type " + column.type + "; filePath=" + filePath);
+            }
+        }
+    }
+}
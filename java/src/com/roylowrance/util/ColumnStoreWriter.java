@@ -0,0 +1,238 @@
+package com.roylowrance.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+// write a column store: one file holding named columns of the same number of rows, each a dense array
+// of doubles, longs, or ints, with its statistics, to be memory mapped and read a column at a time
+//
+// synopsis:
+// ColumnStoreWriter writer = new ColumnStoreWriter(filePath, numberRows);
+// writer.writeDoubles("SALE-AMOUNT-log", tensor1D);   // or a double[]
+// writer.writeLongs("apns", apns);                    // long[]
+// writer.writeInts("day", days);                      // int[]
+// writer.close();                                     // writes the directory; the file appears only now
+// ColumnStoreReader reader = new ColumnStoreReader(filePath);  // to read the columns
+//
+// layout (little endian, as the columns are read into Java arrays on the usual processors):
+//   header, HEADER_BYTES long: int magic, int version, int numberRows, int numberColumns, long directoryOffset,
+//     8 bytes reserved
+//   the values of each column in the order written, each starting at a multiple of 8 bytes
+//   the directory: for each column: short name length, name in UTF-8, byte type, long offset of its values,
+//     double min, double max, double mean, double standard deviation
+// The statistics are of the values as doubles; the mean and standard deviation are those of Tensor.mean
+// and Tensor.std, which weight by n.
+//
+// The file is written as filePath.partial and renamed when closed, so that a reader never sees part of one.
+public class ColumnStoreWriter {
+    public final static int MAGIC = 0x434f4c53; // "COLS"
+    public final static int VERSION = 1;
+    public final static int HEADER_BYTES = 32;
+    public final static byte DOUBLE = 1;
+    public final static byte LONG = 2;
+    public final static byte INT = 3;
+    private final static int BUFFER_BYTES = 1 << 20;
+    final static ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String filePath;
+    private final String partialPath;
+    private final int numberRows;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final List<Column> columns = new ArrayList<Column>();
+    private final HashSet<String> names = new HashSet<String>();
+
+    // a column in the directory
+    static class Column {
+        String name;
+        byte type;
+        long offset;
+        double min;
+        double max;
+        double mean;
+        double standardDeviation;
+    }
+
+    public ColumnStoreWriter(String filePath, int numberRows) {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath must not be null");
+        if (numberRows < 0)
+            throw new IllegalArgumentException("numberRows must not be negative; numberRows=" + numberRows);
+        this.filePath = filePath;
+        this.partialPath = filePath + ".partial";
+        this.numberRows = numberRows;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        buffer.order(ORDER);
+        try {
+            this.file = new RandomAccessFile(partialPath, "rw");
+            this.channel = file.getChannel();
+            channel.truncate(0);
+            channel.position(HEADER_BYTES); // the header is written when the directory's offset is known
+        }
+        catch (IOException e) {throw new RuntimeException("IOException opening " + partialPath + "; e=" + e);}
+    }
+
+    // write a column of doubles from the elements of a 1D tensor
+    public void writeDoubles(String name, Tensor column) {
+        if (column.getNDimensions() != 1)
+            throw new IllegalArgumentException("column must be 1D; column=" + column);
+        double[] values = new double[column.getSize(0)];
+        for (int i = 0; i < values.length; i++)
+            values[i] = column.get(i);
+        writeDoubles(name, values);
+    }
+
+    public void writeDoubles(String name, double[] values) {
+        Column column = startColumn(name, DOUBLE, values.length);
+        for (double value : values) {
+            if (buffer.remaining() < 8)
+                writeBuffer();
+            buffer.putDouble(value);
+        }
+        endColumn(column, statistics(values));
+    }
+
+    public void writeLongs(String name, long[] values) {
+        Column column = startColumn(name, LONG, values.length);
+        for (long value : values) {
+            if (buffer.remaining() < 8)
+                writeBuffer();
+            buffer.putLong(value);
+        }
+        endColumn(column, statistics(values));
+    }
+
+    public void writeInts(String name, int[] values) {
+        Column column = startColumn(name, INT, values.length);
+        for (int value : values) {
+            if (buffer.remaining() < 4)
+                writeBuffer();
+            buffer.putInt(value);
+        }
+        endColumn(column, statistics(values));
+    }
+
+    // write the directory and header, and rename the file to filePath
+    public void close() {
+        try {
+            final long directoryOffset = channel.position() + buffer.position();
+            for (Column column : columns) {
+                final byte[] name = column.name.getBytes(UTF8);
+                if (buffer.remaining() < 2 + name.length + 1 + 8 + 4 * 8)
+                    writeBuffer();
+                buffer.putShort((short) name.length);
+                buffer.put(name);
+                buffer.put(column.type);
+                buffer.putLong(column.offset);
+                buffer.putDouble(column.min);
+                buffer.putDouble(column.max);
+                buffer.putDouble(column.mean);
+                buffer.putDouble(column.standardDeviation);
+            }
+            writeBuffer();
+
+            channel.position(0);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(numberRows);
+            buffer.putInt(columns.size());
+            buffer.putLong(directoryOffset);
+            buffer.putLong(0);
+            writeBuffer();
+            file.close();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException closing " + partialPath + "; e=" + e);}
+        File target = new File(filePath);
+        if (target.exists() && !target.delete())
+            throw new RuntimeException("unable to replace " + filePath);
+        if (!new File(partialPath).renameTo(target))
+            throw new RuntimeException("unable to rename " + partialPath + " to " + filePath);
+    }
+
+    ////////////////////// private
+
+    // return min, max, mean, and standard deviation of the values, summed in order as Tensor.mean and Tensor.var do
+    private static double[] statistics(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (double value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+        final double mean = sum / values.length;
+        double sumSquaredDeviations = 0;
+        for (double value : values)
+            sumSquaredDeviations += (value - mean) * (value - mean);
+        return new double[] {min, max, mean, Math.sqrt(sumSquaredDeviations / values.length)};
+    }
+
+    private static double[] statistics(long[] values) {
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++)
+            doubles[i] = values[i];
+        return statistics(doubles);
+    }
+
+    private static double[] statistics(int[] values) {
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++)
+            doubles[i] = values[i];
+        return statistics(doubles);
+    }
+
+    private Column startColumn(String name, byte type, int numberValues) {
+        if (name == null)
+            throw new IllegalArgumentException("name must not be null");
+        if (names.contains(name))
+            throw new IllegalArgumentException("column already written; name=" + name);
+        if (numberValues != numberRows)
+            throw new IllegalArgumentException("column " + name + " has " + numberValues + " values, not " + numberRows);
+        // align the values to 8 bytes
+        while ((currentOffset() & 7) != 0) {
+            if (!buffer.hasRemaining())
+                writeBuffer();
+            buffer.put((byte) 0);
+        }
+        Column column = new Column();
+        column.name = name;
+        column.type = type;
+        column.offset = currentOffset();
+        names.add(name);
+        return column;
+    }
+
+    private void endColumn(Column column, double[] statistics) {
+        column.min = statistics[0];
+        column.max = statistics[1];
+        column.mean = statistics[2];
+        column.standardDeviation = statistics[3];
+        columns.add(column);
+    }
+
+    private long currentOffset() {
+        try {return channel.position() + buffer.position();}
+        catch (IOException e) {throw new RuntimeException("IOException writing " + partialPath + "; e=" + e);}
+    }
+
+    private void writeBuffer() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        catch (IOException e) {throw new RuntimeException("IOException writing " + partialPath + "; e=" + e);}
+        buffer.clear();
+    }
+}
@@ -2,18 +2,43 @@ package com.roylowrance.util;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 // read from a comma separated values file
 // mimic the API for Python's csvreader class
+//
+// readAll, readColumns, and readOnlyColumn parse each field straight into a primitive double[] that grows
+// as rows are read, which becomes the storage of the returned Tensor, so that a large file is held once
+// as its lines are read rather than also as a Tensor per row. A separator that is one literal character,
+// such as "\\|", is found without the regex. readColumns(names, types) and readOnlyColumn(type) instead
+// read each column into an array of its type, so that APNs are held as longs and day numbers as ints.
+//
+// If the separator is a single byte character and no row has been read with next(), these methods read
+// the file with a FieldTokenizer, which parses the fields from the bytes without creating Strings. The
+// values are the same as those of Double.valueOf. readAll(numberThreads) also parses chunks of the file
+// on several threads; see ParallelLineReader. A file whose name ends with .gz is decompressed as it is read.
 public class CsvReader {
+    private final static int INITIAL_CAPACITY = 1024; // elements in the storage before it first grows
+    private final static double EXACT_LONG_LIMIT = 1L << 53; // every long of smaller magnitude is exactly a double
+    
+    private String filePath;
     private String separatorRegex;
+    private char separator;            // the separator, if separatorIsLiteral
+    private boolean separatorIsLiteral;
     private LineScanner lineScanner; // avoid bug in java's scanner class
- 
+    private boolean linesRead = false; // true once the line scanner has been used
+    
     public CsvReader(String filePath, String separatorRegex) {
         Log log = new Log("CsvReader.CsvReader", false);
         log.println("filePath:" + filePath);
+        this.filePath = filePath;
         this.separatorRegex = separatorRegex;
         this.lineScanner = new LineScanner(filePath);
+        final int literal = FieldTokenizer.literalSeparator(separatorRegex);
+        this.separatorIsLiteral = literal >= 0;
+        this.separator = (char) literal;
     }
     
     public void close() {
@@ -22,73 +47,403 @@ public class CsvReader {
     }
     
     // return all the rows as a 2D tensor and field names
+    // every data row must have the same number of fields
     public DataFrame readAll() {
-        if (!this.hasNext())
-            throw new RuntimeException("csv file has no header record");
-        ArrayList<String> header = this.next();
-        
-        ArrayList<Tensor> rows = new ArrayList<Tensor>();
-        int numberRead = 0;
-        while (this.hasNext()) {
-            ArrayList<String> elements = this.next();
-            numberRead = elements.size();
-            Tensor row = new Tensor(numberRead);
-            for (int i = 0; i < numberRead; i++) 
-                row.set(i, Double.valueOf(elements.get(i)));
-            rows.add(row);
+        Rows rows = makeRows();
+        try {return read(rows, rows.readHeader(), null);}
+        finally {rows.close();}
+    }
+    
+    // return all the rows as readAll() does, parsing chunks of the file on numberThreads threads
+    // the file is read on this thread if the separator is not a single byte character, rows have been read,
+    // or the file is compressed, and so cannot be split into chunks
+    public DataFrame readAll(int numberThreads) {
+        if (numberThreads < 1)
+            throw new IllegalArgumentException("numberThreads must be positive; numberThreads=" + numberThreads);
+        if (numberThreads == 1 || linesRead || !separatorIsLiteral || separator >= 128 || ReadAheadInputStream.isGzip(filePath))
+            return readAll();
+        close();
+        linesRead = true;
+        ParallelLineReader reader = new ParallelLineReader(filePath, separator, numberThreads);
+        try {
+            if (reader.getFirstLine() == null)
+                throw new RuntimeException("csv file has no header record");
+            final ArrayList<String> header = new ArrayList<String>();
+            split(reader.getFirstLine(), header);
+            final boolean skipHeader = true;
+            List<Block> blocks = reader.parse(new ParallelLineReader.ChunkParser<Block>() {
+                @Override
+                public Block parse(FieldTokenizer lines, int chunkIndex) {
+                    return parseRows(new TokenizedRows(lines), header, null, " of chunk " + chunkIndex);
+                }
+            }, skipHeader);
+            
+            // concatenate the blocks, which must have the same number of fields
+            int numberFields = -1;
+            long numberElements = 0;
+            int numberRows = 0;
+            for (Block block : blocks) {
+                if (block.numberRows == 0)
+                    continue;
+                if (numberFields < 0)
+                    numberFields = block.numberFields;
+                else if (block.numberFields != numberFields)
+                    throw new RuntimeException("data rows have " + block.numberFields + " fields in one chunk but " + numberFields + " in an earlier one");
+                numberElements += block.numberElements;
+                numberRows += block.numberRows;
+            }
+            if (numberElements > Integer.MAX_VALUE)
+                throw new RuntimeException("csv file has too many elements for an array");
+            double[] storage = new double[(int) numberElements];
+            int position = 0;
+            for (Block block : blocks) {
+                System.arraycopy(block.storage, 0, storage, position, block.numberElements);
+                position += block.numberElements;
+            }
+            return makeDataFrame(header, storage, numberRows, (numberFields < 0) ? header.size() : numberFields);
         }
-        
-        Tensor tensor = new Tensor(rows.size(), numberRead);
-        for (int i = 0; i < rows.size(); i++)
-            for (int j = 0; j < numberRead; j++)
-                tensor.set(i, j, rows.get(i).get(j));
-        
-        return new DataFrame(header, tensor);
+        finally {reader.close();}
+    }
+    
+    // return only the named columns, in the order named, as a 2D tensor and field names
+    // the other fields are not parsed
+    public DataFrame readColumns(String... columnNames) {
+        if (columnNames.length < 1)
+            throw new IllegalArgumentException("must name at least one column");
+        Rows rows = makeRows();
+        try {
+            ArrayList<String> header = rows.readHeader();
+            int[] columns = new int[columnNames.length];
+            for (int c = 0; c < columnNames.length; c++) {
+                columns[c] = header.indexOf(columnNames[c]);
+                if (columns[c] < 0)
+                    throw new IllegalArgumentException("no column named " + columnNames[c] + "; header=" + header);
+            }
+            return read(rows, new ArrayList<String>(Arrays.asList(columnNames)), columns);
+        }
+        finally {rows.close();}
+    }
+    
+    // return only the named columns, in the order named, each as the type in types: DataFrame.DOUBLE, LONG,
+    // INT, or STRING, so that an APN is read as a long rather than a double
+    public DataFrame readColumns(String[] columnNames, int[] types) {
+        if (columnNames.length < 1)
+            throw new IllegalArgumentException("must name at least one column");
+        if (types.length != columnNames.length)
+            throw new IllegalArgumentException("must have a type for each column; columnNames=" + Arrays.toString(columnNames) + 
+                    " types=" + Arrays.toString(types));
+        Rows rows = makeRows();
+        try {return readTyped(rows, rows.readHeader(), columnNames, types);}
+        finally {rows.close();}
+    }
+    
+    // return the only column as a DataFrame with a column of the type
+    public DataFrame readOnlyColumn(int type) {
+        Rows rows = makeRows();
+        try {
+            ArrayList<String> header = rows.readHeader();
+            if (header.size() != 1)
+                throw new RuntimeException("should be only 1 field in header but are " + header.size());
+            return readTyped(rows, header, new String[] {header.get(0)}, new int[] {type});
+        }
+        finally {rows.close();}
     }
     
     // return the only columns as a tensor and field name
     public DataFrame readOnlyColumn() {
-        if (!this.hasNext())
-            throw new RuntimeException("csv file has no header record");
-        ArrayList<String> header = this.next();
-        if (header.size() != 1)
-            throw new RuntimeException("should be only 1 field in header but are " + header.size());
-        
-        // read the data into a list
-        ArrayList<Double> rows = new ArrayList<Double>();
-        int numberRead = 0;
-        while (this.hasNext()) {
-            ArrayList<String> elements = this.next();
-            numberRead = elements.size();
-            if (numberRead != 1)
-                throw new RuntimeException("should be only 1 field in data row but are " + numberRead);
-            rows.add(Double.valueOf(elements.get(0)));
+        Rows rows = makeRows();
+        try {
+            ArrayList<String> header = rows.readHeader();
+            if (header.size() != 1)
+                throw new RuntimeException("should be only 1 field in header but are " + header.size());
+            Tensor tensor = read(rows, header, null).getTensor();
+            if (tensor.getSize(1) != 1)
+                throw new RuntimeException("should be only 1 field in data row but are " + tensor.getSize(1));
+            
+            // view the n x 1 storage as 1D
+            final int nDimensions = 1;
+            final int offset = 0;
+            return new DataFrame(header, new Tensor(tensor.getStorage(), nDimensions, offset, tensor.getSize(0), 0, 1, 0));
         }
-        
-        // convert the list to a 1D tensor
-        Tensor tensor = new Tensor(rows.size());
-        for (int i = 0; i < rows.size(); i++)
-            tensor.set(i, rows.get(i));
-        
-        return new DataFrame(header, tensor);
+        finally {rows.close();}
     }
     
     // return next row (as list of Strings) parsing out the delimiter
     public ArrayList<String> next() {
+        linesRead = true;
         String nextRow = null;
         nextRow = lineScanner.nextLine();
         
-        String[] fields = nextRow.split(separatorRegex, -1); // -1 forces return of trailing empty fields
         ArrayList<String> result = new ArrayList<String> ();
-        for (String field : fields) 
-            result.add(field);
+        split(nextRow, result);
         return result;
     }
     
     // return true iff there is another row
     // each row has its own line
     public boolean hasNext() {
-        return lineScanner.hasNextLine(); 
+        linesRead = true;
+        return lineScanner.hasNextLine();
+    }
+    
+    ////////////////////// private
+    
+    // the rows of the file, read either as Strings or as bytes
+    private interface Rows {
+        public ArrayList<String> readHeader();
+        public boolean next();
+        public int getNumberFields();
+        public double getDouble(int fieldIndex);
+        public long getLong(int fieldIndex);
+        public String getString(int fieldIndex);
+        public void close();
+    }
+    
+    // rows from the line scanner
+    private class StringRows implements Rows {
+        private ArrayList<String> fields = new ArrayList<String>();
+        
+        public ArrayList<String> readHeader() {
+            if (!hasNext())
+                throw new RuntimeException("csv file has no header record");
+            return CsvReader.this.next();
+        }
+        
+        public boolean next() {
+            if (!hasNext())
+                return false;
+            fields.clear();
+            split(lineScanner.nextLine(), fields);
+            return true;
+        }
+        
+        public int getNumberFields() {return fields.size();}
+        public double getDouble(int fieldIndex) {return Double.parseDouble(fields.get(fieldIndex));}
+        public long getLong(int fieldIndex) {return Long.parseLong(fields.get(fieldIndex));}
+        public String getString(int fieldIndex) {return fields.get(fieldIndex);}
+        public void close() {}
+    }
+    
+    // rows from a FieldTokenizer
+    private static class TokenizedRows implements Rows {
+        private FieldTokenizer tokenizer;
+        
+        public TokenizedRows(String filePath, char separator) {
+            tokenizer = new FieldTokenizer(filePath, separator);
+        }
+        
+        public TokenizedRows(FieldTokenizer tokenizer) {
+            this.tokenizer = tokenizer;
+        }
+        
+        public ArrayList<String> readHeader() {
+            if (!tokenizer.next())
+                throw new RuntimeException("csv file has no header record");
+            ArrayList<String> result = new ArrayList<String>();
+            for (int i = 0; i < tokenizer.getNumberFields(); i++)
+                result.add(tokenizer.getString(i));
+            return result;
+        }
+        
+        public boolean next() {return tokenizer.next();}
+        public int getNumberFields() {return tokenizer.getNumberFields();}
+        public double getDouble(int fieldIndex) {return tokenizer.getDouble(fieldIndex);}
+        public long getLong(int fieldIndex) {return tokenizer.getLong(fieldIndex);}
+        public String getString(int fieldIndex) {return tokenizer.getString(fieldIndex);}
+        public void close() {tokenizer.close();}
+    }
+    
+    private Rows makeRows() {
+        if (linesRead || !separatorIsLiteral || separator >= 128)
+            return new StringRows();
+        // nothing has been read through the line scanner, so the file is read again from the start
+        close();
+        linesRead = true;
+        return new TokenizedRows(filePath, separator);
+    }
+    
+    // the values of consecutive rows
+    private static class Block {
+        public double[] storage = new double[INITIAL_CAPACITY];
+        public int numberElements = 0;
+        public int numberRows = 0;
+        public int numberFields = -1;  // in each row, set by the first row
+        public int numberColumns;      // kept from each row
+    }
+    
+    // the values of one field of the rows, held as its type
+    private static class TypedColumn {
+        public final int fieldIndex;
+        public final int type;
+        public double[] doubles;
+        public long[] longs;
+        public int[] ints; // the values of an INT column, or the codes of a STRING column
+        public HashMap<String,Integer> codes;
+        public ArrayList<String> dictionary;
+        
+        public TypedColumn(int fieldIndex, int type) {
+            this.fieldIndex = fieldIndex;
+            this.type = type;
+            switch (type) {
+            case DataFrame.DOUBLE: doubles = new double[INITIAL_CAPACITY]; break;
+            case DataFrame.LONG: longs = new long[INITIAL_CAPACITY]; break;
+            case DataFrame.INT: ints = new int[INITIAL_CAPACITY]; break;
+            case DataFrame.STRING:
+                ints = new int[INITIAL_CAPACITY];
+                codes = new HashMap<String,Integer>();
+                dictionary = new ArrayList<String>();
+                break;
+            default: throw new IllegalArgumentException("unknown type " + type);
+            }
+        }
+        
+        // set row rowIndex to the value of the field in the current row
+        public void add(Rows rows, int rowIndex) {
+            switch (type) {
+            case DataFrame.DOUBLE:
+                if (rowIndex == doubles.length)
+                    doubles = Arrays.copyOf(doubles, grow(doubles.length));
+                doubles[rowIndex] = rows.getDouble(fieldIndex);
+                break;
+            case DataFrame.LONG:
+                if (rowIndex == longs.length)
+                    longs = Arrays.copyOf(longs, grow(longs.length));
+                longs[rowIndex] = getInteger(rows, rowIndex);
+                break;
+            case DataFrame.INT:
+                if (rowIndex == ints.length)
+                    ints = Arrays.copyOf(ints, grow(ints.length));
+                final long value = getInteger(rows, rowIndex);
+                if (value != (int) value)
+                    throw new RuntimeException("data row " + (rowIndex + 1) + " has value " + value + " that is not an int");
+                ints[rowIndex] = (int) value;
+                break;
+            case DataFrame.STRING:
+                if (rowIndex == ints.length)
+                    ints = Arrays.copyOf(ints, grow(ints.length));
+                final String s = rows.getString(fieldIndex);
+                Integer code = codes.get(s);
+                if (code == null) {
+                    code = dictionary.size();
+                    codes.put(s, code);
+                    dictionary.add(s);
+                }
+                ints[rowIndex] = code;
+                break;
+            }
+        }
+        
+        // return the field as a long, whether it was written as one or as a double with an integral value,
+        // such as 74516.0 or 8.106020009E9, as Tensor.serialize writes the day numbers and APNs
+        private long getInteger(Rows rows, int rowIndex) {
+            final double value = rows.getDouble(fieldIndex);
+            if (Math.abs(value) < EXACT_LONG_LIMIT) {
+                if (value != Math.rint(value))
+                    throw new RuntimeException("data row " + (rowIndex + 1) + " has value " + value + " that is not an integer");
+                return (long) value;
+            }
+            // the double may have been rounded, so parse the digits
+            return rows.getLong(fieldIndex);
+        }
+        
+        // add the first numberRows values to the data frame, trimmed so that it owns exactly its values
+        public void addTo(DataFrame dataFrame, String columnName, int numberRows) {
+            switch (type) {
+            case DataFrame.DOUBLE: dataFrame.addDoubles(columnName, Arrays.copyOf(doubles, numberRows)); break;
+            case DataFrame.LONG: dataFrame.addLongs(columnName, Arrays.copyOf(longs, numberRows)); break;
+            case DataFrame.INT: dataFrame.addInts(columnName, Arrays.copyOf(ints, numberRows)); break;
+            case DataFrame.STRING: dataFrame.addStrings(columnName, Arrays.copyOf(ints, numberRows), dictionary); break;
+            }
+        }
+    }
+    
+    // return the named columns of the remaining rows, each as its type
+    private static DataFrame readTyped(Rows rows, ArrayList<String> header, String[] columnNames, int[] types) {
+        TypedColumn[] columns = new TypedColumn[columnNames.length];
+        for (int c = 0; c < columnNames.length; c++) {
+            final int fieldIndex = header.indexOf(columnNames[c]);
+            if (fieldIndex < 0)
+                throw new IllegalArgumentException("no column named " + columnNames[c] + "; header=" + header);
+            columns[c] = new TypedColumn(fieldIndex, types[c]);
+        }
+        int numberRows = 0;
+        while (rows.next()) {
+            for (TypedColumn column : columns) {
+                if (column.fieldIndex >= rows.getNumberFields())
+                    throw new RuntimeException("data row " + (numberRows + 1) + " has " + rows.getNumberFields() + " fields; column " + 
+                            header.get(column.fieldIndex) + " is missing");
+                column.add(rows, numberRows);
+            }
+            numberRows++;
+        }
+        DataFrame result = new DataFrame(numberRows);
+        for (int c = 0; c < columns.length; c++)
+            columns[c].addTo(result, columnNames[c], numberRows);
+        return result;
+    }
+    
+    // return the remaining rows as a DataFrame with the names
+    // if columns is null, keep every field, otherwise keep the fields at the indices in columns
+    private DataFrame read(Rows rows, ArrayList<String> names, int[] columns) {
+        Block block = parseRows(rows, names, columns, "");
+        // the storage is trimmed so that the tensor owns exactly its elements
+        return makeDataFrame(names, Arrays.copyOf(block.storage, block.numberElements), block.numberRows, block.numberColumns);
+    }
+    
+    // return the remaining rows; where describes the rows in error messages
+    private static Block parseRows(Rows rows, ArrayList<String> names, int[] columns, String where) {
+        Block block = new Block();
+        block.numberColumns = (columns == null) ? names.size() : columns.length;
+        while (rows.next()) {
+            if (block.numberFields < 0) {
+                block.numberFields = rows.getNumberFields();
+                if (columns == null)
+                    block.numberColumns = block.numberFields;
+                for (int c = 0; columns != null && c < columns.length; c++)
+                    if (columns[c] >= block.numberFields)
+                        throw new RuntimeException("data rows have " + block.numberFields + " fields; column " + names.get(c) + " is missing");
+            }
+            else if (rows.getNumberFields() != block.numberFields)
+                throw new RuntimeException("data row " + (block.numberRows + 1) + where + " has " + rows.getNumberFields() + 
+                        " fields but the first has " + block.numberFields);
+            final int numberColumns = block.numberColumns;
+            if (block.numberElements + numberColumns > block.storage.length)
+                block.storage = Arrays.copyOf(block.storage, Math.max(grow(block.storage.length), block.numberElements + numberColumns));
+            for (int c = 0; c < numberColumns; c++)
+                block.storage[block.numberElements++] = rows.getDouble(columns == null ? c : columns[c]);
+            block.numberRows++;
+        }
+        return block;
+    }
+    
+    private static DataFrame makeDataFrame(ArrayList<String> names, double[] storage, int numberRows, int numberColumns) {
+        final int nDimensions = 2;
+        final int offset = 0;
+        return new DataFrame(names, new Tensor(storage, nDimensions, offset, numberRows, numberColumns, numberColumns, 1));
+    }
+    
+    // append the fields of the line to result, including trailing empty fields
+    private void split(String line, ArrayList<String> result) {
+        if (!separatorIsLiteral) {
+            for (String field : line.split(separatorRegex, -1)) // -1 forces return of trailing empty fields
+                result.add(field);
+            return;
+        }
+        int start = 0;
+        int end;
+        while ((end = line.indexOf(separator, start)) >= 0) {
+            result.add(line.substring(start, end));
+            start = end + 1;
+        }
+        result.add(line.substring(start));
+    }
+    
+    // grow capacity by half
+    private static int grow(int capacity) {
+        final int result = capacity + (capacity >> 1) + 1;
+        if (result < 0)
+            throw new RuntimeException("csv file has too many elements for an array");
+        return result;
     }
 
 }
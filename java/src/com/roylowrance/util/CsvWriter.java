@@ -1,52 +1,105 @@
 package com.roylowrance.util;
 // overview: write a csv file
 // t = CsvWriter(filepath, delimiter);
+// t = CsvWriter(filepath, delimiter, append); // if append, add to end of existing file
+// t.flush();
+// long length = t.force();  // flush, then force the file to disk
 // t.close();
 // t.writeRow(Double...values);
 // t.writeRow(String[] values);
 // t.writeRow(Tensor t1D);
 // t.writeRows(Tensor t); t can be 1D or 2D
+// t.writeRows(Tensor t, numberThreads); format blocks of rows on several threads
+// t.writeField(double or long or String); t.endRow(); write a row a field at a time
+//
+// The rows are formatted as bytes into a large buffer that is written to the file's channel when full.
+// Doubles are written as Double.toString writes them (see DoubleFormatter), Strings in the default charset
+// (a null String as "null"), and rows end with the line separator, so the file is the same as one written
+// with a PrintWriter.
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 // write a comma separated values file
 // mimic the API for Python's csvwriter class
 public class CsvWriter {
-    private String delimiter;
+    private final static int BUFFER_BYTES = 1 << 20;
+    private final static int BLOCKS_PER_THREAD = 2; // formatted ahead of the one being written
+
     private File file;
-    private PrintWriter printWriter;
-    
+    private FileChannel channel;
+    private byte[] delimiterBytes;
+    private byte[] lineSeparatorBytes;
+    private byte[] buffer = new byte[BUFFER_BYTES];
+    private int position = 0; // in buffer of next byte
+    private boolean inRow = false; // a field of the current row has been written by writeField
+    private DoubleFormatter formatter = new DoubleFormatter();
+
     public CsvWriter(String filePath, String delimiter) {
-        this.delimiter = delimiter;
+        this(filePath, delimiter, false);
+    }
+
+    // if append, write after the current end of the file
+    public CsvWriter(String filePath, String delimiter, boolean append) {
         this.file = new File(filePath);
-        try {this.printWriter = new PrintWriter(file);}
+        this.delimiterBytes = delimiter.getBytes(Charset.defaultCharset());
+        this.lineSeparatorBytes = System.getProperty("line.separator").getBytes(Charset.defaultCharset());
+        try {this.channel = new FileOutputStream(file, append).getChannel();}
         catch (IOException e){e.printStackTrace(); throw new RuntimeException();}
     }
-    
+
+    // write any buffered rows to the file
+    public void flush() {
+        write(ByteBuffer.wrap(buffer, 0, position));
+        position = 0;
+    }
+
+    // write any buffered rows, force the file to disk, and return its length
+    public long force() {
+        flush();
+        try {
+            channel.force(false);
+            return channel.size();
+        }
+        catch (IOException e) {throw new RuntimeException("IOException forcing " + file + "; e=" + e);}
+    }
+
     public void close() {
-        this.printWriter.close();
+        flush();
+        try {channel.close();}
+        catch (IOException e) {throw new RuntimeException("IOException closing " + file + "; e=" + e);}
     }
-    
+
     // write row of double value
     public void writeRow(Double...values) {
+        reserve(values.length * (DoubleFormatter.MAX_LENGTH + delimiterBytes.length) + lineSeparatorBytes.length);
         boolean firstElementInRow = true;
         for (double value : values) {
-            if (firstElementInRow) 
+            if (firstElementInRow)
                 firstElementInRow = false;
             else
-                printWriter.print(delimiter);
-            printWriter.print(value);
+                position = put(delimiterBytes, buffer, position);
+            position = formatter.format(value, buffer, position);
         }
-        printWriter.println();  // write final new line
+        position = put(lineSeparatorBytes, buffer, position);  // write final new line
     }
-    
+
     // write row that the caller has formatted into one string
     public void writeRow(String value) {
-        printWriter.println(value);
+        putString(value);
+        putBytes(lineSeparatorBytes);
     }
-    
+
     // write row of ascii values, for example, the header record
     public void writeRow(String[] values) {
         final boolean logging = false;
@@ -61,64 +114,194 @@ public class CsvWriter {
             if (firstElementInRow)
                 firstElementInRow = false;
             else
-                printWriter.print(delimiter);
-            printWriter.print(value);
+                putBytes(delimiterBytes);
+            putString(value);
         }
-        printWriter.println();  // write final new line character
+        putBytes(lineSeparatorBytes);  // write final new line character
     }
-    
+
     // write row of value from a 1D Tensor, for example, a data line
     public void writeRow(Tensor t) {
         if (t.getNDimensions() != 1)
             throw new IllegalArgumentException("t must be 1D; t=" + t);
-        boolean firstElementInRow = true;
-        for (int index = 0; index < t.getSize(0); index++) {
-            if (firstElementInRow)
-                firstElementInRow = false;
-            else
-                printWriter.print(delimiter);
-            printWriter.print(t.get(index));
+        final int numberValues = t.getSize(0);
+        reserve(numberValues * (DoubleFormatter.MAX_LENGTH + delimiterBytes.length) + lineSeparatorBytes.length);
+        for (int index = 0; index < numberValues; index++) {
+            if (index > 0)
+                position = put(delimiterBytes, buffer, position);
+            position = formatter.format(t.get(index), buffer, position);
         }
-        printWriter.println(); // write final new line character
+        position = put(lineSeparatorBytes, buffer, position); // write final new line character
     }
-    
+
     // write rows of doubles, each converted to its ascii representation
     // usually call writeRow(fieldNames) first to write the header
     public void writeRows(Tensor tensor) {
-        Log log = new Log("CsvWriter.writeRows", true);
-        if (tensor.getNDimensions() == 1)
-            writeRows1D(tensor);
-        else if (tensor.getNDimensions() == 2)
-            writeRows2D(tensor);
-        else 
-            throw new IllegalArgumentException("tensor not 1D or 1D; tensor=" + tensor);
-    }
-    
-    private void writeRows1D(Tensor tensor1D) {
-        Log log = new Log ("CsvWriter.writeRows1D", false);
-        log.format("%17.15f%n", tensor1D.get(0));
-        final int numberRows = tensor1D.getSize(0);
+        checkRows(tensor);
+        final int maxRowBytes = maxRowBytes(tensor);
+        final int numberRows = tensor.getSize(0);
         for (int rowNumber = 0; rowNumber < numberRows; rowNumber++) {
-            // printWrite.println(double) uses the E notation, so that
-            // values will not be printed correctly
-            printWriter.println(tensor1D.get(rowNumber));
+            reserve(maxRowBytes);
+            position = formatRows(tensor, rowNumber, rowNumber + 1, formatter, buffer, position);
         }
     }
-    
-    private void writeRows2D(Tensor tensor2D) {
-        final int numberRows = tensor2D.getSize(0);
-        final int numberColumns = tensor2D.getSize(1);
-        for (int rowNumber = 0; rowNumber < numberRows; rowNumber++) {
-            boolean firstElementInRow = true;
+
+    // write the rows as writeRows(tensor) does, formatting blocks of rows on numberThreads threads
+    // the blocks are written in order as they are formatted
+    public void writeRows(final Tensor tensor, int numberThreads) {
+        if (numberThreads < 1)
+            throw new IllegalArgumentException("numberThreads must be positive; numberThreads=" + numberThreads);
+        checkRows(tensor);
+        final int numberRows = tensor.getSize(0);
+        final int maxRowBytes = maxRowBytes(tensor);
+        final int rowsPerBlock = Math.max(1, BUFFER_BYTES / maxRowBytes);
+        if (numberThreads == 1 || numberRows <= rowsPerBlock) {
+            writeRows(tensor);
+            return;
+        }
+
+        flush();
+        ExecutorService executor = Executors.newFixedThreadPool(numberThreads);
+        try {
+            LinkedList<Future<ByteBuffer>> pending = new LinkedList<Future<ByteBuffer>>();
+            int nextRow = 0;
+            while (nextRow < numberRows || !pending.isEmpty()) {
+                // keep a few blocks per thread formatted ahead of the one being written
+                while (nextRow < numberRows && pending.size() < BLOCKS_PER_THREAD * numberThreads) {
+                    final int firstRow = nextRow;
+                    final int lastRow = Math.min(numberRows, firstRow + rowsPerBlock);
+                    pending.add(executor.submit(new Callable<ByteBuffer>() {
+                        @Override
+                        public ByteBuffer call() {
+                            byte[] bytes = new byte[(lastRow - firstRow) * maxRowBytes];
+                            final int length = formatRows(tensor, firstRow, lastRow, new DoubleFormatter(), bytes, 0);
+                            return ByteBuffer.wrap(bytes, 0, length);
+                        }
+                    }));
+                    nextRow = lastRow;
+                }
+                write(pending.removeFirst().get());
+            }
+        }
+        catch (InterruptedException e) {throw new RuntimeException("interrupted writing " + file + "; e=" + e);}
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException("exception writing " + file + "; e=" + e.getCause());
+        }
+        finally {executor.shutdownNow();}
+    }
+
+    // write the value as a field of the current row, as Double.toString would
+    public void writeField(double value) {
+        startField(DoubleFormatter.MAX_LENGTH);
+        position = formatter.format(value, buffer, position);
+    }
+
+    // write the value as a field of the current row, as Long.toString would
+    public void writeField(long value) {
+        startField(DoubleFormatter.MAX_LENGTH);
+        position = DoubleFormatter.format(value, buffer, position);
+    }
+
+    // write the value as a field of the current row
+    public void writeField(String value) {
+        startField(0);
+        putString(value);
+    }
+
+    // end the row of the fields written by writeField
+    public void endRow() {
+        putBytes(lineSeparatorBytes);
+        inRow = false;
+    }
+
+    ////////////////////// private
+
+    // write the delimiter if the field is not the first of its row, and make room for numberBytes more
+    private void startField(int numberBytes) {
+        reserve(delimiterBytes.length + numberBytes);
+        if (inRow)
+            position = put(delimiterBytes, buffer, position);
+        inRow = true;
+    }
+
+    private void checkRows(Tensor tensor) {
+        if (tensor.getNDimensions() != 1 && tensor.getNDimensions() != 2)
+            throw new IllegalArgumentException("tensor not 1D or 1D; tensor=" + tensor);
+    }
+
+    // return most bytes in a formatted row of the 1D or 2D tensor
+    private int maxRowBytes(Tensor tensor) {
+        final int numberColumns = (tensor.getNDimensions() == 1) ? 1 : tensor.getSize(1);
+        return numberColumns * (DoubleFormatter.MAX_LENGTH + delimiterBytes.length) + lineSeparatorBytes.length;
+    }
+
+    // format rows [firstRow, lastRow) of the 1D or 2D tensor into bytes at position; return position after them
+    // a 1D tensor has one value in each row
+    private int formatRows(Tensor tensor, int firstRow, int lastRow, DoubleFormatter formatter, byte[] bytes, int position) {
+        if (tensor.getNDimensions() == 1) {
+            for (int rowNumber = firstRow; rowNumber < lastRow; rowNumber++) {
+                position = formatter.format(tensor.get(rowNumber), bytes, position);
+                position = put(lineSeparatorBytes, bytes, position);
+            }
+            return position;
+        }
+        final int numberColumns = tensor.getSize(1);
+        for (int rowNumber = firstRow; rowNumber < lastRow; rowNumber++) {
             for (int columnNumber = 0; columnNumber < numberColumns; columnNumber++) {
-                if (firstElementInRow)
-                    firstElementInRow = false;
-                else
-                    printWriter.print(delimiter);
-                printWriter.print(tensor2D.get(rowNumber, columnNumber));
+                if (columnNumber > 0)
+                    position = put(delimiterBytes, bytes, position);
+                position = formatter.format(tensor.get(rowNumber, columnNumber), bytes, position);
             }
-            printWriter.println();
+            position = put(lineSeparatorBytes, bytes, position);
+        }
+        return position;
+    }
+
+    // make room in the buffer for numberBytes, writing it to the file if needed
+    private void reserve(int numberBytes) {
+        if (position + numberBytes <= buffer.length)
+            return;
+        flush();
+        if (numberBytes > buffer.length)
+            buffer = new byte[numberBytes];
+    }
+
+    private void putBytes(byte[] bytes) {
+        reserve(bytes.length);
+        position = put(bytes, buffer, position);
+    }
+
+    // put the characters of an ASCII string directly, otherwise encode it in the default charset
+    // a null string is written as "null", as PrintWriter.print writes it
+    private void putString(String s) {
+        if (s == null)
+            s = "null";
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) >= 128) {
+                putBytes(s.getBytes(Charset.defaultCharset()));
+                return;
+            }
+        }
+        reserve(length);
+        for (int i = 0; i < length; i++)
+            buffer[position++] = (byte) s.charAt(i);
+    }
+
+    private static int put(byte[] source, byte[] bytes, int position) {
+        System.arraycopy(source, 0, bytes, position, source.length);
+        return position + source.length;
+    }
+
+    // write all of the bytes to the file
+    private void write(ByteBuffer bytes) {
+        try {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
         }
+        catch (IOException e) {throw new RuntimeException("IOException writing " + file + "; e=" + e);}
     }
 
 }
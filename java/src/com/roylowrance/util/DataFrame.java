@@ -2,12 +2,40 @@ package com.roylowrance.util;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 // a tensor with column (feature) names
 // mimic's R's data.frame
+//
+// A DataFrame is either made from a 1D or 2D Tensor, each of whose columns holds doubles, or made a column
+// at a time from typed columns, so that an APN is held as a long and a day number as an int, not as doubles:
+// DataFrame df = new DataFrame(numberRows);
+// df.addDoubles(name, double[]);
+// df.addLongs(name, long[]);
+// df.addInts(name, int[]);
+// df.addStrings(name, String[]);           // dictionary encoded: an int code for each row, and the distinct values
+// df.addStrings(name, int[] codes, ArrayList<String> dictionary);  // already encoded
+// int type = df.getType(name);             // DataFrame.DOUBLE, LONG, INT, or STRING
+// double[] xs = df.getDoubles(name);       // the column itself, in a typed frame; otherwise a copy
+// long[] xs = df.getLongs(name);           // the column itself
+// int[] xs = df.getInts(name);             // the column itself
+// String s = df.getString(name, rowIndex);
+// int[] codes = df.getStringCodes(name);   // the index in getDictionary(name) of each row's value
+// Tensor t = df.getColumnTensor(name);     // 1D view of a DOUBLE column sharing its storage; other numeric columns are converted
+// Tensor t = df.getTensor();               // in a typed frame, a new 2D tensor of the numeric columns as doubles
+//
+// The typed columns are the arrays they were added as, so that they are neither copied nor checked for
+// loss of precision when read.
 public class DataFrame {
+    public final static int DOUBLE = 0;
+    public final static int LONG = 1;
+    public final static int INT = 2;
+    public final static int STRING = 3;
+
     private ArrayList<String> names;
-    private Tensor tensor;
+    private Tensor tensor; // null in a typed frame
+    private int numberRows;
+    private ArrayList<Column> columns; // null unless a typed frame
     
     private HashMap<String,Integer> indexOfName;
     
@@ -27,6 +55,7 @@ public class DataFrame {
 
         this.names = columnNames;
         this.tensor = tensor;
+        this.numberRows = tensor.getSize(0);
         
         // build the map from column names to column numbers
         indexOfName = new HashMap<String,Integer> ();
@@ -35,12 +64,89 @@ public class DataFrame {
         }
     }
     
+    // construct with no columns; add them with addDoubles, addLongs, addInts, and addStrings
+    public DataFrame(int numberRows) {
+        if (numberRows < 0)
+            throw new IllegalArgumentException("numberRows must not be negative; numberRows=" + numberRows);
+        this.names = new ArrayList<String>();
+        this.numberRows = numberRows;
+        this.columns = new ArrayList<Column>();
+        this.indexOfName = new HashMap<String,Integer>();
+    }
+
+    public void addDoubles(String columnName, double[] values) {
+        Column column = new Column(DOUBLE, values.length);
+        column.doubles = values;
+        add(columnName, column);
+    }
+
+    public void addLongs(String columnName, long[] values) {
+        Column column = new Column(LONG, values.length);
+        column.longs = values;
+        add(columnName, column);
+    }
+
+    public void addInts(String columnName, int[] values) {
+        Column column = new Column(INT, values.length);
+        column.ints = values;
+        add(columnName, column);
+    }
+
+    // add the values as a code for each row and the list of distinct values
+    public void addStrings(String columnName, String[] values) {
+        Column column = new Column(STRING, values.length);
+        column.ints = new int[values.length];
+        column.dictionary = new ArrayList<String>();
+        HashMap<String,Integer> codes = new HashMap<String,Integer>();
+        for (int rowIndex = 0; rowIndex < values.length; rowIndex++) {
+            Integer code = codes.get(values[rowIndex]);
+            if (code == null) {
+                code = column.dictionary.size();
+                codes.put(values[rowIndex], code);
+                column.dictionary.add(values[rowIndex]);
+            }
+            column.ints[rowIndex] = code;
+        }
+        add(columnName, column);
+    }
+
+    // add the values encoded as the index in the dictionary of each row's value
+    public void addStrings(String columnName, int[] codes, ArrayList<String> dictionary) {
+        Column column = new Column(STRING, codes.length);
+        column.ints = codes;
+        column.dictionary = dictionary;
+        for (int code : codes)
+            if (code < 0 || code >= dictionary.size())
+                throw new IllegalArgumentException("code " + code + " not in dictionary of column " + columnName);
+        add(columnName, column);
+    }
+
     public ArrayList<String> getNames() {
         return names;
     }
     
+    public int getNumberRows() {
+        return numberRows;
+    }
+
+    // return the columns as a 1D or 2D tensor
+    // in a typed frame, a new 2D tensor holding the numeric columns as doubles, which is allowed only if
+    // there are no STRING columns
     public Tensor getTensor() {
-        return tensor;
+        if (tensor != null)
+            return tensor;
+        final int numberColumns = columns.size();
+        double[] storage = new double[numberRows * numberColumns];
+        for (int columnIndex = 0; columnIndex < numberColumns; columnIndex++) {
+            Column column = columns.get(columnIndex);
+            if (column.type == STRING)
+                throw new IllegalArgumentException("column " + names.get(columnIndex) + " holds strings, not numbers");
+            for (int rowIndex = 0; rowIndex < numberRows; rowIndex++)
+                storage[rowIndex * numberColumns + columnIndex] = column.getDouble(rowIndex);
+        }
+        final int nDimensions = 2;
+        final int offset = 0;
+        return new Tensor(storage, nDimensions, offset, numberRows, numberColumns, numberColumns, 1);
     }
     
     public int getColumnIndex(String columnName) {
@@ -49,18 +155,145 @@ public class DataFrame {
         throw new IllegalArgumentException("columnName (" + columnName + ") not in DataFrame");
     }
     
+    // return DOUBLE, LONG, INT, or STRING
+    public int getType(String columnName) {
+        final int columnIndex = getColumnIndex(columnName);
+        return (columns == null) ? DOUBLE : columns.get(columnIndex).type;
+    }
+
     // return new 1D tensor with specified name
     public Tensor getColumnNamed(String columnName) {
         Log log = new Log("DataFrame.getColumnNames", false);
         final int columnNumber = this.getColumnIndex(columnName);
         log.println("columnNumber:" + columnNumber);
-        final int numberRows = tensor.getSize(0);
         Tensor result = new Tensor(numberRows);
         log.println("tensor:" + tensor);
         log.println("result:" + result);
+        if (tensor == null) {
+            Column column = numeric(columnName);
+            for (int rowNumber = 0; rowNumber < numberRows; rowNumber++)
+                result.set(rowNumber, column.getDouble(rowNumber));
+            return result;
+        }
+        for (int rowNumber = 0; rowNumber < numberRows; rowNumber++)
+            result.set(rowNumber, get(rowNumber, columnNumber));
+        return result;
+    }
+
+    // return 1D tensor holding the column
+    // the tensor shares the storage of a DOUBLE column, in a typed frame or in the tensor; the values of a
+    // LONG or INT column are copied into a new tensor
+    public Tensor getColumnTensor(String columnName) {
+        final int columnNumber = getColumnIndex(columnName);
+        final int nDimensions = 1;
+        if (tensor != null) {
+            if (tensor.getNDimensions() == 1)
+                return tensor;
+            return new Tensor(tensor.getStorage(), nDimensions, tensor.getOffset() + columnNumber * tensor.getStride(1),
+                    numberRows, 0, tensor.getStride(0), 0);
+        }
+        Column column = numeric(columnName);
+        if (column.type == DOUBLE)
+            return new Tensor(column.doubles, nDimensions, 0, numberRows, 0, 1, 0);
+        return getColumnNamed(columnName);
+    }
+
+    // return the values of a DOUBLE column, which are not copied in a typed frame
+    public double[] getDoubles(String columnName) {
+        final int columnNumber = getColumnIndex(columnName);
+        if (tensor == null)
+            return typed(columnName, DOUBLE).doubles;
+        double[] result = new double[numberRows];
         for (int rowNumber = 0; rowNumber < numberRows; rowNumber++)
-            result.set(rowNumber, tensor.get(rowNumber, columnNumber));
+            result[rowNumber] = get(rowNumber, columnNumber);
         return result;
     }
 
+    // return the values of a LONG column, which are not copied
+    public long[] getLongs(String columnName) {
+        return typed(columnName, LONG).longs;
+    }
+
+    // return the values of an INT column, which are not copied
+    public int[] getInts(String columnName) {
+        return typed(columnName, INT).ints;
+    }
+
+    public String getString(String columnName, int rowIndex) {
+        Column column = typed(columnName, STRING);
+        return column.dictionary.get(column.ints[rowIndex]);
+    }
+
+    // return the index in getDictionary(columnName) of the value of each row of a STRING column
+    public int[] getStringCodes(String columnName) {
+        return typed(columnName, STRING).ints;
+    }
+
+    // return the distinct values of a STRING column, in the order first seen
+    public List<String> getDictionary(String columnName) {
+        return typed(columnName, STRING).dictionary;
+    }
+
+    ////////////////////// private
+
+    // a typed column: a STRING column has its codes in ints
+    private static class Column {
+        public final int type;
+        public final int numberValues;
+        public double[] doubles;
+        public long[] longs;
+        public int[] ints;
+        public ArrayList<String> dictionary;
+
+        public Column(int type, int numberValues) {
+            this.type = type;
+            this.numberValues = numberValues;
+        }
+
+        public double getDouble(int rowIndex) {
+            switch (type) {
+            case DOUBLE: return doubles[rowIndex];
+            case LONG: return longs[rowIndex];
+            case INT: return ints[rowIndex];
+            default: throw new IllegalArgumentException("column of strings has no numbers");
+            }
+        }
+    }
+
+    private void add(String columnName, Column column) {
+        if (columns == null)
+            throw new IllegalArgumentException("columns can be added only to a DataFrame constructed with a number of rows");
+        if (columnName == null)
+            throw new IllegalArgumentException("columnName must not be null");
+        if (indexOfName.containsKey(columnName))
+            throw new IllegalArgumentException("columnName (" + columnName + ") already in DataFrame");
+        if (column.numberValues != numberRows)
+            throw new IllegalArgumentException("column " + columnName + " has " + column.numberValues + " values, not " + numberRows);
+        indexOfName.put(columnName, columns.size());
+        names.add(columnName);
+        columns.add(column);
+    }
+
+    // return the typed column, which must be of the type
+    private Column typed(String columnName, int type) {
+        final int columnIndex = getColumnIndex(columnName);
+        final int actualType = (columns == null) ? DOUBLE : columns.get(columnIndex).type;
+        if (actualType != type)
+            throw new IllegalArgumentException("column " + columnName + " has type " + actualType + " not " + type);
+        return columns.get(columnIndex);
+    }
+
+    // return the typed column, which must not be a STRING column
+    private Column numeric(String columnName) {
+        Column column = columns.get(getColumnIndex(columnName));
+        if (column.type == STRING)
+            throw new IllegalArgumentException("column " + columnName + " holds strings, not numbers");
+        return column;
+    }
+
+    // return value in the tensor
+    private double get(int rowNumber, int columnNumber) {
+        return (tensor.getNDimensions() == 1) ? tensor.get(rowNumber) : tensor.get(rowNumber, columnNumber);
+    }
+
 }
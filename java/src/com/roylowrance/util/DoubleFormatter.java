@@ -0,0 +1,116 @@
+package com.roylowrance.util;
+
+import java.nio.charset.Charset;
+
+// write doubles as ASCII bytes, exactly as Double.toString would write them, without creating Strings
+// and longs as Long.toString would write them
+//
+// synopsis:
+// DoubleFormatter formatter = new DoubleFormatter();  // one per thread
+// byte[] bytes = new byte[DoubleFormatter.MAX_LENGTH];
+// int end = formatter.format(x, bytes, 0);            // bytes[0, end) are Double.toString(x)
+// end = DoubleFormatter.format(n, bytes, 0);          // bytes[0, end) are Long.toString(n)
+//
+// A value that is an integer, or has at most 15 significant digits, and is in [1e-3, 1e7) in size, which
+// Double.toString writes without an exponent, is written from the shortest decimal that parses back to it:
+// its digits are found with long arithmetic, and the decimal is the one Double.toString writes. Any other
+// value, such as a distance with 17 significant digits, is appended by the JDK to a reusable StringBuilder,
+// which writes the characters of Double.toString without creating a String.
+//
+// A formatter is not thread safe; use one on each thread.
+public class DoubleFormatter {
+    public final static int MAX_LENGTH = 24; // longest Double.toString, as "-2.2250738585072014E-308"
+    private final static double MAX_SHORT_MANTISSA = 1e15; // a decimal with at most 15 digits identifies one double
+    private final static Charset ASCII = Charset.forName("US-ASCII");
+    private final static long[] POWERS_OF_TEN = new long[19];
+    private final static double[] DOUBLE_POWERS_OF_TEN = new double[19];
+    static {
+        long power = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            DOUBLE_POWERS_OF_TEN[i] = power; // exact
+            power *= 10;
+        }
+    }
+
+    private final StringBuilder builder = new StringBuilder(MAX_LENGTH);
+
+    // write Double.toString(x) to bytes at position, which must have room for MAX_LENGTH bytes
+    // return the position after the last byte written
+    public int format(double x, byte[] bytes, int position) {
+        final double magnitude = Math.abs(x);
+        if (magnitude >= 1e-3 && magnitude < 1e7) {
+            final long integerPart = (long) magnitude;
+            if (integerPart == magnitude)
+                return writeDecimal(x < 0, integerPart, 0, bytes, position);
+            // the fewest fraction digits that parse back to x; dividing by an exact power of ten rounds once,
+            // as parsing the decimal does
+            for (int fractionDigits = 1; fractionDigits < POWERS_OF_TEN.length; fractionDigits++) {
+                final double scaled = magnitude * DOUBLE_POWERS_OF_TEN[fractionDigits];
+                if (scaled >= MAX_SHORT_MANTISSA)
+                    break;
+                final long mantissa = Math.round(scaled);
+                if (mantissa / DOUBLE_POWERS_OF_TEN[fractionDigits] == magnitude)
+                    return writeDecimal(x < 0, mantissa, fractionDigits, bytes, position);
+            }
+        }
+        else if (x == 0) {
+            return writeDecimal(Double.doubleToRawLongBits(x) < 0, 0, 0, bytes, position);
+        }
+
+        builder.setLength(0);
+        builder.append(x);
+        final int length = builder.length();
+        for (int i = 0; i < length; i++)
+            bytes[position++] = (byte) builder.charAt(i);
+        return position;
+    }
+
+    // return Double.toString(x)
+    public String toString(double x) {
+        byte[] bytes = new byte[MAX_LENGTH];
+        final int length = format(x, bytes, 0);
+        return new String(bytes, 0, length, ASCII);
+    }
+
+    // write Long.toString(n) to bytes at position, which must have room for MAX_LENGTH bytes
+    // return the position after the last byte written
+    public static int format(long n, byte[] bytes, int position) {
+        if (n == Long.MIN_VALUE) {
+            // no long has its magnitude
+            final String s = Long.toString(n);
+            for (int i = 0; i < s.length(); i++)
+                bytes[position++] = (byte) s.charAt(i);
+            return position;
+        }
+        if (n < 0) {
+            bytes[position++] = '-';
+            n = -n;
+        }
+        return writeDigits(n, 1, bytes, position);
+    }
+
+    ////////////////////// private
+
+    // write the decimal mantissa * 10^-fractionDigits, with at least one digit on each side of the point
+    private static int writeDecimal(boolean negative, long mantissa, int fractionDigits, byte[] bytes, int position) {
+        if (negative)
+            bytes[position++] = '-';
+        position = writeDigits(mantissa / POWERS_OF_TEN[fractionDigits], 1, bytes, position);
+        bytes[position++] = '.';
+        return writeDigits(mantissa % POWERS_OF_TEN[fractionDigits], Math.max(fractionDigits, 1), bytes, position);
+    }
+
+    // write the digits of the non-negative value, with leading zeros to make at least minimumDigits
+    private static int writeDigits(long value, int minimumDigits, byte[] bytes, int position) {
+        int numberDigits = 1;
+        while (numberDigits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[numberDigits])
+            numberDigits++;
+        numberDigits = Math.max(numberDigits, minimumDigits);
+        for (int i = position + numberDigits - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + numberDigits;
+    }
+}
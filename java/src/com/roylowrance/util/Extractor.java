@@ -1,21 +1,49 @@
 package com.roylowrance.util;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 // extract fields as Strings from records in a csv file
 // confirm that each record has the expected number of fields
+//
+// To read many fields of many records, find the fields by name once and split each record once into
+// slices of its line, then read the fields as values without creating a String per field:
+//   Extractor extractor = new Extractor(header, "\\|");
+//   final Extractor.Field apnField = extractor.field("APN UNFORMATTED");
+//   final Extractor.Field saleAmountField = extractor.field("SALE AMOUNT");
+//   for each line:
+//     Extractor.Record record = extractor.split(line);  // checks the number of fields
+//     long apn = record.getLong(apnField);
+//     if (record.isEmpty(saleAmountField)) ...
+//     if (record.equals(codeField, "R")) ...           // compares without a substring
+//     String s = record.get(codeField);                 // allocates
+// The extractor reuses one Record, which is valid until the next call to split.
+//
+// To read the records without creating Strings, read them with a FieldTokenizer and find the fields
+// with indexOf(fieldName):
+//   Extractor extractor = new Extractor(header, "\\|");
+//   final int apnIndex = extractor.indexOf("APN UNFORMATTED");
+//   while (tokenizer.next()) { long apn = tokenizer.getLong(apnIndex); ... }
 public class Extractor {
 	private String separatorRegex = null;
+	private int literalSeparator; // the separator if it is one literal character, otherwise -1
+	private Pattern separatorPattern; // if the separator is not literal
 	private HashMap<String, Integer> indexOf = new HashMap<String,Integer>();
 	private String cachedInputLine	= null;
 	private String[] cachedFieldValues = null;
 	private Integer expectedNumberFields = null;
+	private Record record = new Record(); // returned by split
 	
 	public Extractor(final String header, final String separatorRegex) {
 		this.separatorRegex = separatorRegex;
-		String[] splitHeader = header.split(separatorRegex, -1); // -1 forces return of trailing empty fields
+		this.literalSeparator = FieldTokenizer.literalSeparator(separatorRegex);
+		if (literalSeparator < 0)
+			this.separatorPattern = Pattern.compile(separatorRegex);
+		String[] splitHeader = splitLine(header);
 		expectedNumberFields = splitHeader.length;
 		for (int count = 0; count < splitHeader.length; ++count) {
 			String fieldName = splitHeader[count];
@@ -32,10 +60,133 @@ public class Extractor {
 		}
 	}
 	
+	// a field of the records, found by name once
+	public static class Field {
+		private final int index;
+		private final String name;
+		
+		private Field(int index, String name) {
+			this.index = index;
+			this.name = name;
+		}
+		
+		public int getIndex() {return index;}
+		public String getName() {return name;}
+		
+		@Override
+		public String toString() {return "Field(" + name + "," + index + ")";}
+	}
+	
+	// the fields of one record as [start, end) offsets into its line
+	public static class Record {
+		private String line = null;
+		private int numberFields = 0;
+		private int[] starts = new int[64];
+		private int[] ends = new int[64];
+		
+		public String getLine() {return line;}
+		public int getNumberFields() {return numberFields;}
+		
+		// return field as a String; allocates
+		public String get(Field field) {
+			check(field);
+			return line.substring(starts[field.index], ends[field.index]);
+		}
+		
+		public boolean isEmpty(Field field) {
+			return length(field) == 0;
+		}
+		
+		public int length(Field field) {
+			check(field);
+			return ends[field.index] - starts[field.index];
+		}
+		
+		// return true iff the field is the value, without creating a String
+		public boolean equals(Field field, String value) {
+			return length(field) == value.length() && line.regionMatches(starts[field.index], value, 0, value.length());
+		}
+		
+		// return field as a long, as Long.valueOf would
+		public long getLong(Field field) {
+			check(field);
+			return FieldTokenizer.parseLong(line, starts[field.index], ends[field.index]);
+		}
+		
+		// return field as a double, as Double.valueOf would
+		public double getDouble(Field field) {
+			check(field);
+			return FieldTokenizer.parseDouble(line, starts[field.index], ends[field.index]);
+		}
+		
+		// return field YYYYMMDD or YYYY-MM-DD as the int YYYYMMDD
+		public int getDate(Field field) {
+			check(field);
+			return FieldTokenizer.parseDate(line, starts[field.index], ends[field.index]);
+		}
+		
+		private void check(Field field) {
+			if (field.index >= numberFields)
+				throw new NoSuchElementException("record <" + line + "> has " + numberFields + " fields; no " + field);
+		}
+		
+		private void add(int start, int end) {
+			if (numberFields == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * numberFields);
+				ends = Arrays.copyOf(ends, 2 * numberFields);
+			}
+			starts[numberFields] = start;
+			ends[numberFields] = end;
+			numberFields++;
+		}
+	}
+	
 	public void checkNumberOfFields(String record) {
 		if (expectedNumberFields == null)
 			return;
-		final int actualNumberFields = splitLine(record).length;
+		checkNumberOfFields(record, splitLine(record).length);
+	}
+	
+	// return the field named fieldName, to read from records returned by split
+	public Field field(final String fieldName) {
+		return new Field(indexOf(fieldName), fieldName);
+	}
+	
+	// return the fields of the record, found without creating Strings
+	// confirm that the record has the expected number of fields
+	// the returned record is reused by the next call to split
+	public Record split(final String line) {
+		if (line == record.line)
+			return record; // already split and checked
+		record.line = null; // in case the check fails
+		record.numberFields = 0;
+		if (literalSeparator >= 0) {
+			int start = 0;
+			int end;
+			while ((end = line.indexOf(literalSeparator, start)) >= 0) {
+				record.add(start, end);
+				start = end + 1;
+			}
+			record.add(start, line.length());
+		}
+		else {
+			// the fields of line.split(separatorRegex, -1)
+			Matcher matcher = separatorPattern.matcher(line);
+			int start = 0;
+			while (matcher.find()) {
+				if (matcher.end() == 0)
+					continue; // a zero-width match at the beginning gives no leading empty field
+				record.add(start, matcher.start());
+				start = matcher.end();
+			}
+			record.add(start, line.length());
+		}
+		checkNumberOfFields(line, record.numberFields);
+		record.line = line;
+		return record;
+	}
+	
+	private void checkNumberOfFields(String record, int actualNumberFields) {
 		if (actualNumberFields != expectedNumberFields) {
 			throw new Exception("record <" + record + 
 					            "> has " + actualNumberFields + 
@@ -43,6 +194,14 @@ public class Extractor {
 		}		
 	}
 	
+	// return index of fieldName in the header, which is the index of its field in each record
+	public int indexOf(final String fieldName) {
+		Integer result = indexOf.get(fieldName);
+		if (result == null)
+			throw new RuntimeException("fieldName (" + fieldName + ") not in the header");
+		return result;
+	}
+	
 	// extract fieldName from inputLine
 	// confirm that inputLine has the expected number of fields
 	public String extract(final String inputLine, final String fieldName) {
@@ -52,16 +211,16 @@ public class Extractor {
 			log.println("inputLine:" + inputLine);
 			log.println("fieldName:" + fieldName);
 		}
-		if (cachedInputLine == null || !cachedInputLine.equals(inputLine))
+		if (cachedInputLine != inputLine && (cachedInputLine == null || !cachedInputLine.equals(inputLine)))
 			loadCache(inputLine);
-		if (!indexOf.containsKey(fieldName)) {
+		final Integer index = indexOf.get(fieldName);
+		if (index == null) {
 			System.out.println("header fields:");
 			for (String key : indexOf.keySet())
 				System.out.println(" " + key);
 			System.out.println("fieldName:" + fieldName);
 			throw new RuntimeException("fieldName (" + fieldName + ") not in the header");
 		}
-		final int index = indexOf.get(fieldName);
 		if (index >= cachedFieldValues.length) {
 			// the input record does not have enough fields
 			System.out.println("inputLine:" + inputLine);
@@ -80,13 +239,30 @@ public class Extractor {
 
 	// load cached input line and field values; confirm that the input line had the expected number of fields
 	private void loadCache(final String line) {
-		cachedInputLine = new String(line);  // in case caller mutates line
-		cachedFieldValues = splitLine(cachedInputLine);
-		checkNumberOfFields(line);
+		cachedInputLine = null; // in case the check fails
+		cachedFieldValues = splitLine(line);
+		checkNumberOfFields(line, cachedFieldValues.length);
+		cachedInputLine = line;
 	}
 	
 	private String[] splitLine(final String line) {
-		return line.split(separatorRegex, -1); // -1 forces return of trailing empty fields
+		if (literalSeparator < 0)
+			return line.split(separatorRegex, -1); // -1 forces return of trailing empty fields
+		
+		// without the regex, also returning trailing empty fields
+		int numberFields = 1;
+		for (int i = 0; i < line.length(); i++)
+			if (line.charAt(i) == literalSeparator)
+				numberFields++;
+		String[] result = new String[numberFields];
+		int start = 0;
+		for (int field = 0; field < numberFields - 1; field++) {
+			final int end = line.indexOf(literalSeparator, start);
+			result[field] = line.substring(start, end);
+			start = end + 1;
+		}
+		result[numberFields - 1] = line.substring(start);
+		return result;
 	}
 
 }
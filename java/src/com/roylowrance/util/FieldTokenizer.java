@@ -0,0 +1,364 @@
+package com.roylowrance.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+// read the lines of a file of delimited fields as bytes and parse the fields without creating Strings
+//
+// synopsis:
+// FieldTokenizer tokenizer = new FieldTokenizer(filePath, '|');
+// while (tokenizer.next()) {                 // advance to the next line
+//     int n = tokenizer.getNumberFields();
+//     double x = tokenizer.getDouble(0);     // same value as Double.valueOf(field)
+//     long apn = tokenizer.getLong(1);       // same value as Long.valueOf(field)
+//     int date = tokenizer.getDate(2);       // YYYYMMDD from YYYYMMDD or YYYY-MM-DD
+//     String s = tokenizer.getString(3);     // allocates
+//     String line = tokenizer.getLine();     // allocates
+// }
+// tokenizer.close();
+//
+// new FieldTokenizer(byteBuffer, '|') reads the remaining bytes of a buffer, such as a chunk of a memory
+// mapped file (see ParallelLineReader), instead of a file. A file whose name ends with .gz is decompressed.
+//
+// The lines and fields are those that LineScanner and String.split(regex, -1) would produce: a line ends
+// at \n, \r, or \r\n, and trailing empty fields are kept. The delimiter must be a single byte character,
+// which is never part of a multi-byte UTF-8 character. Strings are decoded with the default charset, as
+// FileReader does.
+//
+// A double with at most 15 or so significant digits and a decimal exponent of at most 22 in size, which
+// covers the numbers our programs write, is converted exactly from its digits; any other text is passed
+// to Double.parseDouble, so every result is the same as that of Double.valueOf. The static parsers take
+// either bytes or characters, such as a field of a String found by Extractor.split, without a substring.
+public class FieldTokenizer {
+    private final static int INITIAL_BUFFER_BYTES = 1 << 16;
+    private final static long MAX_EXACT_MANTISSA = 1L << 53;
+    private final static double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private final static Charset ASCII = Charset.forName("US-ASCII");
+
+    private final String filePath; // or a description of the bytes
+    private final InputStream inputStream;
+    private final byte delimiter;
+    private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+    private Bytes bufferChars = new Bytes(buffer); // the buffer as seen by the parsers
+    private int bufferStart = 0; // first byte not yet returned in a line
+    private int bufferEnd = 0;   // one past the last byte read
+    private boolean endOfFile = false;
+    private boolean hasLine = false;
+    private int lineStart;
+    private int lineEnd;
+    private boolean isSplit = false; // fields are found when first used
+    private int[] fieldStarts = new int[64];
+    private int[] fieldEnds = new int[64];
+    private int numberFields = 0;
+    private int numberLinesRead = 0;
+
+    public FieldTokenizer(String filePath, char delimiter) {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath must not be null");
+        this.filePath = filePath;
+        this.delimiter = checkDelimiter(delimiter);
+        this.inputStream = ReadAheadInputStream.openFile(filePath);
+    }
+
+    // read the bytes from the buffer's position to its limit
+    public FieldTokenizer(final ByteBuffer bytes, char delimiter) {
+        if (bytes == null)
+            throw new IllegalArgumentException("bytes must not be null");
+        this.filePath = "byte buffer";
+        this.delimiter = checkDelimiter(delimiter);
+        this.inputStream = new InputStream() {
+            @Override
+            public int read() {
+                return bytes.hasRemaining() ? (bytes.get() & 0xff) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!bytes.hasRemaining())
+                    return -1;
+                final int n = Math.min(len, bytes.remaining());
+                bytes.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    // advance to the next line; return false if there is none
+    public boolean next() {
+        int scan = bufferStart;
+        while (true) {
+            for (; scan < bufferEnd; scan++) {
+                final byte b = buffer[scan];
+                if (b == '\n' || b == '\r')
+                    break;
+            }
+            final boolean found = scan < bufferEnd;
+            // a \r at the end of the buffer may be followed by a \n not yet read
+            if (found && !(buffer[scan] == '\r' && scan + 1 == bufferEnd && !endOfFile))
+                break;
+            if (endOfFile) {
+                if (bufferStart == bufferEnd) {
+                    hasLine = false;
+                    numberFields = 0;
+                    return false;
+                }
+                break; // the last line has no line end
+            }
+            scan -= fill();
+        }
+
+        lineStart = bufferStart;
+        lineEnd = scan;
+        bufferStart = scan;
+        if (bufferStart < bufferEnd) {
+            bufferStart += (buffer[bufferStart] == '\r' && bufferStart + 1 < bufferEnd && buffer[bufferStart + 1] == '\n') ? 2 : 1;
+        }
+        hasLine = true;
+        isSplit = false;
+        numberLinesRead++;
+        return true;
+    }
+
+    // return number of fields in the current line
+    public int getNumberFields() {
+        split();
+        return numberFields;
+    }
+
+    // return number of lines read
+    public int getNumberLinesRead() {
+        return numberLinesRead;
+    }
+
+    // return true iff the field is empty
+    public boolean isEmpty(int fieldIndex) {
+        check(fieldIndex);
+        return fieldStarts[fieldIndex] == fieldEnds[fieldIndex];
+    }
+
+    // return field as a double, as Double.valueOf would
+    public double getDouble(int fieldIndex) {
+        check(fieldIndex);
+        return parseDouble(bufferChars, fieldStarts[fieldIndex], fieldEnds[fieldIndex]);
+    }
+
+    // return field as a long, as Long.valueOf would
+    public long getLong(int fieldIndex) {
+        check(fieldIndex);
+        return parseLong(bufferChars, fieldStarts[fieldIndex], fieldEnds[fieldIndex]);
+    }
+
+    // return field YYYYMMDD or YYYY-MM-DD as the int YYYYMMDD
+    public int getDate(int fieldIndex) {
+        check(fieldIndex);
+        return parseDate(bufferChars, fieldStarts[fieldIndex], fieldEnds[fieldIndex]);
+    }
+
+    // return field as a String
+    public String getString(int fieldIndex) {
+        check(fieldIndex);
+        return new String(buffer, fieldStarts[fieldIndex], fieldEnds[fieldIndex] - fieldStarts[fieldIndex], Charset.defaultCharset());
+    }
+
+    // return current line as a String, without its line end
+    public String getLine() {
+        if (!hasLine)
+            throw new NoSuchElementException("no current line; call next()");
+        return new String(buffer, lineStart, lineEnd - lineStart, Charset.defaultCharset());
+    }
+
+    public void close() {
+        try {inputStream.close();}
+        catch (IOException e) {throw new RuntimeException("IOException closing " + filePath + "; e=" + e);}
+    }
+
+    // return the double in bytes[start, end), as Double.valueOf would
+    public static double parseDouble(byte[] bytes, int start, int end) {
+        return parseDouble(new Bytes(bytes), start, end);
+    }
+
+    // return the double in s[start, end), as Double.valueOf would
+    public static double parseDouble(CharSequence s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int numberDigits = 0;
+        boolean exact = true;
+        for (; i < end && isDigit(s.charAt(i)); i++, numberDigits++) {
+            mantissa = mantissa * 10 + (s.charAt(i) - '0');
+            exact &= mantissa <= MAX_EXACT_MANTISSA;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            for (i++; i < end && isDigit(s.charAt(i)); i++, numberDigits++) {
+                mantissa = mantissa * 10 + (s.charAt(i) - '0');
+                exact &= mantissa <= MAX_EXACT_MANTISSA;
+                exponent--;
+            }
+        }
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E') && numberDigits > 0) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                negativeExponent = s.charAt(i) == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            int numberExponentDigits = 0;
+            for (; i < end && isDigit(s.charAt(i)); i++, numberExponentDigits++)
+                explicitExponent = Math.min(explicitExponent * 10 + (s.charAt(i) - '0'), 1000);
+            exact &= numberExponentDigits > 0;
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (!exact || i != end || numberDigits == 0 || exponent < -22 || exponent > 22)
+            return Double.parseDouble(s.subSequence(start, end).toString());
+
+        // the mantissa and power of ten are exact, so one rounding gives the nearest double
+        double result = mantissa;
+        result = (exponent < 0) ? result / POWERS_OF_TEN[-exponent] : result * POWERS_OF_TEN[exponent];
+        return negative ? -result : result;
+    }
+
+    // return the long in bytes[start, end), as Long.valueOf would
+    public static long parseLong(byte[] bytes, int start, int end) {
+        return parseLong(new Bytes(bytes), start, end);
+    }
+
+    // return the long in s[start, end), as Long.valueOf would
+    public static long parseLong(CharSequence s, int start, int end) {
+        int i = start;
+        final boolean negative = i < end && s.charAt(i) == '-';
+        if (negative)
+            i++;
+        long result = 0;
+        for (; i < end && isDigit(s.charAt(i)); i++) {
+            if (result > (Long.MAX_VALUE - 9) / 10)
+                break; // may overflow
+            result = result * 10 + (s.charAt(i) - '0');
+        }
+        if (i != end || i == start || (negative && i == start + 1))
+            return Long.parseLong(s.subSequence(start, end).toString());
+        return negative ? -result : result;
+    }
+
+    // return the date YYYYMMDD or YYYY-MM-DD in bytes[start, end) as the int YYYYMMDD
+    public static int parseDate(byte[] bytes, int start, int end) {
+        return parseDate(new Bytes(bytes), start, end);
+    }
+
+    // return the date YYYYMMDD or YYYY-MM-DD in s[start, end) as the int YYYYMMDD
+    public static int parseDate(CharSequence s, int start, int end) {
+        final int length = end - start;
+        final boolean dashed = length == 10 && s.charAt(start + 4) == '-' && s.charAt(start + 7) == '-';
+        if (length != 8 && !dashed)
+            throw new IllegalArgumentException("not a date YYYYMMDD or YYYY-MM-DD: " + s.subSequence(start, end));
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            if (dashed && (i == start + 4 || i == start + 7))
+                continue;
+            if (!isDigit(s.charAt(i)))
+                throw new IllegalArgumentException("not a date YYYYMMDD or YYYY-MM-DD: " + s.subSequence(start, end));
+            result = result * 10 + (s.charAt(i) - '0');
+        }
+        return result;
+    }
+
+    // return the character matched by the regex if it matches exactly one literal character, otherwise -1
+    // ex: "\\|" and "," are literal; "\\s+" and "[,;]" are not
+    public static int literalSeparator(String regex) {
+        if (regex == null)
+            throw new IllegalArgumentException("regex must not be null");
+        final String metacharacters = "\\[](){}.*+?^$|";
+        if (regex.length() == 1 && metacharacters.indexOf(regex.charAt(0)) < 0)
+            return regex.charAt(0);
+        if (regex.length() == 2 && regex.charAt(0) == '\\' && metacharacters.indexOf(regex.charAt(1)) >= 0)
+            return regex.charAt(1);
+        return -1;
+    }
+
+    ////////////////////// private
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // view bytes holding ASCII text as characters, so that the parsers serve both bytes and Strings
+    private static class Bytes implements CharSequence {
+        private final byte[] bytes;
+
+        public Bytes(byte[] bytes) {this.bytes = bytes;}
+
+        public char charAt(int index) {return (char) (bytes[index] & 0xff);}
+        public int length() {return bytes.length;}
+        public CharSequence subSequence(int start, int end) {return new String(bytes, start, end - start, ASCII);}
+        @Override
+        public String toString() {return new String(bytes, ASCII);}
+    }
+
+    private void check(int fieldIndex) {
+        split();
+        if (fieldIndex < 0 || fieldIndex >= numberFields)
+            throw new NoSuchElementException("line " + numberLinesRead + " has " + numberFields + " fields; fieldIndex=" + fieldIndex);
+    }
+
+    private static byte checkDelimiter(char delimiter) {
+        if (delimiter >= 128 || delimiter == '\n' || delimiter == '\r')
+            throw new IllegalArgumentException("delimiter must be a single byte character other than a line end; delimiter=" + delimiter);
+        return (byte) delimiter;
+    }
+
+    // find the fields of the current line, if not yet found
+    private void split() {
+        if (isSplit || !hasLine)
+            return;
+        isSplit = true;
+        numberFields = 0;
+        int start = lineStart;
+        for (int i = lineStart; i <= lineEnd; i++) {
+            if (i == lineEnd || buffer[i] == delimiter) {
+                if (numberFields == fieldStarts.length) {
+                    fieldStarts = Arrays.copyOf(fieldStarts, 2 * numberFields);
+                    fieldEnds = Arrays.copyOf(fieldEnds, 2 * numberFields);
+                }
+                fieldStarts[numberFields] = start;
+                fieldEnds[numberFields] = i;
+                numberFields++;
+                start = i + 1;
+            }
+        }
+    }
+
+    // move the unreturned bytes to the front of the buffer, growing it if they fill it, and read more
+    // return number of bytes the unreturned bytes moved toward the front
+    private int fill() {
+        final int shift = bufferStart;
+        final int remaining = bufferEnd - bufferStart;
+        if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            bufferChars = new Bytes(buffer);
+        }
+        else
+            System.arraycopy(buffer, bufferStart, buffer, 0, remaining);
+        bufferStart = 0;
+        bufferEnd = remaining;
+        try {
+            final int numberRead = inputStream.read(buffer, bufferEnd, buffer.length - bufferEnd);
+            if (numberRead < 0)
+                endOfFile = true;
+            else
+                bufferEnd += numberRead;
+        }
+        catch (IOException e) {throw new RuntimeException("IOException reading " + filePath + "; e=" + e);}
+        return shift;
+    }
+}
@@ -1,25 +1,35 @@
 package com.roylowrance.util;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 
 // like a Scanner, but only handle lines
 // this class was designed and implemented to work around a bug in java.util.Scanner
 // the bug causes large files (more than a few hundred thousand lines) to be truncated before end of file
+//
+// A file whose name ends with .gz is decompressed as it is read. With readAhead, the file is read (and
+// decompressed) on a background thread into large buffers while the lines already read are being used;
+// see ReadAheadInputStream. The characters are decoded with the default charset, as FileReader does.
 public class LineScanner {
+	private final static int READ_AHEAD_CHARS = 1 << 16;
+	
 	private BufferedReader bufferedReader;
 	private String nextLine;
 	private int numberLinesRead = 0;
 	
 	public LineScanner(String filePath) {
-		try {
-		    bufferedReader = new BufferedReader(new FileReader (new File(filePath)));
-		}
-	    //catch (IOException e)           {throw new RuntimeException("IOException e =" + e);}
-		catch (FileNotFoundException e) {throw new RuntimeException("file " + filePath + " not found; e=" + e);}
+		this(filePath, false);
+	}
+	
+	// if readAhead, read the file on a background thread
+	public LineScanner(String filePath, boolean readAhead) {
+		InputStream inputStream = ReadAheadInputStream.openFile(filePath);
+		if (readAhead)
+			bufferedReader = new BufferedReader(new InputStreamReader(new ReadAheadInputStream(inputStream, filePath)), READ_AHEAD_CHARS);
+		else
+			bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
 
 		nextLine = null;
 	}
@@ -0,0 +1,154 @@
+package com.roylowrance.util;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// split a file of lines into chunks at line ends, memory map each chunk, and parse the chunks on several
+// threads, returning the result of each chunk in the order of the chunks in the file
+//
+// synopsis:
+// ParallelLineReader reader = new ParallelLineReader(filePath, '|', numberThreads);
+// String header = reader.getFirstLine();
+// List<R> results = reader.parse(new ParallelLineReader.ChunkParser<R>() {
+//     public R parse(FieldTokenizer lines, int chunkIndex) {
+//         while (lines.next()) {...}          // the lines of the chunk, in file order
+//         return result;
+//     }
+// }, skipFirstLine);                          // if true, the first line is in no chunk
+// reader.close();
+//
+// The chunks end just after a \n, so lines must end with \n or \r\n. The file is split into several chunks
+// per thread, so that threads that finish their chunks early parse more of them. The parser is called on
+// several threads at once, one chunk per call, so it must not share unsynchronized state across calls.
+public class ParallelLineReader {
+    private final static long MIN_CHUNK_BYTES = 1 << 20;
+    private final static long MAX_CHUNK_BYTES = 1 << 30; // a mapping holds fewer than 2^31 bytes
+    private final static int CHUNKS_PER_THREAD = 4;
+
+    private final String filePath;
+    private final char delimiter;
+    private final int numberThreads;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileLength;
+    private final long firstLineEnd; // offset of the byte after the first line's \n
+    private final String firstLine;
+
+    // the parser of one chunk
+    public interface ChunkParser<R> {
+        public R parse(FieldTokenizer lines, int chunkIndex);
+    }
+
+    public ParallelLineReader(String filePath, char delimiter, int numberThreads) {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath must not be null");
+        if (numberThreads < 1)
+            throw new IllegalArgumentException("numberThreads must be positive; numberThreads=" + numberThreads);
+        this.filePath = filePath;
+        this.delimiter = delimiter;
+        this.numberThreads = numberThreads;
+        try {
+            this.file = new RandomAccessFile(filePath, "r");
+            this.channel = file.getChannel();
+            this.fileLength = channel.size();
+            this.firstLineEnd = nextLineStart(0);
+        }
+        catch (FileNotFoundException e) {throw new RuntimeException("file " + filePath + " not found; e=" + e);}
+        catch (IOException e) {throw new RuntimeException("IOException opening " + filePath + "; e=" + e);}
+        FieldTokenizer firstLines = new FieldTokenizer(map(0, firstLineEnd), delimiter);
+        this.firstLine = firstLines.next() ? firstLines.getLine() : null;
+    }
+
+    // return the first line, without its line end; null if the file is empty
+    public String getFirstLine() {
+        return firstLine;
+    }
+
+    // return the result of parsing each chunk, in file order
+    public <R> List<R> parse(final ChunkParser<R> parser, boolean skipFirstLine) {
+        if (parser == null)
+            throw new IllegalArgumentException("parser must not be null");
+        final long[] boundaries = chunkBoundaries(skipFirstLine ? firstLineEnd : 0);
+        ExecutorService executor = Executors.newFixedThreadPool(numberThreads);
+        try {
+            List<Future<R>> futures = new ArrayList<Future<R>>();
+            for (int chunk = 0; chunk < boundaries.length - 1; chunk++) {
+                final int chunkIndex = chunk;
+                futures.add(executor.submit(new Callable<R>() {
+                    @Override
+                    public R call() {
+                        return parser.parse(new FieldTokenizer(map(boundaries[chunkIndex], boundaries[chunkIndex + 1]), delimiter), chunkIndex);
+                    }
+                }));
+            }
+            List<R> result = new ArrayList<R>(futures.size());
+            for (Future<R> future : futures)
+                result.add(future.get());
+            return result;
+        }
+        catch (InterruptedException e) {throw new RuntimeException("interrupted parsing " + filePath + "; e=" + e);}
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException("exception parsing " + filePath + "; e=" + e.getCause());
+        }
+        finally {executor.shutdownNow();}
+    }
+
+    public void close() {
+        try {file.close();}
+        catch (IOException e) {throw new RuntimeException("IOException closing " + filePath + "; e=" + e);}
+    }
+
+    ////////////////////// private
+
+    // return the offsets of the first byte of each chunk of the file from start, followed by the file length
+    private long[] chunkBoundaries(long start) {
+        final long length = fileLength - start;
+        long numberChunks = Math.min(numberThreads * CHUNKS_PER_THREAD, (length + MIN_CHUNK_BYTES - 1) / MIN_CHUNK_BYTES);
+        numberChunks = Math.max(numberChunks, (length + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+        numberChunks = Math.max(numberChunks, 1);
+        long[] result = new long[(int) numberChunks + 1];
+        result[0] = start;
+        try {
+            for (int chunk = 1; chunk < numberChunks; chunk++)
+                result[chunk] = Math.max(result[chunk - 1], nextLineStart(start + length * chunk / numberChunks - 1));
+        }
+        catch (IOException e) {throw new RuntimeException("IOException reading " + filePath + "; e=" + e);}
+        result[(int) numberChunks] = fileLength;
+        return result;
+    }
+
+    // return offset just after the first \n at or after position; the file length if there is none
+    private long nextLineStart(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < fileLength) {
+            buffer.clear();
+            final int numberRead = channel.read(buffer, position);
+            if (numberRead <= 0)
+                break;
+            for (int i = 0; i < numberRead; i++)
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+            position += numberRead;
+        }
+        return fileLength;
+    }
+
+    private ByteBuffer map(long start, long end) {
+        if (end - start > Integer.MAX_VALUE)
+            throw new RuntimeException("a line of " + filePath + " is too long to map; start=" + start + " end=" + end);
+        try {return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);}
+        catch (IOException e) {throw new RuntimeException("IOException mapping " + filePath + "; e=" + e);}
+    }
+}
@@ -0,0 +1,175 @@
+package com.roylowrance.util;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+// read an input stream on a background thread into large buffers, ahead of the reader, so that reading
+// the file (and decompressing it) overlaps parsing what has been read
+//
+// synopsis:
+// InputStream in = ReadAheadInputStream.openFile(filePath);            // decompressed if filePath ends in .gz
+// InputStream in = new ReadAheadInputStream(ReadAheadInputStream.openFile(filePath), filePath);
+// in.read(bytes, offset, length);
+// in.close();                                                         // stops the thread and closes the source
+//
+// The background thread fills a buffer at a time from the source and hands it to the reader; the reader
+// hands back each buffer it has finished, so NUMBER_BUFFERS buffers are allocated for the whole stream.
+// An IOException on the background thread is thrown by the reader's next read.
+public class ReadAheadInputStream extends InputStream {
+    public final static int BUFFER_BYTES = 1 << 22;
+    private final static int NUMBER_BUFFERS = 4;
+    private final static int GZIP_BUFFER_BYTES = 1 << 16;
+    private final static String GZIP_SUFFIX = ".gz";
+
+    private final String description;
+    private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<Chunk>(NUMBER_BUFFERS + 1); // + the end
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<byte[]>(NUMBER_BUFFERS);
+    private final Thread thread;
+    private Chunk current = null;
+    private int position = 0; // in current of next byte to read
+    private boolean closed = false;
+
+    // bytes read from the source; the last chunk has end set, and possibly error
+    private static class Chunk {
+        public final byte[] bytes;
+        public final int length;
+        public final boolean end;
+        public final IOException error;
+
+        public Chunk(byte[] bytes, int length, boolean end, IOException error) {
+            this.bytes = bytes;
+            this.length = length;
+            this.end = end;
+            this.error = error;
+        }
+    }
+
+    // read source on a background thread; description names the source in messages
+    public ReadAheadInputStream(final InputStream source, String description) {
+        if (source == null)
+            throw new IllegalArgumentException("source must not be null");
+        this.description = description;
+        for (int i = 0; i < NUMBER_BUFFERS; i++)
+            free.add(new byte[BUFFER_BYTES]);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final byte[] bytes = free.take();
+                        final int length = fill(source, bytes);
+                        if (length > 0)
+                            filled.put(new Chunk(bytes, length, false, null));
+                        if (length < bytes.length) {
+                            filled.put(new Chunk(null, 0, true, null));
+                            return;
+                        }
+                    }
+                }
+                catch (InterruptedException e) {} // closed
+                catch (IOException e) {
+                    // there is room in filled for the end, since the reader holds or returns the other buffers
+                    filled.offer(new Chunk(null, 0, true, e));
+                }
+                finally {
+                    try {source.close();}
+                    catch (IOException e) {} // nothing more is read
+                }
+            }
+        }, "read ahead " + description);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // return an input stream reading the file, decompressing it if its name ends with .gz
+    public static InputStream openFile(String filePath) {
+        if (filePath == null)
+            throw new IllegalArgumentException("filePath must not be null");
+        InputStream file;
+        try {file = new FileInputStream(filePath);}
+        catch (FileNotFoundException e) {throw new RuntimeException("file " + filePath + " not found; e=" + e);}
+        if (!isGzip(filePath))
+            return file;
+        try {return new GZIPInputStream(file, GZIP_BUFFER_BYTES);}
+        catch (IOException e) {
+            try {file.close();}
+            catch (IOException e2) {}
+            throw new RuntimeException("IOException opening compressed file " + filePath + "; e=" + e);
+        }
+    }
+
+    // return true iff the file is read with openFile as a gzip file
+    public static boolean isGzip(String filePath) {
+        return filePath.endsWith(GZIP_SUFFIX);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureBytes())
+            return -1;
+        return current.bytes[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!ensureBytes())
+            return -1;
+        final int n = Math.min(len, current.length - position);
+        System.arraycopy(current.bytes, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (current == null || current.end) ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        thread.interrupt();
+        try {thread.join();}
+        catch (InterruptedException e) {throw new InterruptedIOException("interrupted closing " + description);}
+    }
+
+    ////////////////////// private
+
+    // make current have a byte to read; return false at the end of the stream
+    private boolean ensureBytes() throws IOException {
+        if (closed)
+            throw new IOException("stream closed; " + description);
+        while (current == null || (!current.end && position == current.length)) {
+            if (current != null)
+                free.add(current.bytes);
+            try {current = filled.take();}
+            catch (InterruptedException e) {throw new InterruptedIOException("interrupted reading " + description);}
+            position = 0;
+        }
+        if (current.error != null)
+            throw new IOException("IOException reading " + description + "; e=" + current.error, current.error);
+        return !current.end;
+    }
+
+    // read from source until bytes is full or the source ends; return number of bytes read
+    private static int fill(InputStream source, byte[] bytes) throws IOException {
+        int length = 0;
+        while (length < bytes.length) {
+            final int n = source.read(bytes, length, bytes.length - length);
+            if (n < 0)
+                break;
+            length += n;
+        }
+        return length;
+    }
+}
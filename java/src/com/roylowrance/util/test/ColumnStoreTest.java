@@ -0,0 +1,193 @@
+package com.roylowrance.util.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import com.roylowrance.util.ColumnStoreReader;
+import com.roylowrance.util.ColumnStoreWriter;
+import com.roylowrance.util.DataFrame;
+import com.roylowrance.util.Tensor;
+
+public class ColumnStoreTest {
+    private final static String DIR = "/home/roy/temp_files/";
+
+    // write columns x (doubles), apn (longs), and day (ints) with numberRows rows
+    private String writeStore(String fileName, int numberRows) {
+        String filePath = DIR + fileName;
+        ColumnStoreWriter writer = new ColumnStoreWriter(filePath, numberRows);
+        double[] x = new double[numberRows];
+        long[] apn = new long[numberRows];
+        int[] day = new int[numberRows];
+        for (int i = 0; i < numberRows; i++) {
+            x[i] = i / 3.0 - 10;
+            apn[i] = 8106020009L + i;
+            day[i] = 74516 + 7 * i;
+        }
+        writer.writeDoubles("x", x);
+        writer.writeLongs("apn", apn);
+        writer.writeInts("day", day);
+        writer.close();
+        return filePath;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final int numberRows = 1001;
+        ColumnStoreReader reader = new ColumnStoreReader(writeStore("ColumnStoreTestRoundTrip.columns", numberRows));
+        assertEquals(numberRows, reader.getNumberRows());
+        assertEquals(Arrays.asList("x", "apn", "day"), reader.getColumnNames());
+        assertTrue(reader.has("apn"));
+        assertFalse(reader.has("y"));
+        assertEquals(ColumnStoreWriter.DOUBLE, reader.getType("x"));
+        assertEquals(ColumnStoreWriter.LONG, reader.getType("apn"));
+        assertEquals(ColumnStoreWriter.INT, reader.getType("day"));
+
+        Tensor x = reader.readColumn("x");
+        assertEquals(1, x.getNDimensions());
+        assertEquals(numberRows, x.getSize(0));
+        long[] apn = reader.readLongs("apn");
+        int[] day = reader.readInts("day");
+        Tensor dayTensor = reader.readColumn("day");
+        for (int i = 0; i < numberRows; i++) {
+            assertEquals(i / 3.0 - 10, x.get(i), 0);
+            assertEquals(8106020009L + i, apn[i]);
+            assertEquals(74516 + 7 * i, day[i]);
+            assertEquals(74516 + 7 * i, dayTensor.get(i), 0);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testProjection() {
+        ColumnStoreReader reader = new ColumnStoreReader(writeStore("ColumnStoreTestProjection.columns", 5));
+        DataFrame dataFrame = reader.readColumns("day", "x");
+        assertEquals(Arrays.asList("day", "x"), dataFrame.getNames());
+        Tensor t = dataFrame.getTensor();
+        assertEquals(2, t.getNDimensions());
+        assertEquals(5, t.getSize(0));
+        assertEquals(2, t.getSize(1));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(74516 + 7 * i, t.get(i, 0), 0);
+            assertEquals(i / 3.0 - 10, t.get(i, 1), 0);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testReadFrame() {
+        ColumnStoreReader reader = new ColumnStoreReader(writeStore("ColumnStoreTestReadFrame.columns", 5));
+        DataFrame dataFrame = reader.readFrame("apn", "x", "day");
+        assertEquals(Arrays.asList("apn", "x", "day"), dataFrame.getNames());
+        assertEquals(DataFrame.LONG, dataFrame.getType("apn"));
+        assertEquals(DataFrame.DOUBLE, dataFrame.getType("x"));
+        assertEquals(DataFrame.INT, dataFrame.getType("day"));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(8106020009L + i, dataFrame.getLongs("apn")[i]);
+            assertEquals(i / 3.0 - 10, dataFrame.getDoubles("x")[i], 0);
+            assertEquals(74516 + 7 * i, dataFrame.getInts("day")[i]);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testStatistics() {
+        final int numberRows = 100;
+        ColumnStoreReader reader = new ColumnStoreReader(writeStore("ColumnStoreTestStatistics.columns", numberRows));
+        for (String name : reader.getColumnNames()) {
+            Tensor column = reader.readColumn(name);
+            assertEquals(Tensor.mean(column), reader.getMean(name), 0);
+            assertEquals(Tensor.std(column), reader.getStandardDeviation(name), 1e-12 * Tensor.std(column));
+            assertEquals(column.get(0), reader.getMin(name), 0);
+            assertEquals(column.get(numberRows - 1), reader.getMax(name), 0);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        ColumnStoreWriter writer = new ColumnStoreWriter(DIR + "ColumnStoreTestErrors.columns", 2);
+        try {
+            writer.writeDoubles("x", new double[3]);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {}
+        writer.writeDoubles("x", new double[2]);
+        try {
+            writer.writeInts("x", new int[2]);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {}
+        writer.close();
+
+        ColumnStoreReader reader = new ColumnStoreReader(DIR + "ColumnStoreTestErrors.columns");
+        try {
+            reader.readLongs("x");
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {}
+        try {
+            reader.readColumn("y");
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {}
+        reader.close();
+
+        String filePath = DIR + "ColumnStoreTestNotAStore.columns";
+        FileWriter fileWriter = new FileWriter(new File(filePath));
+        fileWriter.write("a|b\n1|2\n3|4\n5|6\n7|8\n9|10\n11|12\n");
+        fileWriter.close();
+        try {
+            new ColumnStoreReader(filePath);
+            fail("expected RuntimeException");
+        }
+        catch (RuntimeException e) {}
+    }
+
+    @Test // a column past the first 2 GB of the file is read; the file is sparse, so this takes no disk
+    public void testLargeOffsets() throws IOException {
+        final String filePath = DIR + "ColumnStoreTestLargeOffsets.columns";
+        final long columnOffset = 3L << 30;
+        final int numberRows = 3;
+        final byte[] name = "x".getBytes("UTF-8");
+        final long directoryOffset = columnOffset + 4 * numberRows;
+
+        ByteBuffer buffer = ByteBuffer.allocate(1000).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(ColumnStoreWriter.MAGIC);
+        buffer.putInt(ColumnStoreWriter.VERSION);
+        buffer.putInt(numberRows);
+        buffer.putInt(1);
+        buffer.putLong(directoryOffset);
+        buffer.putLong(0);
+        RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+        file.setLength(0);
+        file.write(buffer.array(), 0, buffer.position());
+
+        buffer.clear();
+        for (int i = 0; i < numberRows; i++)
+            buffer.putInt(10 + i);
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.put(ColumnStoreWriter.INT);
+        buffer.putLong(columnOffset);
+        for (int i = 0; i < 4; i++)
+            buffer.putDouble(0);
+        file.seek(columnOffset);
+        file.write(buffer.array(), 0, buffer.position());
+        file.close();
+
+        ColumnStoreReader reader = new ColumnStoreReader(filePath);
+        assertArrayEquals(new int[]{10, 11, 12}, reader.readInts("x"));
+        reader.close();
+        new File(filePath).delete();
+    }
+
+}
@@ -5,10 +5,15 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 import com.roylowrance.util.CsvReader;
 import com.roylowrance.util.CsvWriter;
@@ -91,5 +96,193 @@ public class CsvReaderWriterTest {
         
         
     }
+    
+    private String writeFile(String fileName, String contents) throws IOException {
+        String filePath = "/home/roy/temp_files/" + fileName;
+        FileWriter writer = new FileWriter(filePath);
+        writer.write(contents);
+        writer.close();
+        return filePath;
+    }
+    
+    @Test // more rows than the initial capacity, so that the storage grows
+    public void testReadAllMany() throws IOException {
+        StringBuilder contents = new StringBuilder("a|b|c\n");
+        final int n = 2000;
+        for (int i = 0; i < n; i++)
+            contents.append(i).append("|").append(i + 0.5).append("|").append(-i).append("\n");
+        String filePath = writeFile("CsvReaderWriterTestMany.csv", contents.toString());
+        
+        Tensor tensor = new CsvReader(filePath, "\\|").readAll().getTensor();
+        assertEquals(n, tensor.getSize(0));
+        assertEquals(3, tensor.getSize(1));
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, tensor.get(i, 0), 0);
+            assertEquals(i + 0.5, tensor.get(i, 1), 0);
+            assertEquals(-i, tensor.get(i, 2), 0);
+        }
+        assertEquals(n * 3, tensor.getStorage().length);
+    }
+    
+    @Test // the same values when read on several threads
+    public void testReadAllThreads() throws IOException {
+        StringBuilder contents = new StringBuilder("a|b|c|d\n");
+        final int n = 200000;
+        for (int i = 0; i < n; i++)
+            contents.append(i).append("|").append(i * 0.125).append("|").append(Math.sqrt(i)).append("|").append(-i).append("\n");
+        String filePath = writeFile("CsvReaderWriterTestThreads.csv", contents.toString());
+        
+        DataFrame expected = new CsvReader(filePath, "\\|").readAll();
+        DataFrame actual = new CsvReader(filePath, "\\|").readAll(4);
+        assertEquals(expected.getNames(), actual.getNames());
+        assertEquals(n, actual.getTensor().getSize(0));
+        assertEquals(4, actual.getTensor().getSize(1));
+        assertArrayEquals(expected.getTensor().getStorage(), actual.getTensor().getStorage(), 0);
+        
+        filePath = writeFile("CsvReaderWriterTestThreadsDiffer.csv", contents.toString() + "1|2\n");
+        try {new CsvReader(filePath, "\\|").readAll(4); fail("expected exception");}
+        catch (RuntimeException e) {assertTrue(e.getMessage().contains("fields"));}
+    }
+    
+    @Test // only the named columns are kept, in the order named
+    public void testReadColumns() throws IOException {
+        String filePath = writeFile("CsvReaderWriterTestColumns.csv", "a,b,c\n1,2,not a number\n4,5,6\n");
+        DataFrame df = new CsvReader(filePath, ",").readColumns("b", "a");
+        assertEquals("b", df.getNames().get(0));
+        assertEquals("a", df.getNames().get(1));
+        Tensor tensor = df.getTensor();
+        assertEquals(2, tensor.getSize(0));
+        assertEquals(2, tensor.getSize(1));
+        assertEquals(2, tensor.get(0, 0), 0);
+        assertEquals(1, tensor.get(0, 1), 0);
+        assertEquals(5, tensor.get(1, 0), 0);
+        assertEquals(4, tensor.get(1, 1), 0);
+        assertEquals(4, df.getColumnNamed("a").get(1), 0);
+        
+        try {new CsvReader(filePath, ",").readColumns("d"); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+    
+    @Test
+    public void testReadOnlyColumn() throws IOException {
+        String filePath = writeFile("CsvReaderWriterTestOnlyColumn.csv", "x\n1.5\n-2\n3e2\n");
+        Tensor tensor = new CsvReader(filePath, "\\|").readOnlyColumn().getTensor();
+        assertEquals(1, tensor.getNDimensions());
+        assertEquals(3, tensor.getSize(0));
+        assertEquals(1.5, tensor.get(0), 0);
+        assertEquals(-2, tensor.get(1), 0);
+        assertEquals(300, tensor.get(2), 0);
+    }
+    
+    @Test // each column is read as its type; integers may have been written as doubles
+    public void testReadColumnsTyped() throws IOException {
+        final String contents = "apn|day|price|city\n8106020009|74516.0|1.5|LA\n8.106020010E9|74517|-2|LB\n9007199254740993|0|3e2|LA\n";
+        final String[] names = {"city", "apn", "day", "price"};
+        final int[] types = {DataFrame.STRING, DataFrame.LONG, DataFrame.INT, DataFrame.DOUBLE};
+        for (String separator : new String[] {"\\|", "[|]"}) { // tokenized and split by the regex
+            String filePath = writeFile("CsvReaderWriterTestTyped.csv", contents);
+            DataFrame df = new CsvReader(filePath, separator).readColumns(names, types);
+            assertEquals(3, df.getNumberRows());
+            assertEquals(DataFrame.LONG, df.getType("apn"));
+            assertArrayEquals(new long[] {8106020009L, 8106020010L, 9007199254740993L}, df.getLongs("apn"));
+            assertArrayEquals(new int[] {74516, 74517, 0}, df.getInts("day"));
+            assertArrayEquals(new double[] {1.5, -2, 300}, df.getDoubles("price"), 0);
+            assertEquals("LB", df.getString("city", 1));
+            assertArrayEquals(new int[] {0, 1, 0}, df.getStringCodes("city"));
+        }
+        
+        String filePath = writeFile("CsvReaderWriterTestTypedOnly.csv", "x\n74516.0\n-3\n");
+        DataFrame only = new CsvReader(filePath, "\\|").readOnlyColumn(DataFrame.INT);
+        assertArrayEquals(new int[] {74516, -3}, only.getInts("x"));
+        
+        filePath = writeFile("CsvReaderWriterTestTypedNotInt.csv", "day\n1\n2.5\n");
+        try {new CsvReader(filePath, "\\|").readColumns(new String[] {"day"}, new int[] {DataFrame.INT}); fail("expected exception");}
+        catch (RuntimeException e) {assertTrue(e.getMessage().contains("row 2"));}
+    }
+    
+    @Test // a separator that is not a literal character is still a regex
+    public void testRegexSeparator() throws IOException {
+        String filePath = writeFile("CsvReaderWriterTestRegex.csv", "a b\tc\n1  2\t3\n");
+        CsvReader csvReader = new CsvReader(filePath, "\\s+");
+        DataFrame df = csvReader.readAll();
+        assertEquals(3, df.getNames().size());
+        assertEquals(3, df.getTensor().get(0, 2), 0);
+        
+        // trailing empty fields are returned
+        filePath = writeFile("CsvReaderWriterTestEmpty.csv", "a|b||\n");
+        ArrayList<String> fields = new CsvReader(filePath, "\\|").next();
+        assertEquals(4, fields.size());
+        assertEquals("", fields.get(3));
+    }
+    
+    private byte[] readBytes(String filePath) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filePath, "r");
+        byte[] result = new byte[(int) file.length()];
+        file.readFully(result);
+        file.close();
+        return result;
+    }
+    
+    @Test // the bytes are those that a PrintWriter writes
+    public void testWriteSameAsPrintWriter() throws IOException {
+        Random random = new Random(22);
+        final int numberRows = 30000; // more than one block of rows
+        Tensor data = new Tensor(numberRows, 7);
+        for (int row = 0; row < numberRows; row++) {
+            data.set(row, 0, row);
+            data.set(row, 1, -row * 0.25);
+            data.set(row, 2, Math.round(random.nextDouble() * 1e8) / 100.0);
+            data.set(row, 3, random.nextGaussian());
+            data.set(row, 4, Math.sqrt(row));
+            data.set(row, 5, random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+            data.set(row, 6, (row % 3 == 0) ? -0.0 : Double.longBitsToDouble(random.nextLong()));
+        }
+        Tensor column = data.selectColumn(5);
+        
+        String expectedPath = "/home/roy/temp_files/CsvReaderWriterTestPrintWriter.csv";
+        PrintWriter printWriter = new PrintWriter(new File(expectedPath));
+        printWriter.println("a|b|c|d|e|f|g");
+        for (int i = 0; i < 3; i++)
+            for (int row = 0; row < numberRows; row++)
+                for (int c = 0; c < 7; c++)
+                    printWriter.print(data.get(row, c) + (c < 6 ? "|" : System.getProperty("line.separator")));
+        for (int row = 0; row < numberRows; row++)
+            printWriter.println(column.get(row));
+        printWriter.println(1.5 + "|" + -2.0 + "|" + 1e-7);
+        printWriter.println("x|" + 12 + "|" + 0.1 + "|" + -9223372036854775808L);
+        String nothing = null;
+        printWriter.println("a|" + nothing);
+        printWriter.println(nothing);
+        printWriter.close();
+        
+        String actualPath = "/home/roy/temp_files/CsvReaderWriterTestCsvWriter.csv";
+        CsvWriter csvWriter = new CsvWriter(actualPath, "|");
+        csvWriter.writeRow(new String[] {"a", "b", "c", "d", "e", "f", "g"});
+        csvWriter.writeRows(data);
+        csvWriter.writeRows(data, 3);
+        for (int row = 0; row < numberRows; row++)
+            csvWriter.writeRow(data.selectRow(row));
+        csvWriter.writeRows(column);
+        csvWriter.close();
+        csvWriter = new CsvWriter(actualPath, "|", true); // append
+        csvWriter.writeRow(1.5, -2.0, 1e-7);
+        csvWriter.writeField("x");
+        csvWriter.writeField(12);
+        csvWriter.writeField(0.1);
+        csvWriter.writeField(Long.MIN_VALUE);
+        csvWriter.endRow();
+        csvWriter.writeRow(new String[] {"a", nothing});
+        csvWriter.writeRow(nothing);
+        csvWriter.close();
+        
+        assertArrayEquals(readBytes(expectedPath), readBytes(actualPath));
+    }
+    
+    @Test
+    public void testRowsDiffer() throws IOException {
+        String filePath = writeFile("CsvReaderWriterTestDiffer.csv", "a|b\n1|2\n3\n");
+        try {new CsvReader(filePath, "\\|").readAll(); fail("expected exception");}
+        catch (RuntimeException e) {assertTrue(e.getMessage().contains("row 2"));}
+    }
 
 }
@@ -76,4 +76,69 @@ public class DataFrameTest {
         assertEquals(11, t.get(1), 0);
     }
 
+    @Test
+    public void testTypedColumns() {
+        DataFrame typed = new DataFrame(3);
+        double[] xs = {1.5, 2.5, 3.5};
+        long[] apns = {8106020009L, 9007199254740993L, 1};
+        typed.addDoubles("x", xs);
+        typed.addLongs("apn", apns);
+        typed.addInts("day", new int[] {74516, 74517, 74518});
+        typed.addStrings("city", new String[] {"LA", "LB", "LA"});
+        assertEquals(4, typed.getNames().size());
+        assertEquals(3, typed.getNumberRows());
+        assertEquals(DataFrame.STRING, typed.getType("city"));
+        assertEquals(3, typed.getColumnIndex("city"));
+
+        // the columns are not copied
+        assertSame(xs, typed.getDoubles("x"));
+        assertSame(apns, typed.getLongs("apn"));
+        assertEquals(9007199254740993L, typed.getLongs("apn")[1]); // not exactly a double
+        assertEquals(74517, typed.getInts("day")[1]);
+        assertEquals("LB", typed.getString("city", 1));
+        assertEquals(2, typed.getDictionary("city").size());
+        assertArrayEquals(new int[] {0, 1, 0}, typed.getStringCodes("city"));
+
+        // a double column's tensor is a view of it; an int column's is converted
+        Tensor x = typed.getColumnTensor("x");
+        assertSame(xs, x.getStorage());
+        assertEquals(2.5, x.get(1), 0);
+        assertEquals(74518, typed.getColumnTensor("day").get(2), 0);
+
+        try {typed.getLongs("day"); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+        try {typed.getTensor(); fail("expected exception");} // has a STRING column
+        catch (IllegalArgumentException e) {}
+        try {typed.addInts("short", new int[2]); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+        try {typed.addInts("day", new int[3]); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
+    @Test
+    public void testTypedGetTensor() {
+        DataFrame typed = new DataFrame(2);
+        typed.addInts("a", new int[] {0, 10});
+        typed.addDoubles("b", new double[] {1, 11});
+        typed.addLongs("c", new long[] {2, 12});
+        Tensor t = typed.getTensor();
+        for (int row = 0; row < 2; row++)
+            for (int column = 0; column < 3; column++)
+                assertEquals(10 * row + column, t.get(row, column), 0);
+        assertEquals(11, typed.getColumnNamed("b").get(1), 0);
+    }
+
+    @Test
+    public void testGetColumnTensor() {
+        // a view of a column of the tensor, sharing its storage
+        Tensor b = df.getColumnTensor("b");
+        assertEquals(1, b.getNDimensions());
+        assertEquals(2, b.getSize(0));
+        assertEquals(1, b.get(0), 0);
+        assertEquals(11, b.get(1), 0);
+        assertSame(df.getTensor().getStorage(), b.getStorage());
+        assertArrayEquals(new double[] {2, 12}, df.getDoubles("c"), 0);
+        assertEquals(DataFrame.DOUBLE, df.getType("a"));
+    }
+
 }
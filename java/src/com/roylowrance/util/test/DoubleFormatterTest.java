@@ -0,0 +1,52 @@
+package com.roylowrance.util.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import com.roylowrance.util.DoubleFormatter;
+
+public class DoubleFormatterTest {
+
+    private void assertFormatsAsToString(DoubleFormatter formatter, double x) {
+        assertEquals(Double.toString(x), formatter.toString(x));
+    }
+
+    @Test
+    public void testFormatDouble() {
+        DoubleFormatter formatter = new DoubleFormatter();
+        double[] cases = {0, -0.0, 1, -1, 0.5, 0.1, 0.2, 0.3, 1.0 / 3, 2.0 / 3, 0.001, 0.00099999, 9999999, 9999999.5,
+                1e7, 1e-3, 1.0E-4, 123456.789, 276309.6, 100, 8106020009.0, 1e23, 2e-3, Math.PI, Math.E,
+                Double.MIN_VALUE, Double.MAX_VALUE, Double.MIN_NORMAL, Double.NaN, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, 0.30000000000000004, 1234567.123456789, 0.0012345678901234};
+        for (double x : cases) {
+            assertFormatsAsToString(formatter, x);
+            assertFormatsAsToString(formatter, -x);
+        }
+
+        // the values that our programs write
+        Random random = new Random(27);
+        for (int i = 0; i < 200000; i++) {
+            assertFormatsAsToString(formatter, random.nextInt(100000000) / Math.pow(10, random.nextInt(12)));
+            assertFormatsAsToString(formatter, (random.nextLong() % 1000000000000000L) / Math.pow(10, random.nextInt(20)));
+            assertFormatsAsToString(formatter, random.nextDouble() * Math.pow(10, random.nextInt(14) - 5));
+            assertFormatsAsToString(formatter, Math.sqrt(random.nextInt(1000000)));
+            assertFormatsAsToString(formatter, (float) random.nextGaussian());
+            assertFormatsAsToString(formatter, Double.longBitsToDouble(random.nextLong()));
+        }
+    }
+
+    @Test
+    public void testFormatLong() {
+        long[] cases = {0, 1, -1, 9, 10, 99, 100, 123456789, -987654321012L, Long.MAX_VALUE, Long.MIN_VALUE};
+        byte[] bytes = new byte[DoubleFormatter.MAX_LENGTH + 1];
+        for (long n : cases) {
+            bytes[0] = 'x';
+            final int end = DoubleFormatter.format(n, bytes, 1);
+            assertEquals("x" + n, new String(bytes, 0, end));
+        }
+    }
+
+}
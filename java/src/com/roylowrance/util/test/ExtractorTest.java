@@ -10,7 +10,6 @@ import java.util.Scanner;
 
 import com.roylowrance.util.Extractor;
 import com.roylowrance.util.Log;
-import com.roylowrance.util.Exception;
 
 public class ExtractorTest {
 
@@ -24,6 +23,60 @@ public class ExtractorTest {
 		assertEquals("12-45 ", extractor.extract(input, "abc "));
 		assertEquals(" many ", extractor.extract(input, " 12 times "));
 		assertEquals(" 27", extractor.extract(input, " x y z"));
+		
+		assertEquals(0, extractor.indexOf("abc "));
+		assertEquals(2, extractor.indexOf(" x y z"));
+		try {extractor.indexOf("abc"); fail("expected exception");}
+		catch (RuntimeException e) {}
+		
+		// trailing empty fields are kept
+		try {extractor.extract("a|b", "abc "); fail("expected exception");}
+		catch (Extractor.Exception e) {}
+		assertEquals("", extractor.extract("a|b|", " x y z"));
+	}
+	
+	@Test
+	public void testSplit() {
+		Extractor extractor = new Extractor("apn|price|date|code|empty", "\\|");
+		final Extractor.Field apn = extractor.field("apn");
+		final Extractor.Field price = extractor.field("price");
+		final Extractor.Field date = extractor.field("date");
+		final Extractor.Field code = extractor.field("code");
+		final Extractor.Field empty = extractor.field("empty");
+		assertEquals(3, code.getIndex());
+		try {extractor.field("none"); fail("expected exception");}
+		catch (RuntimeException e) {}
+		
+		Extractor.Record record = extractor.split("8106020009|276309.60|2005-08-15|001|");
+		assertEquals(5, record.getNumberFields());
+		assertEquals(8106020009L, record.getLong(apn));
+		assertEquals(276309.60, record.getDouble(price), 0);
+		assertEquals(20050815, record.getDate(date));
+		assertEquals("001", record.get(code));
+		assertTrue(record.equals(code, "001"));
+		assertFalse(record.equals(code, "1"));
+		assertFalse(record.equals(code, "0010"));
+		assertTrue(record.isEmpty(empty));
+		assertEquals(3, record.length(code));
+		try {record.getLong(code); record.getLong(empty); fail("expected exception");}
+		catch (NumberFormatException e) {}
+		
+		// the record is reused; a line with the wrong number of fields is rejected
+		assertSame(record, extractor.split("1|2|20050815|x|y"));
+		assertEquals("y", record.get(empty));
+		try {extractor.split("1|2|3"); fail("expected exception");}
+		catch (Extractor.Exception e) {}
+		
+		// a separator that is not literal splits as String.split(regex, -1) does
+		Extractor regexExtractor = new Extractor("a, b;c", "[,;] *");
+		final String line = "1.5, ;";
+		Extractor.Record regexRecord = regexExtractor.split(line);
+		String[] expected = line.split("[,;] *", -1);
+		assertEquals(expected.length, regexRecord.getNumberFields());
+		assertEquals(expected[0], regexRecord.get(regexExtractor.field("a")));
+		assertEquals(1.5, regexRecord.getDouble(regexExtractor.field("a")), 0);
+		assertTrue(regexRecord.isEmpty(regexExtractor.field("b")));
+		assertTrue(regexRecord.isEmpty(regexExtractor.field("c")));
 	}
 	
 	@Test // test dates in deeds files CAC06027F?.txt
@@ -0,0 +1,172 @@
+package com.roylowrance.util.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import com.roylowrance.util.FieldTokenizer;
+
+public class FieldTokenizerTest {
+
+    private String writeFile(String fileName, String contents) throws IOException {
+        String filePath = "/home/roy/temp_files/" + fileName;
+        FileOutputStream os = new FileOutputStream(filePath);
+        os.write(contents.getBytes());
+        os.close();
+        return filePath;
+    }
+
+    private double parse(String s) {
+        byte[] bytes = ("x" + s + "y").getBytes();
+        return FieldTokenizer.parseDouble(bytes, 1, bytes.length - 1);
+    }
+
+    // assert the same bits as Double.valueOf
+    private void assertParsesAsValueOf(String s) {
+        assertEquals(s, Double.doubleToRawLongBits(Double.valueOf(s)), Double.doubleToRawLongBits(parse(s)));
+    }
+
+    @Test
+    public void testParseDouble() {
+        String[] cases = {"0", "-0", "0.0", "-0.0", "1", "+1", "1.", ".5", "-.5", "12.25", "276309.60", "1e5", "1E-5",
+                "-2.5e+3", "123456789012345", "1234567890123456789", "0.1", "0.30000000000000004", "9007199254740993",
+                "1e22", "1e23", "1e-22", "1e-23", "4.9E-324", "1.7976931348623157E308", "1e400", "007", "1.5f", "2d",
+                "NaN", "-Infinity", " 3.5 ", "0x1p3"};
+        for (String s : cases)
+            assertParsesAsValueOf(s);
+
+        // the formats that our programs write
+        Random random = new Random(19);
+        for (int i = 0; i < 100000; i++) {
+            final double x = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 8);
+            assertParsesAsValueOf(Double.toString(x));
+            assertParsesAsValueOf(String.format("%.2f", x));
+            assertParsesAsValueOf(String.format("%.6e", x));
+            assertParsesAsValueOf(Long.toString(random.nextLong() >> random.nextInt(64)));
+        }
+
+        String[] bad = {"", "-", ".", "e5", "1e", "1e+", "1..2", "1,5", "abc"};
+        for (String s : bad) {
+            try {parse(s); fail("expected exception for " + s);}
+            catch (NumberFormatException e) {}
+        }
+    }
+
+    @Test
+    public void testParseLong() {
+        String[] cases = {"0", "-0", "7", "-7", "+7", "1234567890123", "9223372036854775807", "-9223372036854775808"};
+        for (String s : cases) {
+            byte[] bytes = s.getBytes();
+            assertEquals(s, Long.valueOf(s).longValue(), FieldTokenizer.parseLong(bytes, 0, bytes.length));
+        }
+        String[] bad = {"", "-", "1.5", "9223372036854775808", "1 "};
+        for (String s : bad) {
+            byte[] bytes = s.getBytes();
+            try {FieldTokenizer.parseLong(bytes, 0, bytes.length); fail("expected exception for " + s);}
+            catch (NumberFormatException e) {}
+        }
+    }
+
+    @Test
+    public void testParseDate() {
+        byte[] bytes = "20050215|2009-11-15|2005021|2005/02/15".getBytes();
+        assertEquals(20050215, FieldTokenizer.parseDate(bytes, 0, 8));
+        assertEquals(20091115, FieldTokenizer.parseDate(bytes, 9, 19));
+        try {FieldTokenizer.parseDate(bytes, 20, 27); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+        try {FieldTokenizer.parseDate(bytes, 28, 38); fail("expected exception");}
+        catch (IllegalArgumentException e) {}
+    }
+
+    @Test // the parsers of characters agree with those of bytes
+    public void testParseCharacters() {
+        String s = "x|-276309.60|8106020009|2009-11-15|1e400|y";
+        byte[] bytes = s.getBytes();
+        assertEquals(FieldTokenizer.parseDouble(bytes, 2, 12), FieldTokenizer.parseDouble(s, 2, 12), 0);
+        assertEquals(-276309.60, FieldTokenizer.parseDouble(s, 2, 12), 0);
+        assertEquals(8106020009L, FieldTokenizer.parseLong(s, 13, 23));
+        assertEquals(20091115, FieldTokenizer.parseDate(s, 24, 34));
+        assertEquals(Double.POSITIVE_INFINITY, FieldTokenizer.parseDouble(s, 35, 40), 0);
+        try {FieldTokenizer.parseLong(s, 0, 3); fail("expected exception");}
+        catch (NumberFormatException e) {}
+    }
+
+    @Test // lines and fields are those of LineScanner and String.split(regex, -1)
+    public void testLinesAndFields() throws IOException {
+        String filePath = writeFile("FieldTokenizerTest.txt", "a|b|c\n1|2.5|20050215\r\n|x||\r\rlast|cafe");
+        FieldTokenizer tokenizer = new FieldTokenizer(filePath, '|');
+
+        assertTrue(tokenizer.next());
+        assertEquals(3, tokenizer.getNumberFields());
+        assertEquals("a|b|c", tokenizer.getLine());
+        assertEquals("c", tokenizer.getString(2));
+
+        assertTrue(tokenizer.next());
+        assertEquals(1, tokenizer.getLong(0));
+        assertEquals(2.5, tokenizer.getDouble(1), 0);
+        assertEquals(20050215, tokenizer.getDate(2));
+
+        assertTrue(tokenizer.next());
+        assertEquals(4, tokenizer.getNumberFields());
+        assertTrue(tokenizer.isEmpty(0));
+        assertEquals("x", tokenizer.getString(1));
+        assertTrue(tokenizer.isEmpty(3));
+
+        assertTrue(tokenizer.next()); // the empty line between the \r's
+        assertEquals(1, tokenizer.getNumberFields());
+        assertTrue(tokenizer.isEmpty(0));
+
+        assertTrue(tokenizer.next()); // last line has no line end
+        assertEquals("cafe", tokenizer.getString(1));
+        try {tokenizer.getString(2); fail("expected exception");}
+        catch (NoSuchElementException e) {}
+
+        assertFalse(tokenizer.next());
+        assertEquals(5, tokenizer.getNumberLinesRead());
+        tokenizer.close();
+    }
+
+    @Test // lines longer than the buffer, and many lines
+    public void testLongLines() throws IOException {
+        StringBuilder contents = new StringBuilder();
+        final int numberFields = 30000;
+        for (int line = 0; line < 3; line++) {
+            for (int i = 0; i < numberFields; i++)
+                contents.append(i == 0 ? "" : "|").append(line * numberFields + i);
+            contents.append("\r\n");
+        }
+        for (int line = 0; line < 20000; line++)
+            contents.append(line).append('\n');
+        String filePath = writeFile("FieldTokenizerTestLong.txt", contents.toString());
+
+        FieldTokenizer tokenizer = new FieldTokenizer(filePath, '|');
+        for (int line = 0; line < 3; line++) {
+            assertTrue(tokenizer.next());
+            assertEquals(numberFields, tokenizer.getNumberFields());
+            for (int i = 0; i < numberFields; i++)
+                assertEquals(line * numberFields + i, tokenizer.getLong(i));
+        }
+        for (int line = 0; line < 20000; line++) {
+            assertTrue(tokenizer.next());
+            assertEquals(line, tokenizer.getDouble(0), 0);
+        }
+        assertFalse(tokenizer.next());
+        tokenizer.close();
+    }
+
+    @Test
+    public void testLiteralSeparator() {
+        assertEquals('|', FieldTokenizer.literalSeparator("\\|"));
+        assertEquals(',', FieldTokenizer.literalSeparator(","));
+        assertEquals('\t', FieldTokenizer.literalSeparator("\t"));
+        assertEquals(-1, FieldTokenizer.literalSeparator("\\s+"));
+        assertEquals(-1, FieldTokenizer.literalSeparator("[,;]"));
+        assertEquals(-1, FieldTokenizer.literalSeparator("|"));
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.roylowrance.util.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.roylowrance.util.FieldTokenizer;
+import com.roylowrance.util.ParallelLineReader;
+
+public class ParallelLineReaderTest {
+
+    private String writeFile(String fileName, String contents) throws IOException {
+        String filePath = "/home/roy/temp_files/" + fileName;
+        FileOutputStream os = new FileOutputStream(filePath);
+        os.write(contents.getBytes());
+        os.close();
+        return filePath;
+    }
+
+    // the first field of each line of each chunk
+    private static class FirstFields implements ParallelLineReader.ChunkParser<List<Long>> {
+        public List<Long> parse(FieldTokenizer lines, int chunkIndex) {
+            List<Long> result = new ArrayList<Long>();
+            while (lines.next())
+                result.add(lines.getLong(0));
+            return result;
+        }
+    }
+
+    @Test // many chunks are returned in file order
+    public void testParse() throws IOException {
+        StringBuilder contents = new StringBuilder("header|x\n");
+        final int n = 400000;
+        for (int i = 0; i < n; i++)
+            contents.append(i).append("|some more text to make the line longer").append(i % 2 == 0 ? "\n" : "\r\n");
+        contents.setLength(contents.length() - 2); // the last line has no line end
+        String filePath = writeFile("ParallelLineReaderTest.txt", contents.toString());
+
+        ParallelLineReader reader = new ParallelLineReader(filePath, '|', 4);
+        assertEquals("header|x", reader.getFirstLine());
+        List<List<Long>> chunks = reader.parse(new FirstFields(), true);
+        assertTrue(chunks.size() > 4);
+        long expected = 0;
+        for (List<Long> chunk : chunks)
+            for (long first : chunk)
+                assertEquals(expected++, first);
+        assertEquals(n, expected);
+
+        // with the first line
+        chunks = reader.parse(new ParallelLineReader.ChunkParser<List<Long>>() {
+            public List<Long> parse(FieldTokenizer lines, int chunkIndex) {
+                List<Long> result = new ArrayList<Long>();
+                while (lines.next())
+                    result.add((long) lines.getNumberFields());
+                return result;
+            }
+        }, false);
+        int numberLines = 0;
+        for (List<Long> chunk : chunks)
+            numberLines += chunk.size();
+        assertEquals(n + 1, numberLines);
+        reader.close();
+    }
+
+    @Test
+    public void testSmallFiles() throws IOException {
+        ParallelLineReader reader = new ParallelLineReader(writeFile("ParallelLineReaderTestEmpty.txt", ""), '|', 3);
+        assertNull(reader.getFirstLine());
+        List<List<Long>> chunks = reader.parse(new FirstFields(), true);
+        assertEquals(1, chunks.size());
+        assertEquals(0, chunks.get(0).size());
+        reader.close();
+
+        reader = new ParallelLineReader(writeFile("ParallelLineReaderTestOneLine.txt", "17|a"), '|', 3);
+        assertEquals("17|a", reader.getFirstLine());
+        chunks = reader.parse(new FirstFields(), false);
+        assertEquals(1, chunks.size());
+        assertEquals(Long.valueOf(17), chunks.get(0).get(0));
+        reader.close();
+    }
+
+    @Test // an exception in a chunk is thrown by parse
+    public void testException() throws IOException {
+        ParallelLineReader reader = new ParallelLineReader(writeFile("ParallelLineReaderTestBad.txt", "h\n1\nx\n3\n"), '|', 2);
+        try {reader.parse(new FirstFields(), true); fail("expected exception");}
+        catch (NumberFormatException e) {}
+        reader.close();
+    }
+
+}
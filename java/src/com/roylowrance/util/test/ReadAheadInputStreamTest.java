@@ -0,0 +1,150 @@
+package com.roylowrance.util.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import com.roylowrance.util.CsvReader;
+import com.roylowrance.util.DataFrame;
+import com.roylowrance.util.FieldTokenizer;
+import com.roylowrance.util.LineScanner;
+import com.roylowrance.util.ReadAheadInputStream;
+
+public class ReadAheadInputStreamTest {
+    private final static String DIR = "/home/roy/temp_files/";
+
+    // write a header and numberLines lines "i|i/2", compressed if the file name ends with .gz
+    private String writeFile(String fileName, int numberLines) throws IOException {
+        String filePath = DIR + fileName;
+        OutputStream outputStream = new FileOutputStream(filePath);
+        if (fileName.endsWith(".gz"))
+            outputStream = new GZIPOutputStream(outputStream);
+        Writer writer = new OutputStreamWriter(outputStream);
+        writer.write("i|half\n");
+        for (int i = 0; i < numberLines; i++)
+            writer.write(i + "|" + (i / 2.0) + "\n");
+        writer.close();
+        return filePath;
+    }
+
+    // return the number of lines read, checking each line
+    private int checkLines(LineScanner ls) throws IOException {
+        assertEquals("i|half", ls.nextLine());
+        int i = 0;
+        while (ls.hasNextLine()) {
+            assertEquals(i + "|" + (i / 2.0), ls.nextLine());
+            i++;
+        }
+        ls.close();
+        return i;
+    }
+
+    @Test // several buffers, and a final partial buffer
+    public void testBytes() throws IOException {
+        final int numberBytes = 3 * ReadAheadInputStream.BUFFER_BYTES + 17;
+        byte[] bytes = new byte[numberBytes];
+        for (int i = 0; i < numberBytes; i++)
+            bytes[i] = (byte) (i * 31);
+        InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(bytes), "bytes");
+        assertEquals(bytes[0] & 0xff, in.read());
+        byte[] read = new byte[1000];
+        int position = 1;
+        while (true) {
+            final int n = in.read(read, 0, read.length);
+            if (n < 0)
+                break;
+            for (int i = 0; i < n; i++)
+                assertEquals(bytes[position + i], read[i]);
+            position += n;
+        }
+        assertEquals(numberBytes, position);
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), "empty");
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test // closing before the end stops the background thread
+    public void testCloseEarly() throws IOException {
+        InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(new byte[10 * ReadAheadInputStream.BUFFER_BYTES]), "early");
+        assertEquals(0, in.read());
+        in.close();
+        try {
+            in.read();
+            fail("expected IOException");
+        }
+        catch (IOException e) {}
+    }
+
+    @Test // an IOException on the background thread is thrown by read
+    public void testError() {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("disk error");
+            }
+        };
+        InputStream in = new ReadAheadInputStream(failing, "failing");
+        try {
+            in.read();
+            fail("expected IOException");
+        }
+        catch (IOException e) {}
+    }
+
+    @Test
+    public void testLineScanner() throws IOException {
+        final int numberLines = 300000; // more than one buffer
+        String filePath = writeFile("ReadAheadInputStreamTest.txt", numberLines);
+        assertEquals(numberLines, checkLines(new LineScanner(filePath)));
+        final boolean readAhead = true;
+        assertEquals(numberLines, checkLines(new LineScanner(filePath, readAhead)));
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        final int numberLines = 300000;
+        String filePath = writeFile("ReadAheadInputStreamTest.txt.gz", numberLines);
+        assertTrue(ReadAheadInputStream.isGzip(filePath));
+        assertEquals(numberLines, checkLines(new LineScanner(filePath)));
+        final boolean readAhead = true;
+        assertEquals(numberLines, checkLines(new LineScanner(filePath, readAhead)));
+
+        FieldTokenizer tokenizer = new FieldTokenizer(filePath, '|');
+        int numberRecords = 0;
+        while (tokenizer.next())
+            numberRecords++;
+        tokenizer.close();
+        assertEquals(numberLines + 1, numberRecords);
+
+        final int numberThreads = 4;
+        DataFrame dataFrame = new CsvReader(filePath, "\\|").readAll(numberThreads);
+        assertEquals(numberLines, dataFrame.getNumberRows());
+        assertEquals(numberLines - 1, dataFrame.getTensor().get(numberLines - 1, 0), 0);
+        assertEquals((numberLines - 1) / 2.0, dataFrame.getTensor().get(numberLines - 1, 1), 0);
+    }
+
+    @Test
+    public void testMissingFile() {
+        try {
+            ReadAheadInputStream.openFile(DIR + "ReadAheadInputStreamTestMissing.txt.gz");
+            fail("expected RuntimeException");
+        }
+        catch (RuntimeException e) {}
+    }
+
+}